@@ -21,9 +21,11 @@ import java.net.URI;
 import java.util.Locale;
 import java.util.Set;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 import com.google.common.base.Preconditions;
+import com.nesscomputing.httpclient.cache.CachingHttpClientFactory;
 import com.nesscomputing.httpclient.factory.httpclient4.ApacheHttpClient4Factory;
 import com.nesscomputing.httpclient.internal.HttpClientFactory;
 import com.nesscomputing.httpclient.internal.HttpClientMethod;
@@ -52,7 +54,7 @@ public final class HttpClient implements Closeable
     */
     public HttpClient(final HttpClientDefaults defaults)
     {
-        this(new ApacheHttpClient4Factory(defaults, null));
+        this(CachingHttpClientFactory.forDefaults(new ApacheHttpClient4Factory(defaults, null), defaults), defaults);
     }
 
     /**
@@ -62,7 +64,16 @@ public final class HttpClient implements Closeable
      */
     public HttpClient(final HttpClientDefaults defaults, final Set<? extends HttpClientObserver> observers)
     {
-        this(new ApacheHttpClient4Factory(defaults, observers));
+        this(createHttpClientFactory(defaults, observers), defaults);
+    }
+
+    private static HttpClientFactory createHttpClientFactory(final HttpClientDefaults defaults, final Set<? extends HttpClientObserver> observers)
+    {
+        // A response cache runs the observers above itself, so that they see the responses answered from the cache.
+        if (CachingHttpClientFactory.isEnabled(defaults)) {
+            return CachingHttpClientFactory.forDefaults(new ApacheHttpClient4Factory(defaults, null), defaults, observers);
+        }
+        return new ApacheHttpClient4Factory(defaults, observers);
     }
 
     /**
@@ -145,6 +156,15 @@ public final class HttpClient implements Closeable
         return httpClientFactory.getConnectionContext();
     }
 
+    /**
+     * @return a live view of the connection pool of this client, or null if the underlying factory does not pool connections.
+     */
+    @CheckForNull
+    public HttpClientPoolStatistics getPoolStatistics()
+    {
+        return httpClientFactory.getPoolStatistics();
+    }
+
     /**
      * Start building a GET request.
      *
@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+/**
+ * Selects how a http client executes asynchronous requests.
+ */
+public enum HttpClientAsyncMode
+{
+    /**
+     * Requests are executed by a fixed number of threads (see {@link HttpClientDefaults#getAsyncThreads()}).
+     * Additional requests are queued until a thread becomes available. When the queue is full (see
+     * {@link HttpClientDefaults#getAsyncQueueSize()}), the request fails right away.
+     */
+    BOUNDED,
+
+    /**
+     * Every request that is in flight gets its own thread. Threads are reused when they become idle and go away
+     * after a short time. No request is ever queued, the number of concurrent requests is only limited by the
+     * connection pool.
+     */
+    UNBOUNDED;
+}
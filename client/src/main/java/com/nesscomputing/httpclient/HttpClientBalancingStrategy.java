@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+/**
+ * Selects how a request to a logical service picks one of the endpoints of the service.
+ */
+public enum HttpClientBalancingStrategy
+{
+    /**
+     * Every endpoint gets the same share of requests, in turn.
+     */
+    ROUND_ROBIN,
+
+    /**
+     * Send the request to the endpoint with the fewest requests in flight. Ties are broken in turn.
+     */
+    LEAST_OUTSTANDING,
+
+    /**
+     * Pick two endpoints at random and send the request to the one with fewer requests in flight. Almost as good
+     * as {@link #LEAST_OUTSTANDING} at avoiding slow endpoints, but does not send bursts to a single endpoint
+     * that just became idle.
+     */
+    POWER_OF_TWO_CHOICES;
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import javax.management.MXBean;
+
+/**
+ * Counters for compressed request bodies of a http client. Registered as a JMX MBean for every client bound through
+ * {@link com.nesscomputing.httpclient.guice.HttpClientModule} that compresses requests.
+ */
+@MXBean
+public interface HttpClientCompressionStatistics
+{
+    /**
+     * Content encoding used for request bodies.
+     */
+    String getEncoding();
+
+    /**
+     * Number of request bodies that were compressed.
+     */
+    long getCompressedRequests();
+
+    /**
+     * Number of request bodies that were sent uncompressed because they were too small or already encoded.
+     */
+    long getUncompressedRequests();
+
+    /**
+     * Number of bytes in request bodies before compression.
+     */
+    long getBytesIn();
+
+    /**
+     * Number of bytes in request bodies after compression, as sent on the wire.
+     */
+    long getBytesOut();
+
+    /**
+     * Bytes after compression divided by bytes before compression.
+     */
+    double getCompressionRatio();
+
+    /**
+     * Average CPU time in microseconds to compress and write a request body.
+     */
+    long getAverageCpuTimeMicros();
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import java.util.Map;
+
+import javax.management.MXBean;
+
+/**
+ * State of the adaptive concurrency limits of a http client. Registered as a JMX MBean for every client bound through
+ * {@link com.nesscomputing.httpclient.guice.HttpClientModule} that has concurrency limits enabled.
+ */
+@MXBean
+public interface HttpClientConcurrencyStatistics
+{
+    /**
+     * Current limit for requests in flight from the client.
+     */
+    int getLimit();
+
+    /**
+     * Number of requests in flight from the client.
+     */
+    int getInFlight();
+
+    /**
+     * Number of requests waiting for the client or a host limit.
+     */
+    int getQueued();
+
+    /**
+     * Number of requests that were rejected by the client or a host limit.
+     */
+    long getRejected();
+
+    /**
+     * Current limit for every host, keyed by <tt>scheme://host:port</tt>.
+     */
+    Map<String, Integer> getRouteLimits();
+
+    /**
+     * Number of requests in flight to every host, keyed by <tt>scheme://host:port</tt>.
+     */
+    Map<String, Integer> getRouteInFlight();
+}
@@ -47,7 +47,8 @@ public interface HttpClientConnectionContext
 
     void setSocketTimeout(long socketTimeout);
     /**
-     * Timeout for a request sent until a response must arrive.
+     * Timeout for a request sent until a response must arrive and has been processed. Requests that take longer
+     * are aborted. If 0, requests never time out.
      */
     void setRequestTimeout(long reqTimeout);
 
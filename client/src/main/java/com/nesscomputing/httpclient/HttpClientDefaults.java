@@ -139,7 +139,8 @@ public class HttpClientDefaults
     /**
      * Default is 3.
      *
-     * @return Maximum number of retries for a request.
+     * @return Maximum number of times a failed request is retried. Only idempotent requests, or requests carrying
+     *         the idempotency key header, are retried.
      */
     @Config({"ness.httpclient.${httpclient_name}.retries", "ness.httpclient.retries"})
     @Default("3")
@@ -148,6 +149,511 @@ public class HttpClientDefaults
         return 3;
     }
 
+    /**
+     * Default is 16.
+     *
+     * @return Maximum number of threads used to execute asynchronous requests.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.async-threads", "ness.httpclient.async-threads"})
+    @Default("16")
+    public int getAsyncThreads()
+    {
+        return 16;
+    }
+
+    /**
+     * Default is BOUNDED.
+     *
+     * @return How threads are allocated to asynchronous requests.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.async-mode", "ness.httpclient.async-mode"})
+    @Default("BOUNDED")
+    public HttpClientAsyncMode getAsyncMode()
+    {
+        return HttpClientAsyncMode.BOUNDED;
+    }
+
+    /**
+     * Default is 1024.
+     *
+     * @return Maximum number of asynchronous requests that wait for a thread in BOUNDED mode. Requests beyond that fail
+     * with a {@link java.util.concurrent.RejectedExecutionException}.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.async-queue-size", "ness.httpclient.async-queue-size"})
+    @Default("1024")
+    public int getAsyncQueueSize()
+    {
+        return 1024;
+    }
+
+    /**
+     * Default is STANDARD.
+     *
+     * @return The connection pool implementation to use.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.pool-mode", "ness.httpclient.pool-mode"})
+    @Default("STANDARD")
+    public HttpClientPoolMode getPoolMode()
+    {
+        return HttpClientPoolMode.STANDARD;
+    }
+
+    /**
+     * Default is ROUND_ROBIN.
+     *
+     * @return How requests to a logical service are distributed over its endpoints.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.balancing-strategy", "ness.httpclient.balancing-strategy"})
+    @Default("ROUND_ROBIN")
+    public HttpClientBalancingStrategy getBalancingStrategy()
+    {
+        return HttpClientBalancingStrategy.ROUND_ROBIN;
+    }
+
+    /**
+     * Default is 95.
+     *
+     * @return Percentile of the latency of recent hedged requests after which a request hedged without an explicit delay sends its second copy.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.hedge-percentile", "ness.httpclient.hedge-percentile"})
+    @Default("95")
+    public int getHedgePercentile()
+    {
+        return 95;
+    }
+
+    /**
+     * Default is 5.
+     *
+     * @return Maximum number of hedges sent, in percent of the hedged requests. Keeps hedging from amplifying an overload.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.hedge-budget-percent", "ness.httpclient.hedge-budget-percent"})
+    @Default("5")
+    public int getHedgeBudgetPercent()
+    {
+        return 5;
+    }
+
+    /**
+     * Default is false.
+     *
+     * @return true if identical GET and HEAD requests that are in flight at the same time share a single request to the
+     *         server. Every caller gets its own copy of the response body, which is read into memory. Observers see
+     *         the shared response only once.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.coalesce-requests", "ness.httpclient.coalesce-requests"})
+    @Default("false")
+    public boolean isCoalesceRequests()
+    {
+        return false;
+    }
+
+    /**
+     * Default is 0 (do not cache).
+     *
+     * @return Maximum size of the cached GET responses in bytes. Responses are cached and revalidated following their
+     *         Cache-Control, Expires, ETag and Last-Modified headers.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.cache.max-size", "ness.httpclient.cache.max-size"})
+    @Default("0")
+    public long getCacheMaxSize()
+    {
+        return 0L;
+    }
+
+    /**
+     * Default is 1048576 (1 MB).
+     *
+     * @return Largest response body that is cached, in bytes.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.cache.max-entry-size", "ness.httpclient.cache.max-entry-size"})
+    @Default("1048576")
+    public int getCacheMaxEntrySize()
+    {
+        return 1048576;
+    }
+
+    /**
+     * Default is null (no disk cache).
+     *
+     * @return Directory for the disk tier of the response cache. Responses that are evicted from memory or that are
+     *         larger than the max entry size are kept in memory mapped files in this directory and survive a restart.
+     *         Each client needs its own directory.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.cache.disk.directory", "ness.httpclient.cache.disk.directory"})
+    @DefaultNull
+    public String getCacheDiskDirectory()
+    {
+        return null;
+    }
+
+    /**
+     * Default is 1073741824 (1 GB).
+     *
+     * @return Maximum size of the disk cache in bytes. The oldest segment file is removed when the cache grows larger.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.cache.disk.max-size", "ness.httpclient.cache.disk.max-size"})
+    @Default("1073741824")
+    public long getCacheDiskMaxSize()
+    {
+        return 1073741824L;
+    }
+
+    /**
+     * Default is 67108864 (64 MB).
+     *
+     * @return Size of a segment file of the disk cache in bytes. Also limits the size of a response on disk.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.cache.disk.segment-size", "ness.httpclient.cache.disk.segment-size"})
+    @Default("67108864")
+    public int getCacheDiskSegmentSize()
+    {
+        return 67108864;
+    }
+
+    /**
+     * Default is false.
+     *
+     * @return true if response bodies in the disk cache are compressed with LZ4.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.cache.disk.compress", "ness.httpclient.cache.disk.compress"})
+    @Default("false")
+    public boolean isCacheDiskCompress()
+    {
+        return false;
+    }
+
+    /**
+     * Default is 0 (use the resolver and the cache of the JVM).
+     *
+     * @return How long resolved host names are cached by the client. Frequently used names are
+     *         refreshed in the background before they expire.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.dns-cache-ttl", "ness.httpclient.dns-cache-ttl"})
+    @Default("0s")
+    public TimeSpan getDnsCacheTtl()
+    {
+        return new TimeSpan(0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is 5 seconds. Only used if the dns cache ttl is set.
+     *
+     * @return How long failed host name lookups are cached by the client.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.dns-negative-cache-ttl", "ness.httpclient.dns-negative-cache-ttl"})
+    @Default("5s")
+    public TimeSpan getDnsNegativeCacheTtl()
+    {
+        return new TimeSpan(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is no routes.
+     *
+     * @return Comma separated list of URIs (e.g. "http://example.com:8080,https://example.com") to
+     *         open connections to when the client is started.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.warmup-routes", "ness.httpclient.warmup-routes"})
+    @DefaultNull
+    public String getWarmupRoutes()
+    {
+        return null;
+    }
+
+    /**
+     * Default is 1. Capped at the number of connections allowed to a single host/port combination.
+     *
+     * @return Number of connections to open to each warmup route.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.warmup-connections-per-route", "ness.httpclient.warmup-connections-per-route"})
+    @Default("1")
+    public int getWarmupConnectionsPerRoute()
+    {
+        return 1;
+    }
+
+    /**
+     * Default is 10 seconds.
+     *
+     * @return Maximum time to wait for warmup connections when the client is started.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.warmup-timeout", "ness.httpclient.warmup-timeout"})
+    @Default("10s")
+    public TimeSpan getWarmupTimeout()
+    {
+        return new TimeSpan(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is 50 milliseconds.
+     *
+     * @return Upper bound of the random delay before the first retry. Doubles with every further retry.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.retry.initial-backoff", "ness.httpclient.retry.initial-backoff"})
+    @Default("50ms")
+    public TimeSpan getRetryInitialBackoff()
+    {
+        return new TimeSpan(50, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Default is 5 seconds.
+     *
+     * @return Maximum delay before a retry.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.retry.max-backoff", "ness.httpclient.retry.max-backoff"})
+    @Default("5s")
+    public TimeSpan getRetryMaxBackoff()
+    {
+        return new TimeSpan(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is 30 seconds.
+     *
+     * @return Longest Retry-After of a 429 or 503 response that is still honored. Responses asking for a longer delay are
+     *         returned to the caller.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.retry.max-retry-after", "ness.httpclient.retry.max-retry-after"})
+    @Default("30s")
+    public TimeSpan getRetryMaxRetryAfter()
+    {
+        return new TimeSpan(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is 20.
+     *
+     * @return Maximum number of retries, in percent of the requests of the client. Keeps retries from multiplying
+     *         the load on a struggling server.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.retry.budget-percent", "ness.httpclient.retry.budget-percent"})
+    @Default("20")
+    public int getRetryBudgetPercent()
+    {
+        return 20;
+    }
+
+    /**
+     * Default is "Idempotency-Key".
+     *
+     * @return Name of the header that marks a non-idempotent request (e.g. a POST) as safe to retry.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.retry.idempotency-key-header", "ness.httpclient.retry.idempotency-key-header"})
+    @Default("Idempotency-Key")
+    public String getIdempotencyKeyHeader()
+    {
+        return "Idempotency-Key";
+    }
+
+    /**
+     * Default is 0 (no limit).
+     *
+     * @return Maximum number of requests per second sent to each host.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.rate-limit", "ness.httpclient.rate-limit"})
+    @Default("0")
+    public int getRateLimit()
+    {
+        return 0;
+    }
+
+    /**
+     * Default is 0 (same as the rate limit, i.e. one second worth of requests).
+     *
+     * @return Number of requests that may be sent to a host at once after it was idle.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.rate-limit.burst", "ness.httpclient.rate-limit.burst"})
+    @Default("0")
+    public int getRateLimitBurst()
+    {
+        return 0;
+    }
+
+    /**
+     * Default is BLOCK.
+     *
+     * @return What happens to requests that exceed the rate limit.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.rate-limit.mode", "ness.httpclient.rate-limit.mode"})
+    @Default("BLOCK")
+    public HttpClientRateLimitMode getRateLimitMode()
+    {
+        return HttpClientRateLimitMode.BLOCK;
+    }
+
+    /**
+     * Default is 5 seconds.
+     *
+     * @return Longest time a request waits for the rate limit in BLOCK mode. Requests that would have to wait longer
+     *         fail right away.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.rate-limit.max-wait", "ness.httpclient.rate-limit.max-wait"})
+    @Default("5s")
+    public TimeSpan getRateLimitMaxWait()
+    {
+        return new TimeSpan(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is false.
+     *
+     * @return true if the number of requests in flight is limited, for the whole client and for every host. The limits adapt
+     *         to the observed round trip times. Requests over the limit wait in a short queue or fail with a
+     *         {@link ConcurrencyLimitException}.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.concurrency-limit.enabled", "ness.httpclient.concurrency-limit.enabled"})
+    @Default("false")
+    public boolean isConcurrencyLimitEnabled()
+    {
+        return false;
+    }
+
+    /**
+     * Default is 20.
+     *
+     * @return Concurrency limit before any round trip times were observed.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.concurrency-limit.initial-limit", "ness.httpclient.concurrency-limit.initial-limit"})
+    @Default("20")
+    public int getConcurrencyLimitInitialLimit()
+    {
+        return 20;
+    }
+
+    /**
+     * Default is 1.
+     *
+     * @return Lower bound for the concurrency limit.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.concurrency-limit.min-limit", "ness.httpclient.concurrency-limit.min-limit"})
+    @Default("1")
+    public int getConcurrencyLimitMinLimit()
+    {
+        return 1;
+    }
+
+    /**
+     * Default is 200.
+     *
+     * @return Upper bound for the concurrency limit.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.concurrency-limit.max-limit", "ness.httpclient.concurrency-limit.max-limit"})
+    @Default("200")
+    public int getConcurrencyLimitMaxLimit()
+    {
+        return 200;
+    }
+
+    /**
+     * Default is 50.
+     *
+     * @return Maximum number of requests that wait for the concurrency limit. Further requests are rejected right away.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.concurrency-limit.max-queue", "ness.httpclient.concurrency-limit.max-queue"})
+    @Default("50")
+    public int getConcurrencyLimitMaxQueue()
+    {
+        return 50;
+    }
+
+    /**
+     * Default is 1 second.
+     *
+     * @return Maximum time a request waits for the concurrency limit.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.concurrency-limit.max-queue-wait", "ness.httpclient.concurrency-limit.max-queue-wait"})
+    @Default("1s")
+    public TimeSpan getConcurrencyLimitMaxQueueWait()
+    {
+        return new TimeSpan(1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is false.
+     *
+     * @return true if requests to a host that keeps failing should fail fast with a {@link CircuitOpenException}.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.circuit-breaker.enabled", "ness.httpclient.circuit-breaker.enabled"})
+    @Default("false")
+    public boolean isCircuitBreakerEnabled()
+    {
+        return false;
+    }
+
+    /**
+     * Default is 10 seconds.
+     *
+     * @return Length of the rolling window over which failures of a host are counted.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.circuit-breaker.window", "ness.httpclient.circuit-breaker.window"})
+    @Default("10s")
+    public TimeSpan getCircuitBreakerWindow()
+    {
+        return new TimeSpan(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is 20.
+     *
+     * @return Minimum number of requests in the window before the circuit can open.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.circuit-breaker.minimum-requests", "ness.httpclient.circuit-breaker.minimum-requests"})
+    @Default("20")
+    public int getCircuitBreakerMinimumRequests()
+    {
+        return 20;
+    }
+
+    /**
+     * Default is 50.
+     *
+     * @return Percentage of failed requests in the window that opens the circuit.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.circuit-breaker.failure-percent", "ness.httpclient.circuit-breaker.failure-percent"})
+    @Default("50")
+    public int getCircuitBreakerFailurePercent()
+    {
+        return 50;
+    }
+
+    /**
+     * Default is 0 (latency is not considered).
+     *
+     * @return Requests that take longer than this to receive a response are counted as failures.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.circuit-breaker.slow-request-threshold", "ness.httpclient.circuit-breaker.slow-request-threshold"})
+    @Default("0s")
+    public TimeSpan getCircuitBreakerSlowRequestThreshold()
+    {
+        return new TimeSpan(0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is 5 seconds.
+     *
+     * @return Time an open circuit rejects requests before probe requests are let through.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.circuit-breaker.open-duration", "ness.httpclient.circuit-breaker.open-duration"})
+    @Default("5s")
+    public TimeSpan getCircuitBreakerOpenDuration()
+    {
+        return new TimeSpan(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Default is 3.
+     *
+     * @return Number of probe requests that must succeed to close the circuit again.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.circuit-breaker.half-open-probes", "ness.httpclient.circuit-breaker.half-open-probes"})
+    @Default("3")
+    public int getCircuitBreakerHalfOpenProbes()
+    {
+        return 3;
+    }
+
     /**
      * This would be used to verify server certs that aren't signed by a standard CA.
      *
@@ -248,10 +754,43 @@ public class HttpClientDefaults
         return "JKS";
     }
 
+    /**
+     * Default is "auto".
+     *
+     * @return Accept-Encoding header sent with every request that does not have one. "auto" advertises the codings of
+     *         the default {@link com.nesscomputing.httpclient.io.ContentCodecRegistry}, which are "lz4,gzip,deflate"
+     *         unless more were registered. An empty value sends no header.
+     */
     @Config({"ness.httpclient.${httpclient_name}.accept-encoding", "ness.httpclient.accept-encoding"})
-    @Default("lz4,gzip,deflate")
+    @Default("auto")
     public String getDefaultAcceptEncoding()
     {
-        return "lz4,gzip,deflate";
+        return "auto";
+    }
+
+    /**
+     * Default is null (request bodies are not compressed).
+     *
+     * @return Content encoding for POST and PUT request bodies. Can be "lz4", "gzip", "deflate" or any other coding
+     *         of the default {@link com.nesscomputing.httpclient.io.ContentCodecRegistry}. The server must understand
+     *         the encoding.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.request-compression.encoding", "ness.httpclient.request-compression.encoding"})
+    @DefaultNull
+    public String getRequestCompressionEncoding()
+    {
+        return null;
+    }
+
+    /**
+     * Default is 1024.
+     *
+     * @return Smallest request body in bytes that is compressed. Bodies of unknown length are always compressed.
+     */
+    @Config({"ness.httpclient.${httpclient_name}.request-compression.min-size", "ness.httpclient.request-compression.min-size"})
+    @Default("1024")
+    public long getRequestCompressionMinSize()
+    {
+        return 1024L;
     }
 }
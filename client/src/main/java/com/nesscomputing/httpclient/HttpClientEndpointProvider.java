@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import java.net.URI;
+import java.util.List;
+
+/**
+ * Resolves a logical service to the endpoints that serve it. A request to a service URI, e.g.
+ * <tt>srvc://user-service/users/1</tt>, is sent to one of the endpoints of the service, selected by the
+ * configured {@link HttpClientBalancingStrategy}. Must be thread safe; is called for every request to a service.
+ */
+public interface HttpClientEndpointProvider
+{
+    /** URI scheme for requests to a logical service. */
+    String SERVICE_SCHEME = "srvc";
+
+    /**
+     * @return Base URIs (scheme, host, port and an optional path prefix) of all endpoints of the service,
+     *         e.g. <tt>http://10.0.0.1:8080</tt>. Empty if the service is unknown.
+     */
+    List<URI> getEndpoints(String service);
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import javax.management.MXBean;
+
+/**
+ * Counters for hedged requests of a http client. Registered as a JMX MBean for every client bound through
+ * {@link com.nesscomputing.httpclient.guice.HttpClientModule}.
+ */
+@MXBean
+public interface HttpClientHedgingStatistics
+{
+    /**
+     * Number of requests that asked to be hedged.
+     */
+    long getHedgedRequests();
+
+    /**
+     * Number of second requests that were sent.
+     */
+    long getHedgesSent();
+
+    /**
+     * Number of second requests whose response was used.
+     */
+    long getHedgesWon();
+
+    /**
+     * Number of second requests that were not sent because the hedge budget was exhausted.
+     */
+    long getHedgesRejected();
+
+    /**
+     * Current delay in milliseconds for requests that are hedged based on the latency of earlier requests, or -1 if not
+     * enough requests were seen yet.
+     */
+    long getHedgeDelayMillis();
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+/**
+ * Selects the connection pool implementation of a http client.
+ */
+public enum HttpClientPoolMode
+{
+    /**
+     * The pool that comes with the underlying http client library. Every lease and release of a connection
+     * takes a single, pool-wide lock.
+     */
+    STANDARD,
+
+    /**
+     * A pool that keeps connections for each route separately. Leasing and releasing a connection does not
+     * take any lock unless a thread has to wait for a connection, so it scales with the number of cores.
+     */
+    STRIPED;
+}
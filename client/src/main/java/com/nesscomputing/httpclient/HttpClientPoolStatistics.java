@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import java.util.Map;
+
+import javax.management.MXBean;
+
+/**
+ * Live view of the connection pool of a http client. All numbers are sampled at the time of the call
+ * without locking the pool, so they may be slightly inconsistent with each other under load.
+ *
+ * Registered as a JMX MBean for every client bound through {@link com.nesscomputing.httpclient.guice.HttpClientModule}.
+ */
+@MXBean
+public interface HttpClientPoolStatistics
+{
+    /**
+     * The maximum number of connections in the pool.
+     */
+    int getMaxTotal();
+
+    /**
+     * The number of connections allowed to a single route unless configured otherwise.
+     */
+    int getDefaultMaxPerRoute();
+
+    /**
+     * Number of connections currently handed out to requests.
+     */
+    int getLeased();
+
+    /**
+     * Number of open connections in the pool that are waiting to be reused.
+     */
+    int getIdle();
+
+    /**
+     * Number of requests waiting for a connection.
+     */
+    int getPending();
+
+    /**
+     * Per route numbers, keyed by the target host of the route (e.g. "http://example.com:80").
+     */
+    Map<String, HttpClientRouteStatistics> getRoutes();
+
+    /**
+     * Upper bounds (in milliseconds, inclusive) of the lease wait time histogram buckets. The last bucket is unbounded.
+     */
+    long [] getLeaseWaitBuckets();
+
+    /**
+     * Number of connection leases whose wait time fell into each bucket of {@link #getLeaseWaitBuckets()}. Has one
+     * element more than the bucket array; the last element counts all leases that waited longer than the last bound.
+     */
+    long [] getLeaseWaitCounts();
+
+    /**
+     * Number of connection requests that timed out or were aborted while waiting for a connection.
+     */
+    long getLeaseFailures();
+}
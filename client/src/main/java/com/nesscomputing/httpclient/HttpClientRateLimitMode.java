@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+/**
+ * Selects what happens to a request that exceeds the rate limit of its host.
+ */
+public enum HttpClientRateLimitMode
+{
+    /**
+     * The request waits until the rate limit allows it, up to {@link HttpClientDefaults#getRateLimitMaxWait()}.
+     */
+    BLOCK,
+
+    /**
+     * The request fails right away with a {@link RateLimitExceededException}.
+     */
+    FAIL_FAST;
+}
@@ -16,15 +16,19 @@
 package com.nesscomputing.httpclient;
 
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.servlet.http.Cookie;
@@ -35,10 +39,12 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.nesscomputing.httpclient.internal.HttpClientBodySource;
 import com.nesscomputing.httpclient.internal.HttpClientFactory;
 import com.nesscomputing.httpclient.internal.HttpClientHeader;
 import com.nesscomputing.httpclient.internal.HttpClientMethod;
+import com.nesscomputing.httpclient.io.StreamingContent;
 
 
 /**
@@ -61,6 +67,8 @@ public class HttpClientRequest<T>
     private String contentType = null;
     private String contentEncoding = null;
     private Boolean followRedirects = null;
+    private Long requestTimeout = null;
+    private Long hedgeDelay = null;
     private List<HttpClientAuthProvider> authProviders = null;
 
     private HttpClientRequest(final HttpClientFactory httpClientFactory,
@@ -76,7 +84,9 @@ public class HttpClientRequest<T>
                               final Object content,
                               final String contentType,
                               final String contentEncoding,
-                              final Boolean followRedirects)
+                              final Boolean followRedirects,
+                              final Long requestTimeout,
+                              final Long hedgeDelay)
     {
         Preconditions.checkArgument(headers != null, "headers must not be null!");
         Preconditions.checkArgument(cookies != null, "cookies must not be null!");
@@ -102,6 +112,8 @@ public class HttpClientRequest<T>
         this.contentEncoding = contentEncoding;
 
         this.followRedirects = followRedirects;
+        this.requestTimeout = requestTimeout;
+        this.hedgeDelay = hedgeDelay;
 
         if (content != null) {
             httpBodySource = httpClientFactory.getHttpBodySourceFor(content);
@@ -214,6 +226,23 @@ public class HttpClientRequest<T>
         return followRedirects;
     }
 
+    /**
+     * @return the overall timeout for this request in milliseconds, or null if the client default should be used.
+     */
+    public Long getRequestTimeout()
+    {
+        return requestTimeout;
+    }
+
+    /**
+     * @return the delay in milliseconds after which a second copy of this request is sent, 0 if the delay is
+     *         taken from the latency of earlier requests, or null if the request is not hedged.
+     */
+    public Long getHedgeDelay()
+    {
+        return hedgeDelay;
+    }
+
     /**
      * Execute the HTTP request and return the result.
      */
@@ -223,6 +252,14 @@ public class HttpClientRequest<T>
         return httpClientFactory.performRequest(this);
     }
 
+    /**
+     * Execute the HTTP request asynchronously. The future completes with the result of the response handler.
+     */
+    public ListenableFuture<T> performAsync()
+    {
+        return httpClientFactory.performRequestAsync(this);
+    }
+
     //
     // =========================================================
     //
@@ -266,12 +303,22 @@ public class HttpClientRequest<T>
         private String contentEncoding;
 
         private Boolean followRedirects;
+        private Long requestTimeout;
+        private Long hedgeDelay;
 
         private final List<HttpClientAuthProvider> authProviders = Lists.newArrayList();
 
         public static <T> Builder<T> fromRequest(final HttpClientRequest<T> request)
         {
-            return new Builder<T>(request);
+            return new Builder<T>(request, request.getHttpHandler());
+        }
+
+        /**
+         * Copy a request but use a different response handler for it.
+         */
+        public static <T> Builder<T> fromRequest(final HttpClientRequest<?> request, final HttpClientResponseHandler<T> httpHandler)
+        {
+            return new Builder<T>(request, httpHandler);
         }
 
         <T> Builder(final HttpClientFactory httpClientFactory, final HttpClientMethod httpMethod, final URI url, final HttpClientResponseHandler<Type> httpHandler)
@@ -282,9 +329,9 @@ public class HttpClientRequest<T>
             this.httpHandler = httpHandler;
         }
 
-        <T> Builder(final HttpClientRequest<Type> request)
+        <T> Builder(final HttpClientRequest<?> request, final HttpClientResponseHandler<Type> httpHandler)
         {
-            this (request.getHttpClientFactory(), request.getHttpMethod(), request.getUri(), request.getHttpHandler());
+            this (request.getHttpClientFactory(), request.getHttpMethod(), request.getUri(), httpHandler);
 
             this.headers.addAll(request.getHeaders());
             this.cookies.addAll(request.getCookies());
@@ -297,6 +344,8 @@ public class HttpClientRequest<T>
             this.contentType = request.getContentType();
             this.contentEncoding = request.getContentEncoding();
             this.followRedirects = request.followRedirects();
+            this.requestTimeout = request.getRequestTimeout();
+            this.hedgeDelay = request.getHedgeDelay();
         }
 
         public Builder<Type> setUrl(final URI url)
@@ -470,6 +519,46 @@ public class HttpClientRequest<T>
             return this;
         }
 
+        /**
+         * Create the content for a POST or PUT request from a file. The file is not read onto the heap and can be
+         * sent again on retries.
+         */
+        public Builder<Type> setContent(final Path content)
+        {
+            this.content = content;
+            return this;
+        }
+
+        /**
+         * Create the content for a POST or PUT request from a file. The file is not read onto the heap and can be
+         * sent again on retries.
+         */
+        public Builder<Type> setContent(final File content)
+        {
+            this.content = content;
+            return this;
+        }
+
+        /**
+         * Create the content for a POST or PUT request from the remaining bytes of a heap or direct buffer. The
+         * buffer must not be changed until the request is complete.
+         */
+        public Builder<Type> setContent(final ByteBuffer content)
+        {
+            this.content = content;
+            return this;
+        }
+
+        /**
+         * Create the content for a POST or PUT request that is written into the request as it is sent, e.g.
+         * {@link com.nesscomputing.httpclient.io.JsonContent}.
+         */
+        public Builder<Type> setContent(final StreamingContent content)
+        {
+            this.content = content;
+            return this;
+        }
+
         /**
          * Add basic authentication information.
          * @param user Username to use when authentication is requested.
@@ -498,6 +587,58 @@ public class HttpClientRequest<T>
             return this;
         }
 
+        /**
+         * Set the overall timeout for this request, overriding the client default. When the timeout expires before the
+         * response has been received and processed, the request is aborted.
+         *
+         * @param requestTimeout the timeout. 0 disables the timeout for this request.
+         * @param unit unit for requestTimeout.
+         */
+        public Builder<Type> setRequestTimeout(final long requestTimeout, @Nonnull final TimeUnit unit)
+        {
+            Preconditions.checkArgument(requestTimeout >= 0, "request timeout must not be negative!");
+            Preconditions.checkArgument(unit != null, "unit must not be null!");
+
+            this.requestTimeout = unit.toMillis(requestTimeout);
+            return this;
+        }
+
+        /**
+         * Hedge this request: if no response has arrived after the given delay, send a second copy (to another endpoint
+         * for a logical service) and use whichever response arrives first. The other request is aborted. Hedges are
+         * only sent while the hedge budget of the client allows it. Only GET and HEAD requests can be hedged. Both
+         * requests read their response into memory, the response handler only sees the response that arrived first.
+         *
+         * @param delay time to wait for a response before sending the second request.
+         * @param unit unit for delay.
+         */
+        public Builder<Type> hedge(final long delay, @Nonnull final TimeUnit unit)
+        {
+            Preconditions.checkArgument(delay > 0, "hedge delay must be positive!");
+            Preconditions.checkArgument(unit != null, "unit must not be null!");
+            checkHedgeable();
+
+            this.hedgeDelay = unit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * Hedge this request after the latency that the configured percentile ({@link HttpClientDefaults#getHedgePercentile()})
+         * of the recent hedged requests of this client stayed below. See {@link #hedge(long, TimeUnit)}.
+         */
+        public Builder<Type> hedge()
+        {
+            checkHedgeable();
+
+            this.hedgeDelay = 0L;
+            return this;
+        }
+
+        private void checkHedgeable()
+        {
+            Preconditions.checkState(httpMethod == HttpClientMethod.GET || httpMethod == HttpClientMethod.HEAD, "only GET and HEAD requests can be hedged!");
+        }
+
         /**
          * Create a HttpClientRequest from the builder. The object is disconnected from the builder and the builder can be reused.
          */
@@ -517,7 +658,9 @@ public class HttpClientRequest<T>
                             content,
                             contentType,
                             contentEncoding,
-                            followRedirects);
+                            followRedirects,
+                            requestTimeout,
+                            hedgeDelay);
 
             return httpClientRequest;
         }
@@ -531,6 +674,15 @@ public class HttpClientRequest<T>
         {
             return request().perform();
         }
+
+        /**
+         * Builds a HttpClientRequest from the builder and executes it asynchronously.
+         * @return A future for the return value of the request.
+         */
+        public ListenableFuture<Type> performAsync()
+        {
+            return request().performAsync();
+        }
     }
 
     @Override
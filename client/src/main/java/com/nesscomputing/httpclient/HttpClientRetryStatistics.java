@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import javax.management.MXBean;
+
+/**
+ * Counters for retried requests of a http client. Registered as a JMX MBean for every client bound through
+ * {@link com.nesscomputing.httpclient.guice.HttpClientModule}.
+ */
+@MXBean
+public interface HttpClientRetryStatistics
+{
+    /**
+     * Number of retries that were sent.
+     */
+    long getRetriesAttempted();
+
+    /**
+     * Number of retries that were not sent because the retry budget was exhausted.
+     */
+    long getRetriesSuppressed();
+
+    /**
+     * Number of requests that still failed after the maximum number of retries.
+     */
+    long getRetriesExhausted();
+}
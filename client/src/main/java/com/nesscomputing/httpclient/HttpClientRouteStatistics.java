@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import java.beans.ConstructorProperties;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Connection pool numbers for a single route. Immutable snapshot.
+ */
+public final class HttpClientRouteStatistics
+{
+    private final int leased;
+    private final int idle;
+    private final int pending;
+    private final int max;
+
+    @ConstructorProperties({"leased", "idle", "pending", "max"})
+    public HttpClientRouteStatistics(final int leased, final int idle, final int pending, final int max)
+    {
+        this.leased = leased;
+        this.idle = idle;
+        this.pending = pending;
+        this.max = max;
+    }
+
+    /**
+     * Number of connections to this route currently handed out to requests.
+     */
+    public int getLeased()
+    {
+        return leased;
+    }
+
+    /**
+     * Number of open connections to this route that are waiting to be reused.
+     */
+    public int getIdle()
+    {
+        return idle;
+    }
+
+    /**
+     * Number of requests waiting for a connection to this route.
+     */
+    public int getPending()
+    {
+        return pending;
+    }
+
+    /**
+     * Maximum number of connections allowed to this route.
+     */
+    public int getMax()
+    {
+        return max;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this).append("leased", leased).append("idle", idle).append("pending", pending).append("max", max).toString();
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import java.io.IOException;
+
+/**
+ * Thrown without sending a request when it would exceed the rate limit of its host.
+ *
+ * @see HttpClientDefaults#getRateLimit()
+ */
+public class RateLimitExceededException extends IOException
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String route;
+
+    public RateLimitExceededException(final String route, final int rateLimit)
+    {
+        super(String.format("Rate limit of %d requests per second exceeded for %s", rateLimit, route));
+        this.route = route;
+    }
+
+    /**
+     * @return the host whose rate limit was exceeded, e.g. <tt>http://10.0.0.1:8080</tt>.
+     */
+    public String getRoute()
+    {
+        return route;
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.balancer;
+
+import java.net.URI;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Multimap;
+
+import com.nesscomputing.httpclient.HttpClientEndpointProvider;
+
+/**
+ * Serves a fixed list of endpoints for every service.
+ */
+public class StaticEndpointProvider implements HttpClientEndpointProvider
+{
+    private final ImmutableListMultimap<String, URI> endpoints;
+
+    public StaticEndpointProvider(final Multimap<String, URI> endpoints)
+    {
+        Preconditions.checkArgument(endpoints != null, "endpoints can not be null!");
+        this.endpoints = ImmutableListMultimap.copyOf(endpoints);
+    }
+
+    @Override
+    public List<URI> getEndpoints(final String service)
+    {
+        return endpoints.get(service);
+    }
+}
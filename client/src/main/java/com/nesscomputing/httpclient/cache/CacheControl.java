@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.cache;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Maps;
+
+/**
+ * Directives of the Cache-Control headers of a request or a response.
+ */
+final class CacheControl
+{
+    private static final Splitter DIRECTIVE_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private final Map<String, String> directives;
+
+    private CacheControl(final Map<String, String> directives)
+    {
+        this.directives = directives;
+    }
+
+    static CacheControl parse(@Nullable final List<String> headerValues)
+    {
+        final Map<String, String> directives = Maps.newHashMap();
+        if (headerValues != null) {
+            for (final String headerValue : headerValues) {
+                for (final String directive : DIRECTIVE_SPLITTER.split(StringUtils.trimToEmpty(headerValue))) {
+                    final int index = directive.indexOf('=');
+                    if (index < 0) {
+                        directives.put(directive.toLowerCase(Locale.ENGLISH), "");
+                    }
+                    else {
+                        final String value = StringUtils.strip(directive.substring(index + 1).trim(), "\"");
+                        directives.put(directive.substring(0, index).trim().toLowerCase(Locale.ENGLISH), value);
+                    }
+                }
+            }
+        }
+        return new CacheControl(directives);
+    }
+
+    boolean has(final String directive)
+    {
+        return directives.containsKey(directive);
+    }
+
+    /**
+     * @return the value of a directive in seconds, or null if the directive is missing or not a number.
+     */
+    @CheckForNull
+    Long getSeconds(final String directive)
+    {
+        final String value = directives.get(directive);
+        if (value != null) {
+            try {
+                return Math.max(0L, Long.parseLong(value));
+            }
+            catch (NumberFormatException nfe) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
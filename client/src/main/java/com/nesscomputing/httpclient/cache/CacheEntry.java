@@ -0,0 +1,268 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.cache;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.internal.HttpClientHeader;
+
+/**
+ * A cached response and the information needed to decide whether it is still fresh (RFC 7234, section 4.2).
+ * All times are wall clock milliseconds.
+ */
+final class CacheEntry
+{
+    private static final Splitter VARY_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private final CachedResponse response;
+    private final Map<String, String> varyValues;
+    private final long requestTime;
+    private final long responseTime;
+    private final long correctedInitialAge;
+    private final long freshnessLifetime;
+    private final boolean noCache;
+
+    CacheEntry(final CachedResponse response, final Map<String, String> varyValues, final long requestTime, final long responseTime)
+    {
+        this.response = response;
+        this.varyValues = varyValues;
+        this.requestTime = requestTime;
+        this.responseTime = responseTime;
+
+        final long dateValue = Objects.firstNonNull(parseDate(response.getHeader("Date")), responseTime);
+        final long apparentAge = Math.max(0L, responseTime - dateValue);
+        final long correctedAgeValue = getAgeValue(response) + (responseTime - requestTime);
+        this.correctedInitialAge = Math.max(apparentAge, correctedAgeValue);
+
+        final CacheControl cacheControl = CacheControl.parse(response.getHeaders("Cache-Control"));
+        this.noCache = cacheControl.has("no-cache");
+        this.freshnessLifetime = getFreshnessLifetime(cacheControl, response, dateValue);
+    }
+
+    /**
+     * Check whether a response can be stored. Only responses with an explicit lifetime or a validator are stored;
+     * this is a shared cache, so "private" responses are not.
+     */
+    static boolean isStorable(final HttpClientResponse response)
+    {
+        final CacheControl cacheControl = CacheControl.parse(response.getHeaders("Cache-Control"));
+        if (cacheControl.has("no-store") || cacheControl.has("private")) {
+            return false;
+        }
+
+        for (final String vary : getVary(response)) {
+            if ("*".equals(vary)) {
+                return false;
+            }
+        }
+
+        return cacheControl.has("max-age")
+            || cacheControl.has("s-maxage")
+            || response.getHeader("Expires") != null
+            || response.getHeader("ETag") != null
+            || response.getHeader("Last-Modified") != null;
+    }
+
+    /**
+     * @return the values of the request headers named by the Vary header of the response.
+     */
+    static Map<String, String> getVaryValues(final HttpClientResponse response, final HttpClientRequest<?> request)
+    {
+        final ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+        for (final String vary : getVary(response)) {
+            builder.put(vary.toLowerCase(Locale.ENGLISH), getRequestHeader(request, vary));
+        }
+        return builder.build();
+    }
+
+    private static List<String> getVary(final HttpClientResponse response)
+    {
+        final List<String> result = Lists.newArrayList();
+        for (final String headerValue : response.getHeaders("Vary")) {
+            for (final String vary : VARY_SPLITTER.split(headerValue)) {
+                result.add(vary);
+            }
+        }
+        return result;
+    }
+
+    private static String getRequestHeader(final HttpClientRequest<?> request, final String name)
+    {
+        final List<String> values = Lists.newArrayList();
+        for (final HttpClientHeader header : request.getHeaders()) {
+            if (StringUtils.equalsIgnoreCase(header.getName(), name)) {
+                values.add(StringUtils.trimToEmpty(header.getValue()));
+            }
+        }
+        return Joiner.on(',').join(values);
+    }
+
+    private static long getFreshnessLifetime(final CacheControl cacheControl, final HttpClientResponse response, final long dateValue)
+    {
+        final Long sharedMaxAge = cacheControl.getSeconds("s-maxage");
+        if (sharedMaxAge != null) {
+            return TimeUnit.SECONDS.toMillis(sharedMaxAge);
+        }
+
+        final Long maxAge = cacheControl.getSeconds("max-age");
+        if (maxAge != null) {
+            return TimeUnit.SECONDS.toMillis(maxAge);
+        }
+
+        final Long expires = parseDate(response.getHeader("Expires"));
+        if (expires != null) {
+            return Math.max(0L, expires - dateValue);
+        }
+
+        // No heuristic freshness, the response must be validated before it is used again.
+        return 0L;
+    }
+
+    private static long getAgeValue(final HttpClientResponse response)
+    {
+        final String age = StringUtils.trimToNull(response.getHeader("Age"));
+        if (age != null) {
+            try {
+                return TimeUnit.SECONDS.toMillis(Math.max(0L, Long.parseLong(age)));
+            }
+            catch (NumberFormatException nfe) {
+                return 0L;
+            }
+        }
+        return 0L;
+    }
+
+    @CheckForNull
+    private static Long parseDate(@CheckForNull final String value)
+    {
+        if (value != null) {
+            try {
+                final Date date = DateUtils.parseDate(value);
+                return date.getTime();
+            }
+            catch (DateParseException dpe) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return an entry for the same response, updated with the headers of a "304 Not Modified" response.
+     */
+    CacheEntry revalidate(final HttpClientResponse notModified, final long requestTime, final long responseTime)
+    {
+        return new CacheEntry(response.withHeaders(notModified.getAllHeaders()), varyValues, requestTime, responseTime);
+    }
+
+    /**
+     * @return an entry for the same response with a different body.
+     */
+    CacheEntry withBody(final CachedBody body)
+    {
+        return new CacheEntry(response.withBody(body), varyValues, requestTime, responseTime);
+    }
+
+    CachedResponse getResponse()
+    {
+        return response;
+    }
+
+    Map<String, String> getVaryValues()
+    {
+        return varyValues;
+    }
+
+    long getRequestTime()
+    {
+        return requestTime;
+    }
+
+    long getResponseTime()
+    {
+        return responseTime;
+    }
+
+    int getWeight()
+    {
+        return response.getWeight();
+    }
+
+    /**
+     * @return true if the request selects the same variant of the resource as the request that fetched this entry.
+     */
+    boolean matches(final HttpClientRequest<?> request)
+    {
+        for (final Map.Entry<String, String> vary : varyValues.entrySet()) {
+            if (!vary.getValue().equals(getRequestHeader(request, vary.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long getCurrentAge(final long now)
+    {
+        return correctedInitialAge + Math.max(0L, now - responseTime);
+    }
+
+    /**
+     * @param maxAge Oldest response the request accepts, or null if the request does not limit the age.
+     */
+    boolean isFresh(final long now, @CheckForNull final Long maxAge)
+    {
+        final long currentAge = getCurrentAge(now);
+        if (noCache || currentAge >= freshnessLifetime) {
+            return false;
+        }
+        return maxAge == null || currentAge <= maxAge;
+    }
+
+    @CheckForNull
+    String getETag()
+    {
+        return response.getHeader("ETag");
+    }
+
+    @CheckForNull
+    String getLastModified()
+    {
+        return response.getHeader("Last-Modified");
+    }
+
+    boolean hasValidators()
+    {
+        return getETag() != null || getLastModified() != null;
+    }
+}
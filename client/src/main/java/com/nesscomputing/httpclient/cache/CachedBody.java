@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Body of a cached response. Can be read any number of times.
+ */
+abstract class CachedBody
+{
+    /**
+     * @return a new stream with the complete body.
+     */
+    abstract InputStream open() throws IOException;
+
+    /**
+     * @return the length of the body in bytes, as it was received from the server.
+     */
+    abstract long getLength();
+
+    /**
+     * @return number of heap bytes held by this body.
+     */
+    abstract int getHeapSize();
+
+    static CachedBody forBytes(final byte [] body)
+    {
+        return new HeapBody(body);
+    }
+
+    /**
+     * A body kept in a byte array on the heap.
+     */
+    static final class HeapBody extends CachedBody
+    {
+        private final byte [] body;
+
+        private HeapBody(final byte [] body)
+        {
+            this.body = body;
+        }
+
+        byte [] getBytes()
+        {
+            return body;
+        }
+
+        @Override
+        InputStream open()
+        {
+            return new ByteArrayInputStream(body);
+        }
+
+        @Override
+        long getLength()
+        {
+            return body.length;
+        }
+
+        @Override
+        int getHeapSize()
+        {
+            return body.length;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.collect.ImmutableList;
+
+import com.nesscomputing.httpclient.HttpClientResponse;
+
+/**
+ * A response stored in the cache. The body can be read any number of times.
+ */
+@Immutable
+final class CachedResponse implements HttpClientResponse
+{
+    /** Rough per entry overhead in bytes, used to weigh cache entries. */
+    private static final int OVERHEAD = 256;
+
+    private final int statusCode;
+    private final String statusText;
+    private final URI uri;
+    private final String contentType;
+    private final String charset;
+    private final Map<String, List<String>> headers;
+    private final CachedBody body;
+
+    CachedResponse(final int statusCode,
+                           final String statusText,
+                           final URI uri,
+                           final String contentType,
+                           final String charset,
+                           final Map<String, List<String>> headers,
+                           final CachedBody body)
+    {
+        this.statusCode = statusCode;
+        this.statusText = statusText;
+        this.uri = uri;
+        this.contentType = contentType;
+        this.charset = charset;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    static CachedResponse of(final HttpClientResponse response, final CachedBody body)
+    {
+        return new CachedResponse(response.getStatusCode(),
+                                  response.getStatusText(),
+                                  response.getUri(),
+                                  response.getContentType(),
+                                  response.getCharset(),
+                                  copyHeaders(response.getAllHeaders(), Collections.<String, List<String>>emptyMap()),
+                                  body);
+    }
+
+    /**
+     * @return a copy of this response with a different body.
+     */
+    CachedResponse withBody(final CachedBody body)
+    {
+        return new CachedResponse(statusCode, statusText, uri, contentType, charset, headers, body);
+    }
+
+    /**
+     * @return a copy of this response with the headers of a "304 Not Modified" response applied to it.
+     */
+    CachedResponse withHeaders(final Map<String, List<String>> updatedHeaders)
+    {
+        return new CachedResponse(statusCode, statusText, uri, contentType, charset, copyHeaders(headers, updatedHeaders), body);
+    }
+
+    static Map<String, List<String>> copyHeaders(final Map<String, List<String>> headers, final Map<String, List<String>> updatedHeaders)
+    {
+        final Map<String, List<String>> result = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (final Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            result.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+        }
+        for (final Map.Entry<String, List<String>> entry : updatedHeaders.entrySet()) {
+            // The length of a 304 response is not the length of the cached body.
+            if (!StringUtils.equalsIgnoreCase(entry.getKey(), "Content-Length")) {
+                result.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @return approximate number of bytes used by this response.
+     */
+    int getWeight()
+    {
+        int weight = OVERHEAD + body.getHeapSize();
+        for (final Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            for (final String value : entry.getValue()) {
+                weight += 2 * (entry.getKey().length() + value.length());
+            }
+        }
+        return weight;
+    }
+
+    CachedBody getBody()
+    {
+        return body;
+    }
+
+    @Override
+    public int getStatusCode()
+    {
+        return statusCode;
+    }
+
+    @Override
+    public String getStatusText()
+    {
+        return statusText;
+    }
+
+    @Override
+    public InputStream getResponseBodyAsStream() throws IOException
+    {
+        return body.open();
+    }
+
+    @Override
+    public URI getUri()
+    {
+        return uri;
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    @Override
+    @CheckForNull
+    public Long getContentLength()
+    {
+        return body.getLength();
+    }
+
+    @Override
+    @CheckForNull
+    public String getCharset()
+    {
+        return charset;
+    }
+
+    @Override
+    @CheckForNull
+    public String getHeader(final String name)
+    {
+        final List<String> values = headers.get(name);
+        return (values == null || values.isEmpty()) ? null : values.get(0);
+    }
+
+    @Override
+    @Nonnull
+    public List<String> getHeaders(final String name)
+    {
+        final List<String> values = headers.get(name);
+        return (values == null) ? Collections.<String>emptyList() : values;
+    }
+
+    @Override
+    @Nonnull
+    public Map<String, List<String>> getAllHeaders()
+    {
+        return headers;
+    }
+
+    @Override
+    public boolean isRedirected()
+    {
+        return (statusCode >= 300) && (statusCode <= 399);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("CachedResponse [statusCode=%d, uri=%s, contentType=%s, length=%d]", statusCode, uri, contentType, body.getLength());
+    }
+}
@@ -0,0 +1,812 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.nesscomputing.httpclient.HttpClientConnectionContext;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientObserver;
+import com.nesscomputing.httpclient.HttpClientPoolStatistics;
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientResponseHandler;
+import com.nesscomputing.httpclient.internal.HttpClientBodySource;
+import com.nesscomputing.httpclient.internal.HttpClientFactory;
+import com.nesscomputing.httpclient.internal.HttpClientHeader;
+import com.nesscomputing.httpclient.internal.HttpClientMethod;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Caches GET responses of another factory, following the rules of RFC 7234 for a shared cache.
+ *
+ * Fresh responses are answered from memory without contacting the server. Stale responses that carry an ETag or a
+ * Last-Modified header are validated with a conditional request and reused if the server answers "304 Not Modified".
+ * The response handler of every request sees a complete response, whether it came from the cache or not, so all
+ * existing handlers and converters work unchanged.
+ *
+ * The cache is bounded by the size of the cached responses in bytes and evicts the least recently used ones first.
+ * Requests with credentials, cookies or their own conditional headers bypass the cache. POST, PUT and DELETE
+ * requests that succeed remove the cached response for their URI.
+ *
+ * With a {@link DiskResponseStore}, responses that are evicted from memory or that are too large for the memory
+ * cache are kept on disk. A body that is too large for memory is streamed to disk as it is received, so it must
+ * announce its length with a Content-Length header to be cached. Responses found on disk are served from the mapped
+ * segment files and keep only their headers on the heap.
+ *
+ * Fresh hits are answered on the calling thread, also by {@link #performRequestAsync(HttpClientRequest)}.
+ *
+ * Observers of a cached client are run by the cache, not by the factory that sends the requests. The cache decides
+ * about a request after the observers changed it, so e.g. an Authorization header added by an observer bypasses the
+ * cache, and the observers see every response, also the ones answered from the cache.
+ */
+public class CachingHttpClientFactory implements HttpClientFactory, HttpClientCacheStatistics
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final Set<Integer> CACHEABLE_STATUS_CODES = ImmutableSet.of(200, 203, 300, 301, 404, 410);
+
+    private static final byte [] NO_BODY = new byte[0];
+
+    private static final Set<String> BYPASS_HEADERS = ImmutableSet.of(HttpHeaders.IF_MATCH.toLowerCase(Locale.ENGLISH),
+                                                                      HttpHeaders.IF_NONE_MATCH.toLowerCase(Locale.ENGLISH),
+                                                                      HttpHeaders.IF_MODIFIED_SINCE.toLowerCase(Locale.ENGLISH),
+                                                                      HttpHeaders.IF_UNMODIFIED_SINCE.toLowerCase(Locale.ENGLISH),
+                                                                      "if-range",
+                                                                      HttpHeaders.RANGE.toLowerCase(Locale.ENGLISH),
+                                                                      HttpHeaders.AUTHORIZATION.toLowerCase(Locale.ENGLISH));
+
+    private final HttpClientFactory delegate;
+    private final Set<? extends HttpClientObserver> httpClientObservers;
+    private final int maxEntrySize;
+    private final Cache<String, CacheEntry> cache;
+    private final DiskResponseStore diskStore;
+
+    private final AtomicLong size = new AtomicLong(0L);
+    private final AtomicLong hits = new AtomicLong(0L);
+    private final AtomicLong misses = new AtomicLong(0L);
+    private final AtomicLong revalidations = new AtomicLong(0L);
+    private final AtomicLong notModified = new AtomicLong(0L);
+    private final AtomicLong evictions = new AtomicLong(0L);
+    private final AtomicLong diskHits = new AtomicLong(0L);
+
+    /**
+     * @param delegate The factory that sends the requests.
+     * @param maxSize Maximum size of all cached responses, in bytes.
+     * @param maxEntrySize Maximum size of a single cached response body, in bytes. Larger responses are not cached.
+     */
+    public CachingHttpClientFactory(@Nonnull final HttpClientFactory delegate, final long maxSize, final int maxEntrySize)
+    {
+        this(delegate, maxSize, maxEntrySize, null);
+    }
+
+    /**
+     * @param delegate The factory that sends the requests.
+     * @param maxSize Maximum size of all responses cached in memory, in bytes.
+     * @param maxEntrySize Maximum size of a single response body cached in memory, in bytes. Larger responses are
+     *        only cached on disk.
+     * @param diskStore Disk tier of the cache. Closed when the factory is stopped.
+     */
+    public CachingHttpClientFactory(@Nonnull final HttpClientFactory delegate, final long maxSize, final int maxEntrySize, @Nullable final DiskResponseStore diskStore)
+    {
+        this(delegate, maxSize, maxEntrySize, diskStore, null);
+    }
+
+    /**
+     * @param delegate The factory that sends the requests. Must not run the observers itself.
+     * @param maxSize Maximum size of all responses cached in memory, in bytes.
+     * @param maxEntrySize Maximum size of a single response body cached in memory, in bytes. Larger responses are
+     *        only cached on disk.
+     * @param diskStore Disk tier of the cache. Closed when the factory is stopped.
+     * @param httpClientObservers Observers of the client, run before the cache looks at a request.
+     */
+    public CachingHttpClientFactory(@Nonnull final HttpClientFactory delegate,
+                                    final long maxSize,
+                                    final int maxEntrySize,
+                                    @Nullable final DiskResponseStore diskStore,
+                                    @Nullable final Set<? extends HttpClientObserver> httpClientObservers)
+    {
+        Preconditions.checkArgument(delegate != null, "delegate can not be null!");
+        Preconditions.checkArgument(maxSize > 0, "max size must be positive!");
+        Preconditions.checkArgument(maxEntrySize > 0, "max entry size must be positive!");
+
+        this.delegate = delegate;
+        this.httpClientObservers = httpClientObservers;
+        this.maxEntrySize = maxEntrySize;
+        this.diskStore = diskStore;
+        this.cache = CacheBuilder.newBuilder()
+            .maximumWeight(maxSize)
+            .weigher(new Weigher<String, CacheEntry>() {
+                @Override
+                public int weigh(final String key, final CacheEntry entry)
+                {
+                    return entry.getWeight();
+                }
+            })
+            .removalListener(new RemovalListener<String, CacheEntry>() {
+                @Override
+                public void onRemoval(final RemovalNotification<String, CacheEntry> notification)
+                {
+                    size.addAndGet(-notification.getValue().getWeight());
+                    if (notification.getCause() == RemovalCause.SIZE) {
+                        evictions.incrementAndGet();
+                        spill(notification.getKey(), notification.getValue());
+                    }
+                }
+            })
+            .build();
+    }
+
+    /**
+     * @return true if the defaults enable the response cache.
+     */
+    public static boolean isEnabled(@Nonnull final HttpClientDefaults clientDefaults)
+    {
+        return clientDefaults.getCacheMaxSize() > 0;
+    }
+
+    /**
+     * Wrap a factory into a cache if the defaults enable the response cache.
+     */
+    public static HttpClientFactory forDefaults(@Nonnull final HttpClientFactory delegate, @Nonnull final HttpClientDefaults clientDefaults)
+    {
+        return forDefaults(delegate, clientDefaults, null);
+    }
+
+    /**
+     * Wrap a factory into a cache that runs the observers of the client. Must only be called if the defaults enable
+     * the response cache, otherwise the observers belong on the delegate.
+     */
+    public static HttpClientFactory forDefaults(@Nonnull final HttpClientFactory delegate,
+                                                @Nonnull final HttpClientDefaults clientDefaults,
+                                                @Nullable final Set<? extends HttpClientObserver> httpClientObservers)
+    {
+        if (isEnabled(clientDefaults)) {
+            final long maxSize = clientDefaults.getCacheMaxSize();
+            LOG.debug("Caching up to %d bytes of responses", maxSize);
+            return new CachingHttpClientFactory(delegate, maxSize, clientDefaults.getCacheMaxEntrySize(), getDiskStore(clientDefaults), httpClientObservers);
+        }
+
+        Preconditions.checkArgument(CollectionUtils.isEmpty(httpClientObservers), "observers can only be run by an enabled cache!");
+        return delegate;
+    }
+
+    @CheckForNull
+    private static DiskResponseStore getDiskStore(final HttpClientDefaults clientDefaults)
+    {
+        final String directory = StringUtils.trimToNull(clientDefaults.getCacheDiskDirectory());
+        if (directory == null) {
+            return null;
+        }
+
+        try {
+            return new DiskResponseStore(new File(directory),
+                                         clientDefaults.getCacheDiskMaxSize(),
+                                         clientDefaults.getCacheDiskSegmentSize(),
+                                         clientDefaults.isCacheDiskCompress());
+        }
+        catch (IOException ioe) {
+            // The cache works without its disk tier.
+            LOG.warn(ioe, "Could not open disk cache in '%s'", directory);
+            return null;
+        }
+    }
+
+    /**
+     * @return the factory that sends the requests.
+     */
+    public HttpClientFactory getDelegate()
+    {
+        return delegate;
+    }
+
+    @Override
+    public void start()
+    {
+        delegate.start();
+    }
+
+    @Override
+    public void stop()
+    {
+        delegate.stop();
+        cache.invalidateAll();
+        if (diskStore != null) {
+            diskStore.close();
+        }
+    }
+
+    @Override
+    public boolean isStarted()
+    {
+        return delegate.isStarted();
+    }
+
+    @Override
+    public boolean isStopped()
+    {
+        return delegate.isStopped();
+    }
+
+    @Override
+    public HttpClientConnectionContext getConnectionContext()
+    {
+        return delegate.getConnectionContext();
+    }
+
+    @Override
+    @CheckForNull
+    public HttpClientPoolStatistics getPoolStatistics()
+    {
+        return delegate.getPoolStatistics();
+    }
+
+    @Override
+    @CheckForNull
+    public HttpClientBodySource getHttpBodySourceFor(final Object content)
+    {
+        return delegate.getHttpBodySourceFor(content);
+    }
+
+    @Override
+    public <T> T performRequest(final HttpClientRequest<T> incomingRequest) throws IOException
+    {
+        final HttpClientRequest<T> request = observing(incomingRequest);
+
+        if (isInvalidating(request)) {
+            return delegate.performRequest(invalidating(request));
+        }
+        if (!isCacheable(request)) {
+            return delegate.performRequest(request);
+        }
+
+        final String key = getKey(request);
+        final CacheEntry entry = find(key, request);
+        if (isFresh(entry, request)) {
+            return request.getHttpHandler().handle(entry.getResponse());
+        }
+        return delegate.performRequest(caching(key, request, entry));
+    }
+
+    @Override
+    public <T> ListenableFuture<T> performRequestAsync(final HttpClientRequest<T> incomingRequest)
+    {
+        final HttpClientRequest<T> request;
+        try {
+            request = observing(incomingRequest);
+        }
+        catch (IOException ioe) {
+            return Futures.immediateFailedFuture(ioe);
+        }
+        catch (RuntimeException re) {
+            return Futures.immediateFailedFuture(re);
+        }
+
+        if (isInvalidating(request)) {
+            return delegate.performRequestAsync(invalidating(request));
+        }
+        if (!isCacheable(request)) {
+            return delegate.performRequestAsync(request);
+        }
+
+        final String key = getKey(request);
+        final CacheEntry entry = find(key, request);
+        if (isFresh(entry, request)) {
+            try {
+                return Futures.immediateFuture(request.getHttpHandler().handle(entry.getResponse()));
+            }
+            catch (IOException ioe) {
+                return Futures.immediateFailedFuture(ioe);
+            }
+            catch (RuntimeException re) {
+                return Futures.immediateFailedFuture(re);
+            }
+        }
+        return delegate.performRequestAsync(caching(key, request, entry));
+    }
+
+    @Override
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    @Override
+    public long getRevalidations()
+    {
+        return revalidations.get();
+    }
+
+    @Override
+    public long getNotModified()
+    {
+        return notModified.get();
+    }
+
+    @Override
+    public double getHitRatio()
+    {
+        return ratio(hits.get());
+    }
+
+    @Override
+    public double getMissRatio()
+    {
+        return ratio(misses.get());
+    }
+
+    @Override
+    public double getRevalidationRatio()
+    {
+        return ratio(revalidations.get());
+    }
+
+    @Override
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    @Override
+    public long getEntries()
+    {
+        return cache.size();
+    }
+
+    @Override
+    public long getSize()
+    {
+        return size.get();
+    }
+
+    @Override
+    public long getDiskHits()
+    {
+        return diskHits.get();
+    }
+
+    @Override
+    public long getDiskEntries()
+    {
+        return (diskStore == null) ? 0L : diskStore.getEntries();
+    }
+
+    @Override
+    public long getDiskSize()
+    {
+        return (diskStore == null) ? 0L : diskStore.getSize();
+    }
+
+    private double ratio(final long count)
+    {
+        final long requests = hits.get() + misses.get() + revalidations.get();
+        return (requests == 0) ? 0.0 : (double) count / requests;
+    }
+
+    /**
+     * Runs the request through the observers and lets them see the response before the handler of the request does.
+     */
+    private <T> HttpClientRequest<T> observing(final HttpClientRequest<T> incomingRequest) throws IOException
+    {
+        if (CollectionUtils.isEmpty(httpClientObservers)) {
+            return incomingRequest;
+        }
+
+        HttpClientRequest<T> request = incomingRequest;
+        for (HttpClientObserver observer : httpClientObservers) {
+            request = observer.<T>onRequestSubmitted(request);
+        }
+
+        final HttpClientResponseHandler<T> httpHandler = request.getHttpHandler();
+        return HttpClientRequest.Builder.fromRequest(request, new HttpClientResponseHandler<T>() {
+            @Override
+            public T handle(final HttpClientResponse response) throws IOException
+            {
+                HttpClientResponse observedResponse = response;
+                for (HttpClientObserver observer : httpClientObservers) {
+                    observedResponse = observer.onResponseReceived(observedResponse);
+                }
+                return httpHandler.handle(observedResponse);
+            }
+        }).request();
+    }
+
+    private static boolean isInvalidating(final HttpClientRequest<?> request)
+    {
+        final HttpClientMethod method = request.getHttpMethod();
+        return method == HttpClientMethod.POST || method == HttpClientMethod.PUT || method == HttpClientMethod.DELETE;
+    }
+
+    private static boolean isCacheable(final HttpClientRequest<?> request)
+    {
+        if (request.getHttpMethod() != HttpClientMethod.GET
+            || CollectionUtils.isNotEmpty(request.getAuthProviders())
+            || CollectionUtils.isNotEmpty(request.getCookies())) {
+            return false;
+        }
+
+        for (final HttpClientHeader header : request.getHeaders()) {
+            if (BYPASS_HEADERS.contains(header.getName().toLowerCase(Locale.ENGLISH))) {
+                return false;
+            }
+        }
+
+        return !getRequestCacheControl(request).has("no-store");
+    }
+
+    private static String getKey(final HttpClientRequest<?> request)
+    {
+        final String virtualHost = request.getVirtualHost();
+        final URI uri = request.getUri();
+        return (virtualHost == null) ? uri.toString() : uri + " " + virtualHost + ":" + request.getVirtualPort();
+    }
+
+    private static CacheControl getRequestCacheControl(final HttpClientRequest<?> request)
+    {
+        final List<String> values = Lists.newArrayList();
+        for (final HttpClientHeader header : request.getHeaders()) {
+            if (StringUtils.equalsIgnoreCase(header.getName(), HttpHeaders.CACHE_CONTROL)
+                || StringUtils.equalsIgnoreCase(header.getName(), HttpHeaders.PRAGMA)) {
+                values.add(header.getValue());
+            }
+        }
+        return CacheControl.parse(values);
+    }
+
+    /**
+     * @return the cached response for the request, fresh or not, or null if nothing usable is cached.
+     */
+    @CheckForNull
+    private CacheEntry find(final String key, final HttpClientRequest<?> request)
+    {
+        CacheEntry entry = cache.getIfPresent(key);
+        if (entry == null && diskStore != null) {
+            entry = diskStore.get(key);
+            if (entry != null) {
+                diskHits.incrementAndGet();
+                LOG.trace("Found %s on disk", key);
+                // Only the headers of a mapped response are on the heap.
+                put(key, entry);
+            }
+        }
+        return (entry != null && entry.matches(request)) ? entry : null;
+    }
+
+    private boolean isFresh(@Nullable final CacheEntry entry, final HttpClientRequest<?> request)
+    {
+        if (entry == null) {
+            return false;
+        }
+
+        final CacheControl requestCacheControl = getRequestCacheControl(request);
+        if (requestCacheControl.has("no-cache")) {
+            return false;
+        }
+
+        final Long maxAge = requestCacheControl.getSeconds("max-age");
+        if (entry.isFresh(System.currentTimeMillis(), (maxAge == null) ? null : TimeUnit.SECONDS.toMillis(maxAge))) {
+            hits.incrementAndGet();
+            LOG.trace("Cache hit for %s", request.getUri());
+            return true;
+        }
+        return false;
+    }
+
+    private <T> HttpClientRequest<T> caching(final String key, final HttpClientRequest<T> request, @Nullable final CacheEntry entry)
+    {
+        final CacheEntry stale = (entry != null && entry.hasValidators()) ? entry : null;
+
+        final HttpClientRequest.Builder<T> builder = HttpClientRequest.Builder.fromRequest(request, new CachingHandler<T>(key, request, stale));
+        if (stale != null) {
+            revalidations.incrementAndGet();
+            LOG.trace("Revalidating %s", key);
+
+            final String etag = stale.getETag();
+            if (etag != null) {
+                builder.replaceHeader(HttpHeaders.IF_NONE_MATCH, etag);
+            }
+            final String lastModified = stale.getLastModified();
+            if (lastModified != null) {
+                builder.replaceHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+            }
+        }
+        else {
+            misses.incrementAndGet();
+            LOG.trace("Cache miss for %s", key);
+        }
+        return builder.request();
+    }
+
+    private <T> HttpClientRequest<T> invalidating(final HttpClientRequest<T> request)
+    {
+        final String key = getKey(request);
+        final HttpClientResponseHandler<T> httpHandler = request.getHttpHandler();
+
+        return HttpClientRequest.Builder.fromRequest(request, new HttpClientResponseHandler<T>() {
+            @Override
+            public T handle(final HttpClientResponse response) throws IOException
+            {
+                if (response.getStatusCode() < 400) {
+                    invalidate(key);
+                }
+                return httpHandler.handle(response);
+            }
+        }).request();
+    }
+
+    /**
+     * Store an entry. Bodies that are too large for memory go to disk and are kept in memory as mapped bodies.
+     *
+     * @return the entry as it was stored.
+     */
+    private CacheEntry store(final String key, final CacheEntry entry)
+    {
+        final CachedBody body = entry.getResponse().getBody();
+        if (diskStore != null && (body.getLength() > maxEntrySize || body instanceof DiskResponseStore.MappedBody)) {
+            try {
+                final CachedBody storedBody = diskStore.put(key, entry);
+                if (storedBody == null) {
+                    invalidate(key);
+                    return entry;
+                }
+                final CacheEntry storedEntry = entry.withBody(storedBody);
+                put(key, storedEntry);
+                return storedEntry;
+            }
+            catch (IOException ioe) {
+                LOG.warn(ioe, "Could not store %s on disk", key);
+                invalidate(key);
+                return entry;
+            }
+        }
+
+        if (body.getLength() > maxEntrySize) {
+            return entry;
+        }
+        put(key, entry);
+        return entry;
+    }
+
+    private void put(final String key, final CacheEntry entry)
+    {
+        size.addAndGet(entry.getWeight());
+        cache.put(key, entry);
+    }
+
+    private void invalidate(final String key)
+    {
+        cache.invalidate(key);
+        if (diskStore != null) {
+            diskStore.remove(key);
+        }
+    }
+
+    /**
+     * Move an entry that was evicted from memory to disk.
+     */
+    private void spill(final String key, final CacheEntry entry)
+    {
+        if (diskStore != null && entry.getResponse().getBody() instanceof CachedBody.HeapBody) {
+            try {
+                diskStore.put(key, entry);
+            }
+            catch (IOException ioe) {
+                LOG.warn(ioe, "Could not move %s to disk", key);
+            }
+        }
+    }
+
+    /**
+     * Stores the response of a request and passes it on to the handler of the request.
+     */
+    private class CachingHandler<T> implements HttpClientResponseHandler<T>
+    {
+        private final String key;
+        private final HttpClientRequest<T> request;
+        private final CacheEntry stale;
+        private final long requestTime = System.currentTimeMillis();
+
+        CachingHandler(final String key, final HttpClientRequest<T> request, @Nullable final CacheEntry stale)
+        {
+            this.key = key;
+            this.request = request;
+            this.stale = stale;
+        }
+
+        @Override
+        public T handle(final HttpClientResponse response) throws IOException
+        {
+            final long responseTime = System.currentTimeMillis();
+            final HttpClientResponseHandler<T> httpHandler = request.getHttpHandler();
+
+            if (stale != null && response.getStatusCode() == 304) {
+                notModified.incrementAndGet();
+                final CacheEntry entry = store(key, stale.revalidate(response, requestTime, responseTime));
+                return httpHandler.handle(entry.getResponse());
+            }
+
+            if (!CACHEABLE_STATUS_CODES.contains(response.getStatusCode()) || !CacheEntry.isStorable(response)) {
+                if (stale != null) {
+                    invalidate(key);
+                }
+                return httpHandler.handle(response);
+            }
+
+            final Long contentLength = response.getContentLength();
+            if (contentLength != null && contentLength > maxEntrySize) {
+                if (diskStore != null) {
+                    return httpHandler.handle(storeOnDisk(response, contentLength, responseTime));
+                }
+                return httpHandler.handle(response);
+            }
+
+            // Bodies of unknown length are only cached if they fit into memory.
+            final InputStream is = response.getResponseBodyAsStream();
+            final byte [] body = ByteStreams.toByteArray(ByteStreams.limit(is, maxEntrySize + 1L));
+            if (body.length > maxEntrySize) {
+                // Too large to cache. Hand over what was read and the rest of the stream.
+                return httpHandler.handle(new PrefixedResponse(response, new SequenceInputStream(new ByteArrayInputStream(body), is)));
+            }
+            IOUtils.closeQuietly(is);
+
+            final CacheEntry entry = new CacheEntry(CachedResponse.of(response, CachedBody.forBytes(body)), CacheEntry.getVaryValues(response, request), requestTime, responseTime);
+            return httpHandler.handle(store(key, entry).getResponse());
+        }
+
+        /**
+         * Stream a body that is too large for memory straight to disk, without buffering it on the heap.
+         *
+         * @return the stored response, or the response itself if it could not be stored.
+         */
+        private HttpClientResponse storeOnDisk(final HttpClientResponse response, final long contentLength, final long responseTime) throws IOException
+        {
+            // Only the metadata of the entry is written, the body comes from the stream.
+            final CacheEntry entry = new CacheEntry(CachedResponse.of(response, CachedBody.forBytes(NO_BODY)), CacheEntry.getVaryValues(response, request), requestTime, responseTime);
+
+            final InputStream is = response.getResponseBodyAsStream();
+            final CachedBody storedBody = diskStore.put(key, entry, is, contentLength);
+            if (storedBody == null) {
+                invalidate(key);
+                return response;
+            }
+            IOUtils.closeQuietly(is);
+
+            final CacheEntry storedEntry = entry.withBody(storedBody);
+            put(key, storedEntry);
+            return storedEntry.getResponse();
+        }
+    }
+
+    /**
+     * A response whose body was partially read already.
+     */
+    private static class PrefixedResponse implements HttpClientResponse
+    {
+        private final HttpClientResponse response;
+        private final InputStream body;
+
+        PrefixedResponse(final HttpClientResponse response, final InputStream body)
+        {
+            this.response = response;
+            this.body = body;
+        }
+
+        @Override
+        public int getStatusCode()
+        {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText()
+        {
+            return response.getStatusText();
+        }
+
+        @Override
+        public InputStream getResponseBodyAsStream()
+        {
+            return body;
+        }
+
+        @Override
+        public URI getUri()
+        {
+            return response.getUri();
+        }
+
+        @Override
+        public String getContentType()
+        {
+            return response.getContentType();
+        }
+
+        @Override
+        public Long getContentLength()
+        {
+            return response.getContentLength();
+        }
+
+        @Override
+        public String getCharset()
+        {
+            return response.getCharset();
+        }
+
+        @Override
+        public String getHeader(final String name)
+        {
+            return response.getHeader(name);
+        }
+
+        @Override
+        public List<String> getHeaders(final String name)
+        {
+            return response.getHeaders(name);
+        }
+
+        @Override
+        public Map<String, List<String>> getAllHeaders()
+        {
+            return response.getAllHeaders();
+        }
+
+        @Override
+        public boolean isRedirected()
+        {
+            return response.isRedirected();
+        }
+    }
+}
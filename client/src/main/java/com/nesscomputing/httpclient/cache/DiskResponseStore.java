@@ -0,0 +1,812 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+
+import com.nesscomputing.httpclient.io.ByteBufferInputStream;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Disk tier of the response cache, for large responses that are too expensive to keep on the heap and that should
+ * survive a restart.
+ *
+ * Responses are appended to segment files of a fixed size that are memory mapped. The bodies of cached responses are
+ * read straight from the mapped segments, they are never copied onto the heap. The index from keys to records lives
+ * in a direct buffer and is rebuilt from the segment files when the store is opened. When the segments use more than
+ * the maximum size, the oldest segment is deleted with all responses in it.
+ *
+ * Bodies are streamed into room reserved in a segment and can be compressed with LZ4 on the way. Nothing is forced to
+ * disk, a crash can lose the most recent responses; recovery stops at a record that was not completely written, so
+ * the responses written behind it in the same segment are lost as well.
+ */
+public class DiskResponseStore implements Closeable
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final HashFunction KEY_HASH = Hashing.murmur3_128();
+
+    private static final int MAGIC = 0x4e455353;
+    private static final byte TYPE_ENTRY = 1;
+    private static final byte TYPE_REMOVED = 2;
+    private static final byte TYPE_PADDING = 3;
+
+    private static final byte BODY_COMPRESSED = 1;
+    private static final byte BODY_REFERENCE = 2;
+
+    /** magic, type and record length. */
+    private static final int RECORD_HEADER_SIZE = 9;
+
+    /** Room for the record header and the metadata of a response. */
+    private static final int MAX_METADATA_SIZE = 64 * 1024;
+
+    private static final int LZ4_BLOCK_SIZE = 64 * 1024;
+
+    /** Upper bound for the header that LZ4 adds to every block, also to blocks that do not compress. */
+    private static final int LZ4_BLOCK_OVERHEAD = 32;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d{8})\\.dat");
+
+    private final File directory;
+    private final long maxSize;
+    private final int segmentSize;
+    private final boolean compress;
+
+    @GuardedBy("this")
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+
+    @GuardedBy("this")
+    private final OffHeapIndex index = new OffHeapIndex(4096);
+
+    @GuardedBy("this")
+    private Segment current = null;
+
+    @GuardedBy("this")
+    private long totalSize = 0L;
+
+    @GuardedBy("this")
+    private boolean closed = false;
+
+    /**
+     * Open a store, recovering the responses in existing segment files.
+     *
+     * @param directory Directory for the segment files. Created if it does not exist.
+     * @param maxSize Maximum size of all segment files, in bytes.
+     * @param segmentSize Size of a segment file, in bytes. Also limits the size of a single response.
+     * @param compress If true, new bodies are compressed with LZ4.
+     */
+    public DiskResponseStore(@Nonnull final File directory, final long maxSize, final int segmentSize, final boolean compress) throws IOException
+    {
+        Preconditions.checkArgument(directory != null, "directory can not be null!");
+        Preconditions.checkArgument(segmentSize > MAX_METADATA_SIZE, "segment size must be larger than %s!", MAX_METADATA_SIZE);
+        Preconditions.checkArgument(maxSize >= 2L * segmentSize, "max size must hold at least two segments!");
+
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.segmentSize = segmentSize;
+        this.compress = compress;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Could not create cache directory '%s'", directory));
+        }
+
+        synchronized (this) {
+            recover();
+        }
+    }
+
+    /**
+     * @return size of the largest body that can be stored.
+     */
+    public int getMaxEntrySize()
+    {
+        return segmentSize - MAX_METADATA_SIZE;
+    }
+
+    /**
+     * @return number of responses in the store.
+     */
+    public synchronized long getEntries()
+    {
+        return index.size();
+    }
+
+    /**
+     * @return size of all segment files, in bytes.
+     */
+    public synchronized long getSize()
+    {
+        return totalSize;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        // Mapped buffers can not be unmapped explicitly; bodies that are still being read stay valid until
+        // they are garbage collected.
+        closed = true;
+        segments.clear();
+        current = null;
+    }
+
+    @CheckForNull
+    synchronized CacheEntry get(final String key)
+    {
+        if (closed) {
+            return null;
+        }
+
+        final long hash = hash(key);
+        final long location = index.get(hash);
+        if (location == OffHeapIndex.NOT_FOUND) {
+            return null;
+        }
+
+        try {
+            final CacheEntry entry = read(key, getSegmentId(location), getOffset(location));
+            if (entry == null) {
+                index.remove(hash);
+            }
+            return entry;
+        }
+        catch (IOException ioe) {
+            LOG.warn(ioe, "Could not read cached response for '%s'", key);
+            index.remove(hash);
+            return null;
+        }
+    }
+
+    /**
+     * Store a response. A body that is already mapped from this store is not written again.
+     *
+     * @return the body as it was stored, or null if the response is too large.
+     */
+    @CheckForNull
+    CachedBody put(final String key, final CacheEntry entry) throws IOException
+    {
+        final CachedBody body = entry.getResponse().getBody();
+
+        if (!(body instanceof MappedBody) || ((MappedBody) body).store != this) {
+            final InputStream is = body.open();
+            try {
+                return put(key, entry, is, body.getLength());
+            }
+            finally {
+                IOUtils.closeQuietly(is);
+            }
+        }
+
+        final MappedBody reference = (MappedBody) body;
+        final byte [] record = writeEntry(key, entry, BODY_REFERENCE | (reference.compressed ? BODY_COMPRESSED : 0), reference.length,
+                                          reference.segmentId, reference.offset, reference.storedLength);
+        if (record == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            if (closed || !segments.containsKey(reference.segmentId)) {
+                return null;
+            }
+
+            final Segment segment = reserve(record.length);
+            final int offset = segment.position;
+
+            segment.begin(offset, record);
+            segment.commit(offset, record.length);
+            segment.position += record.length;
+            index.put(hash(key), getLocation(segment.id, offset));
+            return reference;
+        }
+    }
+
+    /**
+     * Store a response whose body is read from a stream. The body is copied, and compressed if the store compresses,
+     * straight into the segment, it is never held in memory. The body of the entry is ignored.
+     *
+     * @param length the length of the body, e.g. from the Content-Length header.
+     * @return the body as it was stored, or null if the response was not stored. The stream was not read in that case.
+     * @throws IOException if the body could not be read or did not have the given length.
+     */
+    @CheckForNull
+    CachedBody put(final String key, final CacheEntry entry, final InputStream body, final long length) throws IOException
+    {
+        if (length < 0 || length > getMaxEntrySize()) {
+            return null;
+        }
+
+        // The compressed size is not known in advance, so room for the largest possible result is reserved. A body
+        // that would not fit with that room is stored as is.
+        final long compressedBound = length + LZ4_BLOCK_OVERHEAD * (length / LZ4_BLOCK_SIZE + 2);
+        final boolean compressed = compress && compressedBound <= getMaxEntrySize();
+        final int bound = (int) (compressed ? compressedBound : length);
+
+        // The stored length is filled in when the body was written.
+        final byte [] metadata = writeEntry(key, entry, compressed ? BODY_COMPRESSED : 0, length, 0);
+        if (metadata == null) {
+            return null;
+        }
+        final int reserved = metadata.length + bound;
+
+        final Segment segment;
+        final int offset;
+        synchronized (this) {
+            if (closed) {
+                return null;
+            }
+            try {
+                segment = reserve(reserved);
+            }
+            catch (IOException ioe) {
+                LOG.warn(ioe, "Could not allocate a cache segment for '%s'", key);
+                return null;
+            }
+            offset = segment.position;
+            segment.position += reserved;
+        }
+
+        // The body is written without holding the lock. The record stays invisible until it is committed.
+        segment.begin(offset, metadata);
+        int storedLength = -1;
+        try {
+            final SegmentOutputStream target = new SegmentOutputStream(segment, offset + metadata.length, bound);
+            final OutputStream out = compressed ? new LZ4BlockOutputStream(target, LZ4_BLOCK_SIZE) : target;
+            final long copied = ByteStreams.copy(ByteStreams.limit(body, length + 1L), out);
+            out.close();
+            if (copied != length) {
+                throw new IOException(String.format("Body of '%s' has %d bytes instead of %d", key, copied, length));
+            }
+            storedLength = target.getCount();
+        }
+        finally {
+            synchronized (this) {
+                if (storedLength < 0) {
+                    // Turn the reservation into a padding record, so that the records behind it are recovered.
+                    segment.begin(offset, writeRecord(TYPE_PADDING, ""));
+                    segment.commit(offset, reserved);
+                }
+            }
+        }
+
+        synchronized (this) {
+            int recordLength = reserved;
+            if (segment.position == offset + reserved) {
+                // Nothing was written behind this record, give back the room that compression saved.
+                recordLength = metadata.length + storedLength;
+                segment.position = offset + recordLength;
+            }
+
+            segment.patchInt(offset + metadata.length - 4, storedLength);
+            segment.commit(offset, recordLength);
+
+            if (closed || segments.get(segment.id) != segment) {
+                return null;
+            }
+            index.put(hash(key), getLocation(segment.id, offset));
+            return new MappedBody(this, segment, offset + metadata.length, storedLength, length, compressed);
+        }
+    }
+
+    /**
+     * Remove a response. Writes a marker, so that the response is not recovered when the store is opened again.
+     */
+    void remove(final String key)
+    {
+        final long hash = hash(key);
+
+        synchronized (this) {
+            if (closed || index.get(hash) == OffHeapIndex.NOT_FOUND) {
+                return;
+            }
+            index.remove(hash);
+
+            try {
+                final byte [] record = writeRecord(TYPE_REMOVED, key);
+                final Segment segment = reserve(record.length);
+                segment.begin(segment.position, record);
+                segment.commit(segment.position, record.length);
+                segment.position += record.length;
+            }
+            catch (IOException ioe) {
+                LOG.warn(ioe, "Could not remove cached response for '%s'", key);
+            }
+        }
+    }
+
+    private static long hash(final String key)
+    {
+        return KEY_HASH.hashString(key, Charsets.UTF_8).asLong();
+    }
+
+    private static long getLocation(final int segmentId, final int offset)
+    {
+        return ((long) segmentId << 32) | (offset & 0xffffffffL);
+    }
+
+    private static int getSegmentId(final long location)
+    {
+        return (int) (location >>> 32);
+    }
+
+    private static int getOffset(final long location)
+    {
+        return (int) location;
+    }
+
+    /**
+     * @return a record that consists only of its header.
+     */
+    private static byte [] writeRecord(final byte type, final String key) throws IOException
+    {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        final DataOutputStream dos = new DataOutputStream(bos);
+        writeRecordHeader(dos, type, key);
+        dos.flush();
+        return bos.toByteArray();
+    }
+
+    /**
+     * @return the header and the metadata of an entry record, up to the body, or null if the metadata is too large.
+     */
+    @CheckForNull
+    private static byte [] writeEntry(final String key, final CacheEntry entry, final int bodyFlags, final long length, final int... bodyFields)
+        throws IOException
+    {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(1024);
+        final DataOutputStream dos = new DataOutputStream(bos);
+        writeRecordHeader(dos, TYPE_ENTRY, key);
+        writeMetadata(dos, entry);
+        dos.writeByte(bodyFlags);
+        dos.writeLong(length);
+        for (final int field : bodyFields) {
+            dos.writeInt(field);
+        }
+        dos.flush();
+
+        final byte [] record = bos.toByteArray();
+        if (record.length > MAX_METADATA_SIZE) {
+            LOG.debug("Metadata of '%s' is too large to store", key);
+            return null;
+        }
+        return record;
+    }
+
+    private static void writeRecordHeader(final DataOutputStream dos, final byte type, final String key) throws IOException
+    {
+        // The magic is written last, see Segment#write.
+        dos.writeInt(0);
+        dos.writeByte(type);
+        // Record length, filled in by Segment#write.
+        dos.writeInt(0);
+        dos.writeUTF(key);
+    }
+
+    private static void writeMetadata(final DataOutputStream dos, final CacheEntry entry) throws IOException
+    {
+        final CachedResponse response = entry.getResponse();
+
+        dos.writeLong(entry.getRequestTime());
+        dos.writeLong(entry.getResponseTime());
+        dos.writeInt(response.getStatusCode());
+        writeNullable(dos, response.getStatusText());
+        writeNullable(dos, (response.getUri() == null) ? null : response.getUri().toString());
+        writeNullable(dos, response.getContentType());
+        writeNullable(dos, response.getCharset());
+
+        final Map<String, List<String>> headers = response.getAllHeaders();
+        dos.writeInt(headers.size());
+        for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+            dos.writeUTF(header.getKey());
+            dos.writeInt(header.getValue().size());
+            for (final String value : header.getValue()) {
+                dos.writeUTF(value);
+            }
+        }
+
+        final Map<String, String> varyValues = entry.getVaryValues();
+        dos.writeInt(varyValues.size());
+        for (final Map.Entry<String, String> vary : varyValues.entrySet()) {
+            dos.writeUTF(vary.getKey());
+            dos.writeUTF(vary.getValue());
+        }
+    }
+
+    private static void writeNullable(final DataOutputStream dos, @Nullable final String value) throws IOException
+    {
+        dos.writeBoolean(value != null);
+        if (value != null) {
+            dos.writeUTF(value);
+        }
+    }
+
+    @CheckForNull
+    private static String readNullable(final DataInputStream dis) throws IOException
+    {
+        return dis.readBoolean() ? dis.readUTF() : null;
+    }
+
+    /**
+     * @return the entry stored at the offset, or null if it is gone.
+     */
+    @GuardedBy("this")
+    @CheckForNull
+    private CacheEntry read(final String key, final int segmentId, final int offset) throws IOException
+    {
+        final Segment segment = segments.get(segmentId);
+        if (segment == null) {
+            return null;
+        }
+
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(offset);
+        final CountingInputStream cis = new CountingInputStream(new ByteBufferInputStream(buffer));
+        final DataInputStream dis = new DataInputStream(cis);
+
+        if (dis.readInt() != MAGIC || dis.readByte() != TYPE_ENTRY) {
+            return null;
+        }
+        // Record length.
+        dis.readInt();
+        if (!key.equals(dis.readUTF())) {
+            // A different key with the same hash.
+            return null;
+        }
+
+        final long requestTime = dis.readLong();
+        final long responseTime = dis.readLong();
+        final int statusCode = dis.readInt();
+        final String statusText = readNullable(dis);
+        final String uri = readNullable(dis);
+        final String contentType = readNullable(dis);
+        final String charset = readNullable(dis);
+
+        final Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = dis.readInt(); i > 0; i--) {
+            final String name = dis.readUTF();
+            final List<String> values = Lists.newArrayList();
+            for (int j = dis.readInt(); j > 0; j--) {
+                values.add(dis.readUTF());
+            }
+            headers.put(name, values);
+        }
+
+        final ImmutableMap.Builder<String, String> varyValues = ImmutableMap.builder();
+        for (int i = dis.readInt(); i > 0; i--) {
+            varyValues.put(dis.readUTF(), dis.readUTF());
+        }
+
+        final byte bodyFlags = dis.readByte();
+        final long length = dis.readLong();
+        final boolean compressed = (bodyFlags & BODY_COMPRESSED) != 0;
+
+        final MappedBody body;
+        if ((bodyFlags & BODY_REFERENCE) != 0) {
+            final Segment bodySegment = segments.get(dis.readInt());
+            final int bodyOffset = dis.readInt();
+            final int storedLength = dis.readInt();
+            if (bodySegment == null) {
+                return null;
+            }
+            body = new MappedBody(this, bodySegment, bodyOffset, storedLength, length, compressed);
+        }
+        else {
+            // The body follows the metadata. It may be followed by unused room that was reserved for it.
+            final int storedLength = dis.readInt();
+            body = new MappedBody(this, segment, offset + (int) cis.getCount(), storedLength, length, compressed);
+        }
+
+        final CachedResponse response = new CachedResponse(statusCode,
+                                                           statusText,
+                                                           (uri == null) ? null : URI.create(uri),
+                                                           contentType,
+                                                           charset,
+                                                           CachedResponse.copyHeaders(headers, ImmutableMap.<String, List<String>>of()),
+                                                           body);
+        return new CacheEntry(response, varyValues.build(), requestTime, responseTime);
+    }
+
+    /**
+     * @return a segment with room for the record.
+     */
+    @GuardedBy("this")
+    private Segment reserve(final int recordLength) throws IOException
+    {
+        Preconditions.checkState(recordLength <= segmentSize, "record is larger than a segment!");
+
+        if (current == null || current.position + recordLength > segmentSize) {
+            final int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+            current = Segment.create(new File(directory, String.format("segment-%08d.dat", id)), id, segmentSize);
+            segments.put(id, current);
+            totalSize += segmentSize;
+            LOG.debug("Started cache segment %s", current.file);
+
+            while (totalSize > maxSize && segments.size() > 1) {
+                evict(segments.firstKey());
+            }
+        }
+        return current;
+    }
+
+    @GuardedBy("this")
+    private void evict(final int segmentId)
+    {
+        final Segment segment = segments.remove(segmentId);
+        totalSize -= segment.buffer.capacity();
+        index.removeIf(new OffHeapIndex.LocationPredicate() {
+            @Override
+            public boolean apply(final long location)
+            {
+                return getSegmentId(location) == segmentId;
+            }
+        });
+
+        if (!segment.file.delete()) {
+            LOG.warn("Could not delete cache segment %s", segment.file);
+        }
+        LOG.debug("Evicted cache segment %s", segment.file);
+    }
+
+    @GuardedBy("this")
+    private void recover() throws IOException
+    {
+        final File [] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        final TreeMap<Integer, File> segmentFiles = new TreeMap<Integer, File>();
+        for (final File file : files) {
+            final Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+            if (matcher.matches()) {
+                segmentFiles.put(Integer.parseInt(matcher.group(1)), file);
+            }
+        }
+
+        for (final Map.Entry<Integer, File> segmentFile : segmentFiles.entrySet()) {
+            final Segment segment = Segment.open(segmentFile.getValue(), segmentFile.getKey());
+            segments.put(segment.id, segment);
+            totalSize += segment.buffer.capacity();
+            recover(segment);
+            current = segment;
+        }
+
+        while (totalSize > maxSize && segments.size() > 1) {
+            evict(segments.firstKey());
+        }
+
+        LOG.info("Recovered %d cached responses from %d segments in %s", index.size(), segments.size(), directory);
+    }
+
+    @GuardedBy("this")
+    private void recover(final Segment segment) throws IOException
+    {
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        int position = 0;
+        while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            buffer.position(position);
+            if (buffer.getInt() != MAGIC) {
+                break;
+            }
+            final byte type = buffer.get();
+            final int recordLength = buffer.getInt();
+            if (recordLength < RECORD_HEADER_SIZE || position + recordLength > buffer.capacity()) {
+                break;
+            }
+
+            final String key = new DataInputStream(new ByteBufferInputStream(buffer)).readUTF();
+            if (type == TYPE_ENTRY) {
+                index.put(hash(key), getLocation(segment.id, position));
+            }
+            else if (type == TYPE_REMOVED) {
+                index.remove(hash(key));
+            }
+            position += recordLength;
+        }
+        segment.position = position;
+    }
+
+    /**
+     * A memory mapped segment file.
+     */
+    private static final class Segment
+    {
+        private final File file;
+        private final int id;
+        private final MappedByteBuffer buffer;
+
+        /** Next free byte, guarded by the store. */
+        private int position = 0;
+
+        private Segment(final File file, final int id, final MappedByteBuffer buffer)
+        {
+            this.file = file;
+            this.id = id;
+            this.buffer = buffer;
+        }
+
+        static Segment create(final File file, final int id, final int size) throws IOException
+        {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(size);
+                return new Segment(file, id, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+            finally {
+                IOUtils.closeQuietly(raf);
+            }
+        }
+
+        static Segment open(final File file, final int id) throws IOException
+        {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                return new Segment(file, id, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length()));
+            }
+            finally {
+                IOUtils.closeQuietly(raf);
+            }
+        }
+
+        /**
+         * Write the start of a record, without its magic.
+         */
+        void begin(final int offset, final byte [] record)
+        {
+            final ByteBuffer target = buffer.duplicate();
+            target.position(offset + 4);
+            target.put(record, 4, record.length - 4);
+        }
+
+        void patchInt(final int position, final int value)
+        {
+            buffer.duplicate().putInt(position, value);
+        }
+
+        /**
+         * Complete a record. The magic goes in last, so a record is only seen when it is complete.
+         */
+        void commit(final int offset, final int recordLength)
+        {
+            final ByteBuffer target = buffer.duplicate();
+            target.putInt(offset + 5, recordLength);
+            target.putInt(offset, MAGIC);
+        }
+    }
+
+    /**
+     * Writes a body into the room reserved for it in a segment.
+     */
+    private static final class SegmentOutputStream extends OutputStream
+    {
+        private final ByteBuffer target;
+        private final int start;
+
+        private SegmentOutputStream(final Segment segment, final int offset, final int length)
+        {
+            final ByteBuffer view = segment.buffer.duplicate();
+            view.position(offset);
+            view.limit(offset + length);
+            this.target = view;
+            this.start = offset;
+        }
+
+        int getCount()
+        {
+            return target.position() - start;
+        }
+
+        @Override
+        public void write(final int b) throws IOException
+        {
+            if (!target.hasRemaining()) {
+                throw new IOException("Body is larger than announced");
+            }
+            target.put((byte) b);
+        }
+
+        @Override
+        public void write(final byte [] b, final int off, final int len) throws IOException
+        {
+            if (len > target.remaining()) {
+                throw new IOException("Body is larger than announced");
+            }
+            target.put(b, off, len);
+        }
+    }
+
+    /**
+     * A body that is read from a mapped segment.
+     */
+    static final class MappedBody extends CachedBody
+    {
+        private final DiskResponseStore store;
+        private final int segmentId;
+        private final int offset;
+        private final int storedLength;
+        private final long length;
+        private final boolean compressed;
+        private final ByteBuffer buffer;
+
+        private MappedBody(final DiskResponseStore store, final Segment segment, final int offset, final int storedLength, final long length, final boolean compressed)
+        {
+            this.store = store;
+            this.segmentId = segment.id;
+            this.offset = offset;
+            this.storedLength = storedLength;
+            this.length = length;
+            this.compressed = compressed;
+
+            final ByteBuffer view = segment.buffer.duplicate();
+            view.position(offset);
+            view.limit(offset + storedLength);
+            this.buffer = view.slice();
+        }
+
+        @Override
+        InputStream open()
+        {
+            final InputStream is = new ByteBufferInputStream(buffer);
+            return compressed ? new LZ4BlockInputStream(is) : is;
+        }
+
+        @Override
+        long getLength()
+        {
+            return length;
+        }
+
+        @Override
+        int getHeapSize()
+        {
+            return 0;
+        }
+    }
+}
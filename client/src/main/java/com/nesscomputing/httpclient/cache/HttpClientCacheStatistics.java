@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.cache;
+
+import javax.management.MXBean;
+
+/**
+ * Counters of a response cache. Registered as a JMX MBean for every client bound through
+ * {@link com.nesscomputing.httpclient.guice.HttpClientModule} that caches responses.
+ */
+@MXBean
+public interface HttpClientCacheStatistics
+{
+    /**
+     * Number of requests answered from the cache without contacting the server.
+     */
+    long getHits();
+
+    /**
+     * Number of cacheable requests that were sent to the server because no usable response was cached.
+     */
+    long getMisses();
+
+    /**
+     * Number of cacheable requests that were sent to the server to validate a stale response.
+     */
+    long getRevalidations();
+
+    /**
+     * Number of revalidations that were answered with "304 Not Modified".
+     */
+    long getNotModified();
+
+    /**
+     * Share of cacheable requests that were hits, between 0 and 1.
+     */
+    double getHitRatio();
+
+    /**
+     * Share of cacheable requests that were misses, between 0 and 1.
+     */
+    double getMissRatio();
+
+    /**
+     * Share of cacheable requests that were revalidations, between 0 and 1.
+     */
+    double getRevalidationRatio();
+
+    /**
+     * Number of responses removed from the cache to make room for others.
+     */
+    long getEvictions();
+
+    /**
+     * Number of responses cached in memory.
+     */
+    long getEntries();
+
+    /**
+     * Approximate size of the responses cached in memory, in bytes. Responses read from disk only count with their
+     * headers.
+     */
+    long getSize();
+
+    /**
+     * Number of responses that were not in memory and were found on disk.
+     */
+    long getDiskHits();
+
+    /**
+     * Number of responses cached on disk.
+     */
+    long getDiskEntries();
+
+    /**
+     * Size of the segment files of the disk cache, in bytes.
+     */
+    long getDiskSize();
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.cache;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Maps 64 bit key hashes to 64 bit locations in a direct buffer outside of the heap. The table uses open
+ * addressing with linear probing and backward shift deletion, so it never contains tombstones.
+ *
+ * A hash of 0 marks a free slot and is stored as 1.
+ */
+@NotThreadSafe
+final class OffHeapIndex
+{
+    static final long NOT_FOUND = -1L;
+
+    private static final int SLOT_SIZE = 16;
+    private static final double MAX_LOAD = 0.7;
+
+    private ByteBuffer table;
+    private int capacity;
+    private int size = 0;
+
+    /**
+     * @param initialCapacity Number of slots, rounded up to the next power of two.
+     */
+    OffHeapIndex(final int initialCapacity)
+    {
+        Preconditions.checkArgument(initialCapacity > 0 && initialCapacity <= (1 << 26), "initial capacity must be between 1 and 2^26!");
+
+        int slots = 16;
+        while (slots < initialCapacity) {
+            slots <<= 1;
+        }
+        allocate(slots);
+    }
+
+    private void allocate(final int slots)
+    {
+        this.capacity = slots;
+        this.table = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+        this.size = 0;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the location stored for the hash, or {@link #NOT_FOUND}.
+     */
+    long get(final long keyHash)
+    {
+        final long hash = normalize(keyHash);
+        final int mask = capacity - 1;
+        for (int slot = (int) (mix(hash) & mask); ; slot = (slot + 1) & mask) {
+            final long slotHash = table.getLong(slot * SLOT_SIZE);
+            if (slotHash == 0L) {
+                return NOT_FOUND;
+            }
+            if (slotHash == hash) {
+                return table.getLong(slot * SLOT_SIZE + 8);
+            }
+        }
+    }
+
+    void put(final long keyHash, final long location)
+    {
+        Preconditions.checkArgument(location >= 0, "location must not be negative!");
+
+        if (size + 1 > capacity * MAX_LOAD) {
+            resize(capacity * 2);
+        }
+
+        final long hash = normalize(keyHash);
+        final int mask = capacity - 1;
+        for (int slot = (int) (mix(hash) & mask); ; slot = (slot + 1) & mask) {
+            final long slotHash = table.getLong(slot * SLOT_SIZE);
+            if (slotHash == 0L) {
+                table.putLong(slot * SLOT_SIZE, hash);
+                table.putLong(slot * SLOT_SIZE + 8, location);
+                size++;
+                return;
+            }
+            if (slotHash == hash) {
+                table.putLong(slot * SLOT_SIZE + 8, location);
+                return;
+            }
+        }
+    }
+
+    void remove(final long keyHash)
+    {
+        final long hash = normalize(keyHash);
+        final int mask = capacity - 1;
+        int slot = (int) (mix(hash) & mask);
+        while (true) {
+            final long slotHash = table.getLong(slot * SLOT_SIZE);
+            if (slotHash == 0L) {
+                return;
+            }
+            if (slotHash == hash) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // Move later entries of the same probe sequence into the gap.
+        int gap = slot;
+        for (int next = (gap + 1) & mask; ; next = (next + 1) & mask) {
+            final long nextHash = table.getLong(next * SLOT_SIZE);
+            if (nextHash == 0L) {
+                break;
+            }
+            final int home = (int) (mix(nextHash) & mask);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                table.putLong(gap * SLOT_SIZE, nextHash);
+                table.putLong(gap * SLOT_SIZE + 8, table.getLong(next * SLOT_SIZE + 8));
+                gap = next;
+            }
+        }
+        table.putLong(gap * SLOT_SIZE, 0L);
+        table.putLong(gap * SLOT_SIZE + 8, 0L);
+        size--;
+    }
+
+    /**
+     * Remove all entries whose location matches.
+     */
+    void removeIf(final LocationPredicate predicate)
+    {
+        final ByteBuffer oldTable = table;
+        final int oldCapacity = capacity;
+        allocate(oldCapacity);
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            final long hash = oldTable.getLong(slot * SLOT_SIZE);
+            final long location = oldTable.getLong(slot * SLOT_SIZE + 8);
+            if (hash != 0L && !predicate.apply(location)) {
+                put(hash, location);
+            }
+        }
+    }
+
+    private void resize(final int slots)
+    {
+        Preconditions.checkState(slots <= (1 << 26), "index is full!");
+
+        final ByteBuffer oldTable = table;
+        final int oldCapacity = capacity;
+        allocate(slots);
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            final long hash = oldTable.getLong(slot * SLOT_SIZE);
+            if (hash != 0L) {
+                put(hash, oldTable.getLong(slot * SLOT_SIZE + 8));
+            }
+        }
+    }
+
+    private static long normalize(final long hash)
+    {
+        return (hash == 0L) ? 1L : hash;
+    }
+
+    /**
+     * Spreads the bits of the hash, the hash of the key might not be uniform in the low bits.
+     */
+    private static long mix(final long hash)
+    {
+        long h = hash;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    interface LocationPredicate
+    {
+        boolean apply(long location);
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.nesscomputing.httpclient.HttpClientDnsResolver;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Caches the results of another resolver, independent of the caching policy of the JVM.
+ *
+ * Successful lookups are cached for the TTL, failed lookups for the negative TTL. A host name that is used
+ * during the last quarter of its TTL is resolved again in the background, so that frequently used names never
+ * expire and requests do not have to wait for a lookup. If the background lookup fails, the cached addresses
+ * are used until they expire.
+ */
+public class CachingDnsResolver implements HttpClientDnsResolver, DnsResolverStatistics
+{
+    private static final Log LOG = Log.findLog();
+
+    private final HttpClientDnsResolver delegate;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+
+    private final ConcurrentMap<String, CacheEntry> cache = new ConcurrentHashMap<String, CacheEntry>();
+    private final ThreadPoolExecutor refreshExecutor;
+
+    private final AtomicLong lookups = new AtomicLong(0L);
+    private final AtomicLong cacheHits = new AtomicLong(0L);
+    private final AtomicLong negativeCacheHits = new AtomicLong(0L);
+    private final AtomicLong cacheMisses = new AtomicLong(0L);
+    private final AtomicLong refreshes = new AtomicLong(0L);
+    private final AtomicLong failures = new AtomicLong(0L);
+    private final AtomicLong resolves = new AtomicLong(0L);
+    private final AtomicLong resolveNanos = new AtomicLong(0L);
+    private final AtomicLong maxResolveNanos = new AtomicLong(0L);
+
+    /**
+     * @param delegate The resolver to cache.
+     * @param ttl How long to cache resolved addresses.
+     * @param negativeTtl How long to cache failed lookups. If 0, failures are not cached.
+     * @param unit Unit for ttl and negativeTtl.
+     */
+    public CachingDnsResolver(final HttpClientDnsResolver delegate, final long ttl, final long negativeTtl, final TimeUnit unit)
+    {
+        Preconditions.checkArgument(delegate != null, "delegate can not be null!");
+        Preconditions.checkArgument(ttl > 0, "ttl must be positive!");
+        Preconditions.checkArgument(negativeTtl >= 0, "negative ttl must not be negative!");
+
+        this.delegate = delegate;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.negativeTtlNanos = unit.toNanos(negativeTtl);
+
+        this.refreshExecutor = new ThreadPoolExecutor(1, 1,
+                                                      60L, TimeUnit.SECONDS,
+                                                      new LinkedBlockingQueue<Runnable>(),
+                                                      new ThreadFactoryBuilder()
+                                                          .setNameFormat("CachingDnsResolver Refresh-%d")
+                                                          .setDaemon(true)
+                                                          .build());
+        this.refreshExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public InetAddress [] resolve(final String host) throws UnknownHostException
+    {
+        lookups.incrementAndGet();
+
+        final String key = host.toLowerCase(Locale.ENGLISH);
+        final CacheEntry entry = cache.get(key);
+        final long now = System.nanoTime();
+
+        if (entry != null && now - entry.expiresAt < 0) {
+            cacheHits.incrementAndGet();
+
+            if (entry.addresses == null) {
+                negativeCacheHits.incrementAndGet();
+                throw new UnknownHostException(host);
+            }
+
+            if (now - entry.refreshAt >= 0 && entry.refreshing.compareAndSet(false, true)) {
+                scheduleRefresh(key, host);
+            }
+            return entry.addresses.clone();
+        }
+
+        cacheMisses.incrementAndGet();
+
+        try {
+            return lookup(key, host).clone();
+        }
+        catch (UnknownHostException uhe) {
+            if (negativeTtlNanos > 0) {
+                cache.put(key, new CacheEntry(null, now, negativeTtlNanos));
+            }
+            throw uhe;
+        }
+    }
+
+    private InetAddress [] lookup(final String key, final String host) throws UnknownHostException
+    {
+        final long startTime = System.nanoTime();
+        try {
+            final InetAddress [] addresses = delegate.resolve(host);
+            cache.put(key, new CacheEntry(addresses, startTime, ttlNanos));
+            return addresses;
+        }
+        catch (UnknownHostException uhe) {
+            failures.incrementAndGet();
+            throw uhe;
+        }
+        finally {
+            final long elapsed = System.nanoTime() - startTime;
+            resolves.incrementAndGet();
+            resolveNanos.addAndGet(elapsed);
+
+            long max;
+            while (elapsed > (max = maxResolveNanos.get()) && !maxResolveNanos.compareAndSet(max, elapsed)) {
+                // retry
+            }
+        }
+    }
+
+    private void scheduleRefresh(final String key, final String host)
+    {
+        refreshExecutor.execute(new Runnable() {
+            @Override
+            public void run()
+            {
+                refreshes.incrementAndGet();
+                try {
+                    lookup(key, host);
+                    LOG.trace("Refreshed '%s'", host);
+                }
+                catch (UnknownHostException uhe) {
+                    // Keep the old addresses until they expire.
+                    LOG.debug(uhe, "Could not refresh '%s'", host);
+                }
+                catch (RuntimeException re) {
+                    LOG.warn(re, "Could not refresh '%s'", host);
+                }
+            }
+        });
+    }
+
+    @Override
+    public long getLookups()
+    {
+        return lookups.get();
+    }
+
+    @Override
+    public long getCacheHits()
+    {
+        return cacheHits.get();
+    }
+
+    @Override
+    public long getNegativeCacheHits()
+    {
+        return negativeCacheHits.get();
+    }
+
+    @Override
+    public long getCacheMisses()
+    {
+        return cacheMisses.get();
+    }
+
+    @Override
+    public long getRefreshes()
+    {
+        return refreshes.get();
+    }
+
+    @Override
+    public long getFailures()
+    {
+        return failures.get();
+    }
+
+    @Override
+    public double getAverageResolveMillis()
+    {
+        final long count = resolves.get();
+        return count == 0 ? 0.0d : (resolveNanos.get() / (double) count) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public long getMaxResolveMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(maxResolveNanos.get());
+    }
+
+    @Override
+    public int getCachedHosts()
+    {
+        return cache.size();
+    }
+
+    private static final class CacheEntry
+    {
+        /** null for a failed lookup. */
+        private final InetAddress [] addresses;
+        private final long expiresAt;
+        private final long refreshAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        private CacheEntry(final InetAddress [] addresses, final long resolvedAt, final long ttlNanos)
+        {
+            this.addresses = addresses;
+            this.expiresAt = resolvedAt + ttlNanos;
+            this.refreshAt = resolvedAt + ttlNanos - ttlNanos / 4;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.dns;
+
+import javax.management.MXBean;
+
+/**
+ * Counters of a caching resolver. Registered as a JMX MBean for every client bound through
+ * {@link com.nesscomputing.httpclient.guice.HttpClientModule} that uses a caching resolver.
+ */
+@MXBean
+public interface DnsResolverStatistics
+{
+    /**
+     * Number of host names resolved by the http client.
+     */
+    long getLookups();
+
+    /**
+     * Number of lookups answered from the cache, including cached failures.
+     */
+    long getCacheHits();
+
+    /**
+     * Number of lookups answered with a cached failure.
+     */
+    long getNegativeCacheHits();
+
+    /**
+     * Number of lookups that were not cached and had to wait for the underlying resolver.
+     */
+    long getCacheMisses();
+
+    /**
+     * Number of cached host names that were resolved again in the background before they expired.
+     */
+    long getRefreshes();
+
+    /**
+     * Number of lookups in the underlying resolver that failed.
+     */
+    long getFailures();
+
+    /**
+     * Average time spent in the underlying resolver, in milliseconds.
+     */
+    double getAverageResolveMillis();
+
+    /**
+     * Longest time spent in the underlying resolver, in milliseconds.
+     */
+    long getMaxResolveMillis();
+
+    /**
+     * Number of host names in the cache.
+     */
+    int getCachedHosts();
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.net.InetAddresses;
+
+import com.nesscomputing.httpclient.HttpClientDnsResolver;
+
+/**
+ * Resolves host names from a fixed map. Never does a DNS lookup, so it can be used to test without network
+ * access or to pin host names to addresses. IP address literals always resolve to themselves.
+ */
+public class StaticDnsResolver implements HttpClientDnsResolver
+{
+    private final ImmutableListMultimap<String, InetAddress> hosts;
+
+    public StaticDnsResolver(final Multimap<String, InetAddress> hosts)
+    {
+        Preconditions.checkArgument(hosts != null, "hosts can not be null!");
+
+        final ImmutableListMultimap.Builder<String, InetAddress> builder = ImmutableListMultimap.builder();
+        for (Map.Entry<String, InetAddress> entry : hosts.entries()) {
+            builder.put(entry.getKey().toLowerCase(Locale.ENGLISH), entry.getValue());
+        }
+        this.hosts = builder.build();
+    }
+
+    @Override
+    public InetAddress [] resolve(final String host) throws UnknownHostException
+    {
+        if (InetAddresses.isInetAddress(host)) {
+            return new InetAddress [] { InetAddresses.forString(host) };
+        }
+
+        final Collection<InetAddress> addresses = hosts.get(host.toLowerCase(Locale.ENGLISH));
+        if (addresses.isEmpty()) {
+            throw new UnknownHostException(host);
+        }
+        return addresses.toArray(new InetAddress [addresses.size()]);
+    }
+}
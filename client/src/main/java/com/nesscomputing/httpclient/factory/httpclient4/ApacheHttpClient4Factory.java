@@ -16,14 +16,27 @@
 package com.nesscomputing.httpclient.factory.httpclient4;
 
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.security.GeneralSecurityException;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.CheckForNull;
@@ -36,13 +49,22 @@ import javax.net.ssl.X509TrustManager;
 import javax.servlet.http.Cookie;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.io.Charsets;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
@@ -53,6 +75,8 @@ import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.params.ClientPNames;
 import org.apache.http.client.params.CookiePolicy;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.client.utils.URIUtils;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
@@ -64,7 +88,6 @@ import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.impl.cookie.BasicClientCookie;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
@@ -74,19 +97,36 @@ import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 
+import com.nesscomputing.httpclient.CircuitOpenException;
+import com.nesscomputing.httpclient.HttpClientAsyncMode;
 import com.nesscomputing.httpclient.HttpClientAuthProvider;
+import com.nesscomputing.httpclient.HttpClientBalancingStrategy;
+import com.nesscomputing.httpclient.HttpClientCompressionStatistics;
+import com.nesscomputing.httpclient.HttpClientConcurrencyStatistics;
 import com.nesscomputing.httpclient.HttpClientConnectionContext;
 import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientDnsResolver;
+import com.nesscomputing.httpclient.HttpClientEndpointProvider;
+import com.nesscomputing.httpclient.HttpClientHedgingStatistics;
 import com.nesscomputing.httpclient.HttpClientObserver;
+import com.nesscomputing.httpclient.HttpClientPoolMode;
+import com.nesscomputing.httpclient.HttpClientPoolStatistics;
 import com.nesscomputing.httpclient.HttpClientRequest;
 import com.nesscomputing.httpclient.HttpClientResponse;
 import com.nesscomputing.httpclient.HttpClientResponseHandler;
+import com.nesscomputing.httpclient.HttpClientRetryStatistics;
+import com.nesscomputing.httpclient.dns.CachingDnsResolver;
+import com.nesscomputing.httpclient.dns.SystemDnsResolver;
 import com.nesscomputing.httpclient.internal.AlwaysTrustServerTrustManager;
+import com.nesscomputing.httpclient.internal.BufferedResponse;
+import com.nesscomputing.httpclient.internal.HashedWheelTimer;
 import com.nesscomputing.httpclient.internal.HttpClientBodySource;
 import com.nesscomputing.httpclient.internal.HttpClientFactory;
 import com.nesscomputing.httpclient.internal.HttpClientHeader;
 import com.nesscomputing.httpclient.internal.HttpClientTrustManagerFactory;
 import com.nesscomputing.httpclient.internal.MultiTrustManager;
+import com.nesscomputing.httpclient.io.ContentCodecRegistry;
+import com.nesscomputing.httpclient.io.StreamingContent;
 import com.nesscomputing.logging.Log;
 
 /** Apache HttpClient4 based implementation of {@link HttpClientFactory}. */
@@ -100,9 +140,22 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
 
     private static final Log LOG = Log.findLog();
 
+    /** Enforces request timeouts for all factories. */
+    private static final HashedWheelTimer REQUEST_TIMER = new HashedWheelTimer("ApacheHttpClient4Factory Timer", 50, TimeUnit.MILLISECONDS, 512);
+
+    /** Reaps idle and expired connections for all factories. */
+    private static final HashedWheelTimer REAPER_TIMER = new HashedWheelTimer("ApacheHttpClient4Factory Reaper", 100, TimeUnit.MILLISECONDS, 512);
+
+    /** Lower bound for the interval between two reaper sweeps. */
+    private static final long MIN_REAP_INTERVAL = 100L;
+
+    /** Accept-Encoding setting that advertises the codings of the default codec registry. */
+    private static final String AUTO_ACCEPT_ENCODING = "auto";
+
     private final SchemeRegistry registry = new SchemeRegistry();
 
-    private final ThreadSafeClientConnManager connectionManager;
+    private final InstrumentedClientConnManager connectionManager;
+    private final DefaultHttpClient httpClient;
     private final InternalConnectionContext connectionContext = new InternalConnectionContext();
 
     private boolean started = false;
@@ -110,20 +163,63 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
 
     // HttpClient state
     private final HttpParams params = new BasicHttpParams();
-    private volatile int retries = 3;
 
     private volatile long idleTimeout = 0;
-    private volatile IdleTimeoutThread idleTimeoutThread = null;
+    private volatile long requestTimeout = 0;
+    private volatile IdleConnectionReaper idleConnectionReaper = null;
+
+    private final HttpClientAsyncMode asyncMode;
+    private final int asyncThreads;
+    private final int asyncQueueSize;
+    private volatile ListeningExecutorService asyncExecutor = null;
+    private volatile ThreadPoolExecutor hedgeExecutor = null;
+
+    private final List<URI> warmupRoutes;
+    private final int warmupConnectionsPerRoute;
+    private final long warmupTimeout;
+
+    private final HttpClientDnsResolver dnsResolver;
+    private final EndpointSelector endpointSelector;
+    private final RequestHedger requestHedger;
+    private final RequestCoalescer requestCoalescer;
+    private final CircuitBreakers circuitBreakers;
+    private final RequestRetrier requestRetrier;
+    private final ConcurrencyLimiters concurrencyLimiters;
+    private final RateLimiters rateLimiters;
+    private final RequestCompressor requestCompressor;
 
     private final Set<? extends HttpClientObserver> httpClientObservers;
     private final String defaultAcceptEncoding;
 
     public ApacheHttpClient4Factory(final HttpClientDefaults clientDefaults,
                                     @Nullable final Set<? extends HttpClientObserver> httpClientObservers)
+    {
+        this(clientDefaults, httpClientObservers, null);
+    }
+
+    /**
+     * @param dnsResolver Resolves host names for new connections. If null, a resolver is configured from the client defaults.
+     */
+    public ApacheHttpClient4Factory(final HttpClientDefaults clientDefaults,
+                                    @Nullable final Set<? extends HttpClientObserver> httpClientObservers,
+                                    @Nullable final HttpClientDnsResolver dnsResolver)
+    {
+        this(clientDefaults, httpClientObservers, dnsResolver, null);
+    }
+
+    /**
+     * @param dnsResolver Resolves host names for new connections. If null, a resolver is configured from the client defaults.
+     * @param endpointProvider Supplies the endpoints for requests to logical services (<tt>srvc://&lt;service&gt;/...</tt>). May be null.
+     */
+    public ApacheHttpClient4Factory(final HttpClientDefaults clientDefaults,
+                                    @Nullable final Set<? extends HttpClientObserver> httpClientObservers,
+                                    @Nullable final HttpClientDnsResolver dnsResolver,
+                                    @Nullable final HttpClientEndpointProvider endpointProvider)
     {
         Preconditions.checkArgument(clientDefaults != null, "clientDefaults can not be null!");
 
         this.httpClientObservers = httpClientObservers;
+        this.dnsResolver = (dnsResolver != null) ? dnsResolver : getDnsResolver(clientDefaults);
 
         initParams();
 
@@ -144,9 +240,84 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
             throw new IllegalStateException(ioe);
         }
 
-        connectionManager = new ThreadSafeClientConnManager(registry);
+        final HttpClientPoolMode poolMode = Preconditions.checkNotNull(clientDefaults.getPoolMode(), "pool-mode can not be null!");
+        switch (poolMode) {
+        case STRIPED:
+            connectionManager = new StripedClientConnManager(registry, this.dnsResolver);
+            break;
+
+        case STANDARD:
+        default:
+            connectionManager = new InstrumentedClientConnManager(registry, this.dnsResolver);
+            break;
+        }
+        LOG.debug("Using %s connection pool", poolMode);
+
+        // The client is shared by all requests issued through this factory. It
+        // never holds per-request state; cookies, credentials and redirect policy
+        // are supplied for every request through the HttpContext and the request
+        // parameters.
+        httpClient = new DefaultHttpClient(connectionManager, params);
+        httpClient.getCookieSpecs().register(NessCookieSpecFactory.NESS_COOKIE_POLICY, new NessCookieSpecFactory());
+        httpClient.setCookieStore(null);
+        // Retries are handled by the factory, with backoff and a retry budget.
+        httpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
 
         defaultAcceptEncoding = StringUtils.trimToNull(clientDefaults.getDefaultAcceptEncoding());
+        asyncMode = Preconditions.checkNotNull(clientDefaults.getAsyncMode(), "async-mode can not be null!");
+        asyncThreads = clientDefaults.getAsyncThreads();
+        Preconditions.checkArgument(asyncThreads > 0, "async-threads must be at least 1!");
+        asyncQueueSize = clientDefaults.getAsyncQueueSize();
+        Preconditions.checkArgument(asyncQueueSize >= 0, "async-queue-size must not be negative!");
+
+        warmupRoutes = parseWarmupRoutes(clientDefaults.getWarmupRoutes());
+        warmupConnectionsPerRoute = clientDefaults.getWarmupConnectionsPerRoute();
+        Preconditions.checkArgument(warmupConnectionsPerRoute > 0, "warmup-connections-per-route must be at least 1!");
+        warmupTimeout = clientDefaults.getWarmupTimeout().getMillis();
+
+        requestRetrier = new RequestRetrier(clientDefaults);
+        rateLimiters = (clientDefaults.getRateLimit() > 0) ? new RateLimiters(clientDefaults) : null;
+        concurrencyLimiters = clientDefaults.isConcurrencyLimitEnabled() ? new ConcurrencyLimiters(clientDefaults) : null;
+        circuitBreakers = clientDefaults.isCircuitBreakerEnabled() ? new CircuitBreakers(clientDefaults) : null;
+        requestHedger = new RequestHedger(REQUEST_TIMER, clientDefaults.getHedgePercentile(), clientDefaults.getHedgeBudgetPercent());
+        requestCoalescer = clientDefaults.isCoalesceRequests() ? new RequestCoalescer() : null;
+        requestCompressor = (clientDefaults.getRequestCompressionEncoding() != null) ? new RequestCompressor(clientDefaults) : null;
+
+        if (endpointProvider != null) {
+            final HttpClientBalancingStrategy balancingStrategy = Preconditions.checkNotNull(clientDefaults.getBalancingStrategy(), "balancing-strategy can not be null!");
+            endpointSelector = new EndpointSelector(endpointProvider, balancingStrategy);
+            LOG.debug("Balancing service requests using %s", balancingStrategy);
+        }
+        else {
+            endpointSelector = null;
+        }
+    }
+
+    private static List<URI> parseWarmupRoutes(@Nullable final String warmupRoutes)
+    {
+        final ImmutableList.Builder<URI> builder = ImmutableList.builder();
+        if (warmupRoutes != null) {
+            for (final String warmupRoute : Splitter.on(',').trimResults().omitEmptyStrings().split(warmupRoutes)) {
+                builder.add(URI.create(warmupRoute));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param clientDefaults defaults to read from
+     * @return the system resolver, wrapped in a cache if a dns cache ttl is configured
+     */
+    @Nonnull
+    private static HttpClientDnsResolver getDnsResolver(final HttpClientDefaults clientDefaults)
+    {
+        final long ttl = clientDefaults.getDnsCacheTtl().getMillis();
+        if (ttl <= 0) {
+            return new SystemDnsResolver();
+        }
+
+        LOG.trace("Caching dns lookups for %d ms", ttl);
+        return new CachingDnsResolver(new SystemDnsResolver(), ttl, clientDefaults.getDnsNegativeCacheTtl().getMillis(), TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -207,6 +378,48 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
 
     }
 
+    /**
+     * @return the resolver used for host names of new connections.
+     */
+    public HttpClientDnsResolver getDnsResolver()
+    {
+        return dnsResolver;
+    }
+
+    /**
+     * @return counters for hedged requests.
+     */
+    public HttpClientHedgingStatistics getHedgingStatistics()
+    {
+        return requestHedger;
+    }
+
+    /**
+     * @return counters for retried requests.
+     */
+    public HttpClientRetryStatistics getRetryStatistics()
+    {
+        return requestRetrier;
+    }
+
+    /**
+     * @return counters for compressed request bodies, or null if requests are not compressed.
+     */
+    @CheckForNull
+    public HttpClientCompressionStatistics getCompressionStatistics()
+    {
+        return requestCompressor;
+    }
+
+    /**
+     * @return the state of the concurrency limits, or null if they are disabled.
+     */
+    @CheckForNull
+    public HttpClientConcurrencyStatistics getConcurrencyStatistics()
+    {
+        return concurrencyLimiters;
+    }
+
     /**
      * Expose the observer set.  Only for testing.
      */
@@ -220,7 +433,14 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
     {
         if (!started && !stopped) {
             if (idleTimeout > 0) {
-                startIdleTimeoutThread();
+                startIdleConnectionReaper();
+            }
+
+            startAsyncExecutor();
+
+            if (!warmupRoutes.isEmpty()) {
+                LOG.debug("Warming up connections to %s", warmupRoutes);
+                new ConnectionWarmer(connectionManager, httpClient.getRoutePlanner(), params).warmup(warmupRoutes, warmupConnectionsPerRoute, warmupTimeout);
             }
 
             started = true;
@@ -234,7 +454,8 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
         if (started && !stopped) {
             stopped = true;
 
-            stopIdleTimeoutThread();
+            stopIdleConnectionReaper();
+            stopAsyncExecutor();
             connectionManager.shutdown();
 
             LOG.debug("Factory stopped.");
@@ -259,6 +480,12 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
         return connectionContext;
     }
 
+    @Override
+    public HttpClientPoolStatistics getPoolStatistics() {
+        // Can be called even if the factory is not yet running.
+        return connectionManager;
+    }
+
     @Override
     public HttpClientBodySource getHttpBodySourceFor(final Object content) {
         checkRunning();
@@ -277,6 +504,18 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
         } else if (content instanceof InputStream) {
             LOG.debug("Returning InputStream based body source.");
             return new InternalHttpBodySource(new InputStreamEntity((InputStream) content, -1));
+        } else if (content instanceof Path) {
+            LOG.debug("Returning Path based body source.");
+            return new InternalHttpBodySource(new PathEntity((Path) content));
+        } else if (content instanceof File) {
+            LOG.debug("Returning File based body source.");
+            return new InternalHttpBodySource(new PathEntity(((File) content).toPath()));
+        } else if (content instanceof ByteBuffer) {
+            LOG.debug("Returning ByteBuffer based body source.");
+            return new InternalHttpBodySource(new ByteBufferEntity((ByteBuffer) content));
+        } else if (content instanceof StreamingContent) {
+            LOG.debug("Returning StreamingContent based body source.");
+            return new InternalHttpBodySource(new StreamingContentEntity((StreamingContent) content));
         }
 
         return null;
@@ -284,6 +523,13 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
 
     @Override
     public <T> T performRequest(final HttpClientRequest<T> incomingRequest) throws IOException {
+        return performRequest(incomingRequest, System.nanoTime());
+    }
+
+    /**
+     * @param startNanos when the request was received, its timeout counts from here.
+     */
+    private <T> T performRequest(final HttpClientRequest<T> incomingRequest, final long startNanos) throws IOException {
         checkRunning();
 
         HttpClientRequest<T> request = incomingRequest;
@@ -301,43 +547,130 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
 
         request = contributeAcceptEncoding(request);
 
+        final RequestDeadline requestDeadline = RequestDeadline.of(startNanos, getRequestTimeout(request));
+
+        if (requestCoalescer != null && RequestCoalescer.isCoalescable(request)) {
+            return requestCoalescer.perform(request, requestDeadline, new RequestCoalescer.Leader() {
+                @Override
+                public BufferedResponse perform(final HttpClientRequest<BufferedResponse> bufferingRequest) throws IOException
+                {
+                    return hedgeRequest(bufferingRequest, requestDeadline);
+                }
+            });
+        }
+
+        return hedgeRequest(request, requestDeadline);
+    }
+
+    private <T> T hedgeRequest(final HttpClientRequest<T> request, final RequestDeadline requestDeadline) throws IOException {
+        if (request.getHedgeDelay() != null) {
+            // Every copy reads its response into memory, the response handler only runs for the one that wins.
+            final HttpClientRequest<BufferedResponse> bufferingRequest = HttpClientRequest.Builder.fromRequest(request, BufferedResponse.handler()).request();
+            final BufferedResponse response = requestHedger.perform(bufferingRequest, hedgeExecutor, new RequestHedger.Attempt<BufferedResponse>() {
+                @Override
+                public BufferedResponse perform(final RequestAttempt requestAttempt) throws IOException
+                {
+                    return routeRequest(bufferingRequest, requestAttempt, requestDeadline);
+                }
+            });
+
+            final HttpClientResponseHandler<T> responseHandler = request.getHttpHandler();
+            return (responseHandler == null) ? null : responseHandler.handle(response);
+        }
+
+        return routeRequest(request, null, requestDeadline);
+    }
+
+    private <T> T routeRequest(final HttpClientRequest<T> request, @Nullable final RequestAttempt requestAttempt, final RequestDeadline requestDeadline) throws IOException {
+        if (EndpointSelector.isServiceUri(request.getUri())) {
+            if (endpointSelector == null) {
+                throw new UnknownHostException(String.format("No endpoint provider configured for '%s'", request.getUri()));
+            }
+
+            final EndpointSelector.Endpoint endpoint = endpointSelector.select(request.getUri());
+            final URI endpointUri = endpoint.resolve(request.getUri());
+            LOG.trace("Sending request for '%s' to '%s'", request.getUri(), endpointUri);
+
+            endpoint.acquire();
+            try {
+                return dispatchRequest(HttpClientRequest.Builder.fromRequest(request).setUrl(endpointUri).request(), requestAttempt, requestDeadline);
+            }
+            finally {
+                endpoint.release();
+            }
+        }
+
+        return dispatchRequest(request, requestAttempt, requestDeadline);
+    }
+
+    private <T> T dispatchRequest(final HttpClientRequest<T> request, @Nullable final RequestAttempt requestAttempt, final RequestDeadline requestDeadline) throws IOException {
         LOG.trace("Got a '%s' request", request.getHttpMethod());
 
         switch (request.getHttpMethod()) {
         case DELETE:
-            return executeRequest(new HttpDelete(request.getUri()), request);
+            return executeRequest(new HttpDelete(request.getUri()), request, requestAttempt, requestDeadline);
 
         case HEAD:
-            return executeRequest(new HttpHead(request.getUri()), request);
+            return executeRequest(new HttpHead(request.getUri()), request, requestAttempt, requestDeadline);
 
         case OPTIONS:
-            return executeRequest(new HttpOptions(request.getUri()), request);
+            return executeRequest(new HttpOptions(request.getUri()), request, requestAttempt, requestDeadline);
 
         case POST:
             final HttpPost httpPost = new HttpPost(request.getUri());
             final HttpClientBodySource postSource = request.getHttpBodySource();
 
             if (postSource instanceof InternalHttpBodySource) {
-                httpPost.setEntity(((InternalHttpBodySource) postSource).getHttpEntity());
+                httpPost.setEntity(compress(((InternalHttpBodySource) postSource).getHttpEntity()));
             }
-            return executeRequest(httpPost, request);
+            return executeRequest(httpPost, request, requestAttempt, requestDeadline);
 
         case PUT:
             final HttpPut httpPut = new HttpPut(request.getUri());
             final HttpClientBodySource putSource = request.getHttpBodySource();
 
             if (putSource instanceof InternalHttpBodySource) {
-                httpPut.setEntity(((InternalHttpBodySource) putSource).getHttpEntity());
+                httpPut.setEntity(compress(((InternalHttpBodySource) putSource).getHttpEntity()));
             }
-            return executeRequest(httpPut, request);
+            return executeRequest(httpPut, request, requestAttempt, requestDeadline);
 
         case GET:
-            return executeRequest(new HttpGet(request.getUri()), request);
+            return executeRequest(new HttpGet(request.getUri()), request, requestAttempt, requestDeadline);
 
         default:
             LOG.warn("Got an unknown request type: '%s', falling back to GET",
                 request.getHttpMethod());
-            return executeRequest(new HttpGet(request.getUri()), request);
+            return executeRequest(new HttpGet(request.getUri()), request, requestAttempt, requestDeadline);
+        }
+    }
+
+    private HttpEntity compress(final HttpEntity entity) {
+        return (requestCompressor == null) ? entity : requestCompressor.compress(entity);
+    }
+
+    @Override
+    public <T> ListenableFuture<T> performRequestAsync(final HttpClientRequest<T> request)
+    {
+        // Time spent waiting for a thread counts against the request timeout.
+        final long startNanos = System.nanoTime();
+
+        final ListeningExecutorService executor = asyncExecutor;
+        if (!started || stopped || executor == null) {
+            return Futures.immediateFailedFuture(new IllegalStateException("Factory was not started!"));
+        }
+
+        try {
+            return executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws IOException
+                {
+                    return performRequest(request, startNanos);
+                }
+            });
+        }
+        catch (RejectedExecutionException ree) {
+            LOG.debug(ree, "Async queue is full, rejecting %s", request);
+            return Futures.immediateFailedFuture(ree);
         }
     }
 
@@ -353,43 +686,120 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
         }
     }
 
-    private void stopIdleTimeoutThread() {
-        if (idleTimeoutThread != null) {
-            LOG.debug("Stopping Idle Timeout Thead");
+    private void stopIdleConnectionReaper() {
+        if (idleConnectionReaper != null) {
+            LOG.debug("Stopping idle connection reaper");
 
-            idleTimeoutThread.shutdown();
-            idleTimeoutThread = null;
+            idleConnectionReaper.shutdown();
+            idleConnectionReaper = null;
         }
     }
 
-    private void startIdleTimeoutThread() {
-        stopIdleTimeoutThread();
+    private void startIdleConnectionReaper() {
+        stopIdleConnectionReaper();
 
-        idleTimeoutThread = new IdleTimeoutThread();
-        idleTimeoutThread.start();
+        idleConnectionReaper = new IdleConnectionReaper();
+        idleConnectionReaper.schedule();
 
-        LOG.debug("Started Idle Timeout Thread with '%d' idle timeout", this.idleTimeout);
+        LOG.debug("Started idle connection reaper with '%d' idle timeout", this.idleTimeout);
+    }
+
+    private void startAsyncExecutor() {
+        // Threads are only created when asynchronous requests are actually issued and
+        // go away again when they are idle, so clients that never use the async API
+        // do not pay for it.
+        final int maxThreads;
+        final BlockingQueue<Runnable> queue;
+
+        switch (asyncMode) {
+        case UNBOUNDED:
+            // Hand every request directly to a thread, never queue.
+            maxThreads = Integer.MAX_VALUE;
+            queue = new SynchronousQueue<Runnable>();
+            break;
+
+        case BOUNDED:
+        default:
+            maxThreads = asyncThreads;
+            queue = (asyncQueueSize > 0) ? new ArrayBlockingQueue<Runnable>(asyncQueueSize) : new SynchronousQueue<Runnable>();
+            break;
+        }
+
+        asyncExecutor = MoreExecutors.listeningDecorator(createExecutor(Math.min(asyncThreads, maxThreads), maxThreads, queue, "ApacheHttpClient4Factory Async-%d"));
+
+        // A hedge that has to wait for a thread is useless, so hedges never queue behind
+        // asynchronous requests. If no thread is free, the request is not hedged.
+        hedgeExecutor = createExecutor(0, maxThreads, new SynchronousQueue<Runnable>(), "ApacheHttpClient4Factory Hedge-%d");
+
+        LOG.debug("Started %s async executor with '%d' core threads", asyncMode, asyncThreads);
+    }
+
+    private static ThreadPoolExecutor createExecutor(final int coreThreads, final int maxThreads, final BlockingQueue<Runnable> queue, final String nameFormat) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(coreThreads, maxThreads,
+                                                                   60L, TimeUnit.SECONDS,
+                                                                   queue,
+                                                                   new ThreadFactoryBuilder()
+                                                                       .setNameFormat(nameFormat)
+                                                                       .setDaemon(true)
+                                                                       .build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private void stopAsyncExecutor() {
+        if (asyncExecutor != null) {
+            LOG.debug("Stopping async executor");
+
+            asyncExecutor.shutdownNow();
+            asyncExecutor = null;
+        }
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+            hedgeExecutor = null;
+        }
     }
 
     private <T> T executeRequest(final HttpRequestBase httpRequest,
-        final HttpClientRequest<T> httpClientRequest) throws IOException {
-        final DefaultHttpClient httpClient = new DefaultHttpClient(connectionManager, setFollowRedirects(params, httpClientRequest));
-        httpClient.getCookieSpecs().register(NessCookieSpecFactory.NESS_COOKIE_POLICY, new NessCookieSpecFactory());
-        httpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(retries, false));
+        final HttpClientRequest<T> httpClientRequest,
+        @Nullable final RequestAttempt requestAttempt,
+        final RequestDeadline requestDeadline) throws IOException {
+        final HttpContext httpContext = new BasicHttpContext();
+
+        contributeCookies(httpContext, httpClientRequest);
 
-        contributeCookies(httpClient, httpClientRequest);
+        contributeParameters(httpRequest, httpClientRequest);
 
-        contributeParameters(httpClient, httpRequest, httpClientRequest);
+        contributeFollowRedirects(httpRequest, httpClientRequest);
 
         contributeHeaders(httpRequest, httpClientRequest);
 
         contributeVirtualHost(httpRequest, httpClientRequest);
 
-        contributeAuthentication(httpClient, httpClientRequest);
+        contributeAuthentication(httpContext, httpClientRequest);
+
+        // The request may have used up its time waiting for a thread or for its hedge delay.
+        checkDeadline(null, requestDeadline, httpClientRequest, null);
 
+        final ConcurrencyLimiters.Permit permit;
         try {
-            final HttpContext httpContext = new BasicHttpContext();
-            final HttpResponse httpResponse = httpClient.execute(httpRequest, httpContext);
+            permit = (concurrencyLimiters == null) ? null : concurrencyLimiters.acquire(getRoute(httpRequest), requestDeadline.getRemainingNanos());
+        }
+        catch (IOException ioe) {
+            checkDeadline(null, requestDeadline, httpClientRequest, ioe);
+            throw ioe;
+        }
+        boolean responded = false;
+        boolean timedOut = false;
+
+        final HashedWheelTimer.Timeout deadline = scheduleDeadline(httpRequest, httpClientRequest, requestDeadline);
+
+        if (requestAttempt != null) {
+            requestAttempt.attach(httpRequest);
+        }
+
+        try {
+            final HttpResponse httpResponse = executeWithRetries(httpRequest, httpContext, httpClientRequest, requestAttempt, permit, requestDeadline);
+            responded = true;
 
             final HttpClientResponseHandler<T> responseHandler = httpClientRequest.getHttpHandler();
 
@@ -422,16 +832,192 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
             }
         } catch (IOException ioe) {
             LOG.debug(ioe, "Aborting Request!");
+            // A request aborted because its hedge won did not time out.
+            timedOut = !responded && ioe instanceof InterruptedIOException && (requestAttempt == null || !requestAttempt.isAborted());
             httpRequest.abort();
+            checkDeadline(deadline, requestDeadline, httpClientRequest, ioe);
             throw ioe;
         } catch (RuntimeException re) {
             LOG.debug(re, "Aborting Request!");
             httpRequest.abort();
+            checkDeadline(deadline, requestDeadline, httpClientRequest, re);
             throw re;
+        } finally {
+            if (deadline != null) {
+                deadline.cancel();
+            }
+            if (permit != null) {
+                permit.release(timedOut);
+            }
+        }
+    }
+
+    /**
+     * Sends a request and retries it if it failed with an I/O error or the server asked for a retry. Every attempt has to
+     * pass the circuit breaker and the rate limit of its route. The round trip time of every attempt that received a response
+     * is reported to the concurrency limit.
+     */
+    private HttpResponse executeWithRetries(final HttpRequestBase httpRequest,
+                                            final HttpContext httpContext,
+                                            final HttpClientRequest<?> httpClientRequest,
+                                            @Nullable final RequestAttempt requestAttempt,
+                                            @Nullable final ConcurrencyLimiters.Permit permit,
+                                            final RequestDeadline requestDeadline)
+        throws IOException
+    {
+        final String route = getRoute(httpRequest);
+        final CircuitBreakers.CircuitBreaker circuitBreaker = (circuitBreakers == null) ? null : circuitBreakers.get(route);
+        final boolean retryable = requestRetrier.onRequest(httpRequest);
+
+        for (int retry = 0; ; retry++) {
+            // An open circuit rejects the request right away, without spending a rate limit token or waiting for one.
+            final CircuitBreakers.Permit circuitPermit = (circuitBreaker == null) ? null : circuitBreaker.tryAcquire();
+            if (circuitBreaker != null && circuitPermit == null) {
+                throw new CircuitOpenException(circuitBreaker.getRoute());
+            }
+
+            if (rateLimiters != null) {
+                try {
+                    rateLimiters.acquire(route, requestDeadline.getRemainingNanos());
+                }
+                catch (IOException ioe) {
+                    if (circuitPermit != null) {
+                        circuitPermit.onIgnored();
+                    }
+                    throw ioe;
+                }
+            }
+
+            final long startTime = System.nanoTime();
+            final HttpResponse httpResponse;
+            try {
+                httpResponse = httpClient.execute(httpRequest, httpContext);
+            }
+            catch (IOException ioe) {
+                if (circuitPermit != null) {
+                    // A request aborted because its hedge won did not fail.
+                    if (requestAttempt != null && requestAttempt.isAborted()) {
+                        circuitPermit.onIgnored();
+                    }
+                    else {
+                        circuitPermit.onFailure();
+                    }
+                }
+
+                final long backoff = (retryable && !httpRequest.isAborted()) ? requestRetrier.getBackoff(retry, ioe, requestDeadline.getRemainingMillis()) : -1L;
+                if (backoff < 0) {
+                    throw ioe;
+                }
+                LOG.debug(ioe, "%s failed, retrying in %d ms", httpClientRequest, backoff);
+                sleep(backoff);
+                continue;
+            }
+            catch (RuntimeException re) {
+                if (circuitPermit != null) {
+                    circuitPermit.onIgnored();
+                }
+                throw re;
+            }
+
+            final long rttNanos = System.nanoTime() - startTime;
+            final int statusCode = httpResponse.getStatusLine().getStatusCode();
+
+            if (permit != null) {
+                permit.onResponse(rttNanos, statusCode == RequestRetrier.SC_TOO_MANY_REQUESTS || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE);
+            }
+
+            if (circuitPermit != null) {
+                if (statusCode >= 500) {
+                    circuitPermit.onFailure();
+                }
+                else {
+                    circuitPermit.onSuccess(rttNanos);
+                }
+            }
+
+            final long backoff = retryable ? requestRetrier.getBackoff(retry, httpResponse, requestDeadline.getRemainingMillis()) : -1L;
+            if (backoff < 0) {
+                return httpResponse;
+            }
+
+            LOG.debug("%s returned %s, retrying in %d ms", httpClientRequest, httpResponse.getStatusLine(), backoff);
+            EntityUtils.consume(httpResponse.getEntity());
+            sleep(backoff);
+        }
+    }
+
+    private static void sleep(final long millis) throws InterruptedIOException
+    {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * @return the key for per-route state, e.g. <tt>http://10.0.0.1:8080</tt>.
+     */
+    private static String getRoute(final HttpRequestBase httpRequest)
+    {
+        final HttpHost target = URIUtils.extractHost(httpRequest.getURI());
+        return (target == null) ? String.valueOf(httpRequest.getURI()) : target.toURI();
+    }
+
+    /**
+     * If the request failed because its deadline expired, report this as a timeout instead of the
+     * (fairly random) exception caused by aborting the request.
+     */
+    private static void checkDeadline(@Nullable final HashedWheelTimer.Timeout deadline,
+                                      final RequestDeadline requestDeadline,
+                                      final HttpClientRequest<?> httpClientRequest,
+                                      @Nullable final Exception cause)
+        throws SocketTimeoutException
+    {
+        if ((deadline != null && deadline.isExpired()) || requestDeadline.isExpired()) {
+            final SocketTimeoutException ste = new SocketTimeoutException(String.format("%s timed out", httpClientRequest));
+            if (cause != null) {
+                ste.initCause(cause);
+            }
+            throw ste;
+        }
+    }
+
+    /**
+     * Arms the overall deadline for a request. When it expires, the request is aborted, which unblocks
+     * any thread that is waiting for a pooled connection, writing the request or reading the response.
+     */
+    @CheckForNull
+    private <T> HashedWheelTimer.Timeout scheduleDeadline(final HttpRequestBase httpRequest,
+                                                          final HttpClientRequest<T> httpClientRequest,
+                                                          final RequestDeadline requestDeadline)
+    {
+        if (!requestDeadline.isBounded()) {
+            return null;
         }
+
+        return REQUEST_TIMER.schedule(new Runnable() {
+            @Override
+            public void run()
+            {
+                LOG.debug("Request %s exceeded its timeout of %d ms, aborting!", httpClientRequest, requestDeadline.getTimeoutMillis());
+                httpRequest.abort();
+            }
+        }, requestDeadline.getRemainingNanos(), TimeUnit.NANOSECONDS);
     }
 
-    private <T> void contributeCookies(final DefaultHttpClient httpClient,
+    /**
+     * @return the overall timeout of a request in milliseconds, 0 or less for no timeout.
+     */
+    private long getRequestTimeout(final HttpClientRequest<?> httpClientRequest)
+    {
+        final Long timeoutOverride = httpClientRequest.getRequestTimeout();
+        return (timeoutOverride != null) ? timeoutOverride : requestTimeout;
+    }
+
+    private <T> void contributeCookies(final HttpContext httpContext,
         final HttpClientRequest<T> httpClientRequest) {
         final List<Cookie> cookies = httpClientRequest.getCookies();
 
@@ -457,30 +1043,36 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
                 LOG.debug("Adding cookie to the request: '%s'", httpCookie);
                 cookieStore.addCookie(httpCookie);
             }
-            httpClient.setCookieStore(cookieStore);
+            httpContext.setAttribute(ClientContext.COOKIE_STORE, cookieStore);
         } else {
             LOG.debug("No cookies found.");
-            httpClient.setCookieStore(null);
         }
     }
 
-    private <T> void contributeParameters(final DefaultHttpClient httpClient,
-                                          final HttpRequestBase httpRequest,
+    private <T> void contributeParameters(final HttpRequestBase httpRequest,
                                           final HttpClientRequest<T> httpClientRequest)
     {
         final Map<String, Object> parameters = httpClientRequest.getParameters();
 
         if (parameters != null && !parameters.isEmpty()) {
-            HttpParams clientParams = httpClient.getParams();
-            HttpParams requestParams = httpRequest.getParams();
+            // Request parameters take precedence over the (shared) client parameters.
+            final HttpParams requestParams = httpRequest.getParams();
 
             for (Map.Entry<String, Object> entry: parameters.entrySet()) {
-                clientParams.setParameter(entry.getKey(), entry.getValue());
                 requestParams.setParameter(entry.getKey(), entry.getValue());
             }
         }
     }
 
+    private <T> void contributeFollowRedirects(final HttpRequestBase httpRequest,
+                                               final HttpClientRequest<T> httpClientRequest)
+    {
+        final Boolean followRedirects = httpClientRequest.followRedirects();
+        if (followRedirects != null) {
+            httpRequest.getParams().setBooleanParameter(ClientPNames.HANDLE_REDIRECTS, followRedirects);
+        }
+    }
+
     private <T> void contributeHeaders(final HttpRequestBase httpRequest,
         HttpClientRequest<T> httpClientRequest) {
         final String virtualHost = httpClientRequest.getVirtualHost();
@@ -514,17 +1106,18 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
         }
     }
 
-    private <T> void contributeAuthentication(final DefaultHttpClient httpClient,
+    private <T> void contributeAuthentication(final HttpContext httpContext,
         final HttpClientRequest<T> httpClientRequest) {
         final List<HttpClientAuthProvider> authProviders = httpClientRequest.getAuthProviders();
         if (CollectionUtils.isNotEmpty(authProviders)) {
-            httpClient.setCredentialsProvider(new InternalCredentialsProvider(authProviders));
+            httpContext.setAttribute(ClientContext.CREDS_PROVIDER, new InternalCredentialsProvider(authProviders));
         }
     }
 
     private <T> HttpClientRequest<T> contributeAcceptEncoding(HttpClientRequest<T> request)
     {
-        if (defaultAcceptEncoding == null) {
+        final String acceptEncoding = StringUtils.equalsIgnoreCase(AUTO_ACCEPT_ENCODING, defaultAcceptEncoding) ? ContentCodecRegistry.getDefault().getAcceptEncoding() : defaultAcceptEncoding;
+        if (acceptEncoding == null) {
             return request;
         }
 
@@ -534,16 +1127,7 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
             }
         }
 
-        return HttpClientRequest.Builder.fromRequest(request).addHeader(HttpHeaders.ACCEPT_ENCODING, defaultAcceptEncoding).request();
-    }
-
-    private <T> HttpParams setFollowRedirects(final HttpParams params,
-        final HttpClientRequest<T> httpClientRequest) {
-        Boolean followRedirects = httpClientRequest.followRedirects();
-        if (followRedirects != null) {
-            return params.copy().setBooleanParameter(ClientPNames.HANDLE_REDIRECTS, followRedirects);
-        }
-        return params;
+        return HttpClientRequest.Builder.fromRequest(request).addHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding).request();
     }
 
     private class InternalConnectionContext implements HttpClientConnectionContext {
@@ -582,7 +1166,7 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
 
         @Override
         public void setRequestTimeout(final long reqTimeout) {
-            // TODO: what should this set?
+            requestTimeout = reqTimeout;
         }
 
         @Override
@@ -597,47 +1181,60 @@ public class ApacheHttpClient4Factory implements HttpClientFactory
 
         @Override
         public void setRetries(final int retries) {
-            ApacheHttpClient4Factory.this.retries = retries;
+            requestRetrier.setMaxRetries(retries);
         }
     }
 
-    /** Manages idle and expired connections. Straight from http://hc.apache.org/httpcomponents-client-ga/tutorial/html/connmgmt.html#d4e550 */
-    private class IdleTimeoutThread extends Thread {
+    /**
+     * Manages idle and expired connections. Straight from http://hc.apache.org/httpcomponents-client-ga/tutorial/html/connmgmt.html#d4e550
+     * but instead of a thread per factory, all reapers share one timer thread. Every sweep reschedules the
+     * next one, a quarter of the idle timeout later, so that no connection stays idle much longer than the idle timeout.
+     */
+    private class IdleConnectionReaper implements Runnable {
         private volatile boolean shutdown = false;
+        private volatile HashedWheelTimer.Timeout nextSweep = null;
 
-        private static final long magicWaitTime = 5000L;
-
-        private IdleTimeoutThread() {
-            setName("ApacheHttpClient4Factory IdleTimeout");
-            setDaemon(true);
+        private void schedule() {
+            if (!shutdown) {
+                nextSweep = REAPER_TIMER.schedule(this, Math.max(idleTimeout / 4, MIN_REAP_INTERVAL), TimeUnit.MILLISECONDS);
+            }
         }
 
         @Override
         public void run() {
+            if (shutdown) {
+                return;
+            }
+
             try {
-                while (!shutdown) {
-                    synchronized (this) {
-                        wait(magicWaitTime);
+                final int before = connectionManager.getConnectionsInPool();
 
-                        // Close expired connections
-                        connectionManager.closeExpiredConnections();
+                // Close expired connections
+                connectionManager.closeExpiredConnections();
 
-                        // Expire idle connections
-                        connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
-                    }
+                // Expire idle connections
+                connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+
+                // Connections opened concurrently make this an estimate; it is only used for reporting.
+                final int closed = Math.max(before - connectionManager.getConnectionsInPool(), 0);
+                if (closed > 0) {
+                    LOG.debug("Reaper sweep closed %d connections, %d remain in pool", closed, before - closed);
+                }
+                else {
+                    LOG.trace("Reaper sweep closed no connections");
                 }
-            } catch (InterruptedException ie) {
-                Thread.currentThread().interrupt();
+            }
+            finally {
+                schedule();
             }
         }
 
-
-        @edu.umd.cs.findbugs.annotations.SuppressWarnings("NN_NAKED_NOTIFY")
-        public void shutdown() {
+        private void shutdown() {
             shutdown = true;
-            this.interrupt();
-            synchronized (this) {
-                this.notifyAll();
+
+            final HashedWheelTimer.Timeout sweep = nextSweep;
+            if (sweep != null) {
+                sweep.cancel();
             }
         }
     }
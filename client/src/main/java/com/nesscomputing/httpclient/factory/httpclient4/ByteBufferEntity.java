@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import com.google.common.base.Preconditions;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import com.nesscomputing.httpclient.io.ByteBufferInputStream;
+
+/**
+ * A repeatable entity that sends the remaining bytes of a heap or direct {@link ByteBuffer}. The position and limit
+ * of the buffer are taken when the entity is created and are not changed; heap buffers are written straight from
+ * their backing array.
+ */
+final class ByteBufferEntity extends AbstractHttpEntity
+{
+    private final ByteBuffer content;
+
+    ByteBufferEntity(final ByteBuffer buffer)
+    {
+        Preconditions.checkArgument(buffer != null, "buffer can not be null!");
+        this.content = buffer.slice();
+    }
+
+    @Override
+    public boolean isRepeatable()
+    {
+        return true;
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        return content.remaining();
+    }
+
+    @Override
+    public InputStream getContent() throws IOException
+    {
+        return new ByteBufferInputStream(content);
+    }
+
+    @Override
+    public void writeTo(final OutputStream outstream) throws IOException
+    {
+        Preconditions.checkArgument(outstream != null, "Output stream may not be null");
+
+        if (content.hasArray()) {
+            outstream.write(content.array(), content.arrayOffset(), content.remaining());
+        }
+        else {
+            // Not closed, this would close the output stream.
+            final WritableByteChannel target = Channels.newChannel(outstream);
+            final ByteBuffer source = content.duplicate();
+            while (source.hasRemaining()) {
+                target.write(source);
+            }
+        }
+        outstream.flush();
+    }
+
+    /**
+     * Tells that this entity is not streaming.
+     *
+     * @return <code>false</code>
+     */
+    @Override
+    public boolean isStreaming()
+    {
+        return false;
+    }
+}
@@ -0,0 +1,366 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.base.Preconditions;
+
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Per-route circuit breakers.
+ *
+ * Every breaker counts requests and failures in a rolling window of buckets. When enough requests were seen
+ * and too many of them failed, the circuit opens and all requests to the route are rejected. After the open duration,
+ * a limited number of probe requests is let through. If they all succeed, the circuit closes again, if one of them
+ * fails, it opens again.
+ *
+ * All state is kept in atomics, the request path never takes a lock.
+ */
+class CircuitBreakers
+{
+    private static final Log LOG = Log.findLog();
+
+    /** Number of buckets in the rolling window. */
+    private static final int BUCKETS = 10;
+
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int HALF_OPEN = 2;
+
+    /**
+     * Held by the thread that moves the circuit to OPEN or HALF_OPEN while it sets up the new state. Requests are
+     * rejected meanwhile.
+     */
+    private static final int CHANGING = 3;
+
+    /** Probe round of permits that were admitted while the circuit was closed. */
+    private static final int NO_PROBE = 0;
+
+    /** Probe state layout: round in the upper 32 bits, then issued and succeeded probes with 16 bits each. */
+    private static final long ISSUED_ONE = 1L << 16;
+    private static final long SUCCEEDED_ONE = 1L;
+    private static final int COUNT_MASK = 0xffff;
+
+    private final long bucketNanos;
+    private final int minimumRequests;
+    private final int failurePercent;
+    private final long slowRequestNanos;
+    private final long openNanos;
+    private final int halfOpenProbes;
+
+    private final long baseNanos = System.nanoTime();
+
+    private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    CircuitBreakers(final HttpClientDefaults clientDefaults)
+    {
+        final long windowNanos = TimeUnit.MILLISECONDS.toNanos(clientDefaults.getCircuitBreakerWindow().getMillis());
+        Preconditions.checkArgument(windowNanos >= BUCKETS, "circuit-breaker.window must be positive!");
+
+        this.bucketNanos = windowNanos / BUCKETS;
+        this.minimumRequests = Math.max(1, clientDefaults.getCircuitBreakerMinimumRequests());
+        this.failurePercent = clientDefaults.getCircuitBreakerFailurePercent();
+        this.slowRequestNanos = TimeUnit.MILLISECONDS.toNanos(clientDefaults.getCircuitBreakerSlowRequestThreshold().getMillis());
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(clientDefaults.getCircuitBreakerOpenDuration().getMillis());
+        this.halfOpenProbes = clientDefaults.getCircuitBreakerHalfOpenProbes();
+
+        Preconditions.checkArgument(failurePercent > 0 && failurePercent <= 100, "circuit-breaker.failure-percent must be between 1 and 100!");
+        Preconditions.checkArgument(halfOpenProbes > 0 && halfOpenProbes <= COUNT_MASK, "circuit-breaker.half-open-probes must be between 1 and %s!", COUNT_MASK);
+    }
+
+    CircuitBreaker get(final String route)
+    {
+        CircuitBreaker circuitBreaker = circuitBreakers.get(route);
+        if (circuitBreaker == null) {
+            final CircuitBreaker newCircuitBreaker = new CircuitBreaker(route);
+            circuitBreaker = circuitBreakers.putIfAbsent(route, newCircuitBreaker);
+            if (circuitBreaker == null) {
+                circuitBreaker = newCircuitBreaker;
+            }
+        }
+        return circuitBreaker;
+    }
+
+    private long now()
+    {
+        return System.nanoTime() - baseNanos;
+    }
+
+    private static int getRound(final long probes)
+    {
+        return (int) (probes >>> 32);
+    }
+
+    private static int getIssued(final long probes)
+    {
+        return (int) (probes >>> 16) & COUNT_MASK;
+    }
+
+    private static int getSucceeded(final long probes)
+    {
+        return (int) probes & COUNT_MASK;
+    }
+
+    private static final class Bucket
+    {
+        private final long epoch;
+        private final AtomicInteger requests = new AtomicInteger(0);
+        private final AtomicInteger failures = new AtomicInteger(0);
+
+        private Bucket(final long epoch)
+        {
+            this.epoch = epoch;
+        }
+    }
+
+    final class CircuitBreaker
+    {
+        private final String route;
+
+        private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<Bucket>(BUCKETS);
+
+        private final AtomicInteger state = new AtomicInteger(CLOSED);
+
+        /** Written before the circuit becomes OPEN, while it is CHANGING. */
+        private volatile long openedAt = 0L;
+
+        /**
+         * Round, issued and succeeded probes, see {@link #ISSUED_ONE}. The round is incremented every time the circuit
+         * becomes half open and tells the probes of one round from later ones. Keeping all three in one value lets a
+         * probe only count towards the round that admitted it.
+         */
+        private final AtomicLong probes = new AtomicLong(0L);
+
+        private final Permit closedPermit = new Permit(this, NO_PROBE);
+
+        private CircuitBreaker(final String route)
+        {
+            this.route = route;
+        }
+
+        String getRoute()
+        {
+            return route;
+        }
+
+        boolean isOpen()
+        {
+            return state.get() == OPEN;
+        }
+
+        /**
+         * @return a permit if a request may be sent, otherwise null. Every permit must be followed by exactly one call
+         *         to {@link Permit#onSuccess(long)}, {@link Permit#onFailure()} or {@link Permit#onIgnored()}.
+         */
+        Permit tryAcquire()
+        {
+            switch (state.get()) {
+            case CLOSED:
+                return closedPermit;
+
+            case OPEN:
+                if (now() - openedAt < openNanos) {
+                    return null;
+                }
+                if (state.compareAndSet(OPEN, CHANGING)) {
+                    int round = getRound(probes.get()) + 1;
+                    if (round == NO_PROBE) {
+                        round++;
+                    }
+                    probes.set((long) round << 32);
+                    state.set(HALF_OPEN);
+                    LOG.info("Circuit for %s is half open, sending probe requests", route);
+                }
+                return tryAcquireProbe();
+
+            case HALF_OPEN:
+                return tryAcquireProbe();
+
+            case CHANGING:
+            default:
+                return null;
+            }
+        }
+
+        private Permit tryAcquireProbe()
+        {
+            while (true) {
+                final long current = probes.get();
+                if (state.get() != HALF_OPEN || getIssued(current) >= halfOpenProbes) {
+                    return null;
+                }
+                if (probes.compareAndSet(current, current + ISSUED_ONE)) {
+                    return new Permit(this, getRound(current));
+                }
+            }
+        }
+
+        /**
+         * @return the probe state if the permit is a probe of the current half open round, otherwise -1.
+         */
+        private long getCurrentProbes(final Permit permit)
+        {
+            if (permit.round == NO_PROBE) {
+                return -1L;
+            }
+            final long current = probes.get();
+            return (getRound(current) == permit.round && state.get() == HALF_OPEN) ? current : -1L;
+        }
+
+        private void onSuccess(final Permit permit, final long nanos)
+        {
+            if (slowRequestNanos > 0 && nanos > slowRequestNanos) {
+                onFailure(permit);
+                return;
+            }
+
+            record(false);
+
+            long current;
+            while ((current = getCurrentProbes(permit)) >= 0) {
+                final long next = current + SUCCEEDED_ONE;
+                if (probes.compareAndSet(current, next)) {
+                    if (getSucceeded(next) >= halfOpenProbes && state.compareAndSet(HALF_OPEN, CLOSED)) {
+                        for (int i = 0; i < BUCKETS; i++) {
+                            buckets.set(i, null);
+                        }
+                        LOG.info("Circuit for %s is closed", route);
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void onFailure(final Permit permit)
+        {
+            final long now = record(true);
+
+            if (getCurrentProbes(permit) >= 0) {
+                trip(HALF_OPEN, now);
+                return;
+            }
+
+            // Requests admitted while the circuit was closed only count towards the failure rate while it still is.
+            if (permit.round == NO_PROBE && state.get() == CLOSED) {
+                int requests = 0;
+                int failures = 0;
+                final long epoch = now / bucketNanos;
+                for (int i = 0; i < BUCKETS; i++) {
+                    final Bucket bucket = buckets.get(i);
+                    if (bucket != null && bucket.epoch > epoch - BUCKETS) {
+                        requests += bucket.requests.get();
+                        failures += bucket.failures.get();
+                    }
+                }
+                if (requests >= minimumRequests && failures * 100L >= requests * (long) failurePercent) {
+                    trip(CLOSED, now);
+                }
+            }
+        }
+
+        private void onIgnored(final Permit permit)
+        {
+            long current;
+            while ((current = getCurrentProbes(permit)) >= 0) {
+                if (probes.compareAndSet(current, current - ISSUED_ONE)) {
+                    return;
+                }
+            }
+        }
+
+        private void trip(final int expected, final long now)
+        {
+            if (state.compareAndSet(expected, CHANGING)) {
+                openedAt = now;
+                state.set(OPEN);
+                LOG.warn("Circuit for %s is open, rejecting requests for %d ms", route, TimeUnit.NANOSECONDS.toMillis(openNanos));
+            }
+        }
+
+        private long record(final boolean failure)
+        {
+            final long now = now();
+            final long epoch = now / bucketNanos;
+            final int index = (int) (epoch % BUCKETS);
+
+            Bucket bucket = buckets.get(index);
+            while (bucket == null || bucket.epoch < epoch) {
+                final Bucket newBucket = new Bucket(epoch);
+                if (buckets.compareAndSet(index, bucket, newBucket)) {
+                    bucket = newBucket;
+                    break;
+                }
+                bucket = buckets.get(index);
+            }
+
+            bucket.requests.incrementAndGet();
+            if (failure) {
+                bucket.failures.incrementAndGet();
+            }
+            return now;
+        }
+    }
+
+    /**
+     * A request admitted by a circuit breaker. Remembers whether it was admitted as a probe, so that only probe
+     * results decide whether a half open circuit closes or opens again.
+     */
+    static final class Permit
+    {
+        private final CircuitBreaker circuitBreaker;
+        private final int round;
+
+        private Permit(final CircuitBreaker circuitBreaker, final int round)
+        {
+            this.circuitBreaker = circuitBreaker;
+            this.round = round;
+        }
+
+        /**
+         * A response was received.
+         *
+         * @param nanos time it took to receive the response.
+         */
+        void onSuccess(final long nanos)
+        {
+            circuitBreaker.onSuccess(this, nanos);
+        }
+
+        /**
+         * The request failed or the response took too long.
+         */
+        void onFailure()
+        {
+            circuitBreaker.onFailure(this);
+        }
+
+        /**
+         * The request neither succeeded nor failed, e.g. because it was aborted by the caller.
+         */
+        void onIgnored()
+        {
+            circuitBreaker.onIgnored(this);
+        }
+    }
+}
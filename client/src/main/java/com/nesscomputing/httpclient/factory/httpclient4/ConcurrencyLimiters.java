@@ -0,0 +1,343 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import com.nesscomputing.httpclient.ConcurrencyLimitException;
+import com.nesscomputing.httpclient.HttpClientConcurrencyStatistics;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+
+/**
+ * Adaptive limits for the requests in flight of a client and of each of its routes.
+ *
+ * The limits follow a gradient algorithm: a long term average of the round trip time approximates the latency
+ * of an idle server. While the latest round trip time stays close to it, the limit grows by about its square root,
+ * when it rises above, the limit shrinks in proportion. Requests that time out or are rejected by the server cut the
+ * limit by ten percent.
+ */
+class ConcurrencyLimiters implements HttpClientConcurrencyStatistics
+{
+    private static final String CLIENT_ROUTE = "*";
+
+    /** Number of samples the long term round trip time is averaged over. */
+    private static final int LONG_WINDOW = 600;
+
+    /** Latency increase over the long term average that is tolerated before the limit shrinks. */
+    private static final double RTT_TOLERANCE = 1.5;
+
+    /** Weight of a new limit estimate. */
+    private static final double SMOOTHING = 0.2;
+
+    /** Factor applied to the limit when a request was dropped. */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long maxQueueWaitNanos;
+
+    private final Limiter clientLimiter;
+    private final ConcurrentMap<String, Limiter> routeLimiters = new ConcurrentHashMap<String, Limiter>();
+
+    private final AtomicInteger queued = new AtomicInteger(0);
+    private final AtomicLong rejected = new AtomicLong(0L);
+
+    ConcurrencyLimiters(final HttpClientDefaults clientDefaults)
+    {
+        this.minLimit = clientDefaults.getConcurrencyLimitMinLimit();
+        this.maxLimit = clientDefaults.getConcurrencyLimitMaxLimit();
+        this.initialLimit = clientDefaults.getConcurrencyLimitInitialLimit();
+        this.maxQueue = clientDefaults.getConcurrencyLimitMaxQueue();
+        this.maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(clientDefaults.getConcurrencyLimitMaxQueueWait().getMillis());
+
+        Preconditions.checkArgument(minLimit > 0, "concurrency-limit.min-limit must be at least 1!");
+        Preconditions.checkArgument(maxLimit >= minLimit, "concurrency-limit.max-limit must not be less than concurrency-limit.min-limit!");
+        Preconditions.checkArgument(initialLimit >= minLimit && initialLimit <= maxLimit, "concurrency-limit.initial-limit must be between min-limit and max-limit!");
+        Preconditions.checkArgument(maxQueue >= 0, "concurrency-limit.max-queue must not be negative!");
+
+        this.clientLimiter = new Limiter(CLIENT_ROUTE);
+    }
+
+    /**
+     * Wait until both the client and the route limit allow another request.
+     *
+     * @param maxWaitNanos the time left for the request, the wait is also limited by the configured queue wait.
+     *
+     * @throws ConcurrencyLimitException if the queue is full or the request waited too long.
+     */
+    Permit acquire(final String route, final long maxWaitNanos) throws IOException
+    {
+        final Limiter routeLimiter = getRouteLimiter(route);
+
+        final long deadline = System.nanoTime() + Math.min(maxQueueWaitNanos, maxWaitNanos);
+        clientLimiter.acquire(deadline);
+        try {
+            routeLimiter.acquire(deadline);
+        }
+        catch (IOException ioe) {
+            clientLimiter.release();
+            throw ioe;
+        }
+        return new Permit(routeLimiter);
+    }
+
+    private Limiter getRouteLimiter(final String route)
+    {
+        Limiter limiter = routeLimiters.get(route);
+        if (limiter == null) {
+            final Limiter newLimiter = new Limiter(route);
+            limiter = routeLimiters.putIfAbsent(route, newLimiter);
+            if (limiter == null) {
+                limiter = newLimiter;
+            }
+        }
+        return limiter;
+    }
+
+    @Override
+    public int getLimit()
+    {
+        return clientLimiter.limit;
+    }
+
+    @Override
+    public int getInFlight()
+    {
+        return clientLimiter.inFlight.get();
+    }
+
+    @Override
+    public int getQueued()
+    {
+        return queued.get();
+    }
+
+    @Override
+    public long getRejected()
+    {
+        return rejected.get();
+    }
+
+    @Override
+    public Map<String, Integer> getRouteLimits()
+    {
+        final ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+        for (final Map.Entry<String, Limiter> entry : routeLimiters.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().limit);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public Map<String, Integer> getRouteInFlight()
+    {
+        final ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+        for (final Map.Entry<String, Limiter> entry : routeLimiters.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().inFlight.get());
+        }
+        return builder.build();
+    }
+
+    /**
+     * A request admitted by the client and the route limit. Must be released exactly once.
+     */
+    final class Permit
+    {
+        private final Limiter routeLimiter;
+        private final int clientInFlight;
+        private final int routeInFlight;
+
+        private Permit(final Limiter routeLimiter)
+        {
+            this.routeLimiter = routeLimiter;
+            this.clientInFlight = clientLimiter.inFlight.get();
+            this.routeInFlight = routeLimiter.inFlight.get();
+        }
+
+        /**
+         * Called for every attempt of the request that received a response, retries included.
+         *
+         * @param rttNanos time from sending the attempt until its response was received.
+         * @param dropped true if the server rejected the attempt because of load.
+         */
+        void onResponse(final long rttNanos, final boolean dropped)
+        {
+            if (dropped || rttNanos > 0) {
+                routeLimiter.onSample(rttNanos, routeInFlight, dropped);
+                clientLimiter.onSample(rttNanos, clientInFlight, dropped);
+            }
+        }
+
+        /**
+         * @param timedOut true if the request timed out without receiving a response.
+         */
+        void release(final boolean timedOut)
+        {
+            routeLimiter.release();
+            clientLimiter.release();
+
+            if (timedOut) {
+                routeLimiter.onSample(-1L, routeInFlight, true);
+                clientLimiter.onSample(-1L, clientInFlight, true);
+            }
+        }
+    }
+
+    private final class Limiter
+    {
+        private final String route;
+
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+        private final AtomicInteger waiting = new AtomicInteger(0);
+        private volatile int limit = initialLimit;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition available = lock.newCondition();
+
+        // Guarded by this.
+        private double estimatedLimit = initialLimit;
+        private double longRtt = 0.0;
+
+        private Limiter(final String route)
+        {
+            this.route = route;
+        }
+
+        private boolean tryAcquire()
+        {
+            while (true) {
+                final int current = inFlight.get();
+                if (current >= limit) {
+                    return false;
+                }
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void acquire(final long deadline) throws IOException
+        {
+            if (tryAcquire()) {
+                return;
+            }
+
+            if (queued.incrementAndGet() > maxQueue) {
+                queued.decrementAndGet();
+                throw reject();
+            }
+
+            waiting.incrementAndGet();
+            lock.lock();
+            try {
+                while (!tryAcquire()) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw reject();
+                    }
+                    available.awaitNanos(remaining);
+                }
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(String.format("Interrupted while waiting for the concurrency limit of %s", route));
+            }
+            finally {
+                lock.unlock();
+                waiting.decrementAndGet();
+                queued.decrementAndGet();
+            }
+        }
+
+        private ConcurrencyLimitException reject()
+        {
+            rejected.incrementAndGet();
+            return new ConcurrencyLimitException(route, limit);
+        }
+
+        private void release()
+        {
+            inFlight.decrementAndGet();
+            signal();
+        }
+
+        private void signal()
+        {
+            if (waiting.get() > 0) {
+                lock.lock();
+                try {
+                    available.signalAll();
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        private void onSample(final long rttNanos, final int inFlightAtStart, final boolean dropped)
+        {
+            final int oldLimit;
+            final int newLimit;
+
+            synchronized (this) {
+                oldLimit = limit;
+
+                if (dropped) {
+                    estimatedLimit = Math.max(minLimit, estimatedLimit * BACKOFF_RATIO);
+                }
+                else {
+                    final double shortRtt = rttNanos;
+                    longRtt = (longRtt == 0.0) ? shortRtt : longRtt + (shortRtt - longRtt) * 2.0 / (LONG_WINDOW + 1);
+
+                    // After an overload the long term average lags behind, let it recover faster.
+                    if (longRtt / shortRtt > 2.0) {
+                        longRtt *= 0.95;
+                    }
+
+                    // If the limit was not used, the sample says nothing about whether it can grow.
+                    if (inFlightAtStart < estimatedLimit / 2) {
+                        return;
+                    }
+
+                    final double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * longRtt / shortRtt));
+                    final double target = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+                    estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit * (1.0 - SMOOTHING) + target * SMOOTHING));
+                }
+
+                newLimit = (int) estimatedLimit;
+                limit = newLimit;
+            }
+
+            if (newLimit > oldLimit) {
+                signal();
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.routing.HttpRoutePlanner;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * Opens connections to a list of routes in parallel and parks them in the pool, so that the first
+ * requests after a start do not pay for the TCP and SSL handshakes.
+ */
+class ConnectionWarmer
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final int MAX_THREADS = 16;
+
+    private final ThreadSafeClientConnManager connectionManager;
+    private final HttpRoutePlanner routePlanner;
+    private final HttpParams params;
+
+    ConnectionWarmer(final ThreadSafeClientConnManager connectionManager, final HttpRoutePlanner routePlanner, final HttpParams params)
+    {
+        this.connectionManager = connectionManager;
+        this.routePlanner = routePlanner;
+        this.params = params;
+    }
+
+    /**
+     * Open connections to all targets and wait until they are open or the timeout expired. Never throws,
+     * failures are logged per route.
+     */
+    void warmup(final List<URI> targets, final int connectionsPerRoute, final long timeout)
+    {
+        final List<RouteWarmup> routeWarmups = Lists.newArrayList();
+        int tasks = 0;
+
+        for (final URI target : targets) {
+            final HttpHost host = URIUtils.extractHost(target);
+            if (host == null) {
+                LOG.warn("Can not warm up '%s', no host found!", target);
+                continue;
+            }
+
+            try {
+                // Use the same route that a request to the target would use, otherwise the connections will never be reused.
+                final HttpRoute route = routePlanner.determineRoute(host, new HttpGet(target), new BasicHttpContext());
+                final int connections = Math.min(connectionsPerRoute, connectionManager.getMaxForRoute(route));
+                routeWarmups.add(new RouteWarmup(route, connections));
+                tasks += connections;
+            }
+            catch (HttpException he) {
+                LOG.warn(he, "Can not warm up '%s'", target);
+            }
+        }
+
+        if (tasks == 0) {
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(tasks, MAX_THREADS),
+                                                                      new ThreadFactoryBuilder()
+                                                                          .setNameFormat("ApacheHttpClient4Factory Warmup-%d")
+                                                                          .setDaemon(true)
+                                                                          .build());
+
+        final long startTime = System.nanoTime();
+
+        try {
+            for (final RouteWarmup routeWarmup : routeWarmups) {
+                for (int i = 0; i < routeWarmup.connections; i++) {
+                    executor.execute(routeWarmup.newTask(startTime, timeout));
+                }
+            }
+
+            executor.shutdown();
+            if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Connection warmup did not finish in %d ms", timeout);
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            executor.shutdownNow();
+
+            for (final RouteWarmup routeWarmup : routeWarmups) {
+                routeWarmup.finish();
+            }
+        }
+    }
+
+    private class RouteWarmup
+    {
+        private final HttpRoute route;
+        private final int connections;
+
+        private final List<ManagedClientConnection> openConnections = Lists.newArrayList();
+        private int failed = 0;
+        private long elapsedMillis = 0;
+        private Exception lastFailure = null;
+        private boolean finished = false;
+
+        private RouteWarmup(final HttpRoute route, final int connections)
+        {
+            this.route = route;
+            this.connections = connections;
+        }
+
+        private Runnable newTask(final long startTime, final long timeout)
+        {
+            return new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        final ManagedClientConnection connection = connectionManager.requestConnection(route, null).getConnection(timeout, TimeUnit.MILLISECONDS);
+                        try {
+                            connection.open(route, new BasicHttpContext(), params);
+                            connection.markReusable();
+                        }
+                        catch (IOException ioe) {
+                            connection.abortConnection();
+                            throw ioe;
+                        }
+                        opened(connection, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                    }
+                    catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        failed(ie);
+                    }
+                    catch (Exception e) {
+                        failed(e);
+                    }
+                }
+            };
+        }
+
+        private void opened(final ManagedClientConnection connection, final long elapsed)
+        {
+            synchronized (this) {
+                if (!finished) {
+                    // Keep the connection leased until all connections to the route are open, otherwise
+                    // the next task would get this connection back instead of opening a new one.
+                    openConnections.add(connection);
+                    elapsedMillis = Math.max(elapsedMillis, elapsed);
+                    return;
+                }
+            }
+            connectionManager.releaseConnection(connection, -1, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void failed(final Exception e)
+        {
+            failed++;
+            lastFailure = e;
+        }
+
+        private synchronized void finish()
+        {
+            finished = true;
+
+            for (final ManagedClientConnection connection : openConnections) {
+                connectionManager.releaseConnection(connection, -1, TimeUnit.MILLISECONDS);
+            }
+
+            final int opened = openConnections.size();
+            openConnections.clear();
+
+            if (opened == connections) {
+                LOG.info("Warmed up %d connections to %s in %d ms", opened, route.getTargetHost(), elapsedMillis);
+            }
+            else {
+                LOG.warn(lastFailure, "Warmed up only %d of %d connections to %s (%d failed)", opened, connections, route.getTargetHost(), failed);
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.nesscomputing.httpclient.HttpClientBalancingStrategy;
+import com.nesscomputing.httpclient.HttpClientEndpointProvider;
+
+/**
+ * Picks an endpoint for requests to a logical service and keeps track of the requests in flight to each endpoint.
+ *
+ * Endpoints that the provider no longer lists are dropped once they have no requests in flight, so that services
+ * whose endpoints keep changing do not accumulate state.
+ */
+class EndpointSelector
+{
+    private final HttpClientEndpointProvider endpointProvider;
+    private final HttpClientBalancingStrategy strategy;
+
+    private final ConcurrentMap<String, ConcurrentMap<URI, Endpoint>> services = new ConcurrentHashMap<String, ConcurrentMap<URI, Endpoint>>();
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    EndpointSelector(final HttpClientEndpointProvider endpointProvider, final HttpClientBalancingStrategy strategy)
+    {
+        this.endpointProvider = endpointProvider;
+        this.strategy = strategy;
+    }
+
+    static boolean isServiceUri(final URI uri)
+    {
+        return HttpClientEndpointProvider.SERVICE_SCHEME.equalsIgnoreCase(uri.getScheme());
+    }
+
+    Endpoint select(final URI serviceUri) throws UnknownHostException
+    {
+        final String service = serviceUri.getAuthority();
+        final List<URI> candidates = (service == null) ? null : endpointProvider.getEndpoints(service);
+        if (candidates == null || candidates.isEmpty()) {
+            if (service != null) {
+                prune(service, Collections.<URI>emptyList());
+            }
+            throw new UnknownHostException(String.format("No endpoints for service '%s'", service));
+        }
+
+        // Every endpoint is added when it is first selected, so more endpoints than candidates means that some
+        // of them are no longer listed. Prune before looking up the endpoints, pruning may drop the service.
+        final int size = candidates.size();
+        if (getEndpointCount(service) > size) {
+            prune(service, candidates);
+        }
+
+        final ConcurrentMap<URI, Endpoint> endpoints = getEndpoints(service);
+
+        if (size == 1) {
+            return getEndpoint(endpoints, candidates.get(0));
+        }
+
+        switch (strategy) {
+        case LEAST_OUTSTANDING:
+            final int offset = nextIndex(size);
+            Endpoint best = null;
+            for (int i = 0; i < size; i++) {
+                final Endpoint endpoint = getEndpoint(endpoints, candidates.get((offset + i) % size));
+                if (best == null || endpoint.getInFlight() < best.getInFlight()) {
+                    best = endpoint;
+                }
+            }
+            return best;
+
+        case POWER_OF_TWO_CHOICES:
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final int first = random.nextInt(size);
+            final int second = (first + 1 + random.nextInt(size - 1)) % size;
+            final Endpoint a = getEndpoint(endpoints, candidates.get(first));
+            final Endpoint b = getEndpoint(endpoints, candidates.get(second));
+            return (b.getInFlight() < a.getInFlight()) ? b : a;
+
+        case ROUND_ROBIN:
+        default:
+            return getEndpoint(endpoints, candidates.get(nextIndex(size)));
+        }
+    }
+
+    private int nextIndex(final int size)
+    {
+        return (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+    }
+
+    /**
+     * @return the number of endpoints that are tracked for a service.
+     */
+    int getEndpointCount(final String service)
+    {
+        final ConcurrentMap<URI, Endpoint> endpoints = services.get(service);
+        return (endpoints == null) ? 0 : endpoints.size();
+    }
+
+    private ConcurrentMap<URI, Endpoint> getEndpoints(final String service)
+    {
+        ConcurrentMap<URI, Endpoint> endpoints = services.get(service);
+        if (endpoints == null) {
+            final ConcurrentMap<URI, Endpoint> newEndpoints = new ConcurrentHashMap<URI, Endpoint>();
+            endpoints = services.putIfAbsent(service, newEndpoints);
+            if (endpoints == null) {
+                endpoints = newEndpoints;
+            }
+        }
+        return endpoints;
+    }
+
+    /**
+     * Drops the endpoints of a service that are not in the current list and have no requests in flight. An endpoint
+     * that was just selected from an older list may be dropped before its request is counted; it is then tracked
+     * again from scratch if it comes back.
+     */
+    private void prune(final String service, final List<URI> candidates)
+    {
+        final ConcurrentMap<URI, Endpoint> endpoints = services.get(service);
+        if (endpoints == null) {
+            return;
+        }
+
+        final Set<URI> current = new HashSet<URI>(candidates);
+        for (Endpoint endpoint : endpoints.values()) {
+            if (!current.contains(endpoint.base) && endpoint.getInFlight() == 0) {
+                endpoints.remove(endpoint.base, endpoint);
+            }
+        }
+
+        if (endpoints.isEmpty()) {
+            services.remove(service, endpoints);
+        }
+    }
+
+    private static Endpoint getEndpoint(final ConcurrentMap<URI, Endpoint> endpoints, final URI base)
+    {
+        Endpoint endpoint = endpoints.get(base);
+        if (endpoint == null) {
+            final Endpoint newEndpoint = new Endpoint(base);
+            endpoint = endpoints.putIfAbsent(base, newEndpoint);
+            if (endpoint == null) {
+                endpoint = newEndpoint;
+            }
+        }
+        return endpoint;
+    }
+
+    static final class Endpoint
+    {
+        private final URI base;
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+
+        private Endpoint(final URI base)
+        {
+            this.base = base;
+        }
+
+        /**
+         * @return the request URI on this endpoint for a service URI.
+         */
+        URI resolve(final URI serviceUri)
+        {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(base.getScheme()).append("://").append(base.getRawAuthority());
+            sb.append(StringUtils.removeEnd(StringUtils.defaultString(base.getRawPath()), "/"));
+
+            final String path = serviceUri.getRawPath();
+            if (StringUtils.isEmpty(path)) {
+                sb.append('/');
+            }
+            else {
+                sb.append(path);
+            }
+
+            if (serviceUri.getRawQuery() != null) {
+                sb.append('?').append(serviceUri.getRawQuery());
+            }
+            if (serviceUri.getRawFragment() != null) {
+                sb.append('#').append(serviceUri.getRawFragment());
+            }
+            return URI.create(sb.toString());
+        }
+
+        int getInFlight()
+        {
+            return inFlight.get();
+        }
+
+        void acquire()
+        {
+            inFlight.incrementAndGet();
+        }
+
+        void release()
+        {
+            inFlight.decrementAndGet();
+        }
+
+        @Override
+        public String toString()
+        {
+            return base.toString();
+        }
+    }
+}
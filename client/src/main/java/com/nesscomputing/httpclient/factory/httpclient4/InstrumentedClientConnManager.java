@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+
+import com.nesscomputing.httpclient.HttpClientDnsResolver;
+import com.nesscomputing.httpclient.HttpClientPoolStatistics;
+import com.nesscomputing.httpclient.HttpClientRouteStatistics;
+
+/**
+ * Connection manager that keeps track of leased connections, waiting requests and the time spent
+ * waiting for a connection. The pool itself does not expose any of this.
+ */
+class InstrumentedClientConnManager extends ThreadSafeClientConnManager implements HttpClientPoolStatistics
+{
+    private static final long [] LEASE_WAIT_BUCKETS = new long [] { 0L, 1L, 5L, 10L, 50L, 100L, 500L, 1000L, 5000L };
+
+    private final ConcurrentMap<HttpRoute, RouteCounters> routeCounters = new ConcurrentHashMap<HttpRoute, RouteCounters>();
+    private final ConcurrentMap<ManagedClientConnection, RouteCounters> leasedConnections = new ConcurrentHashMap<ManagedClientConnection, RouteCounters>();
+
+    private final AtomicLongArray leaseWaitCounts = new AtomicLongArray(LEASE_WAIT_BUCKETS.length + 1);
+    private final AtomicLong leaseFailures = new AtomicLong(0L);
+
+    InstrumentedClientConnManager(final SchemeRegistry registry, final HttpClientDnsResolver dnsResolver)
+    {
+        super(registry);
+
+        // The operator is created by the super class constructor, before any field of this class is set.
+        ((ResolvingConnectionOperator) connOperator).setDnsResolver(dnsResolver);
+    }
+
+    @Override
+    protected ClientConnectionOperator createConnectionOperator(final SchemeRegistry schemeRegistry)
+    {
+        return new ResolvingConnectionOperator(schemeRegistry);
+    }
+
+    @Override
+    public ClientConnectionRequest requestConnection(final HttpRoute route, final Object state)
+    {
+        final ClientConnectionRequest delegate = super.requestConnection(route, state);
+        final RouteCounters counters = getCounters(route);
+
+        return new ClientConnectionRequest() {
+            @Override
+            public ManagedClientConnection getConnection(final long timeout, final TimeUnit unit) throws InterruptedException, ConnectionPoolTimeoutException
+            {
+                final long startTime = System.nanoTime();
+                boolean leased = false;
+
+                counters.pending.incrementAndGet();
+                try {
+                    final ManagedClientConnection connection = delegate.getConnection(timeout, unit);
+                    counters.leased.incrementAndGet();
+                    leasedConnections.put(connection, counters);
+                    leased = true;
+                    return connection;
+                }
+                finally {
+                    counters.pending.decrementAndGet();
+                    if (leased) {
+                        recordLeaseWait(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                    }
+                    else {
+                        leaseFailures.incrementAndGet();
+                    }
+                }
+            }
+
+            @Override
+            public void abortRequest()
+            {
+                delegate.abortRequest();
+            }
+        };
+    }
+
+    @Override
+    public void releaseConnection(final ManagedClientConnection connection, final long validDuration, final TimeUnit timeUnit)
+    {
+        try {
+            super.releaseConnection(connection, validDuration, timeUnit);
+        }
+        finally {
+            // A connection may be released more than once (e.g. after an abort), only count the first release.
+            final RouteCounters counters = leasedConnections.remove(connection);
+            if (counters != null) {
+                counters.leased.decrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public int getLeased()
+    {
+        return leasedConnections.size();
+    }
+
+    @Override
+    public int getIdle()
+    {
+        return Math.max(getConnectionsInPool() - getLeased(), 0);
+    }
+
+    @Override
+    public int getPending()
+    {
+        int pending = 0;
+        for (RouteCounters counters : routeCounters.values()) {
+            pending += counters.pending.get();
+        }
+        return pending;
+    }
+
+    @Override
+    public Map<String, HttpClientRouteStatistics> getRoutes()
+    {
+        final Map<String, HttpClientRouteStatistics> result = new TreeMap<String, HttpClientRouteStatistics>();
+        for (Map.Entry<HttpRoute, RouteCounters> entry : routeCounters.entrySet()) {
+            final HttpRoute route = entry.getKey();
+            final RouteCounters counters = entry.getValue();
+            final int leased = counters.leased.get();
+
+            result.put(route.getTargetHost().toURI(),
+                       new HttpClientRouteStatistics(leased,
+                                                     Math.max(getConnectionsInPool(route) - leased, 0),
+                                                     counters.pending.get(),
+                                                     getMaxForRoute(route)));
+        }
+        return ImmutableMap.copyOf(result);
+    }
+
+    @Override
+    public long [] getLeaseWaitBuckets()
+    {
+        return LEASE_WAIT_BUCKETS.clone();
+    }
+
+    @Override
+    public long [] getLeaseWaitCounts()
+    {
+        final long [] result = new long [leaseWaitCounts.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = leaseWaitCounts.get(i);
+        }
+        return result;
+    }
+
+    @Override
+    public long getLeaseFailures()
+    {
+        return leaseFailures.get();
+    }
+
+    private void recordLeaseWait(final long waitMillis)
+    {
+        int bucket = 0;
+        while (bucket < LEASE_WAIT_BUCKETS.length && waitMillis > LEASE_WAIT_BUCKETS[bucket]) {
+            bucket++;
+        }
+        leaseWaitCounts.incrementAndGet(bucket);
+    }
+
+    private RouteCounters getCounters(final HttpRoute route)
+    {
+        RouteCounters counters = routeCounters.get(route);
+        if (counters == null) {
+            final RouteCounters newCounters = new RouteCounters();
+            counters = routeCounters.putIfAbsent(route, newCounters);
+            if (counters == null) {
+                counters = newCounters;
+            }
+        }
+        return counters;
+    }
+
+    private static final class RouteCounters
+    {
+        private final AtomicInteger leased = new AtomicInteger(0);
+        private final AtomicInteger pending = new AtomicInteger(0);
+    }
+}
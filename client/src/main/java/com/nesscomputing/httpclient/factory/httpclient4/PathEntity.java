@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.google.common.base.Preconditions;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * A repeatable entity that sends a file. The file is streamed through a single buffer, it is never read onto the heap
+ * as a whole.
+ *
+ * The length of the file is taken when the entity is created and sent as Content-Length.
+ */
+final class PathEntity extends AbstractHttpEntity
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final long length;
+
+    PathEntity(final Path path)
+    {
+        Preconditions.checkArgument(path != null, "path can not be null!");
+        this.path = path;
+
+        try {
+            this.length = Files.size(path);
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("Can not read " + path, ioe);
+        }
+    }
+
+    @Override
+    public boolean isRepeatable()
+    {
+        return true;
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        return length;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException
+    {
+        return Files.newInputStream(path);
+    }
+
+    @Override
+    public void writeTo(final OutputStream outstream) throws IOException
+    {
+        Preconditions.checkArgument(outstream != null, "Output stream may not be null");
+
+        final byte [] buffer = new byte[(int) Math.max(1L, Math.min(BUFFER_SIZE, length))];
+        final InputStream in = Files.newInputStream(path);
+        try {
+            long remaining = length;
+            while (remaining > 0) {
+                final int count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (count < 0) {
+                    throw new IOException(String.format("%s was truncated to %d bytes, expected %d", path, length - remaining, length));
+                }
+                outstream.write(buffer, 0, count);
+                remaining -= count;
+            }
+        }
+        finally {
+            in.close();
+        }
+        outstream.flush();
+    }
+
+    /**
+     * Tells that this entity is not streaming.
+     *
+     * @return <code>false</code>
+     */
+    @Override
+    public boolean isStreaming()
+    {
+        return false;
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Lock free token bucket that allows extra work (hedges, retries) up to a percentage of the regular work.
+ * Every regular request deposits the percentage, every extra request withdraws 100.
+ */
+class PercentBudget
+{
+    private static final long COST = 100L;
+
+    private final int percent;
+    private final long maxBalance;
+    private final AtomicLong balance;
+
+    /**
+     * @param percent Share of extra requests, in percent of the regular requests.
+     * @param burst Number of extra requests that can be saved up.
+     * @param full true if the budget starts with the full burst available.
+     */
+    PercentBudget(final int percent, final int burst, final boolean full)
+    {
+        Preconditions.checkArgument(percent >= 0, "percent must not be negative!");
+        Preconditions.checkArgument(burst > 0, "burst must be positive!");
+
+        this.percent = percent;
+        this.maxBalance = burst * COST;
+        this.balance = new AtomicLong(full ? maxBalance : 0L);
+    }
+
+    void deposit()
+    {
+        while (true) {
+            final long current = balance.get();
+            final long next = Math.min(maxBalance, current + percent);
+            if (next == current || balance.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    boolean tryWithdraw()
+    {
+        while (true) {
+            final long current = balance.get();
+            if (current < COST) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - COST)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientRateLimitMode;
+import com.nesscomputing.httpclient.RateLimitExceededException;
+
+/**
+ * Per-route token bucket rate limits.
+ *
+ * Each bucket is implemented as a generic cell rate algorithm: a single atomic holds the time at which the bucket
+ * will be full again ("theoretical arrival time"). Taking a token moves it forward by one emission interval with a
+ * single compare and set, so a request that is within its limit costs one clock read and one CAS.
+ */
+class RateLimiters
+{
+    private final int rateLimit;
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final HttpClientRateLimitMode mode;
+    private final long maxWaitNanos;
+
+    private final ConcurrentMap<String, RateLimiter> rateLimiters = new ConcurrentHashMap<String, RateLimiter>();
+
+    RateLimiters(final HttpClientDefaults clientDefaults)
+    {
+        this.rateLimit = clientDefaults.getRateLimit();
+        Preconditions.checkArgument(rateLimit > 0, "rate-limit must be positive!");
+
+        final int burst = (clientDefaults.getRateLimitBurst() > 0) ? clientDefaults.getRateLimitBurst() : rateLimit;
+
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / rateLimit;
+        this.burstNanos = intervalNanos * burst;
+        this.mode = Preconditions.checkNotNull(clientDefaults.getRateLimitMode(), "rate-limit.mode can not be null!");
+        this.maxWaitNanos = (mode == HttpClientRateLimitMode.BLOCK) ? TimeUnit.MILLISECONDS.toNanos(clientDefaults.getRateLimitMaxWait().getMillis()) : 0L;
+    }
+
+    /**
+     * Take a token for a request to the given route, waiting for it if necessary.
+     *
+     * @param maxWaitNanos the time left for the request, the wait is also limited by the configured maximum wait.
+     *
+     * @throws RateLimitExceededException if there is no token and the request can not wait for one.
+     */
+    void acquire(final String route, final long maxWaitNanos) throws IOException
+    {
+        final long waitNanos = get(route).reserve(Math.min(this.maxWaitNanos, maxWaitNanos));
+        if (waitNanos < 0) {
+            throw new RateLimitExceededException(route, rateLimit);
+        }
+
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(String.format("Interrupted while waiting for the rate limit of %s", route));
+            }
+        }
+    }
+
+    private RateLimiter get(final String route)
+    {
+        RateLimiter rateLimiter = rateLimiters.get(route);
+        if (rateLimiter == null) {
+            final RateLimiter newRateLimiter = new RateLimiter();
+            rateLimiter = rateLimiters.putIfAbsent(route, newRateLimiter);
+            if (rateLimiter == null) {
+                rateLimiter = newRateLimiter;
+            }
+        }
+        return rateLimiter;
+    }
+
+    private final class RateLimiter
+    {
+        private final AtomicLong theoreticalArrivalTime = new AtomicLong(System.nanoTime() - burstNanos);
+
+        /**
+         * @return nanoseconds to wait before the request may be sent, or -1 if it must be rejected.
+         */
+        private long reserve(final long maxWaitNanos)
+        {
+            while (true) {
+                final long now = System.nanoTime();
+                final long tat = theoreticalArrivalTime.get();
+
+                final long base = (tat - now > 0) ? tat : now;
+                final long next = base + intervalNanos;
+                final long waitNanos = next - burstNanos - now;
+
+                if (waitNanos > maxWaitNanos) {
+                    return -1L;
+                }
+
+                if (theoreticalArrivalTime.compareAndSet(tat, next)) {
+                    return Math.max(0L, waitNanos);
+                }
+            }
+        }
+    }
+}
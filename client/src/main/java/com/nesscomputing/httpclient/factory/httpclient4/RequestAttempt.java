@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Allows aborting a request from another thread, even before the underlying HttpClient request has been created.
+ */
+final class RequestAttempt
+{
+    private volatile HttpRequestBase httpRequest = null;
+    private volatile boolean aborted = false;
+
+    void attach(final HttpRequestBase httpRequest)
+    {
+        this.httpRequest = httpRequest;
+        if (aborted) {
+            httpRequest.abort();
+        }
+    }
+
+    void abort()
+    {
+        aborted = true;
+        final HttpRequestBase request = httpRequest;
+        if (request != null) {
+            request.abort();
+        }
+    }
+
+    boolean isAborted()
+    {
+        return aborted;
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.servlet.http.Cookie;
+
+import org.apache.commons.collections.CollectionUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.SettableFuture;
+
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.internal.BufferedResponse;
+import com.nesscomputing.httpclient.internal.HttpClientHeader;
+import com.nesscomputing.httpclient.internal.HttpClientMethod;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Collapses identical GET and HEAD requests that are in flight at the same time into a single request.
+ *
+ * The first caller for a request sends it and reads the response into memory. Callers that arrive while it is in flight
+ * wait for that response, but no longer than their own request timeout. Every caller then runs its own response handler
+ * on its own copy of the body.
+ *
+ * Observers see every request in {@link com.nesscomputing.httpclient.HttpClientObserver#onRequestSubmitted(HttpClientRequest)},
+ * but {@link com.nesscomputing.httpclient.HttpClientObserver#onResponseReceived(HttpClientResponse)} is only called for the
+ * response that was actually received, i.e. once for all coalesced callers. Waiting callers get a copy of the response
+ * as the observers returned it.
+ */
+class RequestCoalescer
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final Comparator<HttpClientHeader> HEADER_NAME_ORDER = new Comparator<HttpClientHeader>() {
+        @Override
+        public int compare(final HttpClientHeader h1, final HttpClientHeader h2)
+        {
+            return String.CASE_INSENSITIVE_ORDER.compare(h1.getName(), h2.getName());
+        }
+    };
+
+    /**
+     * Sends a request on behalf of all coalesced callers.
+     */
+    interface Leader
+    {
+        BufferedResponse perform(HttpClientRequest<BufferedResponse> request) throws IOException;
+    }
+
+    private final ConcurrentMap<String, SettableFuture<BufferedResponse>> inFlight = new ConcurrentHashMap<String, SettableFuture<BufferedResponse>>();
+
+    /**
+     * @return true if identical copies of the request can share a response.
+     */
+    static boolean isCoalescable(final HttpClientRequest<?> request)
+    {
+        final HttpClientMethod method = request.getHttpMethod();
+        return (method == HttpClientMethod.GET || method == HttpClientMethod.HEAD)
+            && CollectionUtils.isEmpty(request.getAuthProviders());
+    }
+
+    /**
+     * @param deadline how long to wait for a request that is already in flight.
+     */
+    <T> T perform(final HttpClientRequest<T> request, final RequestDeadline deadline, final Leader leader) throws IOException
+    {
+        final String key = getKey(request);
+
+        final SettableFuture<BufferedResponse> future = SettableFuture.create();
+        final SettableFuture<BufferedResponse> existing = inFlight.putIfAbsent(key, future);
+
+        final BufferedResponse response;
+        if (existing == null) {
+            try {
+                final BufferedResponse leaderResponse = leader.perform(HttpClientRequest.Builder.fromRequest(request, BufferedResponse.handler()).request());
+                future.set(leaderResponse);
+                response = leaderResponse;
+            }
+            catch (IOException ioe) {
+                future.setException(ioe);
+                throw ioe;
+            }
+            catch (RuntimeException re) {
+                future.setException(re);
+                throw re;
+            }
+            catch (Error e) {
+                future.setException(e);
+                throw e;
+            }
+            finally {
+                inFlight.remove(key, future);
+            }
+        }
+        else {
+            LOG.trace("Waiting for in-flight request for %s", request.getUri());
+            response = get(request, existing, deadline);
+        }
+
+        return request.getHttpHandler().handle(response);
+    }
+
+    private static BufferedResponse get(final HttpClientRequest<?> request, final SettableFuture<BufferedResponse> future, final RequestDeadline deadline)
+        throws IOException
+    {
+        try {
+            return deadline.isBounded() ? future.get(deadline.getRemainingNanos(), TimeUnit.NANOSECONDS) : future.get();
+        }
+        catch (TimeoutException te) {
+            final SocketTimeoutException ste = new SocketTimeoutException(String.format("%s timed out", request));
+            ste.initCause(te);
+            throw ste;
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Interrupted while waiting for %s", request));
+        }
+        catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Everything that ends up on the wire is part of the key. Headers with the same name keep their order.
+     */
+    private static String getKey(final HttpClientRequest<?> request)
+    {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(request.getHttpMethod()).append(' ').append(request.getUri());
+        sb.append('\n').append(request.getVirtualHost()).append(':').append(request.getVirtualPort());
+        sb.append('\n').append(request.followRedirects());
+
+        final List<HttpClientHeader> headers = Lists.newArrayList(request.getHeaders());
+        Collections.sort(headers, HEADER_NAME_ORDER);
+        for (final HttpClientHeader header : headers) {
+            sb.append('\n').append(header.getName().toLowerCase(Locale.ENGLISH)).append(": ").append(header.getValue());
+        }
+
+        for (final Cookie cookie : request.getCookies()) {
+            sb.append("\ncookie ").append(cookie.getName()).append('=').append(cookie.getValue()).append(';').append(cookie.getDomain()).append(';').append(cookie.getPath());
+        }
+
+        for (final Map.Entry<String, Object> parameter : new TreeMap<String, Object>(request.getParameters()).entrySet()) {
+            sb.append("\nparam ").append(parameter.getKey()).append('=').append(parameter.getValue());
+        }
+
+        return sb.toString();
+    }
+}
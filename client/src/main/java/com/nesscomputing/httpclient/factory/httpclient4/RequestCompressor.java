@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.CountingOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.io.output.ProxyOutputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+
+import com.nesscomputing.httpclient.HttpClientCompressionStatistics;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.io.ContentCodec;
+import com.nesscomputing.httpclient.io.ContentCodecRegistry;
+
+/**
+ * Compresses request bodies while they are written to the connection. Bodies that are smaller than the minimum size or
+ * that already have a content encoding are sent as they are; bodies of unknown length are always compressed.
+ * Compressed bodies are sent chunked.
+ */
+class RequestCompressor implements HttpClientCompressionStatistics
+{
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final ContentCodec codec;
+    private final long minSize;
+
+    private final AtomicLong compressedRequests = new AtomicLong(0L);
+    private final AtomicLong uncompressedRequests = new AtomicLong(0L);
+    private final AtomicLong bytesIn = new AtomicLong(0L);
+    private final AtomicLong bytesOut = new AtomicLong(0L);
+    private final AtomicLong cpuTimeNanos = new AtomicLong(0L);
+    private final AtomicLong writes = new AtomicLong(0L);
+
+    RequestCompressor(final HttpClientDefaults clientDefaults)
+    {
+        this(getCodec(clientDefaults.getRequestCompressionEncoding()), clientDefaults.getRequestCompressionMinSize());
+    }
+
+    RequestCompressor(final ContentCodec codec, final long minSize)
+    {
+        Preconditions.checkArgument(codec != null, "codec can not be null!");
+        Preconditions.checkArgument(minSize >= 0, "request-compression.min-size must not be negative!");
+        this.codec = codec;
+        this.minSize = minSize;
+    }
+
+    private static ContentCodec getCodec(final String encoding)
+    {
+        final ContentCodec codec = ContentCodecRegistry.getDefault().getCodec(encoding);
+        Preconditions.checkArgument(codec != null, "Unknown request compression encoding '%s'!", encoding);
+        return codec;
+    }
+
+    HttpEntity compress(final HttpEntity entity)
+    {
+        final long length = entity.getContentLength();
+        if (entity.getContentEncoding() != null || (length >= 0 && length < minSize)) {
+            uncompressedRequests.incrementAndGet();
+            return entity;
+        }
+        compressedRequests.incrementAndGet();
+        return new CompressingEntity(entity);
+    }
+
+    @Override
+    public String getEncoding()
+    {
+        return codec.getEncoding();
+    }
+
+    @Override
+    public long getCompressedRequests()
+    {
+        return compressedRequests.get();
+    }
+
+    @Override
+    public long getUncompressedRequests()
+    {
+        return uncompressedRequests.get();
+    }
+
+    @Override
+    public long getBytesIn()
+    {
+        return bytesIn.get();
+    }
+
+    @Override
+    public long getBytesOut()
+    {
+        return bytesOut.get();
+    }
+
+    @Override
+    public double getCompressionRatio()
+    {
+        final long in = bytesIn.get();
+        return in == 0 ? 0.0 : (double) bytesOut.get() / in;
+    }
+
+    @Override
+    public long getAverageCpuTimeMicros()
+    {
+        final long count = writes.get();
+        return count == 0 ? 0L : cpuTimeNanos.get() / count / 1000L;
+    }
+
+    private static long currentCpuTime()
+    {
+        return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    private final class CompressingEntity extends HttpEntityWrapper
+    {
+        private CompressingEntity(final HttpEntity entity)
+        {
+            super(entity);
+        }
+
+        @Override
+        public long getContentLength()
+        {
+            return -1L;
+        }
+
+        @Override
+        public boolean isChunked()
+        {
+            return true;
+        }
+
+        @Override
+        public Header getContentEncoding()
+        {
+            return new BasicHeader(HTTP.CONTENT_ENCODING, codec.getEncoding());
+        }
+
+        @Override
+        public InputStream getContent() throws IOException
+        {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            writeTo(buffer);
+            return new ByteArrayInputStream(buffer.toByteArray());
+        }
+
+        @Override
+        public void writeTo(final OutputStream outstream) throws IOException
+        {
+            Preconditions.checkArgument(outstream != null, "Output stream may not be null");
+
+            final long startTime = currentCpuTime();
+            final ShieldOutputStream shield = new ShieldOutputStream(outstream);
+            final CountingOutputStream compressed = new CountingOutputStream(shield);
+            final CountingOutputStream uncompressed = new CountingOutputStream(codec.encode(compressed));
+            boolean finished = false;
+            try {
+                wrappedEntity.writeTo(uncompressed);
+                // Finishes the encoding and releases the codec, the shield keeps the connection stream open.
+                uncompressed.close();
+                finished = true;
+            }
+            finally {
+                bytesIn.addAndGet(uncompressed.getCount());
+                bytesOut.addAndGet(compressed.getCount());
+
+                if (!finished) {
+                    // Releases the codec, e.g. the native memory of a Deflater. The rest of the encoding is dropped,
+                    // the request failed already.
+                    shield.discard();
+                    IOUtils.closeQuietly(uncompressed);
+                }
+
+                cpuTimeNanos.addAndGet(currentCpuTime() - startTime);
+                writes.incrementAndGet();
+            }
+            outstream.flush();
+        }
+    }
+
+    /**
+     * Keeps the connection stream open when the encoding stream is closed. After {@link #discard()}, everything that is
+     * written is dropped.
+     */
+    private static final class ShieldOutputStream extends ProxyOutputStream
+    {
+        private ShieldOutputStream(final OutputStream out)
+        {
+            super(out);
+        }
+
+        private void discard()
+        {
+            out = NullOutputStream.NULL_OUTPUT_STREAM;
+        }
+
+        @Override
+        public void close()
+        {
+            discard();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The point in time by which a request must be complete. It is fixed when the request enters the factory, so the time
+ * spent waiting for an async thread, a concurrency permit or a rate limit token counts against the request timeout.
+ */
+final class RequestDeadline
+{
+    private static final RequestDeadline NONE = new RequestDeadline(0L, 0L);
+
+    private final long startNanos;
+    private final long timeoutMillis;
+    private final long timeoutNanos;
+
+    /**
+     * @param startNanos {@link System#nanoTime()} when the request was received.
+     * @param timeoutMillis the request timeout, 0 or less for no timeout.
+     */
+    static RequestDeadline of(final long startNanos, final long timeoutMillis)
+    {
+        return (timeoutMillis > 0) ? new RequestDeadline(startNanos, timeoutMillis) : NONE;
+    }
+
+    private RequestDeadline(final long startNanos, final long timeoutMillis)
+    {
+        this.startNanos = startNanos;
+        this.timeoutMillis = timeoutMillis;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    boolean isBounded()
+    {
+        return timeoutMillis > 0;
+    }
+
+    long getTimeoutMillis()
+    {
+        return timeoutMillis;
+    }
+
+    /**
+     * @return the time left in nanoseconds, 0 if the deadline has passed, Long.MAX_VALUE if there is no deadline.
+     */
+    long getRemainingNanos()
+    {
+        if (!isBounded()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0L, timeoutNanos - (System.nanoTime() - startNanos));
+    }
+
+    /**
+     * @return the time left in milliseconds, rounded up, 0 if the deadline has passed, Long.MAX_VALUE if there is no deadline.
+     */
+    long getRemainingMillis()
+    {
+        if (!isBounded()) {
+            return Long.MAX_VALUE;
+        }
+        final long remaining = getRemainingNanos();
+        return TimeUnit.NANOSECONDS.toMillis(remaining) + (remaining % TimeUnit.MILLISECONDS.toNanos(1) == 0 ? 0 : 1);
+    }
+
+    boolean isExpired()
+    {
+        return isBounded() && getRemainingNanos() == 0;
+    }
+}
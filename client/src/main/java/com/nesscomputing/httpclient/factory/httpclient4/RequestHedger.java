@@ -0,0 +1,300 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.SettableFuture;
+
+import com.nesscomputing.httpclient.HttpClientHedgingStatistics;
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.internal.HashedWheelTimer;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Sends a second copy of a slow request and returns whichever response arrives first.
+ *
+ * The first request runs on the calling thread, the second one on the hedge executor of the factory, which never queues
+ * a hedge behind other work. The number of hedges is limited by a budget that is refilled by every hedged request, so
+ * hedging never adds more than the configured share of extra load.
+ */
+class RequestHedger implements HttpClientHedgingStatistics
+{
+    private static final Log LOG = Log.findLog();
+
+    /** Number of latency samples kept, must be a power of two. */
+    private static final int SAMPLES = 1024;
+
+    /** Number of samples needed before a hedge delay is derived from the latency. */
+    private static final int MIN_SAMPLES = 100;
+
+    /** The percentile is recalculated whenever this many new samples were recorded. */
+    private static final int RECALCULATE_INTERVAL = 64;
+
+    /** Maximum number of hedges that can be saved up. */
+    private static final int HEDGE_BURST = 10;
+
+    /**
+     * Performs one copy of a request.
+     */
+    interface Attempt<T>
+    {
+        T perform(RequestAttempt requestAttempt) throws IOException;
+    }
+
+    private final HashedWheelTimer timer;
+    private final int percentile;
+
+    private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+    private final AtomicLong sampleCount = new AtomicLong(0L);
+    private volatile long percentileDelay = -1L;
+
+    private final PercentBudget budget;
+
+    private final AtomicLong hedgedRequests = new AtomicLong(0L);
+    private final AtomicLong hedgesSent = new AtomicLong(0L);
+    private final AtomicLong hedgesWon = new AtomicLong(0L);
+    private final AtomicLong hedgesRejected = new AtomicLong(0L);
+
+    RequestHedger(final HashedWheelTimer timer, final int percentile, final int budgetPercent)
+    {
+        Preconditions.checkArgument(percentile > 0 && percentile < 100, "hedge-percentile must be between 1 and 99!");
+        Preconditions.checkArgument(budgetPercent >= 0, "hedge-budget-percent must not be negative!");
+
+        this.timer = timer;
+        this.percentile = percentile;
+        this.budget = new PercentBudget(budgetPercent, HEDGE_BURST, false);
+    }
+
+    <T> T perform(final HttpClientRequest<T> request, @Nullable final Executor executor, final Attempt<T> attempt) throws IOException
+    {
+        hedgedRequests.incrementAndGet();
+        budget.deposit();
+
+        final Execution<T> execution = new Execution<T>(request, attempt);
+
+        final long delay = getDelay(request.getHedgeDelay());
+        HashedWheelTimer.Timeout timeout = null;
+        if (delay > 0 && executor != null) {
+            timeout = timer.schedule(new Runnable() {
+                @Override
+                public void run()
+                {
+                    execution.hedge(executor);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        try {
+            execution.run(execution.primary, execution.secondary);
+        }
+        finally {
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+
+        return execution.get();
+    }
+
+    private long getDelay(@Nullable final Long hedgeDelay)
+    {
+        if (hedgeDelay != null && hedgeDelay > 0) {
+            return hedgeDelay;
+        }
+        return percentileDelay;
+    }
+
+    private void recordLatency(final long nanos)
+    {
+        final long count = sampleCount.getAndIncrement();
+        samples.set((int) (count & (SAMPLES - 1)), nanos);
+
+        final long recorded = count + 1;
+        if (recorded >= MIN_SAMPLES && recorded % RECALCULATE_INTERVAL == 0) {
+            final int size = (int) Math.min(recorded, SAMPLES);
+            final long[] values = new long[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = samples.get(i);
+            }
+            Arrays.sort(values);
+
+            final int index = Math.max(0, (size * percentile + 99) / 100 - 1);
+            percentileDelay = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(values[index]));
+        }
+    }
+
+    @Override
+    public long getHedgedRequests()
+    {
+        return hedgedRequests.get();
+    }
+
+    @Override
+    public long getHedgesSent()
+    {
+        return hedgesSent.get();
+    }
+
+    @Override
+    public long getHedgesWon()
+    {
+        return hedgesWon.get();
+    }
+
+    @Override
+    public long getHedgesRejected()
+    {
+        return hedgesRejected.get();
+    }
+
+    @Override
+    public long getHedgeDelayMillis()
+    {
+        return percentileDelay;
+    }
+
+    /**
+     * State of a single hedged request.
+     */
+    private final class Execution<T>
+    {
+        private final HttpClientRequest<T> request;
+        private final Attempt<T> attempt;
+
+        private final RequestAttempt primary = new RequestAttempt();
+        private final RequestAttempt secondary = new RequestAttempt();
+
+        private final SettableFuture<T> result = SettableFuture.create();
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        private Execution(final HttpClientRequest<T> request, final Attempt<T> attempt)
+        {
+            this.request = request;
+            this.attempt = attempt;
+        }
+
+        private void hedge(final Executor executor)
+        {
+            if (completed.get() || result.isDone()) {
+                return;
+            }
+
+            if (!budget.tryWithdraw()) {
+                LOG.trace("Hedge budget exhausted, not hedging %s", request);
+                hedgesRejected.incrementAndGet();
+                return;
+            }
+
+            pending.incrementAndGet();
+            if (completed.get() || result.isDone()) {
+                finished();
+                return;
+            }
+
+            LOG.trace("Hedging %s", request);
+            hedgesSent.incrementAndGet();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        Execution.this.run(secondary, primary);
+                    }
+                });
+            }
+            catch (RejectedExecutionException ree) {
+                LOG.debug(ree, "Could not hedge %s", request);
+                finished();
+            }
+        }
+
+        private void run(final RequestAttempt self, final RequestAttempt other)
+        {
+            final long start = System.nanoTime();
+            try {
+                final T value = attempt.perform(self);
+                if (completed.compareAndSet(false, true)) {
+                    // Update the counters before the caller is woken up.
+                    recordLatency(System.nanoTime() - start);
+                    if (self == secondary) {
+                        hedgesWon.incrementAndGet();
+                    }
+                    result.set(value);
+                    other.abort();
+                }
+            }
+            catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+            finally {
+                finished();
+            }
+        }
+
+        private void finished()
+        {
+            if (pending.decrementAndGet() == 0) {
+                final Throwable t = failure.get();
+                if (t != null) {
+                    result.setException(t);
+                }
+            }
+        }
+
+        private T get() throws IOException
+        {
+            try {
+                return result.get();
+            }
+            catch (InterruptedException ie) {
+                primary.abort();
+                secondary.abort();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(String.format("Interrupted while waiting for %s", request));
+            }
+            catch (ExecutionException ee) {
+                final Throwable cause = ee.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+}
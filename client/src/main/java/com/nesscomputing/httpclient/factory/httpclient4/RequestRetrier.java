@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.UnknownHostException;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLException;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HttpHeaders;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientRetryStatistics;
+
+/**
+ * Decides whether and when a failed request is retried.
+ *
+ * Retries are delayed by a random time up to an exponentially growing backoff ("full jitter"), or by the time a
+ * 429 or 503 response asked for in its Retry-After header. All retries of a client draw from a budget that is refilled
+ * by every request, so during an outage the retries add at most the configured share of load.
+ */
+class RequestRetrier implements HttpClientRetryStatistics
+{
+    /** Number of retries that can be saved up. */
+    private static final int RETRY_BURST = 10;
+
+    private static final Set<String> IDEMPOTENT_METHODS = ImmutableSet.of("GET", "HEAD", "OPTIONS", "PUT", "DELETE", "TRACE");
+
+    /** Not defined in {@link HttpStatus}. */
+    static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private volatile int maxRetries;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final long maxRetryAfter;
+    private final String idempotencyKeyHeader;
+
+    private final PercentBudget budget;
+
+    private final AtomicLong retriesAttempted = new AtomicLong(0L);
+    private final AtomicLong retriesSuppressed = new AtomicLong(0L);
+    private final AtomicLong retriesExhausted = new AtomicLong(0L);
+
+    RequestRetrier(final HttpClientDefaults clientDefaults)
+    {
+        this.initialBackoff = clientDefaults.getRetryInitialBackoff().getMillis();
+        this.maxBackoff = clientDefaults.getRetryMaxBackoff().getMillis();
+        this.maxRetryAfter = clientDefaults.getRetryMaxRetryAfter().getMillis();
+        this.idempotencyKeyHeader = StringUtils.trimToNull(clientDefaults.getIdempotencyKeyHeader());
+
+        Preconditions.checkArgument(initialBackoff > 0, "retry.initial-backoff must be positive!");
+        Preconditions.checkArgument(maxBackoff >= initialBackoff, "retry.max-backoff must not be less than retry.initial-backoff!");
+
+        this.budget = new PercentBudget(clientDefaults.getRetryBudgetPercent(), RETRY_BURST, true);
+
+        setMaxRetries(clientDefaults.getRetries());
+    }
+
+    void setMaxRetries(final int maxRetries)
+    {
+        Preconditions.checkArgument(maxRetries >= 0, "retries must not be negative!");
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Must be called once for every request before it is sent for the first time.
+     *
+     * @return true if the request may be retried at all.
+     */
+    boolean onRequest(final HttpRequestBase httpRequest)
+    {
+        budget.deposit();
+
+        if (maxRetries == 0) {
+            return false;
+        }
+
+        if (!IDEMPOTENT_METHODS.contains(httpRequest.getMethod())
+            && (idempotencyKeyHeader == null || !httpRequest.containsHeader(idempotencyKeyHeader))) {
+            return false;
+        }
+
+        if (httpRequest instanceof HttpEntityEnclosingRequest) {
+            final HttpEntity entity = ((HttpEntityEnclosingRequest) httpRequest).getEntity();
+            return entity == null || entity.isRepeatable();
+        }
+        return true;
+    }
+
+    /**
+     * @param retry number of retries already sent for the request.
+     * @param timeLeft milliseconds until the deadline of the request. No retry is sent if it could not start before.
+     * @return milliseconds to wait before the request is sent again, or -1 if the exception should be thrown.
+     */
+    long getBackoff(final int retry, final IOException ioe, final long timeLeft)
+    {
+        // Timeouts, aborted requests, DNS and SSL problems are not helped by trying again right away.
+        if ((ioe instanceof InterruptedIOException && !(ioe instanceof ConnectTimeoutException))
+            || ioe instanceof UnknownHostException
+            || ioe instanceof SSLException) {
+            return -1L;
+        }
+        return acquire(retry, -1L, timeLeft);
+    }
+
+    /**
+     * @param retry number of retries already sent for the request.
+     * @param timeLeft milliseconds until the deadline of the request. No retry is sent if it could not start before.
+     * @return milliseconds to wait before the request is sent again, or -1 if the response should be returned.
+     */
+    long getBackoff(final int retry, final HttpResponse httpResponse, final long timeLeft)
+    {
+        final int statusCode = httpResponse.getStatusLine().getStatusCode();
+        if (statusCode != SC_TOO_MANY_REQUESTS && statusCode != HttpStatus.SC_SERVICE_UNAVAILABLE) {
+            return -1L;
+        }
+
+        final long retryAfter = getRetryAfter(httpResponse.getFirstHeader(HttpHeaders.RETRY_AFTER));
+        if (retryAfter > maxRetryAfter) {
+            return -1L;
+        }
+        return acquire(retry, retryAfter, timeLeft);
+    }
+
+    private long acquire(final int retry, final long retryAfter, final long timeLeft)
+    {
+        if (retry >= maxRetries) {
+            retriesExhausted.incrementAndGet();
+            return -1L;
+        }
+
+        final long backoff;
+        if (retryAfter >= 0) {
+            backoff = retryAfter;
+        }
+        else {
+            backoff = ThreadLocalRandom.current().nextLong(Math.min(maxBackoff, initialBackoff << Math.min(retry, 30)) + 1);
+        }
+
+        // The retry would be aborted by the request timeout before it is sent, so do not spend budget on it.
+        if (backoff >= timeLeft) {
+            return -1L;
+        }
+
+        if (!budget.tryWithdraw()) {
+            retriesSuppressed.incrementAndGet();
+            return -1L;
+        }
+
+        retriesAttempted.incrementAndGet();
+        return backoff;
+    }
+
+    /**
+     * @return the delay requested by a Retry-After header in milliseconds, or -1 if there is none.
+     */
+    private static long getRetryAfter(@Nullable final Header header)
+    {
+        final String value = (header == null) ? null : StringUtils.trimToNull(header.getValue());
+        if (value == null) {
+            return -1L;
+        }
+
+        if (StringUtils.isNumeric(value)) {
+            try {
+                return Math.min(Long.parseLong(value), Long.MAX_VALUE / 1000L) * 1000L;
+            }
+            catch (NumberFormatException nfe) {
+                return -1L;
+            }
+        }
+
+        try {
+            final Date date = DateUtils.parseDate(value);
+            return Math.max(0L, date.getTime() - System.currentTimeMillis());
+        }
+        catch (DateParseException dpe) {
+            return -1L;
+        }
+    }
+
+    @Override
+    public long getRetriesAttempted()
+    {
+        return retriesAttempted.get();
+    }
+
+    @Override
+    public long getRetriesSuppressed()
+    {
+        return retriesSuppressed.get();
+    }
+
+    @Override
+    public long getRetriesExhausted()
+    {
+        return retriesExhausted.get();
+    }
+}
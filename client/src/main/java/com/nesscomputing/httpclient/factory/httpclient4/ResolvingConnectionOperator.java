@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+
+import com.nesscomputing.httpclient.HttpClientDnsResolver;
+
+/**
+ * Connection operator that resolves host names with a {@link HttpClientDnsResolver}.
+ */
+class ResolvingConnectionOperator extends DefaultClientConnectionOperator
+{
+    private volatile HttpClientDnsResolver dnsResolver = null;
+
+    ResolvingConnectionOperator(final SchemeRegistry schemeRegistry)
+    {
+        super(schemeRegistry);
+    }
+
+    void setDnsResolver(final HttpClientDnsResolver dnsResolver)
+    {
+        this.dnsResolver = dnsResolver;
+    }
+
+    @Override
+    protected InetAddress [] resolveHostname(final String host) throws UnknownHostException
+    {
+        final HttpClientDnsResolver resolver = dnsResolver;
+        return (resolver == null) ? super.resolveHostname(host) : resolver.resolve(host);
+    }
+}
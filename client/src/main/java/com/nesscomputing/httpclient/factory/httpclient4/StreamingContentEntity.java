@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.google.common.base.Preconditions;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import com.nesscomputing.httpclient.io.StreamingContent;
+
+/**
+ * An entity that lets a {@link StreamingContent} write itself into the request stream.
+ */
+final class StreamingContentEntity extends AbstractHttpEntity
+{
+    private final StreamingContent content;
+
+    StreamingContentEntity(final StreamingContent content)
+    {
+        Preconditions.checkArgument(content != null, "content can not be null!");
+        this.content = content;
+        setContentType(content.getContentType());
+    }
+
+    @Override
+    public boolean isRepeatable()
+    {
+        return content.isRepeatable();
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        return content.getContentLength();
+    }
+
+    /**
+     * Materializes the content, this is not used to send the request.
+     */
+    @Override
+    public InputStream getContent() throws IOException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        content.writeTo(buffer);
+        return new ByteArrayInputStream(buffer.toByteArray());
+    }
+
+    @Override
+    public void writeTo(final OutputStream outstream) throws IOException
+    {
+        Preconditions.checkArgument(outstream != null, "Output stream may not be null");
+        content.writeTo(outstream);
+        outstream.flush();
+    }
+
+    /**
+     * Tells that this entity is not streaming.
+     *
+     * @return <code>false</code>
+     */
+    @Override
+    public boolean isStreaming()
+    {
+        return false;
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.tsccm.ConnPoolByRoute;
+
+import com.nesscomputing.httpclient.HttpClientDnsResolver;
+
+/**
+ * Connection manager that uses a {@link StripedConnPool}.
+ */
+class StripedClientConnManager extends InstrumentedClientConnManager
+{
+    private static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 20;
+
+    StripedClientConnManager(final SchemeRegistry registry, final HttpClientDnsResolver dnsResolver)
+    {
+        super(registry, dnsResolver);
+    }
+
+    @Override
+    protected ConnPoolByRoute createConnectionPool(final long connTTL, final TimeUnit connTTLTimeUnit)
+    {
+        // Called from the super class constructor, must not use any fields of this class.
+        return new StripedConnPool(connOperator, connPerRoute, DEFAULT_MAX_TOTAL_CONNECTIONS, connTTL, connTTLTimeUnit);
+    }
+}
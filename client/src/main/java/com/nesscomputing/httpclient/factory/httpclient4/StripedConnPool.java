@@ -0,0 +1,469 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.params.ConnPerRoute;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.tsccm.BasicPoolEntry;
+import org.apache.http.impl.conn.tsccm.ConnPoolByRoute;
+import org.apache.http.impl.conn.tsccm.PoolEntryRequest;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * Connection pool that keeps a lock free list of idle connections and an allocation counter for every route.
+ * The total number of connections is enforced through a single atomic counter. Leasing and releasing a connection
+ * never takes a lock; only threads that have to wait for a connection do.
+ *
+ * Replaces all of the logic of {@link ConnPoolByRoute}, none of the state of the super class is used.
+ */
+class StripedConnPool extends ConnPoolByRoute
+{
+    private static final Log LOG = Log.findLog();
+
+    private final long connTTL;
+    private final TimeUnit connTTLTimeUnit;
+
+    private final ConcurrentMap<HttpRoute, RoutePool> routePools = new ConcurrentHashMap<HttpRoute, RoutePool>();
+    private final Set<StripedPoolEntry> leasedEntries = Collections.newSetFromMap(new ConcurrentHashMap<StripedPoolEntry, Boolean>());
+    private final AtomicInteger totalConnections = new AtomicInteger(0);
+
+    // Only used by threads that have to wait for a connection.
+    private final Lock waitLock = new ReentrantLock();
+    private final Condition entryReleased = waitLock.newCondition();
+    private final AtomicInteger waiters = new AtomicInteger(0);
+
+    StripedConnPool(final ClientConnectionOperator operator,
+                    final ConnPerRoute connPerRoute,
+                    final int maxTotalConnections,
+                    final long connTTL,
+                    final TimeUnit connTTLTimeUnit)
+    {
+        super(operator, connPerRoute, maxTotalConnections, connTTL, connTTLTimeUnit);
+        this.connTTL = connTTL;
+        this.connTTLTimeUnit = connTTLTimeUnit;
+    }
+
+    @Override
+    public PoolEntryRequest requestPoolEntry(final HttpRoute route, final Object state)
+    {
+        return new StripedPoolEntryRequest(route, state);
+    }
+
+    @Override
+    public void freeEntry(final BasicPoolEntry basicPoolEntry, final boolean reusable, final long validDuration, final TimeUnit timeUnit)
+    {
+        final StripedPoolEntry entry = (StripedPoolEntry) basicPoolEntry;
+        final RoutePool routePool = entry.routePool;
+
+        leasedEntries.remove(entry);
+
+        if (reusable && !shutdown) {
+            entry.updateExpiry(validDuration, timeUnit);
+            routePool.idleEntries.addFirst(entry);
+
+            // Lost a race with shutdown(), which may have missed this entry.
+            if (shutdown && routePool.idleEntries.remove(entry)) {
+                discard(entry);
+            }
+            else {
+                signalWaiters(false);
+            }
+        }
+        else {
+            discard(entry);
+        }
+    }
+
+    @Override
+    public int getConnectionsInPool(final HttpRoute route)
+    {
+        final RoutePool routePool = routePools.get(route);
+        return routePool == null ? 0 : routePool.allocated.get();
+    }
+
+    @Override
+    public int getConnectionsInPool()
+    {
+        return totalConnections.get();
+    }
+
+    @Override
+    public void setMaxTotalConnections(final int max)
+    {
+        this.maxTotalConnections = max;
+        signalWaiters(false);
+    }
+
+    @Override
+    public int getMaxTotalConnections()
+    {
+        return maxTotalConnections;
+    }
+
+    @Override
+    public void deleteClosedConnections()
+    {
+        for (final RoutePool routePool : routePools.values()) {
+            for (final StripedPoolEntry entry : routePool.idleEntries) {
+                if (!entry.isOpen() && routePool.idleEntries.remove(entry)) {
+                    discard(entry);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void closeIdleConnections(final long idletime, final TimeUnit tunit)
+    {
+        Preconditions.checkArgument(tunit != null, "Time unit must not be null.");
+
+        final long cutoff = System.currentTimeMillis() - tunit.toMillis(Math.max(idletime, 0L));
+        for (final RoutePool routePool : routePools.values()) {
+            for (final StripedPoolEntry entry : routePool.idleEntries) {
+                if (entry.getUpdated() <= cutoff && routePool.idleEntries.remove(entry)) {
+                    discard(entry);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void closeExpiredConnections()
+    {
+        final long now = System.currentTimeMillis();
+        for (final RoutePool routePool : routePools.values()) {
+            for (final StripedPoolEntry entry : routePool.idleEntries) {
+                if (entry.isExpired(now) && routePool.idleEntries.remove(entry)) {
+                    discard(entry);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void shutdown()
+    {
+        shutdown = true;
+
+        for (final RoutePool routePool : routePools.values()) {
+            StripedPoolEntry entry;
+            while ((entry = routePool.idleEntries.pollFirst()) != null) {
+                discard(entry);
+            }
+        }
+
+        // Leased connections are discarded when they are released.
+        for (final StripedPoolEntry entry : leasedEntries) {
+            entry.close();
+        }
+
+        signalWaiters(true);
+    }
+
+    @Override
+    protected void handleLostEntry(final HttpRoute route)
+    {
+        final RoutePool routePool = routePools.get(route);
+        if (routePool != null) {
+            routePool.allocated.decrementAndGet();
+            totalConnections.decrementAndGet();
+            signalWaiters(false);
+        }
+    }
+
+    private RoutePool routePoolFor(final HttpRoute route)
+    {
+        RoutePool routePool = routePools.get(route);
+        if (routePool == null) {
+            final RoutePool newRoutePool = new RoutePool(route);
+            routePool = routePools.putIfAbsent(route, newRoutePool);
+            if (routePool == null) {
+                routePool = newRoutePool;
+            }
+        }
+        return routePool;
+    }
+
+    /**
+     * Returns an idle or new entry for the route, or null if the route or the pool are at capacity.
+     */
+    private StripedPoolEntry tryLease(final RoutePool routePool, final Object state)
+    {
+        while (true) {
+            StripedPoolEntry entry;
+            while ((entry = routePool.pollIdle(state)) != null) {
+                if (entry.isExpired(System.currentTimeMillis())) {
+                    discard(entry);
+                }
+                else {
+                    return entry;
+                }
+            }
+
+            if (reserve(routePool)) {
+                LOG.trace("Creating new connection [%s]", routePool.route);
+                return new StripedPoolEntry(operator, routePool, connTTL, connTTLTimeUnit);
+            }
+
+            // At capacity. Make room by closing an idle connection that can not be used for this request and try again.
+            if (!evictIdle(routePool)) {
+                return null;
+            }
+        }
+    }
+
+    private boolean reserve(final RoutePool routePool)
+    {
+        if (!increment(routePool.allocated, connPerRoute.getMaxForRoute(routePool.route))) {
+            return false;
+        }
+        if (!increment(totalConnections, maxTotalConnections)) {
+            routePool.allocated.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean increment(final AtomicInteger counter, final int max)
+    {
+        while (true) {
+            final int current = counter.get();
+            if (current >= max) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean evictIdle(final RoutePool routePool)
+    {
+        StripedPoolEntry victim = null;
+
+        if (routePool.allocated.get() >= connPerRoute.getMaxForRoute(routePool.route)) {
+            // Route is full, all idle connections of the route are in a different state.
+            victim = routePool.idleEntries.pollLast();
+        }
+        else {
+            // Pool is full, steal from another route.
+            for (final RoutePool otherPool : routePools.values()) {
+                victim = otherPool.idleEntries.pollLast();
+                if (victim != null) {
+                    break;
+                }
+            }
+        }
+
+        if (victim == null) {
+            return false;
+        }
+
+        LOG.trace("Closing idle connection [%s] to make room for [%s]", victim.routePool.route, routePool.route);
+        discard(victim);
+        return true;
+    }
+
+    /**
+     * True if a call to {@link #tryLease(RoutePool, Object)} may succeed.
+     */
+    private boolean canLease(final RoutePool routePool)
+    {
+        if (!routePool.idleEntries.isEmpty()) {
+            return true;
+        }
+        if (routePool.allocated.get() >= connPerRoute.getMaxForRoute(routePool.route)) {
+            return false;
+        }
+        if (totalConnections.get() < maxTotalConnections) {
+            return true;
+        }
+        for (final RoutePool otherPool : routePools.values()) {
+            if (!otherPool.idleEntries.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void discard(final StripedPoolEntry entry)
+    {
+        entry.close();
+        entry.routePool.allocated.decrementAndGet();
+        totalConnections.decrementAndGet();
+        signalWaiters(false);
+    }
+
+    private void signalWaiters(final boolean force)
+    {
+        if (force || waiters.get() > 0) {
+            waitLock.lock();
+            try {
+                entryReleased.signalAll();
+            }
+            finally {
+                waitLock.unlock();
+            }
+        }
+    }
+
+    private class StripedPoolEntryRequest implements PoolEntryRequest
+    {
+        private final HttpRoute route;
+        private final Object state;
+        private volatile boolean aborted = false;
+
+        private StripedPoolEntryRequest(final HttpRoute route, final Object state)
+        {
+            this.route = route;
+            this.state = state;
+        }
+
+        @Override
+        public BasicPoolEntry getPoolEntry(final long timeout, final TimeUnit tunit) throws InterruptedException, ConnectionPoolTimeoutException
+        {
+            final long deadline = (timeout > 0) ? System.nanoTime() + tunit.toNanos(timeout) : 0L;
+            final RoutePool routePool = routePoolFor(route);
+
+            while (true) {
+                checkUsable();
+
+                final StripedPoolEntry entry = tryLease(routePool, state);
+                if (entry != null) {
+                    leasedEntries.add(entry);
+                    return entry;
+                }
+
+                awaitRelease(routePool, deadline);
+            }
+        }
+
+        @Override
+        public void abortRequest()
+        {
+            aborted = true;
+            signalWaiters(true);
+        }
+
+        private void checkUsable() throws InterruptedException
+        {
+            if (shutdown) {
+                throw new IllegalStateException("Connection pool shut down");
+            }
+            if (aborted) {
+                throw new InterruptedException("Operation aborted");
+            }
+        }
+
+        private void awaitRelease(final RoutePool routePool, final long deadline) throws InterruptedException, ConnectionPoolTimeoutException
+        {
+            waiters.incrementAndGet();
+            waitLock.lock();
+            try {
+                // Check again while holding the lock; anything that was released before this thread
+                // registered as a waiter did not signal.
+                if (shutdown || aborted || canLease(routePool)) {
+                    return;
+                }
+
+                if (deadline == 0L) {
+                    entryReleased.await();
+                }
+                else {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0L) {
+                        throw new ConnectionPoolTimeoutException("Timeout waiting for connection");
+                    }
+                    entryReleased.awaitNanos(remaining);
+                }
+            }
+            finally {
+                waitLock.unlock();
+                waiters.decrementAndGet();
+            }
+        }
+    }
+
+    private static final class RoutePool
+    {
+        private final HttpRoute route;
+        private final AtomicInteger allocated = new AtomicInteger(0);
+
+        // Most recently used first.
+        private final Deque<StripedPoolEntry> idleEntries = new ConcurrentLinkedDeque<StripedPoolEntry>();
+
+        private RoutePool(final HttpRoute route)
+        {
+            this.route = route;
+        }
+
+        private StripedPoolEntry pollIdle(final Object state)
+        {
+            for (final StripedPoolEntry entry : idleEntries) {
+                // Whoever removes the entry from the list owns it.
+                if (Objects.equal(state, entry.getState()) && idleEntries.remove(entry)) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class StripedPoolEntry extends BasicPoolEntry
+    {
+        private final RoutePool routePool;
+
+        private StripedPoolEntry(final ClientConnectionOperator operator, final RoutePool routePool, final long connTTL, final TimeUnit connTTLTimeUnit)
+        {
+            super(operator, routePool.route, connTTL, connTTLTimeUnit);
+            this.routePool = routePool;
+        }
+
+        private boolean isOpen()
+        {
+            return getConnection().isOpen();
+        }
+
+        private void close()
+        {
+            try {
+                getConnection().close();
+            }
+            catch (IOException ioe) {
+                LOG.debug(ioe, "I/O exception closing connection");
+            }
+        }
+    }
+}
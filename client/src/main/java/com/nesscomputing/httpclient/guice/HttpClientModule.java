@@ -17,14 +17,21 @@ package com.nesscomputing.httpclient.guice;
 
 
 import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.AbstractModule;
 import com.google.inject.Binder;
@@ -42,11 +49,21 @@ import com.google.inject.name.Names;
 
 import com.nesscomputing.config.ConfigProvider;
 import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientCompressionStatistics;
+import com.nesscomputing.httpclient.HttpClientConcurrencyStatistics;
 import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientDnsResolver;
+import com.nesscomputing.httpclient.HttpClientEndpointProvider;
+import com.nesscomputing.httpclient.HttpClientHedgingStatistics;
 import com.nesscomputing.httpclient.HttpClientObserver;
 import com.nesscomputing.httpclient.HttpClientObserverGroup;
+import com.nesscomputing.httpclient.HttpClientRetryStatistics;
+import com.nesscomputing.httpclient.cache.CachingHttpClientFactory;
+import com.nesscomputing.httpclient.cache.HttpClientCacheStatistics;
+import com.nesscomputing.httpclient.dns.DnsResolverStatistics;
 import com.nesscomputing.httpclient.factory.httpclient4.ApacheHttpClient4Factory;
 import com.nesscomputing.httpclient.internal.HttpClientFactory;
+import com.nesscomputing.httpclient.io.InflaterPool;
 import com.nesscomputing.lifecycle.LifecycleStage;
 import com.nesscomputing.lifecycle.guice.AbstractLifecycleProvider;
 import com.nesscomputing.lifecycle.guice.LifecycleAction;
@@ -85,13 +102,46 @@ public class HttpClientModule extends AbstractModule
         final Annotation annotation = Names.named(clientName);
 
         bind(HttpClientDefaults.class).annotatedWith(annotation).toProvider(ConfigProvider.of(null, HttpClientDefaults.class, optionMap)).in(Scopes.SINGLETON);
-        bind(HttpClientFactory.class).annotatedWith(annotation).toProvider(new ApacheHttpClient4FactoryProvider(annotation, observerGroups)).in(Scopes.SINGLETON);
-        bind(HttpClient.class).annotatedWith(annotation).toProvider(new HttpClientProvider(annotation)).asEagerSingleton();
+        bind(HttpClientFactory.class).annotatedWith(annotation).toProvider(new HttpClientFactoryProvider(this, annotation, observerGroups)).in(Scopes.SINGLETON);
+        bind(HttpClient.class).annotatedWith(annotation).toProvider(new HttpClientProvider(clientName, annotation)).asEagerSingleton();
 
         MapBinder.newMapBinder(binder(), HttpClientObserverGroup.class, HttpClientObserver.class, Names.named(OBSERVER_GROUP)).permitDuplicates();
         MapBinder.newMapBinder(binder(), HttpClientObserverGroup.class, HttpClientObserverGroup.class, Names.named(INHERIT_MAP)).permitDuplicates();
     }
 
+    /**
+     * Creates the factory that executes the requests of this client. The default is the Apache HttpClient 4 based
+     * factory. Override to select a different transport for a named client; the observers and defaults are
+     * resolved by the module and must be honored by the factory. If the response cache is enabled,
+     * the cache runs the observers and the factory gets none.
+     */
+    protected HttpClientFactory createHttpClientFactory(final HttpClientDefaults httpClientDefaults,
+                                                        final Set<? extends HttpClientObserver> httpClientObservers,
+                                                        @Nullable final HttpClientEndpointProvider endpointProvider)
+    {
+        return new ApacheHttpClient4Factory(httpClientDefaults, httpClientObservers, null, endpointProvider);
+    }
+
+    /**
+     * Bind the {@link HttpClientEndpointProvider} that resolves service URIs (<tt>srvc://...</tt>) for *every* Guice-bound
+     * HttpClient that does not have its own.
+     * @return the binding builder you should register with
+     */
+    public static LinkedBindingBuilder<HttpClientEndpointProvider> bindEndpointProvider(final Binder binder)
+    {
+        return binder.bind(HttpClientEndpointProvider.class);
+    }
+
+    /**
+     * Bind the {@link HttpClientEndpointProvider} that resolves service URIs (<tt>srvc://...</tt>) for the HttpClient with
+     * the given Guice binding annotation.
+     * @return the binding builder you should register with
+     */
+    public static LinkedBindingBuilder<HttpClientEndpointProvider> bindEndpointProvider(final Binder binder, final Annotation annotation)
+    {
+        return binder.bind(HttpClientEndpointProvider.class).annotatedWith(annotation);
+    }
+
     /**
      * Register a HttpClientObserver which observes *every* Guice-bound HttpClient.
      * @return the binding builder you should register with
@@ -129,30 +179,189 @@ public class HttpClientModule extends AbstractModule
      */
     static final class HttpClientProvider extends AbstractLifecycleProvider<HttpClient> implements Provider<HttpClient>
     {
+        /** The inflater pool is shared by all clients, its MBean is registered once while any client is started. */
+        private static final String INFLATER_POOL_MBEAN_NAME = "com.nesscomputing.httpclient:type=HttpClientInflaterPool";
+        private static final Object INFLATER_POOL_LOCK = new Object();
+        private static int startedClients = 0;
+
         private HttpClientDefaults httpClientDefaults = null;
         private HttpClientFactory httpClientFactory = null;
 
+        private final String clientName;
         private final Annotation annotation;
 
-        private HttpClientProvider(@Nonnull final Annotation annotation)
+        private HttpClientProvider(@Nonnull final String clientName, @Nonnull final Annotation annotation)
         {
+            this.clientName = clientName;
             this.annotation = annotation;
 
             addAction(LifecycleStage.START_STAGE, new LifecycleAction<HttpClient>() {
                 @Override
                 public void performAction(final HttpClient httpClient) {
                     httpClient.start();
+                    registerMBean("HttpClientPool", httpClient.getPoolStatistics());
+                    registerMBean("HttpClientDns", getDnsResolverStatistics());
+                    registerMBean("HttpClientHedging", getHedgingStatistics());
+                    registerMBean("HttpClientRetry", getRetryStatistics());
+                    registerMBean("HttpClientConcurrency", getConcurrencyStatistics());
+                    registerMBean("HttpClientCache", getCacheStatistics());
+                    registerMBean("HttpClientCompression", getCompressionStatistics());
+                    registerInflaterPool();
                 }
             });
 
             addAction(LifecycleStage.STOP_STAGE, new LifecycleAction<HttpClient>() {
                 @Override
                 public void performAction(final HttpClient httpClient) {
+                    unregisterMBean("HttpClientPool");
+                    unregisterMBean("HttpClientDns");
+                    unregisterMBean("HttpClientHedging");
+                    unregisterMBean("HttpClientRetry");
+                    unregisterMBean("HttpClientConcurrency");
+                    unregisterMBean("HttpClientCache");
+                    unregisterMBean("HttpClientCompression");
+                    unregisterInflaterPool();
                     httpClient.stop();
                 }
             });
         }
 
+        /**
+         * @return the factory that sends the requests, below a response cache.
+         */
+        private HttpClientFactory getTransportFactory()
+        {
+            if (httpClientFactory instanceof CachingHttpClientFactory) {
+                return ((CachingHttpClientFactory) httpClientFactory).getDelegate();
+            }
+            return httpClientFactory;
+        }
+
+        @CheckForNull
+        private HttpClientCacheStatistics getCacheStatistics()
+        {
+            if (httpClientFactory instanceof CachingHttpClientFactory) {
+                return (CachingHttpClientFactory) httpClientFactory;
+            }
+            return null;
+        }
+
+        @CheckForNull
+        private DnsResolverStatistics getDnsResolverStatistics()
+        {
+            final HttpClientFactory transportFactory = getTransportFactory();
+            if (transportFactory instanceof ApacheHttpClient4Factory) {
+                final HttpClientDnsResolver dnsResolver = ((ApacheHttpClient4Factory) transportFactory).getDnsResolver();
+                if (dnsResolver instanceof DnsResolverStatistics) {
+                    return (DnsResolverStatistics) dnsResolver;
+                }
+            }
+            return null;
+        }
+
+        @CheckForNull
+        private HttpClientHedgingStatistics getHedgingStatistics()
+        {
+            final HttpClientFactory transportFactory = getTransportFactory();
+            if (transportFactory instanceof ApacheHttpClient4Factory) {
+                return ((ApacheHttpClient4Factory) transportFactory).getHedgingStatistics();
+            }
+            return null;
+        }
+
+        @CheckForNull
+        private HttpClientRetryStatistics getRetryStatistics()
+        {
+            final HttpClientFactory transportFactory = getTransportFactory();
+            if (transportFactory instanceof ApacheHttpClient4Factory) {
+                return ((ApacheHttpClient4Factory) transportFactory).getRetryStatistics();
+            }
+            return null;
+        }
+
+        @CheckForNull
+        private HttpClientConcurrencyStatistics getConcurrencyStatistics()
+        {
+            final HttpClientFactory transportFactory = getTransportFactory();
+            if (transportFactory instanceof ApacheHttpClient4Factory) {
+                return ((ApacheHttpClient4Factory) transportFactory).getConcurrencyStatistics();
+            }
+            return null;
+        }
+
+        @CheckForNull
+        private HttpClientCompressionStatistics getCompressionStatistics()
+        {
+            final HttpClientFactory transportFactory = getTransportFactory();
+            if (transportFactory instanceof ApacheHttpClient4Factory) {
+                return ((ApacheHttpClient4Factory) transportFactory).getCompressionStatistics();
+            }
+            return null;
+        }
+
+        private ObjectName getMBeanName(final String type) throws JMException
+        {
+            return new ObjectName("com.nesscomputing.httpclient:type=" + type + ",name=" + ObjectName.quote(clientName));
+        }
+
+        private void registerMBean(final String type, @Nullable final Object mbean)
+        {
+            if (mbean != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, getMBeanName(type));
+                }
+                catch (JMException jme) {
+                    LOG.warn(jme, "Could not register %s MBean for HttpClient '%s'", type, clientName);
+                }
+            }
+        }
+
+        private void unregisterMBean(final String type)
+        {
+            try {
+                final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+                final ObjectName name = getMBeanName(type);
+                if (mbeanServer.isRegistered(name)) {
+                    mbeanServer.unregisterMBean(name);
+                }
+            }
+            catch (JMException jme) {
+                LOG.warn(jme, "Could not unregister %s MBean for HttpClient '%s'", type, clientName);
+            }
+        }
+
+        private static void registerInflaterPool()
+        {
+            synchronized (INFLATER_POOL_LOCK) {
+                if (startedClients++ == 0) {
+                    try {
+                        ManagementFactory.getPlatformMBeanServer().registerMBean(InflaterPool.getDefault(), new ObjectName(INFLATER_POOL_MBEAN_NAME));
+                    }
+                    catch (JMException jme) {
+                        LOG.warn(jme, "Could not register HttpClientInflaterPool MBean");
+                    }
+                }
+            }
+        }
+
+        private static void unregisterInflaterPool()
+        {
+            synchronized (INFLATER_POOL_LOCK) {
+                if (startedClients > 0 && --startedClients == 0) {
+                    try {
+                        final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+                        final ObjectName name = new ObjectName(INFLATER_POOL_MBEAN_NAME);
+                        if (mbeanServer.isRegistered(name)) {
+                            mbeanServer.unregisterMBean(name);
+                        }
+                    }
+                    catch (JMException jme) {
+                        LOG.warn(jme, "Could not unregister HttpClientInflaterPool MBean");
+                    }
+                }
+            }
+        }
+
         @Inject
         public void setInjector(final Injector injector)
         {
@@ -167,9 +376,10 @@ public class HttpClientModule extends AbstractModule
         }
     }
 
-    static final class ApacheHttpClient4FactoryProvider implements Provider<HttpClientFactory>
+    static final class HttpClientFactoryProvider implements Provider<HttpClientFactory>
     {
         private static final TypeLiteral<Set<HttpClientObserver>> OBSERVER_TYPE_LITERAL = new TypeLiteral<Set<HttpClientObserver>>() {};
+        private final HttpClientModule module;
         private final Annotation annotation;
         private final Set<HttpClientObserverGroup> observerGroups;
 
@@ -177,8 +387,9 @@ public class HttpClientModule extends AbstractModule
         private Map<HttpClientObserverGroup, Set<HttpClientObserver>> groupObserverMap;
         private Map<HttpClientObserverGroup, Set<HttpClientObserverGroup>> groupInheritanceMap;
 
-        private ApacheHttpClient4FactoryProvider(@Nonnull final Annotation annotation, final Set<HttpClientObserverGroup> observerGroups)
+        private HttpClientFactoryProvider(@Nonnull final HttpClientModule module, @Nonnull final Annotation annotation, final Set<HttpClientObserverGroup> observerGroups)
         {
+            this.module = module;
             this.annotation = annotation;
             this.observerGroups = observerGroups;
         }
@@ -201,6 +412,17 @@ public class HttpClientModule extends AbstractModule
             }
         }
 
+        @CheckForNull
+        private HttpClientEndpointProvider findEndpointProvider()
+        {
+            for (Key<HttpClientEndpointProvider> key : ImmutableList.of(Key.get(HttpClientEndpointProvider.class, annotation), Key.get(HttpClientEndpointProvider.class))) {
+                if (injector.getExistingBinding(key) != null) {
+                    return injector.getInstance(key);
+                }
+            }
+            return null;
+        }
+
         private Set<HttpClientObserver> findObserversForGroups()
         {
             // Keep track of seen groups so that we cannot recurse infinitely if there is a cycle
@@ -248,7 +470,12 @@ public class HttpClientModule extends AbstractModule
             LOG.info("HttpClient '%s' has observers: %s", annotation, httpClientObservers);
 
             final HttpClientDefaults httpClientDefaults = injector.getInstance(Key.get(HttpClientDefaults.class, annotation));
-            return new ApacheHttpClient4Factory(httpClientDefaults, httpClientObservers);
+            // A response cache runs the observers above itself, so that they see the responses answered from the cache.
+            if (CachingHttpClientFactory.isEnabled(httpClientDefaults)) {
+                final HttpClientFactory delegate = module.createHttpClientFactory(httpClientDefaults, ImmutableSet.<HttpClientObserver>of(), findEndpointProvider());
+                return CachingHttpClientFactory.forDefaults(delegate, httpClientDefaults, httpClientObservers);
+            }
+            return module.createHttpClientFactory(httpClientDefaults, httpClientObservers, findEndpointProvider());
         }
     }
 }
@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientResponseHandler;
+
+/**
+ * A response that was read completely into memory. The body can be read any number of times, every call to
+ * {@link #getResponseBodyAsStream()} returns a new stream.
+ */
+@Immutable
+public final class BufferedResponse implements HttpClientResponse
+{
+    private static final HttpClientResponseHandler<BufferedResponse> HANDLER = new HttpClientResponseHandler<BufferedResponse>() {
+        @Override
+        public BufferedResponse handle(final HttpClientResponse response) throws IOException
+        {
+            return BufferedResponse.of(response);
+        }
+    };
+
+    private final int statusCode;
+    private final String statusText;
+    private final URI uri;
+    private final String contentType;
+    private final Long contentLength;
+    private final String charset;
+    private final Map<String, List<String>> headers;
+    private final byte [] body;
+
+    private BufferedResponse(final HttpClientResponse response, final byte [] body)
+    {
+        this.statusCode = response.getStatusCode();
+        this.statusText = response.getStatusText();
+        this.uri = response.getUri();
+        this.contentType = response.getContentType();
+        this.contentLength = response.getContentLength();
+        this.charset = response.getCharset();
+        this.body = body;
+
+        final Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (final Map.Entry<String, List<String>> entry : response.getAllHeaders().entrySet()) {
+            headers.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+        }
+        this.headers = Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * @return a response handler that reads the response into memory.
+     */
+    public static HttpClientResponseHandler<BufferedResponse> handler()
+    {
+        return HANDLER;
+    }
+
+    /**
+     * Read a response, including its body, into memory. A response that is buffered already is returned as is.
+     */
+    public static BufferedResponse of(@Nonnull final HttpClientResponse response) throws IOException
+    {
+        Preconditions.checkArgument(response != null, "response can not be null!");
+
+        if (response instanceof BufferedResponse) {
+            return (BufferedResponse) response;
+        }
+
+        final InputStream is = response.getResponseBodyAsStream();
+        try {
+            return new BufferedResponse(response, (is == null) ? new byte [0] : IOUtils.toByteArray(is));
+        }
+        finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    @Override
+    public int getStatusCode()
+    {
+        return statusCode;
+    }
+
+    @Override
+    public String getStatusText()
+    {
+        return statusText;
+    }
+
+    @Override
+    public InputStream getResponseBodyAsStream() throws IOException
+    {
+        return new ByteArrayInputStream(body);
+    }
+
+    @Override
+    public URI getUri()
+    {
+        return uri;
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    @Override
+    @CheckForNull
+    public Long getContentLength()
+    {
+        return contentLength;
+    }
+
+    @Override
+    public String getCharset()
+    {
+        return charset;
+    }
+
+    @Override
+    public String getHeader(final String name)
+    {
+        final List<String> values = headers.get(name);
+        return (values == null || values.isEmpty()) ? null : values.get(0);
+    }
+
+    @Override
+    @Nonnull
+    public List<String> getHeaders(final String name)
+    {
+        final List<String> values = headers.get(name);
+        return (values == null) ? Collections.<String>emptyList() : values;
+    }
+
+    @Override
+    @Nonnull
+    public Map<String, List<String>> getAllHeaders()
+    {
+        return headers;
+    }
+
+    @Override
+    public boolean isRedirected()
+    {
+        return (statusCode >= 300) && (statusCode <= 399);
+    }
+
+    /**
+     * @return the size of the body in bytes.
+     */
+    public int getBodyLength()
+    {
+        return body.length;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("BufferedResponse [statusCode=%d, uri=%s, contentType=%s, bodyLength=%d]", statusCode, uri, contentType, body.length);
+    }
+}
@@ -0,0 +1,333 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * A timer that trades precision for cost. Scheduling and cancelling a task are O(1) and lock free,
+ * which makes it suitable to guard every single request with a deadline, even with many thousands
+ * of requests in flight.
+ *
+ * Tasks are run on the timer thread and must be short and must not block.
+ *
+ * See "Hashed and Hierarchical Timing Wheels" by George Varghese and Tony Lauck.
+ */
+public final class HashedWheelTimer
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+    private final String name;
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final CountDownLatch startTimeInitialized = new CountDownLatch(1);
+    private volatile long startTime = 0;
+
+    /**
+     * @param name Name of the timer thread.
+     * @param tickDuration Precision of the timer.
+     * @param unit Unit for tickDuration.
+     * @param ticksPerWheel Number of buckets in the wheel. Rounded up to the next power of two.
+     */
+    public HashedWheelTimer(final String name, final long tickDuration, final TimeUnit unit, final int ticksPerWheel)
+    {
+        Preconditions.checkArgument(tickDuration > 0, "tick duration must be positive!");
+        Preconditions.checkArgument(ticksPerWheel > 0 && ticksPerWheel <= (1 << 30), "ticks per wheel must be between 1 and 2^30!");
+
+        this.name = name;
+        this.tickNanos = unit.toNanos(tickDuration);
+
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Schedule a task to run once after the given delay. The timer thread is started on first use and runs as a daemon.
+     *
+     * @return A handle that can be used to cancel the task.
+     */
+    public Timeout schedule(final Runnable task, final long delay, final TimeUnit unit)
+    {
+        Preconditions.checkArgument(task != null, "task can not be null!");
+
+        if (started.compareAndSet(false, true)) {
+            startTime = System.nanoTime();
+            startTimeInitialized.countDown();
+            final Thread worker = new Thread(new Worker(), name);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        else {
+            awaitStartTime();
+        }
+
+        final Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0L)));
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Deadlines are relative to the start time, so callers that lose the race to start the timer must wait for it.
+     */
+    private void awaitStartTime()
+    {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                startTimeInitialized.await();
+                break;
+            }
+            catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Handle for a scheduled task.
+     */
+    public final class Timeout
+    {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(ST_INIT);
+
+        // Only accessed from the timer thread.
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(final Runnable task, final long deadline)
+        {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the task.
+         *
+         * @return true if the task was cancelled, false if it already ran or was cancelled before.
+         */
+        public boolean cancel()
+        {
+            if (!state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            cancelledTimeouts.add(this);
+            return true;
+        }
+
+        /**
+         * @return true if the task was run.
+         */
+        public boolean isExpired()
+        {
+            return state.get() == ST_EXPIRED;
+        }
+
+        /**
+         * @return true if the task was cancelled.
+         */
+        public boolean isCancelled()
+        {
+            return state.get() == ST_CANCELLED;
+        }
+
+        private void expire()
+        {
+            if (state.compareAndSet(ST_INIT, ST_EXPIRED)) {
+                try {
+                    task.run();
+                }
+                catch (Throwable t) {
+                    LOG.warn(t, "Timer task %s threw an exception", task);
+                }
+            }
+        }
+    }
+
+    /**
+     * Doubly linked list of timeouts, only accessed from the timer thread.
+     */
+    private static final class Bucket
+    {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(final Timeout timeout)
+        {
+            timeout.bucket = this;
+            if (head == null) {
+                head = timeout;
+                tail = timeout;
+            }
+            else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private Timeout remove(final Timeout timeout)
+        {
+            final Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+
+        private void expireTimeouts(final long now)
+        {
+            Timeout timeout = head;
+            while (timeout != null) {
+                if (timeout.remainingRounds <= 0 && timeout.deadline <= now) {
+                    final Timeout next = remove(timeout);
+                    timeout.expire();
+                    timeout = next;
+                }
+                else if (timeout.isCancelled()) {
+                    timeout = remove(timeout);
+                }
+                else {
+                    timeout.remainingRounds--;
+                    timeout = timeout.next;
+                }
+            }
+        }
+    }
+
+    private final class Worker implements Runnable
+    {
+        private long tick = 0;
+
+        @Override
+        public void run()
+        {
+            while (true) {
+                final long now = waitForNextTick();
+                if (now < 0) {
+                    return;
+                }
+
+                removeCancelledTimeouts();
+                transferNewTimeouts();
+
+                wheel[(int) (tick & mask)].expireTimeouts(now);
+                tick++;
+            }
+        }
+
+        private void transferNewTimeouts()
+        {
+            for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+                final Timeout timeout = newTimeouts.poll();
+                if (timeout == null) {
+                    break;
+                }
+                if (timeout.isCancelled()) {
+                    continue;
+                }
+
+                final long calculated = timeout.deadline / tickNanos;
+                timeout.remainingRounds = (calculated - tick) / wheel.length;
+
+                // Do not schedule into the past.
+                final long ticks = Math.max(calculated, tick);
+                wheel[(int) (ticks & mask)].add(timeout);
+            }
+        }
+
+        private void removeCancelledTimeouts()
+        {
+            Timeout timeout;
+            while ((timeout = cancelledTimeouts.poll()) != null) {
+                if (timeout.bucket != null) {
+                    timeout.bucket.remove(timeout);
+                }
+            }
+        }
+
+        /**
+         * @return the current time relative to the start time, or -1 if the thread was interrupted.
+         */
+        private long waitForNextTick()
+        {
+            final long deadline = tickNanos * (tick + 1);
+
+            while (true) {
+                final long now = System.nanoTime() - startTime;
+                final long sleepMillis = TimeUnit.NANOSECONDS.toMillis(deadline - now + 999999L);
+
+                if (sleepMillis <= 0) {
+                    return now;
+                }
+
+                try {
+                    Thread.sleep(sleepMillis);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+            }
+        }
+    }
+}
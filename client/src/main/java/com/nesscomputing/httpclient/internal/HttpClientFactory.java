@@ -20,7 +20,10 @@ import java.io.IOException;
 
 import javax.annotation.CheckForNull;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import com.nesscomputing.httpclient.HttpClientConnectionContext;
+import com.nesscomputing.httpclient.HttpClientPoolStatistics;
 import com.nesscomputing.httpclient.HttpClientRequest;
 
 
@@ -55,6 +58,12 @@ public interface HttpClientFactory
      */
     HttpClientConnectionContext getConnectionContext();
 
+    /**
+     * @return a live view of the connection pool of this factory, or null if the factory does not pool connections.
+     */
+    @CheckForNull
+    HttpClientPoolStatistics getPoolStatistics();
+
     /**
      * For requests that accept a body, generate a {@link HttpClientBodySource} object that wraps
      * the content object. Can return null if no appropriate body source is available.
@@ -66,5 +75,12 @@ public interface HttpClientFactory
      * Execute a request to a remote server.
      */
     <T> T performRequest(HttpClientRequest<T> request) throws IOException;
+
+    /**
+     * Execute a request to a remote server without blocking the calling thread. The observers and the response handler
+     * of the request run on a thread owned by the factory. The returned future fails with the exception that
+     * {@link #performRequest(HttpClientRequest)} would have thrown.
+     */
+    <T> ListenableFuture<T> performRequestAsync(HttpClientRequest<T> request);
 }
 
@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.base.Preconditions;
+
+import com.nesscomputing.httpclient.HttpClientResponse;
+
+/**
+ * A pool of byte buffers in power of two size classes from 4 KB to 4 MB, to read response bodies without creating
+ * garbage for every response. Larger buffers are allocated when needed and not pooled.
+ *
+ * Buffers are handed out as {@link PooledBuffer}s, which must be closed to return their memory to the pool. The pool
+ * keeps at most the configured number of bytes; each size class gets an equal share of it. A pool can hold heap
+ * or direct (off-heap) buffers.
+ */
+public final class BufferPool
+{
+    private static final int MIN_SHIFT = 12;
+    private static final int MAX_SHIFT = 22;
+    private static final int SIZE_CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+
+    /** Buffer size if the size of a body is not known. */
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    /** Largest buffer allocated up front for a size hint. Larger bodies grow the buffer as they are read. */
+    private static final int MAX_HINTED_CAPACITY = 1 << MAX_SHIFT;
+
+    private static final BufferPool DEFAULT = new BufferPool(32L * 1024 * 1024, false);
+
+    private final boolean direct;
+    private final SizeClass [] sizeClasses = new SizeClass[SIZE_CLASSES];
+
+    private final AtomicLong allocations = new AtomicLong(0L);
+    private final AtomicLong reuses = new AtomicLong(0L);
+
+    /**
+     * @param maxPooledBytes Maximum number of bytes kept in the pool.
+     * @param direct If true, the pool holds direct buffers outside of the heap.
+     */
+    public BufferPool(final long maxPooledBytes, final boolean direct)
+    {
+        Preconditions.checkArgument(maxPooledBytes >= 0, "max pooled bytes must not be negative!");
+
+        this.direct = direct;
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            final int size = 1 << (MIN_SHIFT + i);
+            sizeClasses[i] = new SizeClass(size, (int) Math.min(Integer.MAX_VALUE, maxPooledBytes / SIZE_CLASSES / size));
+        }
+    }
+
+    /**
+     * @return the heap buffer pool used by the converters of this library.
+     */
+    public static BufferPool getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the expected size of the body of a response, or -1 if it is not known. The Content-Length of an encoded
+     *         body is the size before decoding and only a lower bound.
+     */
+    public static long getSizeHint(@Nonnull final HttpClientResponse response)
+    {
+        final Long contentLength = response.getContentLength();
+        if (contentLength == null || contentLength <= 0) {
+            return -1L;
+        }
+        return StringUtils.isBlank(response.getHeader("Content-Encoding")) ? contentLength : -1L;
+    }
+
+    public boolean isDirect()
+    {
+        return direct;
+    }
+
+    /**
+     * @return number of buffers that were newly allocated.
+     */
+    public long getAllocations()
+    {
+        return allocations.get();
+    }
+
+    /**
+     * @return number of buffers that were taken from the pool.
+     */
+    public long getReuses()
+    {
+        return reuses.get();
+    }
+
+    /**
+     * @return an empty buffer that can hold at least the given number of bytes before it has to grow.
+     */
+    public PooledBuffer allocate(final int capacity)
+    {
+        return new PooledBuffer(this, acquire(capacity));
+    }
+
+    /**
+     * Read a stream to its end. The stream is not closed.
+     *
+     * @param sizeHint Expected number of bytes, or a negative value if it is not known. Only trusted up to the largest
+     *        pooled size, so that a wrong Content-Length can not allocate more memory than the body needs.
+     */
+    public PooledBuffer read(@Nonnull final InputStream in, final long sizeHint) throws IOException
+    {
+        // One byte more than expected, so that the end of the stream is found without growing the buffer.
+        final int capacity = (sizeHint >= 0) ? (int) Math.min(sizeHint + 1, MAX_HINTED_CAPACITY) : DEFAULT_CAPACITY;
+        final PooledBuffer buffer = allocate(capacity);
+        try {
+            buffer.readFrom(in);
+            return buffer;
+        }
+        catch (IOException ioe) {
+            buffer.close();
+            throw ioe;
+        }
+        catch (RuntimeException re) {
+            buffer.close();
+            throw re;
+        }
+    }
+
+    ByteBuffer acquire(final int capacity)
+    {
+        final int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1));
+        if (shift > MAX_SHIFT) {
+            allocations.incrementAndGet();
+            return allocateBuffer(capacity);
+        }
+
+        final SizeClass sizeClass = sizeClasses[shift - MIN_SHIFT];
+        final ByteBuffer buffer = sizeClass.poll();
+        if (buffer != null) {
+            reuses.incrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+        allocations.incrementAndGet();
+        return allocateBuffer(sizeClass.size);
+    }
+
+    void release(final ByteBuffer buffer)
+    {
+        final int capacity = buffer.capacity();
+        if (buffer.isDirect() != direct || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        final int shift = Integer.numberOfTrailingZeros(capacity);
+        if (shift >= MIN_SHIFT && shift <= MAX_SHIFT) {
+            sizeClasses[shift - MIN_SHIFT].offer(buffer);
+        }
+    }
+
+    private ByteBuffer allocateBuffer(final int capacity)
+    {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static final class SizeClass
+    {
+        private final int size;
+        private final int maxBuffers;
+        private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        private SizeClass(final int size, final int maxBuffers)
+        {
+            this.size = size;
+            this.maxBuffers = maxBuffers;
+        }
+
+        private ByteBuffer poll()
+        {
+            final ByteBuffer buffer = buffers.poll();
+            if (buffer != null) {
+                count.decrementAndGet();
+            }
+            return buffer;
+        }
+
+        private void offer(final ByteBuffer buffer)
+        {
+            if (count.incrementAndGet() <= maxBuffers) {
+                buffers.offer(buffer);
+            }
+            else {
+                count.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Reads the remaining bytes of a buffer. Works with heap, direct and memory mapped buffers; the bytes are copied
+ * only into the arrays passed to {@link #read(byte[], int, int)}.
+ *
+ * The stream uses its own view of the buffer, so position and limit of the buffer are not changed.
+ * As with all other input streams, this class is not thread safe.
+ */
+public class ByteBufferInputStream extends InputStream
+{
+    private final ByteBuffer buffer;
+    private int mark;
+
+    public ByteBufferInputStream(@Nonnull final ByteBuffer buffer)
+    {
+        Preconditions.checkArgument(buffer != null, "buffer can not be null!");
+        this.buffer = buffer.duplicate();
+        this.mark = this.buffer.position();
+    }
+
+    @Override
+    public int read()
+    {
+        return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+    }
+
+    @Override
+    public int read(final byte [] b, final int off, final int len)
+    {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        final int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(final long n)
+    {
+        final int count = (int) Math.max(0L, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available()
+    {
+        return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(final int readlimit)
+    {
+        mark = buffer.position();
+    }
+
+    @Override
+    public synchronized void reset()
+    {
+        buffer.position(mark);
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A content coding for HTTP bodies, registered in a {@link ContentCodecRegistry} under its Content-Encoding token.
+ */
+public interface ContentCodec
+{
+    /**
+     * @return the Content-Encoding token, e.g. "gzip".
+     */
+    String getEncoding();
+
+    /**
+     * @return a stream that decodes the given stream. Closing it closes the given stream.
+     */
+    InputStream decode(InputStream inputStream) throws IOException;
+
+    /**
+     * @return a stream that encodes into the given stream. Closing it finishes the encoding and closes the given stream.
+     *
+     * @throws UnsupportedOperationException if the codec can only decode.
+     */
+    OutputStream encode(OutputStream outputStream) throws IOException;
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * Content codings keyed by their Content-Encoding token. The registry decodes response bodies, including bodies with
+ * more than one coding ("Content-Encoding: gzip, lz4"), and provides the Accept-Encoding header that advertises the
+ * registered codings in the order they were registered.
+ *
+ * The {@link #getDefault() default registry} is used by every client and response handler that is not given its
+ * own; modules can add codings to it.
+ */
+public final class ContentCodecRegistry
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final Splitter TOKEN_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private static final ContentCodecRegistry DEFAULT = withStandardCodecs();
+
+    private volatile Map<String, ContentCodec> codecs = ImmutableMap.of();
+    private volatile String acceptEncoding = null;
+
+    /**
+     * @return the registry that is shared by all clients, initially with the {@link StandardContentCodec}s.
+     */
+    public static ContentCodecRegistry getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * @return a new registry with the {@link StandardContentCodec}s and "x-gzip" as an alias for gzip.
+     */
+    public static ContentCodecRegistry withStandardCodecs()
+    {
+        final ContentCodecRegistry registry = new ContentCodecRegistry();
+        for (StandardContentCodec codec : StandardContentCodec.values()) {
+            registry.register(codec);
+        }
+        registry.registerAlias("x-gzip", StandardContentCodec.GZIP);
+        return registry;
+    }
+
+    /**
+     * Register a coding under its token, replacing any coding registered under the same token. The token is advertised
+     * in the Accept-Encoding header.
+     */
+    public ContentCodecRegistry register(final ContentCodec codec)
+    {
+        Preconditions.checkArgument(codec != null, "codec can not be null!");
+        put(codec.getEncoding(), codec, true);
+        return this;
+    }
+
+    /**
+     * Register a coding under an additional token. Aliases are decoded but not advertised.
+     */
+    public ContentCodecRegistry registerAlias(final String token, final ContentCodec codec)
+    {
+        Preconditions.checkArgument(codec != null, "codec can not be null!");
+        put(token, codec, false);
+        return this;
+    }
+
+    /**
+     * @return the coding for a token, or null if it is not registered.
+     */
+    @CheckForNull
+    public ContentCodec getCodec(@Nullable final String token)
+    {
+        return token == null ? null : codecs.get(normalize(token));
+    }
+
+    /**
+     * @return the value for an Accept-Encoding header, or null if no codings are registered.
+     */
+    @CheckForNull
+    public String getAcceptEncoding()
+    {
+        return acceptEncoding;
+    }
+
+    /**
+     * Decode a body with the codings listed in a Content-Encoding header. Codings are listed in the order in which they
+     * were applied and are removed in reverse order. If any of the codings is unknown, the body is returned as is.
+     *
+     * Pooled decoder resources are returned when the decoded stream is read to the end or closed, or when it is passed
+     * to {@link #release(InputStream)}.
+     */
+    public InputStream decode(@Nullable final String contentEncoding, final InputStream inputStream) throws IOException
+    {
+        if (contentEncoding == null) {
+            return inputStream;
+        }
+
+        final List<ContentCodec> codings = Lists.newArrayList();
+        for (String token : TOKEN_SPLITTER.split(contentEncoding)) {
+            if ("identity".equalsIgnoreCase(token)) {
+                continue;
+            }
+            final ContentCodec codec = getCodec(token);
+            if (codec == null) {
+                LOG.debug("Unknown content encoding '%s' in '%s', not decoding", token, contentEncoding);
+                return inputStream;
+            }
+            codings.add(codec);
+        }
+
+        final List<InflatingInputStream> inflaters = Lists.newArrayListWithCapacity(codings.size());
+        InputStream is = inputStream;
+        try {
+            for (ContentCodec codec : Lists.reverse(codings)) {
+                LOG.debug("Found %s stream", codec.getEncoding());
+                is = codec.decode(is);
+                if (is instanceof InflatingInputStream) {
+                    inflaters.add((InflatingInputStream) is);
+                }
+            }
+        }
+        catch (IOException ioe) {
+            releaseAll(inflaters);
+            throw ioe;
+        }
+        return inflaters.isEmpty() ? is : new DecodedInputStream(is, inflaters);
+    }
+
+    /**
+     * Return the pooled decoder resources of a stream returned by {@link #decode(String, InputStream)} without closing
+     * it, so that a body that was not read to the end can still be consumed or closed by its owner. Streams that were
+     * not decoded are left alone.
+     */
+    public static void release(@Nullable final InputStream inputStream)
+    {
+        if (inputStream instanceof DecodedInputStream) {
+            releaseAll(((DecodedInputStream) inputStream).inflaters);
+        }
+    }
+
+    private static void releaseAll(final List<InflatingInputStream> inflaters)
+    {
+        for (InflatingInputStream inflater : inflaters) {
+            inflater.releaseInflater();
+        }
+    }
+
+    private synchronized void put(final String token, final ContentCodec codec, final boolean advertised)
+    {
+        Preconditions.checkArgument(token != null && !token.trim().isEmpty(), "token can not be empty!");
+        final String key = normalize(token);
+
+        final Map<String, ContentCodec> updated = Maps.newLinkedHashMap(codecs);
+        updated.put(key, codec);
+        codecs = ImmutableMap.copyOf(updated);
+
+        if (advertised) {
+            final List<String> tokens = Lists.newArrayList();
+            if (acceptEncoding != null) {
+                tokens.addAll(Lists.newArrayList(TOKEN_SPLITTER.split(acceptEncoding)));
+            }
+            if (!tokens.contains(key)) {
+                tokens.add(key);
+            }
+            acceptEncoding = Joiner.on(',').join(tokens);
+        }
+    }
+
+    private static String normalize(final String token)
+    {
+        return token.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    private static final class DecodedInputStream extends FilterInputStream
+    {
+        private final List<InflatingInputStream> inflaters;
+
+        DecodedInputStream(final InputStream in, final List<InflatingInputStream> inflaters)
+        {
+            super(in);
+            this.inflaters = inflaters;
+        }
+    }
+}
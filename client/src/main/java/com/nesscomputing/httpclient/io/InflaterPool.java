@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.io;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Inflater;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A bounded pool of {@link Inflater}s with their input buffers. Every inflater holds native zlib memory that is
+ * otherwise only released on finalization, so they are reset and reused, and inflaters that do not fit into the pool
+ * are ended right away.
+ */
+public final class InflaterPool implements InflaterPoolStatistics
+{
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final InflaterPool DEFAULT = new InflaterPool(64);
+
+    private final int maxIdle;
+
+    private final Queue<Entry> rawInflaters = new ConcurrentLinkedQueue<Entry>();
+    private final Queue<Entry> zlibInflaters = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger idle = new AtomicInteger(0);
+    private final AtomicInteger inUse = new AtomicInteger(0);
+
+    private final AtomicLong created = new AtomicLong(0L);
+    private final AtomicLong reused = new AtomicLong(0L);
+    private final AtomicLong discarded = new AtomicLong(0L);
+
+    /**
+     * @param maxIdle Maximum number of inflaters kept in the pool.
+     */
+    public InflaterPool(final int maxIdle)
+    {
+        Preconditions.checkArgument(maxIdle >= 0, "max idle must not be negative!");
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * @return the pool used by the content codecs of this library.
+     */
+    public static InflaterPool getDefault()
+    {
+        return DEFAULT;
+    }
+
+    @Override
+    public int getIdle()
+    {
+        return idle.get();
+    }
+
+    @Override
+    public int getInUse()
+    {
+        return inUse.get();
+    }
+
+    @Override
+    public long getCreated()
+    {
+        return created.get();
+    }
+
+    @Override
+    public long getReused()
+    {
+        return reused.get();
+    }
+
+    @Override
+    public long getDiscarded()
+    {
+        return discarded.get();
+    }
+
+    /**
+     * @param nowrap true for raw deflate data without zlib header and trailer.
+     */
+    Entry acquire(final boolean nowrap)
+    {
+        inUse.incrementAndGet();
+
+        final Entry entry = queueFor(nowrap).poll();
+        if (entry != null) {
+            idle.decrementAndGet();
+            reused.incrementAndGet();
+            return entry;
+        }
+        created.incrementAndGet();
+        return new Entry(nowrap);
+    }
+
+    void release(final Entry entry)
+    {
+        inUse.decrementAndGet();
+
+        if (idle.incrementAndGet() <= maxIdle) {
+            entry.inflater.reset();
+            queueFor(entry.nowrap).offer(entry);
+        }
+        else {
+            idle.decrementAndGet();
+            discarded.incrementAndGet();
+            entry.inflater.end();
+        }
+    }
+
+    private Queue<Entry> queueFor(final boolean nowrap)
+    {
+        return nowrap ? rawInflaters : zlibInflaters;
+    }
+
+    static final class Entry
+    {
+        private final boolean nowrap;
+        private final Inflater inflater;
+        private final byte [] buffer = new byte[BUFFER_SIZE];
+
+        private Entry(final boolean nowrap)
+        {
+            this.nowrap = nowrap;
+            this.inflater = new Inflater(nowrap);
+        }
+
+        Inflater getInflater()
+        {
+            return inflater;
+        }
+
+        byte [] getBuffer()
+        {
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.io;
+
+import javax.management.MXBean;
+
+/**
+ * Occupancy of an {@link InflaterPool}.
+ */
+@MXBean
+public interface InflaterPoolStatistics
+{
+    /**
+     * Number of inflaters that are idle in the pool.
+     */
+    int getIdle();
+
+    /**
+     * Number of inflaters that are currently decoding a body.
+     */
+    int getInUse();
+
+    /**
+     * Number of inflaters that were created because the pool was empty.
+     */
+    long getCreated();
+
+    /**
+     * Number of inflaters that were taken from the pool.
+     */
+    long getReused();
+
+    /**
+     * Number of inflaters that were released because the pool was full.
+     */
+    long getDiscarded();
+}
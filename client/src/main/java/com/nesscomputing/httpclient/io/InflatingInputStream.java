@@ -0,0 +1,305 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Decodes raw deflate, zlib or gzip data with an inflater from an {@link InflaterPool}. The inflater goes back to the
+ * pool as soon as the end of the data is read or the stream is closed, whichever comes first.
+ *
+ * Gzip data may consist of several members, as {@link java.util.zip.GZIPInputStream} allows.
+ */
+@NotThreadSafe
+public final class InflatingInputStream extends InputStream
+{
+    public enum Format
+    {
+        /** Deflate data without header and trailer. */
+        RAW(true),
+
+        /** Deflate data with zlib header and Adler-32 trailer. */
+        ZLIB(false),
+
+        /** Deflate data with gzip header and CRC-32 trailer. */
+        GZIP(true);
+
+        private final boolean nowrap;
+
+        private Format(final boolean nowrap)
+        {
+            this.nowrap = nowrap;
+        }
+    }
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final InputStream in;
+    private final Format format;
+    private final InflaterPool pool;
+    private final CRC32 crc;
+    private final byte [] single = new byte[1];
+
+    private InflaterPool.Entry entry;
+    private Inflater inflater;
+    private byte [] buffer;
+
+    /** Bytes in the buffer that were read from the stream. */
+    private int inputLimit = 0;
+
+    /** Start of the bytes in the buffer that were not handed to the inflater yet. */
+    private int inputPos = 0;
+
+    private boolean eof = false;
+    private boolean closed = false;
+
+    public InflatingInputStream(final InputStream in, final Format format, final InflaterPool pool) throws IOException
+    {
+        Preconditions.checkArgument(in != null, "input stream can not be null!");
+        Preconditions.checkArgument(format != null, "format can not be null!");
+        Preconditions.checkArgument(pool != null, "pool can not be null!");
+
+        this.in = in;
+        this.format = format;
+        this.pool = pool;
+        this.crc = (format == Format.GZIP) ? new CRC32() : null;
+
+        this.entry = pool.acquire(format.nowrap);
+        this.inflater = entry.getInflater();
+        this.buffer = entry.getBuffer();
+
+        if (format == Format.GZIP) {
+            try {
+                readGzipHeader(readInputByte());
+            }
+            catch (IOException ioe) {
+                release();
+                throw ioe;
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte [] b, final int off, final int len) throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (eof) {
+            return -1;
+        }
+        if (inflater == null) {
+            throw new IOException("Inflater released");
+        }
+
+        try {
+            while (true) {
+                final int count = inflater.inflate(b, off, len);
+                if (count > 0) {
+                    if (crc != null) {
+                        crc.update(b, off, count);
+                    }
+                    return count;
+                }
+                if (inflater.finished()) {
+                    inputPos = inputLimit - inflater.getRemaining();
+                    if (format != Format.GZIP || !readGzipTrailer()) {
+                        eof = true;
+                        release();
+                        return -1;
+                    }
+                }
+                else if (inflater.needsDictionary()) {
+                    throw new ZipException("Preset dictionaries are not supported");
+                }
+                else if (inflater.needsInput()) {
+                    fill();
+                }
+            }
+        }
+        catch (DataFormatException dfe) {
+            final String message = dfe.getMessage();
+            throw new ZipException(message != null ? message : "Invalid " + format + " data format");
+        }
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        return eof ? 0 : 1;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (!closed) {
+            closed = true;
+            release();
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the inflater to the pool without closing the stream. Reading the stream after that fails unless its end
+     * was already reached.
+     */
+    public void releaseInflater()
+    {
+        release();
+    }
+
+    private void release()
+    {
+        if (entry != null) {
+            pool.release(entry);
+            entry = null;
+            inflater = null;
+            buffer = null;
+        }
+    }
+
+    private void fill() throws IOException
+    {
+        if (inputPos >= inputLimit) {
+            final int count = in.read(buffer, 0, buffer.length);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of " + format + " input stream");
+            }
+            inputPos = 0;
+            inputLimit = count;
+        }
+        inflater.setInput(buffer, inputPos, inputLimit - inputPos);
+        inputPos = inputLimit;
+    }
+
+    /**
+     * @return the next byte that was not handed to the inflater, or -1 at the end of the stream.
+     */
+    private int readInputByte() throws IOException
+    {
+        if (inputPos >= inputLimit) {
+            final int count = in.read(buffer, 0, buffer.length);
+            if (count < 0) {
+                return -1;
+            }
+            inputPos = 0;
+            inputLimit = count;
+        }
+        return buffer[inputPos++] & 0xff;
+    }
+
+    private int readUnsignedByte() throws IOException
+    {
+        final int b = readInputByte();
+        if (b < 0) {
+            throw new EOFException("Unexpected end of GZIP input stream");
+        }
+        return b;
+    }
+
+    private int readUnsignedShort() throws IOException
+    {
+        return readUnsignedByte() | (readUnsignedByte() << 8);
+    }
+
+    private long readUnsignedInt() throws IOException
+    {
+        return readUnsignedShort() | ((long) readUnsignedShort() << 16);
+    }
+
+    private void readGzipHeader(final int firstByte) throws IOException
+    {
+        if (firstByte < 0 || (firstByte | (readUnsignedByte() << 8)) != GZIP_MAGIC) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (readUnsignedByte() != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+        final int flags = readUnsignedByte();
+
+        // Modification time, extra flags and operating system.
+        for (int i = 0; i < 6; i++) {
+            readUnsignedByte();
+        }
+        if ((flags & FEXTRA) != 0) {
+            for (int i = readUnsignedShort(); i > 0; i--) {
+                readUnsignedByte();
+            }
+        }
+        if ((flags & FNAME) != 0) {
+            while (readUnsignedByte() != 0) {
+                continue;
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (readUnsignedByte() != 0) {
+                continue;
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            readUnsignedShort();
+        }
+        crc.reset();
+    }
+
+    /**
+     * @return true if another gzip member follows.
+     */
+    private boolean readGzipTrailer() throws IOException
+    {
+        if (readUnsignedInt() != crc.getValue() || readUnsignedInt() != (inflater.getBytesWritten() & 0xffffffffL)) {
+            throw new ZipException("Corrupt GZIP trailer");
+        }
+
+        final int next = readInputByte();
+        if (next < 0) {
+            return false;
+        }
+        readGzipHeader(next);
+        inflater.reset();
+        return true;
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.base.Preconditions;
+
+/**
+ * Content that serializes an object as JSON.
+ *
+ * Streaming content is serialized straight into the request stream while it is sent, so the payload never exists
+ * in memory as a whole. It is sent chunked and serialized again for every attempt. Buffered content is serialized
+ * once into a single byte array, which gives an exact Content-Length.
+ *
+ * A writer for the type of the value is taken from the mapper for every content. Callers that send the same type
+ * often can keep a writer and pass it instead of the mapper.
+ */
+public final class JsonContent extends StreamingContent
+{
+    public static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+
+    private final ObjectWriter writer;
+    private final Object value;
+    private final byte [] bytes;
+
+    private JsonContent(final ObjectWriter writer, final Object value, final byte [] bytes)
+    {
+        this.writer = writer;
+        this.value = value;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return content that serializes the value while the request is sent.
+     */
+    public static JsonContent of(final ObjectMapper mapper, @Nullable final Object value)
+    {
+        return of(writerFor(mapper, value), value);
+    }
+
+    /**
+     * @return content that serializes the value with the given writer while the request is sent.
+     */
+    public static JsonContent of(final ObjectWriter writer, @Nullable final Object value)
+    {
+        Preconditions.checkArgument(writer != null, "writer can not be null!");
+        return new JsonContent(writer, value, null);
+    }
+
+    /**
+     * @return content that holds the value serialized once.
+     */
+    public static JsonContent buffered(final ObjectMapper mapper, @Nullable final Object value) throws IOException
+    {
+        return buffered(writerFor(mapper, value), value);
+    }
+
+    /**
+     * @return content that holds the value serialized once with the given writer.
+     */
+    public static JsonContent buffered(final ObjectWriter writer, @Nullable final Object value) throws IOException
+    {
+        Preconditions.checkArgument(writer != null, "writer can not be null!");
+        return new JsonContent(null, null, writer.writeValueAsBytes(value));
+    }
+
+    private static ObjectWriter writerFor(final ObjectMapper mapper, @Nullable final Object value)
+    {
+        Preconditions.checkArgument(mapper != null, "mapper can not be null!");
+        // The mapper caches the serializers, a writer for a type is cheap to create.
+        return mapper.writerWithType(value == null ? Object.class : value.getClass());
+    }
+
+    public boolean isBuffered()
+    {
+        return bytes != null;
+    }
+
+    @Override
+    public void writeTo(final OutputStream outputStream) throws IOException
+    {
+        if (bytes != null) {
+            outputStream.write(bytes);
+            return;
+        }
+
+        final JsonGenerator generator = writer.getJsonFactory().createGenerator(outputStream, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try {
+            writer.writeValue(generator, value);
+        }
+        finally {
+            // Flushes and returns the buffers of the generator.
+            generator.close();
+        }
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        return bytes != null ? bytes.length : -1L;
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return CONTENT_TYPE;
+    }
+}
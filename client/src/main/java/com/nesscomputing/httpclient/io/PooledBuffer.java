@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Bytes in a buffer from a {@link BufferPool}. Grows as needed; closing it returns the memory to the pool, after that
+ * it must not be used any more, including views returned by {@link #asByteBuffer()} and {@link #asInputStream()}.
+ */
+@NotThreadSafe
+public final class PooledBuffer implements Closeable
+{
+    private final BufferPool pool;
+    private ByteBuffer buffer;
+    private int length = 0;
+
+    PooledBuffer(final BufferPool pool, final ByteBuffer buffer)
+    {
+        this.pool = pool;
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return number of bytes in the buffer.
+     */
+    public int length()
+    {
+        checkOpen();
+        return length;
+    }
+
+    /**
+     * Append bytes to the buffer.
+     */
+    public void write(@Nonnull final byte [] bytes, final int offset, final int count)
+    {
+        checkOpen();
+        ensureCapacity(count);
+        final ByteBuffer target = buffer.duplicate();
+        target.position(length);
+        target.put(bytes, offset, count);
+        length += count;
+    }
+
+    /**
+     * Append the rest of a stream to the buffer. The stream is not closed.
+     *
+     * @return number of bytes read.
+     */
+    public int readFrom(@Nonnull final InputStream in) throws IOException
+    {
+        checkOpen();
+        final int start = length;
+
+        if (buffer.hasArray()) {
+            while (true) {
+                if (length == buffer.capacity()) {
+                    ensureCapacity(1);
+                }
+                final int count = in.read(buffer.array(), buffer.arrayOffset() + length, buffer.capacity() - length);
+                if (count < 0) {
+                    break;
+                }
+                length += count;
+            }
+        }
+        else {
+            final byte [] chunk = new byte[4096];
+            int count;
+            while ((count = in.read(chunk)) >= 0) {
+                write(chunk, 0, count);
+            }
+        }
+        return length - start;
+    }
+
+    /**
+     * @return a read only view of the bytes in the buffer.
+     */
+    public ByteBuffer asByteBuffer()
+    {
+        checkOpen();
+        final ByteBuffer view = buffer.asReadOnlyBuffer();
+        view.position(0);
+        view.limit(length);
+        return view;
+    }
+
+    /**
+     * @return a stream that reads the bytes in the buffer.
+     */
+    public InputStream asInputStream()
+    {
+        return new ByteBufferInputStream(asByteBuffer());
+    }
+
+    /**
+     * @return a copy of the bytes in the buffer.
+     */
+    public byte [] toByteArray()
+    {
+        final byte [] result = new byte[length()];
+        asByteBuffer().get(result);
+        return result;
+    }
+
+    /**
+     * @return the bytes in the buffer, decoded with a charset. Malformed input is replaced.
+     */
+    public String toString(@Nonnull final Charset charset)
+    {
+        checkOpen();
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset(), length, charset);
+        }
+        return charset.decode(asByteBuffer()).toString();
+    }
+
+    @Override
+    public void close()
+    {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    private void ensureCapacity(final int count)
+    {
+        final long required = (long) length + count;
+        if (required > buffer.capacity()) {
+            Preconditions.checkState(required <= Integer.MAX_VALUE, "buffer can not grow beyond 2 GB!");
+            final ByteBuffer grown = pool.acquire((int) Math.min(Integer.MAX_VALUE, Math.max(required, 2L * buffer.capacity())));
+            final ByteBuffer source = buffer.duplicate();
+            source.position(0);
+            source.limit(length);
+            grown.put(source);
+            pool.release(buffer);
+            buffer = grown;
+        }
+    }
+
+    private void checkOpen()
+    {
+        Preconditions.checkState(buffer != null, "buffer was closed!");
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+/**
+ * The content codings that are registered by default. Gzip and deflate are decoded with inflaters from the default
+ * {@link InflaterPool}.
+ */
+public enum StandardContentCodec implements ContentCodec
+{
+    /** The block format of lz4-java. */
+    LZ4("lz4") {
+        @Override
+        public InputStream decode(final InputStream inputStream)
+        {
+            return new LZ4BlockInputStream(inputStream);
+        }
+
+        @Override
+        public OutputStream encode(final OutputStream outputStream)
+        {
+            return new LZ4BlockOutputStream(outputStream);
+        }
+    },
+
+    GZIP("gzip") {
+        @Override
+        public InputStream decode(final InputStream inputStream) throws IOException
+        {
+            return new InflatingInputStream(inputStream, InflatingInputStream.Format.GZIP, InflaterPool.getDefault());
+        }
+
+        @Override
+        public OutputStream encode(final OutputStream outputStream) throws IOException
+        {
+            return new GZIPOutputStream(outputStream, 8192);
+        }
+    },
+
+    /**
+     * Encodes in the zlib format as the HTTP spec asks for. Decodes zlib and, as some servers send it, raw deflate.
+     */
+    DEFLATE("deflate") {
+        @Override
+        public InputStream decode(final InputStream inputStream) throws IOException
+        {
+            final PushbackInputStream in = new PushbackInputStream(inputStream, 2);
+            final byte [] header = new byte[2];
+            int count = 0;
+            int read;
+            while (count < header.length && (read = in.read(header, count, header.length - count)) >= 0) {
+                count += read;
+            }
+            in.unread(header, 0, count);
+            final boolean zlib = count == header.length && isZlibHeader(header[0], header[1]);
+            return new InflatingInputStream(in, zlib ? InflatingInputStream.Format.ZLIB : InflatingInputStream.Format.RAW, InflaterPool.getDefault());
+        }
+
+        @Override
+        public OutputStream encode(final OutputStream outputStream)
+        {
+            return new DeflaterOutputStream(outputStream);
+        }
+    };
+
+    private final String encoding;
+
+    private StandardContentCodec(final String encoding)
+    {
+        this.encoding = encoding;
+    }
+
+    @Override
+    public String getEncoding()
+    {
+        return encoding;
+    }
+
+    /**
+     * A zlib header is "deflate" as compression method and a check value that makes the first two bytes a multiple of 31.
+     */
+    private static boolean isZlibHeader(final byte cmf, final byte flg)
+    {
+        return (cmf & 0x0f) == 8 && (((cmf & 0xff) << 8) | (flg & 0xff)) % 31 == 0;
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Content for a POST or PUT request that is written straight into the request stream instead of being
+ * materialized first.
+ */
+public abstract class StreamingContent
+{
+    /**
+     * Write the content. The stream must not be closed.
+     */
+    public abstract void writeTo(OutputStream outputStream) throws IOException;
+
+    /**
+     * @return the number of bytes written by {@link #writeTo(OutputStream)}, or -1 if it is not known up front. Content
+     *         of unknown length is sent with chunked transfer encoding.
+     */
+    public long getContentLength()
+    {
+        return -1L;
+    }
+
+    /**
+     * @return true if {@link #writeTo(OutputStream)} can be called more than once, e.g. for retries.
+     */
+    public boolean isRepeatable()
+    {
+        return true;
+    }
+
+    /**
+     * @return the content type, or null. A content type set on the request takes precedence.
+     */
+    @CheckForNull
+    public String getContentType()
+    {
+        return null;
+    }
+}
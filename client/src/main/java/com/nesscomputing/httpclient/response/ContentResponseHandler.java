@@ -17,17 +17,14 @@ package com.nesscomputing.httpclient.response;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
-
-import net.jpountz.lz4.LZ4BlockInputStream;
 
 import org.apache.commons.io.input.NullInputStream;
-import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.io.Closeables;
 
 import com.nesscomputing.httpclient.HttpClientResponse;
 import com.nesscomputing.httpclient.HttpClientResponseHandler;
+import com.nesscomputing.httpclient.io.ContentCodecRegistry;
 import com.nesscomputing.httpclient.io.SizeExceededException;
 import com.nesscomputing.httpclient.io.SizeLimitingInputStream;
 import com.nesscomputing.logging.Log;
@@ -43,6 +40,7 @@ public class ContentResponseHandler<T> implements HttpClientResponseHandler<T>
     private final ContentConverter<T> contentConverter;
     private final int maxBodyLength;
     private final boolean allowRedirect;
+    private final ContentCodecRegistry codecRegistry;
 
     public static <CC> ContentResponseHandler<CC> forConverter(final ContentConverter<CC> contentConverter)
     {
@@ -83,10 +81,27 @@ public class ContentResponseHandler<T> implements HttpClientResponseHandler<T>
      * @throws RedirectedException When the server returned a 3xx return code.
      */
     public ContentResponseHandler(final ContentConverter<T> contentConverter, final int maxBodyLength, final boolean allowRedirect)
+    {
+        this(contentConverter, maxBodyLength, allowRedirect, ContentCodecRegistry.getDefault());
+    }
+
+    /**
+     * Creates a new ContentResponseHandler.
+     *
+     * @param contentConverter The content converter to use to convert the response into the reply object.
+     * @param maxBodyLength The maximum number of bytes to read from the server. -1 means 'unlimited'.
+     * @param allowRedirect If true, the handler will throw a {@link RedirectedException} to signal redirection to the caller.
+     * @param codecRegistry The content codings used to decode the response body.
+     *
+     * @throws SizeExceededException When the body length is bigger than maxBodyLength.
+     * @throws RedirectedException When the server returned a 3xx return code.
+     */
+    public ContentResponseHandler(final ContentConverter<T> contentConverter, final int maxBodyLength, final boolean allowRedirect, final ContentCodecRegistry codecRegistry)
     {
         this.contentConverter = contentConverter;
         this.maxBodyLength = maxBodyLength;
         this.allowRedirect = allowRedirect;
+        this.codecRegistry = codecRegistry;
     }
 
     /**
@@ -127,26 +142,24 @@ public class ContentResponseHandler<T> implements HttpClientResponseHandler<T>
                     is = new SizeLimitingInputStream(is, maxBodyLength);
                 }
 
-                final String encoding = StringUtils.trimToEmpty(response.getHeader("Content-Encoding"));
-
-                if (StringUtils.equalsIgnoreCase(encoding, "lz4")) {
-                    LOG.debug("Found LZ4 stream");
-                    is = new LZ4BlockInputStream(is);
-                } else if (StringUtils.equalsIgnoreCase(encoding, "gzip") || StringUtils.equalsIgnoreCase(encoding, "x-gzip")) {
-                    LOG.debug("Found GZIP stream");
-                    is = new GZIPInputStream(is);
-                }
-                else if (StringUtils.equalsIgnoreCase(encoding, "deflate")) {
-                    LOG.debug("Found deflate stream");
-                    final Inflater inflater = new Inflater(true);
-                    is = new InflaterInputStream(is, inflater);
-                }
+                is = codecRegistry.decode(response.getHeader("Content-Encoding"), is);
 
                 return contentConverter.convert(response, is);
             }
             catch (IOException ioe) {
+                // Returns pooled decoder resources that the converter did not release.
+                Closeables.closeQuietly(is);
                 return contentConverter.handleError(response, ioe);
             }
+            catch (RuntimeException re) {
+                Closeables.closeQuietly(is);
+                throw re;
+            }
+            finally {
+                // A converter may stop before the end of the body without closing it; the connection
+                // owns the body, but the pooled decoder resources are returned here.
+                ContentCodecRegistry.release(is);
+            }
         }
     }
 }
@@ -16,11 +16,12 @@
 package com.nesscomputing.httpclient.response;
 
 
-import org.apache.commons.io.IOUtils;
-
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Multimap;
 import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.io.BufferPool;
+import com.nesscomputing.httpclient.io.PooledBuffer;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -32,9 +33,26 @@ import java.util.Map.Entry;
  * ContentConverter implementation that exposes the response directly.
  */
 public class HttpResponseContentConverter implements ContentConverter<HttpResponse> {
+    private final BufferPool bufferPool;
+
+    public HttpResponseContentConverter() {
+        this(BufferPool.getDefault());
+    }
+
+    public HttpResponseContentConverter(BufferPool bufferPool) {
+        Preconditions.checkArgument(bufferPool != null, "buffer pool can not be null!");
+        this.bufferPool = bufferPool;
+    }
+
     @Override
     public HttpResponse convert(HttpClientResponse response, InputStream inputStream) throws IOException {
-        return new HttpResponse(response.getStatusCode(), IOUtils.toByteArray(inputStream), response.getCharset(), headersFor(response.getAllHeaders()));
+        final PooledBuffer buffer = bufferPool.read(inputStream, BufferPool.getSizeHint(response));
+        try {
+            return new HttpResponse(response.getStatusCode(), buffer.toByteArray(), response.getCharset(), headersFor(response.getAllHeaders()));
+        }
+        finally {
+            buffer.close();
+        }
     }
 
     private Multimap<String, String> headersFor(Map<String, List<String>> allHeaders) {
@@ -18,14 +18,15 @@ package com.nesscomputing.httpclient.response;
 import com.nesscomputing.httpclient.HttpClientResponse;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 
 import javax.annotation.concurrent.Immutable;
 
 import com.google.common.base.Objects;
-import com.google.common.io.CharStreams;
+import com.google.common.base.Preconditions;
 import com.google.common.io.Closeables;
+import com.nesscomputing.httpclient.io.BufferPool;
+import com.nesscomputing.httpclient.io.PooledBuffer;
 
 /**
  * A basic implementation of ContentConverter when you only want a string back.
@@ -40,6 +41,7 @@ public class StringContentConverter extends AbstractErrorHandlingContentConverte
     public static final ContentResponseHandler<String> DEFAULT_404OK_RESPONSE_HANDLER = ContentResponseHandler.forConverter(DEFAULT_404OK_CONVERTER);
 
     private final boolean ignore404;
+    private final BufferPool bufferPool;
 
     protected StringContentConverter()
     {
@@ -48,7 +50,14 @@ public class StringContentConverter extends AbstractErrorHandlingContentConverte
 
     protected StringContentConverter(final boolean ignore404)
     {
+        this(ignore404, BufferPool.getDefault());
+    }
+
+    protected StringContentConverter(final boolean ignore404, final BufferPool bufferPool)
+    {
+        Preconditions.checkArgument(bufferPool != null, "buffer pool can not be null!");
         this.ignore404 = ignore404;
+        this.bufferPool = bufferPool;
     }
 
     @Override
@@ -59,13 +68,15 @@ public class StringContentConverter extends AbstractErrorHandlingContentConverte
             case 200:
             case 201:
                 final Charset charset = Charset.forName(Objects.firstNonNull(httpClientResponse.getCharset(), "UTF-8"));
-                final InputStreamReader reader = new InputStreamReader(inputStream, charset);
+                PooledBuffer buffer = null;
 
                 try {
-                    return CharStreams.toString(reader);
+                    buffer = bufferPool.read(inputStream, BufferPool.getSizeHint(httpClientResponse));
+                    return buffer.toString(charset);
                 }
                 finally {
-                    Closeables.closeQuietly(reader);
+                    Closeables.closeQuietly(buffer);
+                    Closeables.closeQuietly(inputStream);
                 }
 
             case 204:
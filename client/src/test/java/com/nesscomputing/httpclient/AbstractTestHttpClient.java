@@ -18,6 +18,7 @@ package com.nesscomputing.httpclient;
 import static org.hamcrest.CoreMatchers.is;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -94,5 +95,18 @@ public abstract class AbstractTestHttpClient
         final String response2 = httpRequest.perform();
         Assert.assertThat(response2, is(testString));
     }
+
+    @Test
+    public void testSimpleAsync() throws InterruptedException, ExecutionException
+    {
+        final String testString = "Ich bin zwei Oeltanks";
+        testHandler.setContent(testString);
+        testHandler.setContentType("text/plain");
+
+        final HttpClientRequest<String> httpRequest = getRequest();
+        final String response = httpRequest.performAsync().get();
+
+        Assert.assertThat(response, is(testString));
+    }
 }
 
@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.skife.config.TimeSpan;
+import com.nesscomputing.httpclient.testsupport.GenericTestHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StatusCodeResponseHandler;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestCircuitBreaker
+{
+    private final HttpClientResponseHandler<Integer> statusHandler = new StatusCodeResponseHandler();
+
+    private GenericTestHandler testHandler = null;
+    private LocalHttpService localHttpService = null;
+    private HttpClient httpClient = null;
+    private String uri = null;
+
+    @Before
+    public void setup()
+    {
+        testHandler = new GenericTestHandler();
+        localHttpService = LocalHttpService.forHandler(testHandler);
+        localHttpService.start();
+
+        uri = "http://127.0.0.1:" + localHttpService.getPort() + "/data";
+    }
+
+    @After
+    public void teardown()
+    {
+        httpClient.close();
+        httpClient = null;
+
+        localHttpService.stop();
+        localHttpService = null;
+        testHandler = null;
+    }
+
+    private void startClient(final boolean enabled)
+    {
+        startClient(enabled, 0);
+    }
+
+    private void startClient(final boolean enabled, final int rateLimit)
+    {
+        httpClient = new HttpClient(new HttpClientDefaults() {
+            @Override
+            public boolean isCircuitBreakerEnabled()
+            {
+                return enabled;
+            }
+
+            @Override
+            public int getCircuitBreakerMinimumRequests()
+            {
+                return 4;
+            }
+
+            @Override
+            public TimeSpan getCircuitBreakerOpenDuration()
+            {
+                return new TimeSpan(300, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public int getCircuitBreakerHalfOpenProbes()
+            {
+                return 1;
+            }
+
+            @Override
+            public int getRateLimit()
+            {
+                return rateLimit;
+            }
+
+            @Override
+            public int getRateLimitBurst()
+            {
+                return 5;
+            }
+
+            @Override
+            public HttpClientRateLimitMode getRateLimitMode()
+            {
+                return HttpClientRateLimitMode.FAIL_FAST;
+            }
+        }).start();
+    }
+
+    private void fail(final int count) throws IOException
+    {
+        for (int i = 0; i < count; i++) {
+            testHandler.setNextStatus(500);
+            Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(500));
+        }
+    }
+
+    @Test
+    public void testOpenAndClose() throws Exception
+    {
+        startClient(true);
+
+        Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(200));
+        fail(3);
+
+        try {
+            httpClient.get(uri, statusHandler).perform();
+            Assert.fail();
+        }
+        catch (CircuitOpenException coe) {
+            Assert.assertThat(coe.getRoute(), is("http://127.0.0.1:" + localHttpService.getPort()));
+        }
+
+        Thread.sleep(400L);
+
+        // Probe succeeds and closes the circuit.
+        Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(200));
+        Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(200));
+    }
+
+    @Test
+    public void testFailedProbe() throws Exception
+    {
+        startClient(true);
+
+        fail(4);
+        Thread.sleep(400L);
+
+        // Probe fails and opens the circuit again.
+        fail(1);
+
+        try {
+            httpClient.get(uri, statusHandler).perform();
+            Assert.fail();
+        }
+        catch (CircuitOpenException coe) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testOpenCircuitSpendsNoRateLimit() throws Exception
+    {
+        startClient(true, 1);
+
+        fail(4);
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                httpClient.get(uri, statusHandler).perform();
+                Assert.fail();
+            }
+            catch (CircuitOpenException coe) {
+                // ok
+            }
+        }
+
+        Thread.sleep(400L);
+
+        // The last token of the burst is left for the probe.
+        Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(200));
+    }
+
+    @Test
+    public void testDisabled() throws IOException
+    {
+        startClient(false);
+
+        fail(10);
+        Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(200));
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.BlockingTestHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestCoalescing
+{
+    private static final String TEST_STRING = "Ich bin zwei Oeltanks";
+
+    private final HttpClientResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+
+    private BlockingTestHandler testHandler = null;
+    private LocalHttpService localHttpService = null;
+    private HttpClient httpClient = null;
+    private String uri = null;
+
+    @Before
+    public void setup()
+    {
+        testHandler = new BlockingTestHandler();
+        testHandler.setContent(TEST_STRING);
+        testHandler.setContentType("text/plain");
+        localHttpService = LocalHttpService.forHandler(testHandler);
+        localHttpService.start();
+
+        uri = "http://127.0.0.1:" + localHttpService.getPort() + "/data";
+
+        httpClient = new HttpClient(new HttpClientDefaults() {
+            @Override
+            public boolean isCoalesceRequests()
+            {
+                return true;
+            }
+
+            @Override
+            public HttpClientAsyncMode getAsyncMode()
+            {
+                return HttpClientAsyncMode.UNBOUNDED;
+            }
+        }).start();
+    }
+
+    @After
+    public void teardown()
+    {
+        testHandler.unblock();
+
+        httpClient.close();
+        httpClient = null;
+
+        localHttpService.stop();
+        localHttpService = null;
+        testHandler = null;
+    }
+
+    @Test
+    public void testIdenticalRequestsShareResponse() throws Exception
+    {
+        testHandler.block();
+
+        final List<ListenableFuture<String>> futures = Lists.newArrayList();
+        futures.add(httpClient.get(uri, responseHandler).performAsync());
+        Assert.assertTrue(testHandler.awaitEntered(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 10; i++) {
+            futures.add(httpClient.get(uri, responseHandler).performAsync());
+        }
+
+        // Give the duplicates time to join the request in flight.
+        Thread.sleep(500L);
+        testHandler.unblock();
+
+        for (final String response : Futures.allAsList(futures).get(10, TimeUnit.SECONDS)) {
+            Assert.assertThat(response, is(TEST_STRING));
+        }
+        Assert.assertThat(testHandler.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void testWaitingRequestTimesOut() throws Exception
+    {
+        testHandler.block();
+
+        final ListenableFuture<String> first = httpClient.get(uri, responseHandler).performAsync();
+        Assert.assertTrue(testHandler.awaitEntered(5, TimeUnit.SECONDS));
+
+        final long start = System.nanoTime();
+        try {
+            httpClient.get(uri, responseHandler).setRequestTimeout(200, TimeUnit.MILLISECONDS).perform();
+            Assert.fail();
+        }
+        catch (SocketTimeoutException ste) {
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        }
+
+        testHandler.unblock();
+        Assert.assertThat(first.get(10, TimeUnit.SECONDS), is(TEST_STRING));
+        Assert.assertThat(testHandler.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void testDifferentHeadersAreNotShared() throws Exception
+    {
+        testHandler.block();
+
+        final ListenableFuture<String> first = httpClient.get(uri, responseHandler).addHeader("X-Test", "1").performAsync();
+        Assert.assertTrue(testHandler.awaitEntered(5, TimeUnit.SECONDS));
+
+        final ListenableFuture<String> second = httpClient.get(uri, responseHandler).addHeader("X-Test", "2").performAsync();
+
+        Thread.sleep(500L);
+        testHandler.unblock();
+
+        Assert.assertThat(first.get(10, TimeUnit.SECONDS), is(TEST_STRING));
+        Assert.assertThat(second.get(10, TimeUnit.SECONDS), is(TEST_STRING));
+        Assert.assertThat(testHandler.getRequestCount(), is(2));
+    }
+
+    @Test
+    public void testSequentialRequestsAreNotShared() throws IOException
+    {
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is(TEST_STRING));
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is(TEST_STRING));
+        Assert.assertThat(testHandler.getRequestCount(), is(2));
+    }
+
+    @Test
+    public void testPostIsNotShared() throws Exception
+    {
+        testHandler.block();
+
+        final ListenableFuture<String> first = httpClient.post(uri, responseHandler).setContent("data").performAsync();
+        Assert.assertTrue(testHandler.awaitEntered(5, TimeUnit.SECONDS));
+
+        final ListenableFuture<String> second = httpClient.post(uri, responseHandler).setContent("data").performAsync();
+
+        Thread.sleep(500L);
+        testHandler.unblock();
+
+        Assert.assertThat(first.get(10, TimeUnit.SECONDS), is(TEST_STRING));
+        Assert.assertThat(second.get(10, TimeUnit.SECONDS), is(TEST_STRING));
+        Assert.assertThat(testHandler.getRequestCount(), is(2));
+    }
+}
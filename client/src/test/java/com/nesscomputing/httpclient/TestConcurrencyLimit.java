@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.skife.config.TimeSpan;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.nesscomputing.httpclient.factory.httpclient4.ApacheHttpClient4Factory;
+import com.nesscomputing.httpclient.testsupport.BlockingTestHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StatusCodeResponseHandler;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestConcurrencyLimit
+{
+    private final HttpClientResponseHandler<Integer> statusHandler = new StatusCodeResponseHandler();
+
+    private BlockingTestHandler testHandler = null;
+    private LocalHttpService localHttpService = null;
+    private ApacheHttpClient4Factory factory = null;
+    private HttpClient httpClient = null;
+    private String uri = null;
+
+    @Before
+    public void setup()
+    {
+        testHandler = new BlockingTestHandler();
+        localHttpService = LocalHttpService.forHandler(testHandler);
+        localHttpService.start();
+
+        uri = "http://127.0.0.1:" + localHttpService.getPort() + "/data";
+    }
+
+    @After
+    public void teardown()
+    {
+        testHandler.unblock();
+
+        httpClient.close();
+        httpClient = null;
+        factory = null;
+
+        localHttpService.stop();
+        localHttpService = null;
+        testHandler = null;
+    }
+
+    private void startClient(final int initialLimit, final int maxQueue, final long maxQueueWait)
+    {
+        final HttpClientDefaults defaults = new HttpClientDefaults() {
+            @Override
+            public boolean isConcurrencyLimitEnabled()
+            {
+                return true;
+            }
+
+            @Override
+            public int getConcurrencyLimitInitialLimit()
+            {
+                return initialLimit;
+            }
+
+            @Override
+            public int getConcurrencyLimitMaxQueue()
+            {
+                return maxQueue;
+            }
+
+            @Override
+            public TimeSpan getConcurrencyLimitMaxQueueWait()
+            {
+                return new TimeSpan(maxQueueWait, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public int getRetries()
+            {
+                return 0;
+            }
+        };
+        factory = new ApacheHttpClient4Factory(defaults, null);
+        httpClient = new HttpClient(factory, defaults).start();
+    }
+
+    private ListenableFuture<Integer> blockOne() throws InterruptedException
+    {
+        testHandler.block();
+        final ListenableFuture<Integer> blocked = httpClient.get(uri, statusHandler).performAsync();
+        Assert.assertTrue(testHandler.awaitEntered(5, TimeUnit.SECONDS));
+        return blocked;
+    }
+
+    @Test
+    public void testRejectWithoutQueue() throws Exception
+    {
+        startClient(1, 0, 1000L);
+
+        final ListenableFuture<Integer> blocked = blockOne();
+        try {
+            httpClient.get(uri, statusHandler).perform();
+            Assert.fail();
+        }
+        catch (ConcurrencyLimitException cle) {
+            // ok
+        }
+
+        final HttpClientConcurrencyStatistics statistics = factory.getConcurrencyStatistics();
+        Assert.assertThat(statistics.getInFlight(), is(1));
+        Assert.assertThat(statistics.getRejected(), is(1L));
+
+        testHandler.unblock();
+        Assert.assertThat(blocked.get(5, TimeUnit.SECONDS), is(200));
+        Assert.assertThat(statistics.getInFlight(), is(0));
+    }
+
+    @Test
+    public void testQueueTimeout() throws Exception
+    {
+        startClient(1, 10, 100L);
+
+        blockOne();
+        final long start = System.nanoTime();
+        try {
+            httpClient.get(uri, statusHandler).perform();
+            Assert.fail();
+        }
+        catch (ConcurrencyLimitException cle) {
+            Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        }
+    }
+
+    @Test
+    public void testQueueWaitCountsAgainstRequestTimeout() throws Exception
+    {
+        startClient(1, 10, 5000L);
+
+        blockOne();
+        final long start = System.nanoTime();
+        try {
+            httpClient.get(uri, statusHandler).setRequestTimeout(200, TimeUnit.MILLISECONDS).perform();
+            Assert.fail();
+        }
+        catch (SocketTimeoutException ste) {
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        }
+        Assert.assertThat(factory.getConcurrencyStatistics().getInFlight(), is(1));
+    }
+
+    @Test
+    public void testQueued() throws Exception
+    {
+        startClient(1, 10, 5000L);
+
+        final ListenableFuture<Integer> blocked = blockOne();
+        final Thread unblocker = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    Thread.sleep(200L);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                testHandler.unblock();
+            }
+        };
+        unblocker.start();
+
+        Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(200));
+        Assert.assertThat(blocked.get(5, TimeUnit.SECONDS), is(200));
+        unblocker.join();
+        Assert.assertThat(factory.getConcurrencyStatistics().getRejected(), is(0L));
+    }
+
+    @Test
+    public void testLimitShrinksOnOverload() throws IOException
+    {
+        startClient(20, 10, 1000L);
+
+        for (int i = 0; i < 10; i++) {
+            testHandler.setNextStatus(503);
+            Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(503));
+        }
+
+        final HttpClientConcurrencyStatistics statistics = factory.getConcurrencyStatistics();
+        Assert.assertTrue(statistics.getLimit() < 10);
+        Assert.assertThat(statistics.getRouteLimits().get("http://127.0.0.1:" + localHttpService.getPort()), is(statistics.getLimit()));
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.GenericTestHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestConnectionWarmup
+{
+    private final HttpClientResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+
+    private GenericTestHandler testHandler = null;
+    private LocalHttpService localHttpService = null;
+    private String routeKey = null;
+
+    @Before
+    public void setup()
+    {
+        testHandler = new GenericTestHandler();
+        testHandler.setContent("Ich bin zwei Oeltanks");
+        testHandler.setContentType("text/plain");
+
+        localHttpService = LocalHttpService.forHandler(testHandler);
+        localHttpService.start();
+
+        routeKey = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort();
+    }
+
+    @After
+    public void teardown()
+    {
+        localHttpService.stop();
+        localHttpService = null;
+        testHandler = null;
+    }
+
+    @Test
+    public void testWarmup() throws IOException
+    {
+        final HttpClient httpClient = new HttpClient(new WarmupDefaults(routeKey, 3)).start();
+
+        try {
+            final HttpClientPoolStatistics poolStatistics = httpClient.getPoolStatistics();
+            Assert.assertThat(poolStatistics.getRoutes().get(routeKey).getIdle(), is(3));
+
+            final String response = httpClient.get(routeKey + "/data", responseHandler).perform();
+            Assert.assertThat(response, is("Ich bin zwei Oeltanks"));
+
+            // The request must have used one of the warm connections.
+            Assert.assertThat(poolStatistics.getRoutes().get(routeKey).getIdle(), is(3));
+        }
+        finally {
+            httpClient.close();
+        }
+    }
+
+    @Test
+    public void testWarmupCappedAtRouteMax() throws IOException
+    {
+        final HttpClient httpClient = new HttpClient(new WarmupDefaults(routeKey, 50) {
+            @Override
+            public int getPerHostConnectionsMax()
+            {
+                return 2;
+            }
+        }).start();
+
+        try {
+            Assert.assertThat(httpClient.getPoolStatistics().getRoutes().get(routeKey).getIdle(), is(2));
+        }
+        finally {
+            httpClient.close();
+        }
+    }
+
+    @Test
+    public void testFailedWarmup() throws IOException
+    {
+        final String badRoute = "http://127.0.0.1:1";
+        final HttpClient httpClient = new HttpClient(new WarmupDefaults(badRoute + "," + routeKey, 1)).start();
+
+        try {
+            final HttpClientPoolStatistics poolStatistics = httpClient.getPoolStatistics();
+            Assert.assertThat(poolStatistics.getRoutes().get(routeKey).getIdle(), is(1));
+            Assert.assertThat(poolStatistics.getRoutes().get(badRoute).getIdle(), is(0));
+        }
+        finally {
+            httpClient.close();
+        }
+    }
+
+    @Test
+    public void testNoWarmup() throws IOException
+    {
+        final HttpClient httpClient = new HttpClient().start();
+
+        try {
+            Assert.assertThat(httpClient.getPoolStatistics().getRoutes().get(routeKey), is(nullValue()));
+        }
+        finally {
+            httpClient.close();
+        }
+    }
+
+    private static class WarmupDefaults extends HttpClientDefaults
+    {
+        private final String warmupRoutes;
+        private final int warmupConnectionsPerRoute;
+
+        private WarmupDefaults(final String warmupRoutes, final int warmupConnectionsPerRoute)
+        {
+            this.warmupRoutes = warmupRoutes;
+            this.warmupConnectionsPerRoute = warmupConnectionsPerRoute;
+        }
+
+        @Override
+        public String getWarmupRoutes()
+        {
+            return warmupRoutes;
+        }
+
+        @Override
+        public int getWarmupConnectionsPerRoute()
+        {
+            return warmupConnectionsPerRoute;
+        }
+    }
+}
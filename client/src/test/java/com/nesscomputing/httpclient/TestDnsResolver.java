@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.net.InetAddresses;
+
+import com.nesscomputing.httpclient.dns.StaticDnsResolver;
+import com.nesscomputing.httpclient.factory.httpclient4.ApacheHttpClient4Factory;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.GenericTestHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestDnsResolver
+{
+    private final HttpClientResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+
+    private GenericTestHandler testHandler = null;
+    private LocalHttpService localHttpService = null;
+    private HttpClient httpClient = null;
+
+    @Before
+    public void setup()
+    {
+        testHandler = new GenericTestHandler();
+        testHandler.setContent("Ich bin zwei Oeltanks");
+        testHandler.setContentType("text/plain");
+
+        localHttpService = LocalHttpService.forHandler(testHandler);
+        localHttpService.start();
+
+        final HttpClientDnsResolver dnsResolver = new StaticDnsResolver(ImmutableMultimap.of("service.test", InetAddresses.forString("127.0.0.1")));
+        final HttpClientDefaults defaults = new HttpClientDefaults();
+        httpClient = new HttpClient(new ApacheHttpClient4Factory(defaults, null, dnsResolver), defaults).start();
+    }
+
+    @After
+    public void teardown()
+    {
+        localHttpService.stop();
+        localHttpService = null;
+        testHandler = null;
+
+        httpClient.close();
+        httpClient = null;
+    }
+
+    @Test
+    public void testStaticResolver() throws IOException
+    {
+        final String response = httpClient.get("http://service.test:" + localHttpService.getPort() + "/data", responseHandler).perform();
+        Assert.assertThat(response, is("Ich bin zwei Oeltanks"));
+    }
+
+    @Test(expected = UnknownHostException.class)
+    public void testUnknownHost() throws IOException
+    {
+        httpClient.get("http://unknown.test:" + localHttpService.getPort() + "/data", responseHandler).perform();
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMultimap;
+
+import com.nesscomputing.httpclient.balancer.StaticEndpointProvider;
+import com.nesscomputing.httpclient.factory.httpclient4.ApacheHttpClient4Factory;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.BlockingTestHandler;
+import com.nesscomputing.httpclient.testsupport.GenericTestHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestHedging
+{
+    private final HttpClientResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+
+    private BlockingTestHandler slowHandler = null;
+    private GenericTestHandler fastHandler = null;
+    private LocalHttpService slowService = null;
+    private LocalHttpService fastService = null;
+    private ApacheHttpClient4Factory factory = null;
+    private HttpClient httpClient = null;
+
+    @Before
+    public void setup()
+    {
+        slowHandler = new BlockingTestHandler();
+        slowHandler.setContent("slow");
+        slowHandler.setContentType("text/plain");
+        slowService = LocalHttpService.forHandler(slowHandler);
+        slowService.start();
+
+        fastHandler = new GenericTestHandler();
+        fastHandler.setContent("fast");
+        fastHandler.setContentType("text/plain");
+        fastService = LocalHttpService.forHandler(fastHandler);
+        fastService.start();
+    }
+
+    @After
+    public void teardown()
+    {
+        slowHandler.unblock();
+
+        httpClient.close();
+        httpClient = null;
+        factory = null;
+
+        slowService.stop();
+        slowService = null;
+        fastService.stop();
+        fastService = null;
+    }
+
+    private void startClient(final int budgetPercent)
+    {
+        final HttpClientEndpointProvider endpointProvider = new StaticEndpointProvider(ImmutableMultimap.of(
+            "service", URI.create("http://127.0.0.1:" + slowService.getPort()),
+            "service", URI.create("http://127.0.0.1:" + fastService.getPort())));
+
+        final HttpClientDefaults defaults = new HttpClientDefaults() {
+            @Override
+            public int getHedgeBudgetPercent()
+            {
+                return budgetPercent;
+            }
+        };
+        factory = new ApacheHttpClient4Factory(defaults, null, null, endpointProvider);
+        httpClient = new HttpClient(factory, defaults).start();
+    }
+
+    @Test
+    public void testHedgeWins() throws IOException
+    {
+        startClient(100);
+        slowHandler.block();
+
+        final String response = httpClient.get("srvc://service/data", responseHandler).hedge(100, TimeUnit.MILLISECONDS).perform();
+        Assert.assertThat(response, is("fast"));
+
+        final HttpClientHedgingStatistics statistics = factory.getHedgingStatistics();
+        Assert.assertThat(statistics.getHedgedRequests(), is(1L));
+        Assert.assertThat(statistics.getHedgesSent(), is(1L));
+        Assert.assertThat(statistics.getHedgesWon(), is(1L));
+        Assert.assertThat(statistics.getHedgesRejected(), is(0L));
+    }
+
+    @Test
+    public void testHandlerRunsOnceForWinner() throws IOException
+    {
+        startClient(100);
+        slowHandler.block();
+
+        final AtomicInteger calls = new AtomicInteger(0);
+        final AtomicReference<Thread> handlerThread = new AtomicReference<Thread>();
+        final String response = httpClient.get("srvc://service/data", new HttpClientResponseHandler<String>() {
+            @Override
+            public String handle(final HttpClientResponse response) throws IOException
+            {
+                calls.incrementAndGet();
+                handlerThread.set(Thread.currentThread());
+                return responseHandler.handle(response);
+            }
+        }).hedge(100, TimeUnit.MILLISECONDS).perform();
+
+        Assert.assertThat(response, is("fast"));
+        Assert.assertThat(calls.get(), is(1));
+        Assert.assertSame(Thread.currentThread(), handlerThread.get());
+    }
+
+    @Test
+    public void testFastResponseIsNotHedged() throws IOException
+    {
+        startClient(100);
+
+        for (int i = 0; i < 4; i++) {
+            httpClient.get("srvc://service/data", responseHandler).hedge(5, TimeUnit.SECONDS).perform();
+        }
+
+        final HttpClientHedgingStatistics statistics = factory.getHedgingStatistics();
+        Assert.assertThat(statistics.getHedgedRequests(), is(4L));
+        Assert.assertThat(statistics.getHedgesSent(), is(0L));
+    }
+
+    @Test
+    public void testBudgetExhausted() throws Exception
+    {
+        startClient(0);
+        slowHandler.block();
+
+        final Thread unblocker = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    Thread.sleep(500L);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                slowHandler.unblock();
+            }
+        };
+        unblocker.start();
+
+        final String response = httpClient.get("srvc://service/data", responseHandler).hedge(100, TimeUnit.MILLISECONDS).perform();
+        Assert.assertThat(response, is("slow"));
+        unblocker.join();
+
+        final HttpClientHedgingStatistics statistics = factory.getHedgingStatistics();
+        Assert.assertThat(statistics.getHedgesSent(), is(0L));
+        Assert.assertThat(statistics.getHedgesRejected(), is(1L));
+    }
+
+    @Test
+    public void testPercentileDelay() throws IOException
+    {
+        startClient(100);
+        Assert.assertThat(factory.getHedgingStatistics().getHedgeDelayMillis(), is(-1L));
+
+        for (int i = 0; i < 128; i++) {
+            httpClient.get("srvc://service/data", responseHandler).hedge().perform();
+        }
+        Assert.assertTrue(factory.getHedgingStatistics().getHedgeDelayMillis() >= 1L);
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testOnlyIdempotentRequests()
+    {
+        startClient(100);
+        httpClient.post("srvc://service/data", responseHandler).hedge(100, TimeUnit.MILLISECONDS);
+    }
+}
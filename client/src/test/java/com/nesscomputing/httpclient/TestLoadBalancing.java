@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.nesscomputing.httpclient.balancer.StaticEndpointProvider;
+import com.nesscomputing.httpclient.factory.httpclient4.ApacheHttpClient4Factory;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.BlockingTestHandler;
+import com.nesscomputing.httpclient.testsupport.GenericTestHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestLoadBalancing
+{
+    private final HttpClientResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+
+    private BlockingTestHandler firstHandler = null;
+    private GenericTestHandler secondHandler = null;
+    private LocalHttpService firstService = null;
+    private LocalHttpService secondService = null;
+    private HttpClient httpClient = null;
+
+    @Before
+    public void setup()
+    {
+        firstHandler = new BlockingTestHandler();
+        firstHandler.setContent("first");
+        firstHandler.setContentType("text/plain");
+        firstService = LocalHttpService.forHandler(firstHandler);
+        firstService.start();
+
+        secondHandler = new GenericTestHandler();
+        secondHandler.setContent("second");
+        secondHandler.setContentType("text/plain");
+        secondService = LocalHttpService.forHandler(secondHandler);
+        secondService.start();
+    }
+
+    @After
+    public void teardown()
+    {
+        firstHandler.unblock();
+
+        if (httpClient != null) {
+            httpClient.close();
+            httpClient = null;
+        }
+
+        firstService.stop();
+        firstService = null;
+        secondService.stop();
+        secondService = null;
+    }
+
+    private void startClient(final HttpClientBalancingStrategy strategy)
+    {
+        final HttpClientEndpointProvider endpointProvider = new StaticEndpointProvider(ImmutableMultimap.of(
+            "service", URI.create("http://127.0.0.1:" + firstService.getPort()),
+            "service", URI.create("http://127.0.0.1:" + secondService.getPort() + "/")));
+
+        final HttpClientDefaults defaults = new HttpClientDefaults() {
+            @Override
+            public HttpClientBalancingStrategy getBalancingStrategy()
+            {
+                return strategy;
+            }
+        };
+        httpClient = new HttpClient(new ApacheHttpClient4Factory(defaults, null, null, endpointProvider), defaults).start();
+    }
+
+    @Test
+    public void testRoundRobin() throws IOException
+    {
+        startClient(HttpClientBalancingStrategy.ROUND_ROBIN);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertThat(httpClient.get("srvc://service/data", responseHandler).perform(), is("first"));
+            Assert.assertThat(httpClient.get("srvc://service/data", responseHandler).perform(), is("second"));
+        }
+    }
+
+    @Test
+    public void testPathAndQuery() throws IOException
+    {
+        startClient(HttpClientBalancingStrategy.ROUND_ROBIN);
+
+        httpClient.get("srvc://service/some/path?q=1", responseHandler).perform();
+        Assert.assertThat(firstHandler.getRequestURI(), is("/some/path"));
+
+        httpClient.get("srvc://service/other/path", responseHandler).perform();
+        Assert.assertThat(secondHandler.getRequestURI(), is("/other/path"));
+    }
+
+    @Test
+    public void testLeastOutstanding() throws Exception
+    {
+        startClient(HttpClientBalancingStrategy.LEAST_OUTSTANDING);
+
+        firstHandler.block();
+        final ListenableFuture<String> blocked = httpClient.get("srvc://service/data", responseHandler).performAsync();
+        Assert.assertTrue(firstHandler.awaitEntered(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertThat(httpClient.get("srvc://service/data", responseHandler).perform(), is("second"));
+        }
+
+        firstHandler.unblock();
+        Assert.assertThat(blocked.get(5, TimeUnit.SECONDS), is("first"));
+    }
+
+    @Test
+    public void testPowerOfTwoChoices() throws Exception
+    {
+        startClient(HttpClientBalancingStrategy.POWER_OF_TWO_CHOICES);
+
+        firstHandler.block();
+
+        // The first choice is random, send requests until one is stuck on the first endpoint.
+        ListenableFuture<String> blocked = null;
+        for (int i = 0; i < 50 && blocked == null; i++) {
+            final ListenableFuture<String> future = httpClient.get("srvc://service/data", responseHandler).performAsync();
+            if (firstHandler.awaitEntered(100, TimeUnit.MILLISECONDS)) {
+                blocked = future;
+            }
+            else {
+                Assert.assertThat(future.get(5, TimeUnit.SECONDS), is("second"));
+            }
+        }
+        Assert.assertNotNull(blocked);
+
+        // With two endpoints, both are always compared, so the busy one is never picked.
+        for (int i = 0; i < 5; i++) {
+            Assert.assertThat(httpClient.get("srvc://service/data", responseHandler).perform(), is("second"));
+        }
+
+        firstHandler.unblock();
+        blocked.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test(expected=UnknownHostException.class)
+    public void testUnknownService() throws IOException
+    {
+        startClient(HttpClientBalancingStrategy.ROUND_ROBIN);
+        httpClient.get("srvc://unknown/data", responseHandler).perform();
+    }
+
+    @Test(expected=UnknownHostException.class)
+    public void testNoEndpointProvider() throws IOException
+    {
+        httpClient = new HttpClient().start();
+        httpClient.get("srvc://service/data", responseHandler).perform();
+    }
+}
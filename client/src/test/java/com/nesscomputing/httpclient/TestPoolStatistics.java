@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.skife.config.TimeSpan;
+
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.GenericTestHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestPoolStatistics
+{
+    private final HttpClientResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+
+    private GenericTestHandler testHandler = null;
+    private LocalHttpService localHttpService = null;
+    private HttpClient httpClient = null;
+    private String uri = null;
+    private String routeKey = null;
+
+    @Before
+    public void setup()
+    {
+        testHandler = new GenericTestHandler();
+        testHandler.setContent("Ich bin zwei Oeltanks");
+        testHandler.setContentType("text/plain");
+
+        localHttpService = LocalHttpService.forHandler(testHandler);
+        localHttpService.start();
+
+        routeKey = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort();
+        uri = routeKey + "/data";
+
+        httpClient = new HttpClient(new HttpClientDefaults() {
+            @Override
+            public TimeSpan getIdleTimeout()
+            {
+                return new TimeSpan(200, TimeUnit.MILLISECONDS);
+            }
+        }).start();
+    }
+
+    @After
+    public void teardown()
+    {
+        localHttpService.stop();
+        localHttpService = null;
+        testHandler = null;
+
+        httpClient.close();
+        httpClient = null;
+    }
+
+    @Test
+    public void testLeasedAndIdle() throws IOException
+    {
+        final HttpClientPoolStatistics poolStatistics = httpClient.getPoolStatistics();
+        Assert.assertThat(poolStatistics, is(notNullValue()));
+
+        final int leasedInHandler = httpClient.get(uri, new HttpClientResponseHandler<Integer>() {
+            @Override
+            public Integer handle(final HttpClientResponse response)
+            {
+                return poolStatistics.getRoutes().get(routeKey).getLeased();
+            }
+        }).perform();
+
+        Assert.assertThat(leasedInHandler, is(1));
+        Assert.assertThat(poolStatistics.getLeased(), is(0));
+        Assert.assertThat(poolStatistics.getIdle(), is(1));
+        Assert.assertThat(poolStatistics.getPending(), is(0));
+
+        final HttpClientRouteStatistics routeStatistics = poolStatistics.getRoutes().get(routeKey);
+        Assert.assertThat(routeStatistics.getLeased(), is(0));
+        Assert.assertThat(routeStatistics.getIdle(), is(1));
+        Assert.assertThat(routeStatistics.getMax(), is(poolStatistics.getDefaultMaxPerRoute()));
+    }
+
+    @Test
+    public void testLeaseWaitHistogram() throws IOException
+    {
+        for (int i = 0; i < 5; i++) {
+            httpClient.get(uri, responseHandler).perform();
+        }
+
+        final HttpClientPoolStatistics poolStatistics = httpClient.getPoolStatistics();
+        final long [] counts = poolStatistics.getLeaseWaitCounts();
+        Assert.assertThat(counts.length, is(poolStatistics.getLeaseWaitBuckets().length + 1));
+
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        Assert.assertThat(total, is(5L));
+        Assert.assertThat(poolStatistics.getLeaseFailures(), is(0L));
+    }
+
+    @Test
+    public void testReaperClosesIdleConnections() throws Exception
+    {
+        httpClient.get(uri, responseHandler).perform();
+
+        final HttpClientPoolStatistics poolStatistics = httpClient.getPoolStatistics();
+        Assert.assertThat(poolStatistics.getIdle(), is(1));
+
+        for (int i = 0; i < 50 && poolStatistics.getIdle() > 0; i++) {
+            Thread.sleep(50L);
+        }
+        Assert.assertThat(poolStatistics.getIdle(), is(0));
+        Assert.assertThat(poolStatistics.getRoutes().get(routeKey).getIdle(), is(0));
+    }
+
+    @Test
+    public void testMBean() throws Exception
+    {
+        httpClient.get(uri, responseHandler).perform();
+
+        final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("com.nesscomputing.httpclient:type=HttpClientPool,name=test");
+
+        mbeanServer.registerMBean(httpClient.getPoolStatistics(), name);
+        try {
+            Assert.assertThat((Integer) mbeanServer.getAttribute(name, "Idle"), is(1));
+            Assert.assertThat(mbeanServer.getAttribute(name, "Routes"), is(notNullValue()));
+        }
+        finally {
+            mbeanServer.unregisterMBean(name);
+        }
+    }
+}
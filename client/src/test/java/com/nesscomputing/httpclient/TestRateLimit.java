@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nesscomputing.httpclient.testsupport.GenericTestHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StatusCodeResponseHandler;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestRateLimit
+{
+    private final HttpClientResponseHandler<Integer> statusHandler = new StatusCodeResponseHandler();
+
+    private LocalHttpService firstService = null;
+    private LocalHttpService secondService = null;
+    private HttpClient httpClient = null;
+
+    @Before
+    public void setup()
+    {
+        firstService = LocalHttpService.forHandler(new GenericTestHandler());
+        firstService.start();
+        secondService = LocalHttpService.forHandler(new GenericTestHandler());
+        secondService.start();
+    }
+
+    @After
+    public void teardown()
+    {
+        httpClient.close();
+        httpClient = null;
+
+        firstService.stop();
+        firstService = null;
+        secondService.stop();
+        secondService = null;
+    }
+
+    private void startClient(final int rateLimit, final int burst, final HttpClientRateLimitMode mode)
+    {
+        httpClient = new HttpClient(new HttpClientDefaults() {
+            @Override
+            public int getRateLimit()
+            {
+                return rateLimit;
+            }
+
+            @Override
+            public int getRateLimitBurst()
+            {
+                return burst;
+            }
+
+            @Override
+            public HttpClientRateLimitMode getRateLimitMode()
+            {
+                return mode;
+            }
+        }).start();
+    }
+
+    private int get(final LocalHttpService service) throws IOException
+    {
+        return httpClient.get("http://127.0.0.1:" + service.getPort() + "/data", statusHandler).perform();
+    }
+
+    @Test
+    public void testFailFast() throws IOException
+    {
+        startClient(1, 2, HttpClientRateLimitMode.FAIL_FAST);
+
+        Assert.assertThat(get(firstService), is(200));
+        Assert.assertThat(get(firstService), is(200));
+        try {
+            get(firstService);
+            Assert.fail();
+        }
+        catch (RateLimitExceededException rlee) {
+            Assert.assertThat(rlee.getRoute(), is("http://127.0.0.1:" + firstService.getPort()));
+        }
+
+        // Every host has its own limit.
+        Assert.assertThat(get(secondService), is(200));
+    }
+
+    @Test
+    public void testBlock() throws IOException
+    {
+        startClient(10, 1, HttpClientRateLimitMode.BLOCK);
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            Assert.assertThat(get(firstService), is(200));
+        }
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(350));
+    }
+}
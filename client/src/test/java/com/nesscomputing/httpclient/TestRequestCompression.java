@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+import com.nesscomputing.httpclient.factory.httpclient4.ApacheHttpClient4Factory;
+import com.nesscomputing.httpclient.response.StringContentConverter;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestRequestCompression
+{
+    private static final String LARGE_BODY = Strings.repeat("Ich bin zwei Oeltanks. ", 1000);
+
+    private DecodingHandler testHandler = null;
+    private LocalHttpService localHttpService = null;
+    private ApacheHttpClient4Factory factory = null;
+    private HttpClient httpClient = null;
+    private String uri = null;
+
+    @Before
+    public void setup()
+    {
+        testHandler = new DecodingHandler();
+        localHttpService = LocalHttpService.forHandler(testHandler);
+        localHttpService.start();
+
+        uri = "http://127.0.0.1:" + localHttpService.getPort() + "/data";
+    }
+
+    @After
+    public void teardown()
+    {
+        if (httpClient != null) {
+            httpClient.close();
+            httpClient = null;
+        }
+        factory = null;
+
+        localHttpService.stop();
+        localHttpService = null;
+        testHandler = null;
+    }
+
+    private void startClient(final String encoding)
+    {
+        final HttpClientDefaults defaults = new HttpClientDefaults() {
+            @Override
+            public String getRequestCompressionEncoding()
+            {
+                return encoding;
+            }
+        };
+        factory = new ApacheHttpClient4Factory(defaults, null);
+        httpClient = new HttpClient(factory, defaults).start();
+    }
+
+    private void testEncoding(final String encoding) throws IOException
+    {
+        startClient(encoding);
+
+        httpClient.post(uri, StringContentConverter.DEFAULT_RESPONSE_HANDLER).setContent(LARGE_BODY).perform();
+        Assert.assertThat(testHandler.getContentEncoding(), is(encoding));
+        Assert.assertThat(testHandler.getBody(), is(LARGE_BODY));
+
+        final HttpClientCompressionStatistics statistics = factory.getCompressionStatistics();
+        Assert.assertThat(statistics.getEncoding(), is(encoding));
+        Assert.assertThat(statistics.getCompressedRequests(), is(1L));
+        Assert.assertThat(statistics.getBytesIn(), is((long) LARGE_BODY.length()));
+        Assert.assertTrue(statistics.getBytesOut() < LARGE_BODY.length() / 10);
+    }
+
+    @Test
+    public void testLz4() throws IOException
+    {
+        testEncoding("lz4");
+    }
+
+    @Test
+    public void testGzip() throws IOException
+    {
+        testEncoding("gzip");
+    }
+
+    @Test
+    public void testDeflate() throws IOException
+    {
+        testEncoding("deflate");
+    }
+
+    @Test
+    public void testSmallBodyIsNotCompressed() throws IOException
+    {
+        startClient("gzip");
+
+        httpClient.put(uri, StringContentConverter.DEFAULT_RESPONSE_HANDLER).setContent("small").perform();
+        Assert.assertThat(testHandler.getContentEncoding(), is(nullValue()));
+        Assert.assertThat(testHandler.getBody(), is("small"));
+        Assert.assertThat(factory.getCompressionStatistics().getUncompressedRequests(), is(1L));
+    }
+
+    @Test
+    public void testDisabled() throws IOException
+    {
+        startClient(null);
+
+        httpClient.post(uri, StringContentConverter.DEFAULT_RESPONSE_HANDLER).setContent(LARGE_BODY).perform();
+        Assert.assertThat(testHandler.getContentEncoding(), is(nullValue()));
+        Assert.assertThat(testHandler.getBody(), is(LARGE_BODY));
+        Assert.assertThat(factory.getCompressionStatistics(), is(nullValue()));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testUnknownEncoding()
+    {
+        startClient("bzip2");
+    }
+
+    private static class DecodingHandler extends AbstractHandler
+    {
+        private volatile String contentEncoding = null;
+        private volatile String body = null;
+
+        @Override
+        public void handle(final String target,
+                           final Request request,
+                           final HttpServletRequest httpRequest,
+                           final HttpServletResponse httpResponse)
+            throws IOException, ServletException
+        {
+            contentEncoding = request.getHeader("Content-Encoding");
+
+            InputStream in = request.getInputStream();
+            if ("lz4".equals(contentEncoding)) {
+                in = new LZ4BlockInputStream(in);
+            }
+            else if ("gzip".equals(contentEncoding)) {
+                in = new GZIPInputStream(in);
+            }
+            else if ("deflate".equals(contentEncoding)) {
+                in = new InflaterInputStream(in);
+            }
+            body = IOUtils.toString(in, Charsets.UTF_8);
+
+            httpResponse.setStatus(HttpServletResponse.SC_OK);
+            httpResponse.setContentType("text/plain");
+            httpResponse.getWriter().write("OK");
+            request.setHandled(true);
+        }
+
+        public String getContentEncoding()
+        {
+            return contentEncoding;
+        }
+
+        public String getBody()
+        {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import org.skife.config.TimeSpan;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestRequestTimeout
+{
+    private final HttpClientResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+
+    private LocalHttpService localHttpService = null;
+    private HttpClient httpClient = null;
+    private String uri = null;
+
+    @Before
+    public void setup()
+    {
+        localHttpService = LocalHttpService.forHandler(new SlowHandler());
+        localHttpService.start();
+
+        uri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort() + "/data";
+
+        httpClient = new HttpClient(new HttpClientDefaults() {
+            @Override
+            public TimeSpan getRequestTimeout()
+            {
+                return new TimeSpan(300, TimeUnit.MILLISECONDS);
+            }
+        }).start();
+    }
+
+    @After
+    public void teardown()
+    {
+        localHttpService.stop();
+        localHttpService = null;
+
+        httpClient.close();
+        httpClient = null;
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void testDefaultTimeout() throws IOException
+    {
+        httpClient.get(uri + "?drip=20", responseHandler).perform();
+    }
+
+    @Test
+    public void testFastRequest() throws IOException
+    {
+        final String response = httpClient.get(uri + "?drip=1", responseHandler).perform();
+        Assert.assertThat(response, is("x"));
+    }
+
+    @Test
+    public void testRequestOverride() throws IOException
+    {
+        final String response = httpClient.get(uri + "?drip=20", responseHandler).setRequestTimeout(10, TimeUnit.SECONDS).perform();
+        Assert.assertThat(response.length(), is(20));
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void testRequestOverrideShorter() throws IOException
+    {
+        httpClient.get(uri + "?drip=2", responseHandler).setRequestTimeout(50, TimeUnit.MILLISECONDS).perform();
+    }
+
+    /**
+     * Sends one byte every 50 milliseconds; every read beats the socket timeout.
+     */
+    private static class SlowHandler extends AbstractHandler
+    {
+        @Override
+        public void handle(final String target,
+                           final Request request,
+                           final HttpServletRequest httpRequest,
+                           final HttpServletResponse httpResponse)
+            throws IOException, ServletException
+        {
+            final int drip = Integer.parseInt(request.getParameter("drip"));
+
+            httpResponse.setContentType("text/plain");
+            httpResponse.setStatus(HttpServletResponse.SC_OK);
+            request.setHandled(true);
+
+            for (int i = 0; i < drip; i++) {
+                httpResponse.getOutputStream().write('x');
+                httpResponse.flushBuffer();
+                try {
+                    Thread.sleep(50L);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
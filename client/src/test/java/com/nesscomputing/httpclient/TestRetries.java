@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.skife.config.TimeSpan;
+
+import com.nesscomputing.httpclient.factory.httpclient4.ApacheHttpClient4Factory;
+import com.nesscomputing.httpclient.testsupport.GenericTestHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StatusCodeResponseHandler;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestRetries
+{
+    private final HttpClientResponseHandler<Integer> statusHandler = new StatusCodeResponseHandler();
+
+    private GenericTestHandler testHandler = null;
+    private LocalHttpService localHttpService = null;
+    private ApacheHttpClient4Factory factory = null;
+    private HttpClient httpClient = null;
+    private String uri = null;
+
+    @Before
+    public void setup()
+    {
+        testHandler = new GenericTestHandler();
+        localHttpService = LocalHttpService.forHandler(testHandler);
+        localHttpService.start();
+
+        uri = "http://127.0.0.1:" + localHttpService.getPort() + "/data";
+
+        final HttpClientDefaults defaults = new HttpClientDefaults() {
+            @Override
+            public TimeSpan getRetryInitialBackoff()
+            {
+                return new TimeSpan(1, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public int getRetryBudgetPercent()
+            {
+                return 0;
+            }
+        };
+        factory = new ApacheHttpClient4Factory(defaults, null);
+        httpClient = new HttpClient(factory, defaults).start();
+    }
+
+    @After
+    public void teardown()
+    {
+        httpClient.close();
+        httpClient = null;
+        factory = null;
+
+        if (localHttpService != null) {
+            localHttpService.stop();
+            localHttpService = null;
+        }
+        testHandler = null;
+    }
+
+    @Test
+    public void testRetryUnavailable() throws IOException
+    {
+        testHandler.setNextStatus(503);
+        Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(200));
+        Assert.assertThat(factory.getRetryStatistics().getRetriesAttempted(), is(1L));
+    }
+
+    @Test
+    public void testRetryAfterTooLong() throws IOException
+    {
+        testHandler.addHeader("Retry-After", "3600");
+        testHandler.setNextStatus(429);
+        Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(429));
+        Assert.assertThat(factory.getRetryStatistics().getRetriesAttempted(), is(0L));
+    }
+
+    @Test
+    public void testRetryAfter() throws IOException
+    {
+        testHandler.addHeader("Retry-After", "1");
+        testHandler.setNextStatus(429);
+
+        final long start = System.nanoTime();
+        Assert.assertThat(httpClient.get(uri, statusHandler).perform(), is(200));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+        Assert.assertThat(factory.getRetryStatistics().getRetriesAttempted(), is(1L));
+    }
+
+    @Test
+    public void testRetryAfterBeyondRequestTimeout() throws IOException
+    {
+        testHandler.addHeader("Retry-After", "2");
+        testHandler.setNextStatus(429);
+
+        final long start = System.nanoTime();
+        Assert.assertThat(httpClient.get(uri, statusHandler).setRequestTimeout(500, TimeUnit.MILLISECONDS).perform(), is(429));
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        Assert.assertThat(factory.getRetryStatistics().getRetriesAttempted(), is(0L));
+    }
+
+    @Test
+    public void testNoRetryForPost() throws IOException
+    {
+        testHandler.setNextStatus(503);
+        Assert.assertThat(httpClient.post(uri, statusHandler).setContent("data").perform(), is(503));
+        Assert.assertThat(factory.getRetryStatistics().getRetriesAttempted(), is(0L));
+    }
+
+    @Test
+    public void testRetryPostWithIdempotencyKey() throws IOException
+    {
+        testHandler.setNextStatus(503);
+        Assert.assertThat(httpClient.post(uri, statusHandler).setContent("data").addHeader("Idempotency-Key", "abc").perform(), is(200));
+        Assert.assertThat(factory.getRetryStatistics().getRetriesAttempted(), is(1L));
+    }
+
+    @Test
+    public void testRetryBudget() throws IOException
+    {
+        localHttpService.stop();
+        localHttpService = null;
+
+        for (int i = 0; i < 4; i++) {
+            try {
+                httpClient.get(uri, statusHandler).perform();
+                Assert.fail();
+            }
+            catch (ConnectException ce) {
+                // ok
+            }
+        }
+
+        // The budget starts with ten retries and is not refilled.
+        final HttpClientRetryStatistics statistics = factory.getRetryStatistics();
+        Assert.assertThat(statistics.getRetriesAttempted(), is(10L));
+        Assert.assertThat(statistics.getRetriesExhausted(), is(3L));
+        Assert.assertThat(statistics.getRetriesSuppressed(), is(1L));
+    }
+
+    @Test
+    public void testRetriesFromDefaults() throws Exception
+    {
+        final AtomicInteger hits = new AtomicInteger(0);
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    while (true) {
+                        // Close every connection without a response.
+                        serverSocket.accept().close();
+                        hits.incrementAndGet();
+                    }
+                }
+                catch (IOException ioe) {
+                    // closed
+                }
+            }
+        });
+        acceptor.start();
+
+        final HttpClient retryingClient = new HttpClient(new HttpClientDefaults() {
+            @Override
+            public int getRetries()
+            {
+                return 2;
+            }
+
+            @Override
+            public TimeSpan getRetryInitialBackoff()
+            {
+                return new TimeSpan(1, TimeUnit.MILLISECONDS);
+            }
+        }).start();
+
+        try {
+            retryingClient.get("http://127.0.0.1:" + serverSocket.getLocalPort() + "/data", statusHandler).perform();
+            Assert.fail();
+        }
+        catch (IOException ioe) {
+            // ok
+        }
+        finally {
+            retryingClient.close();
+            serverSocket.close();
+            acceptor.join();
+        }
+
+        // One request and two retries, no retries within the connection.
+        Assert.assertThat(hits.get(), is(3));
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.GenericTestHandler;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestStripedConnectionPool
+{
+    private static final String CONTENT = "Ich bin zwei Oeltanks";
+
+    private final HttpClientResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+
+    private GenericTestHandler testHandler = null;
+    private LocalHttpService localHttpService = null;
+    private String routeKey = null;
+
+    @Before
+    public void setup()
+    {
+        testHandler = new GenericTestHandler();
+        testHandler.setContent(CONTENT);
+        testHandler.setContentType("text/plain");
+
+        localHttpService = LocalHttpService.forHandler(testHandler);
+        localHttpService.start();
+
+        routeKey = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort();
+    }
+
+    @After
+    public void teardown()
+    {
+        localHttpService.stop();
+        localHttpService = null;
+        testHandler = null;
+    }
+
+    @Test
+    public void testConcurrentRequests() throws InterruptedException, ExecutionException
+    {
+        final HttpClient httpClient = new HttpClient(new StripedDefaults(100, 4)).start();
+
+        try {
+            final List<ListenableFuture<String>> futures = Lists.newArrayList();
+            for (int i = 0; i < 200; i++) {
+                futures.add(httpClient.get(routeKey + "/data", responseHandler).performAsync());
+            }
+
+            for (String response : Futures.allAsList(futures).get()) {
+                Assert.assertThat(response, is(CONTENT));
+            }
+
+            final HttpClientPoolStatistics poolStatistics = httpClient.getPoolStatistics();
+            Assert.assertThat(poolStatistics.getLeased(), is(0));
+            Assert.assertThat(poolStatistics.getPending(), is(0));
+            Assert.assertTrue(poolStatistics.getIdle() <= 4);
+        }
+        finally {
+            httpClient.close();
+        }
+    }
+
+    @Test
+    public void testWaitForConnection() throws Exception
+    {
+        final HttpClient httpClient = new HttpClient(new StripedDefaults(100, 1)).start();
+        final CountDownLatch leased = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            // Holds the only connection of the route until released.
+            final ListenableFuture<String> blocking = httpClient.get(routeKey + "/data", new HttpClientResponseHandler<String>() {
+                @Override
+                public String handle(final HttpClientResponse response) throws IOException
+                {
+                    leased.countDown();
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return responseHandler.handle(response);
+                }
+            }).performAsync();
+
+            Assert.assertTrue(leased.await(5, TimeUnit.SECONDS));
+
+            try {
+                httpClient.get(routeKey + "/data", responseHandler).setRequestTimeout(200, TimeUnit.MILLISECONDS).perform();
+                Assert.fail();
+            }
+            catch (SocketTimeoutException ste) {
+                // Aborted while waiting for the connection.
+            }
+
+            final ListenableFuture<String> waiting = httpClient.get(routeKey + "/data", responseHandler).performAsync();
+            release.countDown();
+
+            Assert.assertThat(blocking.get(), is(CONTENT));
+            Assert.assertThat(waiting.get(), is(CONTENT));
+            Assert.assertThat(httpClient.getPoolStatistics().getRoutes().get(routeKey).getIdle(), is(1));
+        }
+        finally {
+            release.countDown();
+            httpClient.close();
+        }
+    }
+
+    @Test
+    public void testEvictIdleFromOtherRoute() throws IOException
+    {
+        final LocalHttpService otherService = LocalHttpService.forHandler(testHandler);
+        otherService.start();
+
+        final HttpClient httpClient = new HttpClient(new StripedDefaults(1, 1)).start();
+
+        try {
+            final String otherRouteKey = "http://" + otherService.getHost() + ":" + otherService.getPort();
+
+            Assert.assertThat(httpClient.get(routeKey + "/data", responseHandler).perform(), is(CONTENT));
+            Assert.assertThat(httpClient.get(otherRouteKey + "/data", responseHandler).perform(), is(CONTENT));
+
+            final HttpClientPoolStatistics poolStatistics = httpClient.getPoolStatistics();
+            Assert.assertThat(poolStatistics.getRoutes().get(routeKey).getIdle(), is(0));
+            Assert.assertThat(poolStatistics.getRoutes().get(otherRouteKey).getIdle(), is(1));
+        }
+        finally {
+            httpClient.close();
+            otherService.stop();
+        }
+    }
+
+    private static class StripedDefaults extends HttpClientDefaults
+    {
+        private final int totalConnectionsMax;
+        private final int perHostConnectionsMax;
+
+        private StripedDefaults(final int totalConnectionsMax, final int perHostConnectionsMax)
+        {
+            this.totalConnectionsMax = totalConnectionsMax;
+            this.perHostConnectionsMax = perHostConnectionsMax;
+        }
+
+        @Override
+        public HttpClientPoolMode getPoolMode()
+        {
+            return HttpClientPoolMode.STRIPED;
+        }
+
+        @Override
+        public int getTotalConnectionsMax()
+        {
+            return totalConnectionsMax;
+        }
+
+        @Override
+        public int getPerHostConnectionsMax()
+        {
+            return perHostConnectionsMax;
+        }
+    }
+}
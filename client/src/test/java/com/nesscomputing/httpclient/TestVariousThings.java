@@ -16,12 +16,16 @@
 package com.nesscomputing.httpclient;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.Cookie;
 
@@ -30,12 +34,17 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 import com.nesscomputing.httpclient.HttpClient;
 import com.nesscomputing.httpclient.HttpClientRequest;
 import com.nesscomputing.httpclient.HttpClientResponse;
 import com.nesscomputing.httpclient.HttpClientResponseHandler;
 import com.nesscomputing.httpclient.internal.HttpClientHeader;
 import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.testsupport.BlockingTestHandler;
 import com.nesscomputing.httpclient.testsupport.GenericTestHandler;
 import com.nesscomputing.httpclient.testsupport.LocalHttpService;
 import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
@@ -170,6 +179,28 @@ public class TestVariousThings
         Assert.assertThat(cookies[0].getValue(), equalTo(cookie.getValue()));
     }
 
+    @Test
+    public void testCookiesAreNotShared() throws IOException
+    {
+        final String testString = "Ich bin zwei Oeltanks";
+        testHandler.setContent(testString);
+        testHandler.setContentType("text/plain");
+
+        final String uri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort() + "/data";
+
+        Cookie cookie = new Cookie("cookie", "chocolate");
+        cookie.setDomain(localHttpService.getHost());
+        cookie.setPath("/");
+        cookie.setMaxAge(3600);
+
+        httpClient.get(uri, responseHandler).addCookie(cookie).perform();
+        Assert.assertThat(testHandler.getCookies(), is(notNullValue()));
+
+        httpClient.get(uri, responseHandler).perform();
+        final Cookie [] cookies = testHandler.getCookies();
+        Assert.assertTrue(cookies == null || cookies.length == 0);
+    }
+
     @Test
     public void testFollowRedirects() throws IOException
     {
@@ -223,6 +254,61 @@ public class TestVariousThings
         httpRequest.perform();
     }
 
+    @Test
+    public void testResponseExplodesAsync() throws InterruptedException
+    {
+        final String uri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort() + "/data";
+
+        final HttpClientRequest<String> httpRequest = httpClient.get(uri, new HttpClientResponseHandler<String>() {
+
+            @Override
+            public String handle(HttpClientResponse response) throws IOException
+            {
+                throw new IOException();
+            }
+        }).request();
+
+        try {
+            httpRequest.performAsync().get();
+            Assert.fail();
+        }
+        catch (ExecutionException ee) {
+            Assert.assertThat(ee.getCause(), is(instanceOf(IOException.class)));
+        }
+    }
+
+    @Test
+    public void testUnboundedAsync() throws InterruptedException, ExecutionException
+    {
+        final String testString = "Ich bin zwei Oeltanks";
+        testHandler.setContent(testString);
+        testHandler.setContentType("text/plain");
+
+        final String uri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort() + "/data";
+
+        final HttpClient unboundedClient = new HttpClient(new HttpClientDefaults() {
+            @Override
+            public HttpClientAsyncMode getAsyncMode()
+            {
+                return HttpClientAsyncMode.UNBOUNDED;
+            }
+        }).start();
+
+        try {
+            final List<ListenableFuture<String>> futures = Lists.newArrayList();
+            for (int i = 0; i < 50; i++) {
+                futures.add(unboundedClient.get(uri, responseHandler).performAsync());
+            }
+
+            for (String response : Futures.allAsList(futures).get()) {
+                Assert.assertThat(response, is(testString));
+            }
+        }
+        finally {
+            unboundedClient.close();
+        }
+    }
+
     @Test(expected=IllegalStateException.class)
     public void testClosedFactory() throws IOException
     {
@@ -238,6 +324,72 @@ public class TestVariousThings
         httpRequest.perform();
     }
 
+    @Test
+    public void testClosedFactoryAsync() throws InterruptedException
+    {
+        final String uri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort() + "/data";
+
+        httpClient.close();
+
+        final ListenableFuture<String> future = httpClient.get(uri, responseHandler).performAsync();
+        try {
+            future.get();
+            Assert.fail();
+        }
+        catch (ExecutionException ee) {
+            Assert.assertThat(ee.getCause(), is(instanceOf(IllegalStateException.class)));
+        }
+    }
+
+    @Test
+    public void testBoundedAsyncQueueFull() throws Exception
+    {
+        final BlockingTestHandler blockingHandler = new BlockingTestHandler();
+        final LocalHttpService blockingService = LocalHttpService.forHandler(blockingHandler);
+        blockingService.start();
+
+        final String uri = "http://" + blockingService.getHost() + ":" + blockingService.getPort() + "/data";
+
+        final HttpClient boundedClient = new HttpClient(new HttpClientDefaults() {
+            @Override
+            public int getAsyncThreads()
+            {
+                return 1;
+            }
+
+            @Override
+            public int getAsyncQueueSize()
+            {
+                return 1;
+            }
+        }).start();
+
+        try {
+            blockingHandler.block();
+            final ListenableFuture<String> running = boundedClient.get(uri, responseHandler).performAsync();
+            Assert.assertTrue(blockingHandler.awaitEntered(5, TimeUnit.SECONDS));
+            final ListenableFuture<String> queued = boundedClient.get(uri, responseHandler).performAsync();
+
+            final ListenableFuture<String> rejected = boundedClient.get(uri, responseHandler).performAsync();
+            try {
+                rejected.get(5, TimeUnit.SECONDS);
+                Assert.fail();
+            }
+            catch (ExecutionException ee) {
+                Assert.assertThat(ee.getCause(), is(instanceOf(RejectedExecutionException.class)));
+            }
+
+            blockingHandler.unblock();
+            running.get(5, TimeUnit.SECONDS);
+            queued.get(5, TimeUnit.SECONDS);
+        }
+        finally {
+            blockingHandler.unblock();
+            boundedClient.close();
+            blockingService.stop();
+        }
+    }
+
     @Test
     public void testVirtualHost() throws IOException
     {
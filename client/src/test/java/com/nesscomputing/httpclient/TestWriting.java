@@ -17,16 +17,26 @@ package com.nesscomputing.httpclient;
 
 import static org.hamcrest.CoreMatchers.is;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
 
 import com.nesscomputing.httpclient.HttpClient;
 import com.nesscomputing.httpclient.HttpClientRequest;
 import com.nesscomputing.httpclient.HttpClientResponseHandler;
+import com.nesscomputing.httpclient.io.JsonContent;
 import com.nesscomputing.httpclient.response.ContentResponseHandler;
 import com.nesscomputing.httpclient.testsupport.GenericWritingContentHandler;
 import com.nesscomputing.httpclient.testsupport.LocalHttpService;
@@ -37,6 +47,9 @@ import com.nesscomputing.testing.lessio.AllowNetworkAccess;
 @AllowNetworkAccess(endpoints={"127.0.0.1:*"})
 public class TestWriting
 {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private GenericWritingContentHandler testHandler = null;
     private LocalHttpService localHttpService = null;
     private HttpClient httpClient = null;
@@ -123,5 +136,78 @@ public class TestWriting
         Assert.assertThat(testHandler.getPostData(), is(postString));
         Assert.assertThat(testHandler.getMethod(), is("PUT"));
     }
-}
 
+    @Test
+    public void testPostFile() throws IOException
+    {
+        final String testString = "Ich bin zwei Oeltanks";
+        final String postString = "This is the post string";
+        testHandler.setContent(testString);
+        testHandler.setContentType("text/plain");
+
+        final File file = temporaryFolder.newFile("post.txt");
+        Files.write(postString, file, Charsets.UTF_8);
+
+        final String uri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort() + "/data";
+
+        final HttpClientRequest<String> request = httpClient.post(uri, responseHandler).setContent(file.toPath()).request();
+
+        // The same body can be sent more than once.
+        for (int i = 0; i < 2; i++) {
+            Assert.assertThat(request.perform(), is(testString));
+            Assert.assertThat(testHandler.getPostData(), is(postString));
+        }
+
+        Assert.assertThat(httpClient.put(uri, responseHandler).setContent(file).perform(), is(testString));
+        Assert.assertThat(testHandler.getPostData(), is(postString));
+        Assert.assertThat(testHandler.getMethod(), is("PUT"));
+    }
+
+    @Test
+    public void testPostByteBuffer() throws IOException
+    {
+        final String testString = "Ich bin zwei Oeltanks";
+        final String postString = "This is the post string";
+        testHandler.setContent(testString);
+        testHandler.setContentType("text/plain");
+
+        final String uri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort() + "/data";
+
+        final byte [] bytes = ("xx" + postString).getBytes(Charsets.UTF_8);
+        final ByteBuffer heap = ByteBuffer.wrap(bytes);
+        heap.position(2);
+
+        final HttpClientRequest<String> request = httpClient.post(uri, responseHandler).setContent(heap).request();
+        for (int i = 0; i < 2; i++) {
+            Assert.assertThat(request.perform(), is(testString));
+            Assert.assertThat(testHandler.getPostData(), is(postString));
+        }
+        Assert.assertThat(heap.position(), is(2));
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length - 2);
+        direct.put(bytes, 2, bytes.length - 2).flip();
+
+        Assert.assertThat(httpClient.post(uri, responseHandler).setContent(direct).perform(), is(testString));
+        Assert.assertThat(testHandler.getPostData(), is(postString));
+    }
+
+    @Test
+    public void testPostJson() throws IOException
+    {
+        final String testString = "Ich bin zwei Oeltanks";
+        testHandler.setContent(testString);
+        testHandler.setContentType("text/plain");
+
+        final String uri = "http://" + localHttpService.getHost() + ":" + localHttpService.getPort() + "/data";
+
+        final ObjectMapper mapper = new ObjectMapper();
+        final Object value = ImmutableMap.of("post", "This is the post string");
+        final String expected = mapper.writeValueAsString(value);
+
+        Assert.assertThat(httpClient.post(uri, responseHandler).setContent(JsonContent.of(mapper, value)).perform(), is(testString));
+        Assert.assertThat(testHandler.getPostData(), is(expected));
+
+        Assert.assertThat(httpClient.put(uri, responseHandler).setContent(JsonContent.buffered(mapper, value)).perform(), is(testString));
+        Assert.assertThat(testHandler.getPostData(), is(expected));
+    }
+}
@@ -0,0 +1,371 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.cache;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableSet;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientObserver;
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientResponseHandler;
+import com.nesscomputing.httpclient.factory.httpclient4.ApacheHttpClient4Factory;
+import com.nesscomputing.httpclient.response.ContentResponseHandler;
+import com.nesscomputing.httpclient.response.JsonContentConverter;
+import com.nesscomputing.httpclient.testsupport.LocalHttpService;
+import com.nesscomputing.httpclient.testsupport.StringResponseConverter;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestCachingHttpClientFactory
+{
+    private final HttpClientResponseHandler<String> responseHandler = new ContentResponseHandler<String>(new StringResponseConverter());
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CacheTestHandler testHandler = null;
+    private LocalHttpService localHttpService = null;
+    private CachingHttpClientFactory factory = null;
+    private HttpClient httpClient = null;
+    private String uri = null;
+
+    @Before
+    public void setup()
+    {
+        testHandler = new CacheTestHandler();
+        localHttpService = LocalHttpService.forHandler(testHandler);
+        localHttpService.start();
+
+        uri = "http://127.0.0.1:" + localHttpService.getPort() + "/data";
+        startClient(1024 * 1024, 1024);
+    }
+
+    @After
+    public void teardown()
+    {
+        httpClient.close();
+        httpClient = null;
+        factory = null;
+
+        localHttpService.stop();
+        localHttpService = null;
+        testHandler = null;
+    }
+
+    private void startClient(final long maxSize, final int maxEntrySize)
+    {
+        startClient(maxSize, maxEntrySize, null);
+    }
+
+    private void startClient(final long maxSize, final int maxEntrySize, final DiskResponseStore diskStore)
+    {
+        if (httpClient != null) {
+            httpClient.close();
+        }
+        final HttpClientDefaults defaults = new HttpClientDefaults();
+        factory = new CachingHttpClientFactory(new ApacheHttpClient4Factory(defaults, null), maxSize, maxEntrySize, diskStore);
+        httpClient = new HttpClient(factory, defaults).start();
+    }
+
+    @Test
+    public void testFreshHit() throws IOException
+    {
+        testHandler.cacheControl = "max-age=60";
+
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-1"));
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-1"));
+
+        Assert.assertThat(testHandler.requests.get(), is(1));
+        Assert.assertThat(factory.getMisses(), is(1L));
+        Assert.assertThat(factory.getHits(), is(1L));
+        Assert.assertThat(factory.getHitRatio(), is(0.5));
+        Assert.assertThat(factory.getEntries(), is(1L));
+    }
+
+    @Test
+    public void testRevalidateNotModified() throws IOException
+    {
+        testHandler.cacheControl = "max-age=0";
+        testHandler.etag = "\"v1\"";
+
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-1"));
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-1"));
+
+        Assert.assertThat(testHandler.requests.get(), is(2));
+        Assert.assertThat(testHandler.ifNoneMatch, is("\"v1\""));
+        Assert.assertThat(factory.getRevalidations(), is(1L));
+        Assert.assertThat(factory.getNotModified(), is(1L));
+        Assert.assertThat(factory.getHits(), is(0L));
+    }
+
+    @Test
+    public void testRevalidateChanged() throws IOException
+    {
+        testHandler.cacheControl = "no-cache";
+        testHandler.etag = "\"v1\"";
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-1"));
+
+        testHandler.etag = "\"v2\"";
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-2"));
+        Assert.assertThat(factory.getNotModified(), is(0L));
+
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-2"));
+        Assert.assertThat(testHandler.ifNoneMatch, is("\"v2\""));
+        Assert.assertThat(factory.getNotModified(), is(1L));
+    }
+
+    @Test
+    public void testNoStore() throws IOException
+    {
+        testHandler.cacheControl = "no-store";
+        testHandler.etag = "\"v1\"";
+
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-1"));
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-2"));
+
+        Assert.assertThat(testHandler.ifNoneMatch, is(nullValue()));
+        Assert.assertThat(factory.getEntries(), is(0L));
+    }
+
+    @Test
+    public void testRequestNoCache() throws IOException
+    {
+        testHandler.cacheControl = "max-age=60";
+
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-1"));
+        Assert.assertThat(httpClient.get(uri, responseHandler).addHeader("Cache-Control", "no-cache").perform(), is("content-2"));
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-2"));
+
+        Assert.assertThat(testHandler.requests.get(), is(2));
+    }
+
+    @Test
+    public void testPostInvalidates() throws IOException
+    {
+        testHandler.cacheControl = "max-age=60";
+
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-1"));
+        httpClient.post(uri, responseHandler).setContent("data").perform();
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-3"));
+    }
+
+    @Test
+    public void testLargeResponseNotCached() throws IOException
+    {
+        startClient(1024 * 1024, 4);
+        testHandler.cacheControl = "max-age=60";
+
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-1"));
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-2"));
+        Assert.assertThat(factory.getEntries(), is(0L));
+    }
+
+    @Test
+    public void testEviction() throws IOException
+    {
+        startClient(4096, 1024);
+        testHandler.cacheControl = "max-age=60";
+
+        for (int i = 0; i < 100; i++) {
+            httpClient.get(uri + "?i=" + i, responseHandler).perform();
+        }
+
+        Assert.assertTrue(factory.getEvictions() > 0);
+        Assert.assertTrue(factory.getSize() <= 4096);
+    }
+
+    @Test
+    public void testDiskTier() throws IOException
+    {
+        final File directory = folder.newFolder("cache");
+        startClient(1024 * 1024, 4, new DiskResponseStore(directory, 1024 * 1024, 128 * 1024, true));
+        testHandler.cacheControl = "max-age=60";
+
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-1"));
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-1"));
+        Assert.assertThat(factory.getDiskEntries(), is(1L));
+
+        // A new client finds the response on disk.
+        startClient(1024 * 1024, 4, new DiskResponseStore(directory, 1024 * 1024, 128 * 1024, true));
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-1"));
+        Assert.assertThat(factory.getDiskHits(), is(1L));
+        Assert.assertThat(testHandler.requests.get(), is(1));
+    }
+
+    @Test
+    public void testSpillToDisk() throws IOException
+    {
+        startClient(4096, 1024, new DiskResponseStore(folder.newFolder("cache"), 1024 * 1024, 128 * 1024, false));
+        testHandler.cacheControl = "max-age=60";
+
+        for (int i = 0; i < 100; i++) {
+            httpClient.get(uri + "?i=" + i, responseHandler).perform();
+        }
+        Assert.assertTrue(factory.getEvictions() > 0);
+        Assert.assertTrue(factory.getDiskEntries() > 0);
+
+        final int requests = testHandler.requests.get();
+        for (int i = 0; i < 100; i++) {
+            Assert.assertThat(httpClient.get(uri + "?i=" + i, responseHandler).perform(), is("content-" + (i + 1)));
+        }
+        Assert.assertThat(testHandler.requests.get(), is(requests));
+    }
+
+    @Test
+    public void testJsonConverter() throws IOException
+    {
+        testHandler.cacheControl = "max-age=60";
+        testHandler.json = true;
+
+        final HttpClientResponseHandler<Map<String, Integer>> jsonHandler =
+            JsonContentConverter.getResponseHandler(new TypeReference<Map<String, Integer>>() {}, new ObjectMapper());
+
+        Assert.assertThat(httpClient.get(uri, jsonHandler).perform().get("content"), is(1));
+        Assert.assertThat(httpClient.get(uri, jsonHandler).perform().get("content"), is(1));
+        Assert.assertThat(testHandler.requests.get(), is(1));
+    }
+
+    private HttpClient startObservedClient(final HttpClientObserver observer)
+    {
+        httpClient.close();
+        httpClient = new HttpClient(new HttpClientDefaults() {
+            @Override
+            public long getCacheMaxSize()
+            {
+                return 1024 * 1024;
+            }
+        }, ImmutableSet.of(observer)).start();
+        return httpClient;
+    }
+
+    @Test
+    public void testObserverAuthorizationBypassesCache() throws IOException
+    {
+        testHandler.cacheControl = "max-age=60";
+
+        startObservedClient(new HttpClientObserver() {
+            @Override
+            public <T> HttpClientRequest<T> onRequestSubmitted(final HttpClientRequest<T> request)
+            {
+                return HttpClientRequest.Builder.fromRequest(request).addHeader("Authorization", "Bearer secret").request();
+            }
+        });
+
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-1"));
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-2"));
+        Assert.assertThat(testHandler.requests.get(), is(2));
+    }
+
+    @Test
+    public void testObserverSeesCachedResponses() throws IOException
+    {
+        testHandler.cacheControl = "max-age=60";
+
+        final AtomicInteger submitted = new AtomicInteger(0);
+        final AtomicInteger received = new AtomicInteger(0);
+        startObservedClient(new HttpClientObserver() {
+            @Override
+            public <T> HttpClientRequest<T> onRequestSubmitted(final HttpClientRequest<T> request)
+            {
+                submitted.incrementAndGet();
+                return request;
+            }
+
+            @Override
+            public HttpClientResponse onResponseReceived(final HttpClientResponse response)
+            {
+                received.incrementAndGet();
+                return response;
+            }
+        });
+
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-1"));
+        Assert.assertThat(httpClient.get(uri, responseHandler).perform(), is("content-1"));
+        Assert.assertThat(testHandler.requests.get(), is(1));
+        Assert.assertThat(submitted.get(), is(2));
+        Assert.assertThat(received.get(), is(2));
+    }
+
+    /**
+     * Answers with a new body for every request and honors If-None-Match.
+     */
+    private static class CacheTestHandler extends AbstractHandler
+    {
+        private final AtomicInteger requests = new AtomicInteger(0);
+        private volatile String cacheControl = null;
+        private volatile String etag = null;
+        private volatile String ifNoneMatch = null;
+        private volatile boolean json = false;
+
+        @Override
+        public void handle(final String target,
+                           final Request request,
+                           final HttpServletRequest httpRequest,
+                           final HttpServletResponse httpResponse)
+            throws IOException, ServletException
+        {
+            final int count = requests.incrementAndGet();
+            ifNoneMatch = request.getHeader("If-None-Match");
+            request.setHandled(true);
+
+            if (cacheControl != null) {
+                httpResponse.setHeader("Cache-Control", cacheControl);
+            }
+            if (etag != null) {
+                httpResponse.setHeader("ETag", etag);
+                if (etag.equals(ifNoneMatch)) {
+                    httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+            }
+
+            httpResponse.setStatus(HttpServletResponse.SC_OK);
+            if (json) {
+                httpResponse.setContentType("application/json");
+                httpResponse.getWriter().print("{\"content\":" + count + "}");
+            }
+            else {
+                httpResponse.setContentType("text/plain");
+                httpResponse.getWriter().print("content-" + count);
+            }
+        }
+    }
+}
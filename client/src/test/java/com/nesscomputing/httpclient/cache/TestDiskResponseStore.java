@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.cache;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class TestDiskResponseStore
+{
+    private static final int SEGMENT_SIZE = 128 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory = null;
+    private DiskResponseStore store = null;
+
+    @Before
+    public void setup() throws IOException
+    {
+        directory = folder.newFolder("cache");
+        store = new DiskResponseStore(directory, 4 * SEGMENT_SIZE, SEGMENT_SIZE, false);
+    }
+
+    @After
+    public void teardown()
+    {
+        store.close();
+    }
+
+    private static CacheEntry entry(final String body)
+    {
+        final Map<String, List<String>> headers = ImmutableMap.<String, List<String>>of("ETag", ImmutableList.of("\"v1\""),
+                                                                                        "Cache-Control", ImmutableList.of("max-age=60"));
+        final CachedResponse response = new CachedResponse(200, "OK", URI.create("http://127.0.0.1/data"), "text/plain", "UTF-8",
+                                                           CachedResponse.copyHeaders(headers, Collections.<String, List<String>>emptyMap()),
+                                                           CachedBody.forBytes(body.getBytes(Charsets.UTF_8)));
+        return new CacheEntry(response, ImmutableMap.of("accept", "text/plain"), 1000L, 2000L);
+    }
+
+    private static String read(final CacheEntry entry) throws IOException
+    {
+        return IOUtils.toString(entry.getResponse().getResponseBodyAsStream(), "UTF-8");
+    }
+
+    @Test
+    public void testPutGet() throws IOException
+    {
+        final CachedBody body = store.put("key", entry("hello, world"));
+        Assert.assertThat(body, is(instanceOf(DiskResponseStore.MappedBody.class)));
+        Assert.assertThat(body.getHeapSize(), is(0));
+
+        final CacheEntry entry = store.get("key");
+        Assert.assertThat(entry, is(notNullValue()));
+        Assert.assertThat(read(entry), is("hello, world"));
+        Assert.assertThat(read(entry), is("hello, world"));
+        Assert.assertThat(entry.getResponse().getStatusCode(), is(200));
+        Assert.assertThat(entry.getResponse().getContentLength(), is(12L));
+        Assert.assertThat(entry.getResponse().getHeader("etag"), is("\"v1\""));
+        Assert.assertThat(entry.getVaryValues().get("accept"), is("text/plain"));
+        Assert.assertThat(entry.getResponseTime(), is(2000L));
+
+        Assert.assertThat(store.get("other"), is(nullValue()));
+    }
+
+    @Test
+    public void testReplaceAndRemove() throws IOException
+    {
+        store.put("key", entry("first"));
+        store.put("key", entry("second"));
+        Assert.assertThat(read(store.get("key")), is("second"));
+        Assert.assertThat(store.getEntries(), is(1L));
+
+        store.remove("key");
+        Assert.assertThat(store.get("key"), is(nullValue()));
+        Assert.assertThat(store.getEntries(), is(0L));
+    }
+
+    @Test
+    public void testReference() throws IOException
+    {
+        final CachedBody body = store.put("key", entry("shared body"));
+        final CachedBody referenced = store.put("key", entry("ignored").withBody(body));
+        Assert.assertTrue(referenced == body);
+        Assert.assertThat(read(store.get("key")), is("shared body"));
+    }
+
+    @Test
+    public void testRecovery() throws IOException
+    {
+        store.put("one", entry("first"));
+        store.put("two", entry("second"));
+        store.put("three", entry("third"));
+        store.remove("two");
+        store.close();
+
+        store = new DiskResponseStore(directory, 4 * SEGMENT_SIZE, SEGMENT_SIZE, false);
+        Assert.assertThat(store.getEntries(), is(2L));
+        Assert.assertThat(read(store.get("one")), is("first"));
+        Assert.assertThat(store.get("two"), is(nullValue()));
+        Assert.assertThat(read(store.get("three")), is("third"));
+
+        store.put("four", entry("fourth"));
+        Assert.assertThat(read(store.get("four")), is("fourth"));
+    }
+
+    @Test
+    public void testCompression() throws IOException
+    {
+        store.close();
+        store = new DiskResponseStore(directory, 4 * SEGMENT_SIZE, SEGMENT_SIZE, true);
+
+        final String content = Strings.repeat("compressible ", 1000);
+        store.put("key", entry(content));
+        final CacheEntry entry = store.get("key");
+        Assert.assertThat(read(entry), is(content));
+        Assert.assertThat(entry.getResponse().getContentLength(), is((long) content.length()));
+    }
+
+    @Test
+    public void testEviction() throws IOException
+    {
+        final String content = Strings.repeat("x", 40 * 1024);
+        for (int i = 0; i < 20; i++) {
+            store.put("key-" + i, entry(content));
+        }
+
+        Assert.assertTrue(store.getSize() <= 4 * SEGMENT_SIZE);
+        Assert.assertThat(store.get("key-0"), is(nullValue()));
+        Assert.assertThat(read(store.get("key-19")), is(content));
+    }
+
+    @Test
+    public void testTooLarge() throws IOException
+    {
+        Assert.assertThat(store.put("key", entry(Strings.repeat("x", SEGMENT_SIZE))), is(nullValue()));
+        Assert.assertThat(store.get("key"), is(nullValue()));
+    }
+
+    @Test
+    public void testPutStream() throws IOException
+    {
+        store.close();
+        store = new DiskResponseStore(directory, 4 * SEGMENT_SIZE, SEGMENT_SIZE, true);
+
+        final String content = Strings.repeat("streamed ", 5000);
+        final byte [] bytes = content.getBytes(Charsets.UTF_8);
+        final CachedBody body = store.put("key", entry(""), new ByteArrayInputStream(bytes), bytes.length);
+        Assert.assertThat(body, is(instanceOf(DiskResponseStore.MappedBody.class)));
+        Assert.assertThat(body.getLength(), is((long) bytes.length));
+
+        store.put("other", entry("other"));
+        store.close();
+
+        store = new DiskResponseStore(directory, 4 * SEGMENT_SIZE, SEGMENT_SIZE, true);
+        Assert.assertThat(read(store.get("key")), is(content));
+        Assert.assertThat(read(store.get("other")), is("other"));
+    }
+
+    @Test
+    public void testPutStreamWithWrongLength() throws IOException
+    {
+        store.put("before", entry("before"));
+        try {
+            store.put("key", entry(""), new ByteArrayInputStream(new byte[100]), 200L);
+            Assert.fail();
+        }
+        catch (IOException ioe) {
+            // ok
+        }
+        try {
+            store.put("key", entry(""), new ByteArrayInputStream(new byte[300]), 200L);
+            Assert.fail();
+        }
+        catch (IOException ioe) {
+            // ok
+        }
+        store.put("after", entry("after"));
+        Assert.assertThat(store.get("key"), is(nullValue()));
+        store.close();
+
+        // The failed records do not stop the recovery.
+        store = new DiskResponseStore(directory, 4 * SEGMENT_SIZE, SEGMENT_SIZE, false);
+        Assert.assertThat(store.getEntries(), is(2L));
+        Assert.assertThat(read(store.get("before")), is("before"));
+        Assert.assertThat(read(store.get("after")), is("after"));
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.dns;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.net.InetAddresses;
+
+import com.nesscomputing.httpclient.HttpClientDnsResolver;
+
+public class TestCachingDnsResolver
+{
+    private static final InetAddress ADDRESS = InetAddresses.forString("10.0.0.1");
+
+    private CountingResolver countingResolver = null;
+
+    @Before
+    public void setup()
+    {
+        countingResolver = new CountingResolver(new StaticDnsResolver(ImmutableMultimap.of("service.test", ADDRESS)));
+    }
+
+    @Test
+    public void testCache() throws Exception
+    {
+        final CachingDnsResolver resolver = new CachingDnsResolver(countingResolver, 1, 1, TimeUnit.MINUTES);
+
+        Assert.assertThat(resolver.resolve("service.test")[0], is(ADDRESS));
+        Assert.assertThat(resolver.resolve("SERVICE.test")[0], is(ADDRESS));
+
+        Assert.assertThat(countingResolver.getCount(), is(1));
+        Assert.assertThat(resolver.getLookups(), is(2L));
+        Assert.assertThat(resolver.getCacheHits(), is(1L));
+        Assert.assertThat(resolver.getCacheMisses(), is(1L));
+        Assert.assertThat(resolver.getCachedHosts(), is(1));
+    }
+
+    @Test
+    public void testExpiry() throws Exception
+    {
+        final CachingDnsResolver resolver = new CachingDnsResolver(countingResolver, 100, 100, TimeUnit.MILLISECONDS);
+
+        resolver.resolve("service.test");
+        Thread.sleep(200L);
+        resolver.resolve("service.test");
+
+        Assert.assertThat(countingResolver.getCount(), is(2));
+        Assert.assertThat(resolver.getCacheMisses(), is(2L));
+    }
+
+    @Test
+    public void testNegativeCache() throws Exception
+    {
+        final CachingDnsResolver resolver = new CachingDnsResolver(countingResolver, 1, 1, TimeUnit.MINUTES);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                resolver.resolve("unknown.test");
+                Assert.fail();
+            }
+            catch (UnknownHostException uhe) {
+                // expected
+            }
+        }
+
+        Assert.assertThat(countingResolver.getCount(), is(1));
+        Assert.assertThat(resolver.getFailures(), is(1L));
+        Assert.assertThat(resolver.getNegativeCacheHits(), is(1L));
+    }
+
+    @Test
+    public void testNoNegativeCache() throws Exception
+    {
+        final CachingDnsResolver resolver = new CachingDnsResolver(countingResolver, 1, 0, TimeUnit.MINUTES);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                resolver.resolve("unknown.test");
+                Assert.fail();
+            }
+            catch (UnknownHostException uhe) {
+                // expected
+            }
+        }
+
+        Assert.assertThat(countingResolver.getCount(), is(2));
+    }
+
+    @Test
+    public void testBackgroundRefresh() throws Exception
+    {
+        final CachingDnsResolver resolver = new CachingDnsResolver(countingResolver, 400, 400, TimeUnit.MILLISECONDS);
+
+        resolver.resolve("service.test");
+
+        // In the last quarter of the ttl, a lookup triggers a refresh.
+        Thread.sleep(320L);
+        resolver.resolve("service.test");
+
+        for (int i = 0; i < 20 && resolver.getRefreshes() == 0; i++) {
+            Thread.sleep(10L);
+        }
+        Thread.sleep(100L);
+
+        // Past the original ttl, but the name was refreshed.
+        resolver.resolve("service.test");
+
+        Assert.assertThat(resolver.getRefreshes(), is(1L));
+        Assert.assertThat(resolver.getCacheMisses(), is(1L));
+        Assert.assertThat(countingResolver.getCount(), is(2));
+    }
+
+    private static class CountingResolver implements HttpClientDnsResolver
+    {
+        private final HttpClientDnsResolver delegate;
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        private CountingResolver(final HttpClientDnsResolver delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public InetAddress [] resolve(final String host) throws UnknownHostException
+        {
+            count.incrementAndGet();
+            return delegate.resolve(host);
+        }
+
+        private int getCount()
+        {
+            return count.get();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.skife.config.TimeSpan;
+
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.factory.httpclient4.CircuitBreakers.CircuitBreaker;
+import com.nesscomputing.httpclient.factory.httpclient4.CircuitBreakers.Permit;
+
+public class TestCircuitBreakers
+{
+    private final CircuitBreaker circuitBreaker = new CircuitBreakers(new HttpClientDefaults() {
+        @Override
+        public int getCircuitBreakerMinimumRequests()
+        {
+            return 2;
+        }
+
+        @Override
+        public TimeSpan getCircuitBreakerOpenDuration()
+        {
+            return new TimeSpan(50, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int getCircuitBreakerHalfOpenProbes()
+        {
+            return 1;
+        }
+    }).get("http://127.0.0.1:8080");
+
+    private void open() throws InterruptedException
+    {
+        circuitBreaker.tryAcquire().onFailure();
+        circuitBreaker.tryAcquire().onFailure();
+        Assert.assertTrue(circuitBreaker.isOpen());
+        Assert.assertNull(circuitBreaker.tryAcquire());
+
+        Thread.sleep(100L);
+    }
+
+    @Test
+    public void testLateSuccessIsNoProbe() throws Exception
+    {
+        final Permit late = circuitBreaker.tryAcquire();
+        open();
+
+        final Permit probe = circuitBreaker.tryAcquire();
+        Assert.assertNotNull(probe);
+
+        // Admitted while closed, must not close the circuit.
+        late.onSuccess(0L);
+        Assert.assertNull(circuitBreaker.tryAcquire());
+
+        probe.onSuccess(0L);
+        Assert.assertNotNull(circuitBreaker.tryAcquire());
+    }
+
+    @Test
+    public void testLateFailureIsNoProbe() throws Exception
+    {
+        final Permit late = circuitBreaker.tryAcquire();
+        open();
+
+        final Permit probe = circuitBreaker.tryAcquire();
+        Assert.assertNotNull(probe);
+
+        // Admitted while closed, must not open the circuit again.
+        late.onFailure();
+        Assert.assertFalse(circuitBreaker.isOpen());
+
+        probe.onFailure();
+        Assert.assertTrue(circuitBreaker.isOpen());
+    }
+
+    @Test
+    public void testLateIgnoredIsNoProbe() throws Exception
+    {
+        final Permit late = circuitBreaker.tryAcquire();
+        open();
+
+        final Permit probe = circuitBreaker.tryAcquire();
+        Assert.assertNotNull(probe);
+
+        // Must not hand out the probe slot a second time.
+        late.onIgnored();
+        Assert.assertNull(circuitBreaker.tryAcquire());
+
+        probe.onIgnored();
+        Assert.assertNotNull(circuitBreaker.tryAcquire());
+    }
+
+    @Test
+    public void testOneProbePerRound() throws Exception
+    {
+        for (int round = 0; round < 20; round++) {
+            open();
+
+            final CountDownLatch start = new CountDownLatch(1);
+            final Queue<Permit> probes = new ConcurrentLinkedQueue<Permit>();
+            final Thread [] threads = new Thread[8];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread() {
+                    @Override
+                    public void run()
+                    {
+                        try {
+                            start.await();
+                        }
+                        catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        final Permit permit = circuitBreaker.tryAcquire();
+                        if (permit != null) {
+                            probes.add(permit);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            start.countDown();
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+
+            Assert.assertEquals(1, probes.size());
+            Assert.assertNull(circuitBreaker.tryAcquire());
+
+            probes.poll().onSuccess(0L);
+            Assert.assertFalse(circuitBreaker.isOpen());
+            Assert.assertNotNull(circuitBreaker.tryAcquire());
+        }
+    }
+}
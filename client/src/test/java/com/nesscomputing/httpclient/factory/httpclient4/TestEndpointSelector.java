@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.nesscomputing.httpclient.HttpClientBalancingStrategy;
+import com.nesscomputing.httpclient.HttpClientEndpointProvider;
+import com.nesscomputing.httpclient.factory.httpclient4.EndpointSelector.Endpoint;
+
+public class TestEndpointSelector
+{
+    private static final URI SERVICE_URI = URI.create("srvc://service/path");
+
+    private static final URI A = URI.create("http://10.0.0.1:8080");
+    private static final URI B = URI.create("http://10.0.0.2:8080");
+    private static final URI C = URI.create("http://10.0.0.3:8080");
+
+    private final MutableEndpointProvider provider = new MutableEndpointProvider();
+    private final EndpointSelector selector = new EndpointSelector(provider, HttpClientBalancingStrategy.ROUND_ROBIN);
+
+    @Test
+    public void testPruneRemovedEndpoints() throws Exception
+    {
+        provider.endpoints = ImmutableList.of(A, B);
+        selector.select(SERVICE_URI);
+        selector.select(SERVICE_URI);
+        Assert.assertEquals(2, selector.getEndpointCount("service"));
+
+        provider.endpoints = ImmutableList.of(C);
+        final Endpoint endpoint = selector.select(SERVICE_URI);
+        Assert.assertEquals("http://10.0.0.3:8080/path", endpoint.resolve(SERVICE_URI).toString());
+        Assert.assertEquals(1, selector.getEndpointCount("service"));
+    }
+
+    @Test
+    public void testKeepEndpointsInFlight() throws Exception
+    {
+        provider.endpoints = ImmutableList.of(A);
+        final Endpoint busy = selector.select(SERVICE_URI);
+        busy.acquire();
+
+        provider.endpoints = ImmutableList.of(B);
+        selector.select(SERVICE_URI);
+        Assert.assertEquals(2, selector.getEndpointCount("service"));
+
+        busy.release();
+        selector.select(SERVICE_URI);
+        Assert.assertEquals(1, selector.getEndpointCount("service"));
+    }
+
+    @Test
+    public void testPruneUnknownService() throws Exception
+    {
+        provider.endpoints = ImmutableList.of(A);
+        selector.select(SERVICE_URI);
+        Assert.assertEquals(1, selector.getEndpointCount("service"));
+
+        provider.endpoints = Collections.emptyList();
+        try {
+            selector.select(SERVICE_URI);
+            Assert.fail();
+        }
+        catch (UnknownHostException uhe) {
+            Assert.assertEquals(0, selector.getEndpointCount("service"));
+        }
+    }
+
+    private static class MutableEndpointProvider implements HttpClientEndpointProvider
+    {
+        private volatile List<URI> endpoints = Collections.emptyList();
+
+        @Override
+        public List<URI> getEndpoints(final String service)
+        {
+            return endpoints;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.factory.httpclient4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+import com.nesscomputing.httpclient.io.ContentCodec;
+
+public class TestRequestCompressor
+{
+    private static final byte [] CONTENT = "Ich bin zwei Oeltanks".getBytes(Charsets.UTF_8);
+
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    private final ContentCodec codec = new ContentCodec() {
+        @Override
+        public String getEncoding()
+        {
+            return "gzip";
+        }
+
+        @Override
+        public InputStream decode(final InputStream inputStream) throws IOException
+        {
+            return new GZIPInputStream(inputStream);
+        }
+
+        @Override
+        public OutputStream encode(final OutputStream outputStream) throws IOException
+        {
+            return new GZIPOutputStream(outputStream) {
+                @Override
+                public void close() throws IOException
+                {
+                    // Ends the Deflater.
+                    super.close();
+                    released.set(true);
+                }
+            };
+        }
+    };
+
+    private final RequestCompressor compressor = new RequestCompressor(codec, 0L);
+
+    @Test
+    public void testCompress() throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compressor.compress(new ByteArrayEntity(CONTENT)).writeTo(out);
+
+        Assert.assertTrue(released.get());
+        Assert.assertArrayEquals(CONTENT, IOUtils.toByteArray(codec.decode(new ByteArrayInputStream(out.toByteArray()))));
+        Assert.assertEquals(CONTENT.length, compressor.getBytesIn());
+    }
+
+    @Test
+    public void testReleaseCodecOnFailure() throws IOException
+    {
+        final HttpEntity entity = compressor.compress(new ByteArrayEntity(CONTENT) {
+            @Override
+            public void writeTo(final OutputStream outstream) throws IOException
+            {
+                super.writeTo(outstream);
+                throw new IOException("broken");
+            }
+        });
+
+        try {
+            entity.writeTo(new ByteArrayOutputStream());
+            Assert.fail();
+        }
+        catch (IOException ioe) {
+            Assert.assertEquals("broken", ioe.getMessage());
+        }
+        Assert.assertTrue(released.get());
+    }
+}
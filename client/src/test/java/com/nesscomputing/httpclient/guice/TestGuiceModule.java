@@ -15,7 +15,13 @@
  */
 package com.nesscomputing.httpclient.guice;
 
+import java.io.IOException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Set;
 
+import com.google.common.collect.ImmutableMultimap;
+import com.google.inject.AbstractModule;
 import com.google.inject.Binder;
 import com.google.inject.ConfigurationException;
 import com.google.inject.Guice;
@@ -31,6 +37,12 @@ import org.junit.Test;
 import com.nesscomputing.config.Config;
 import com.nesscomputing.config.ConfigModule;
 import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientDefaults;
+import com.nesscomputing.httpclient.HttpClientEndpointProvider;
+import com.nesscomputing.httpclient.HttpClientObserver;
+import com.nesscomputing.httpclient.balancer.StaticEndpointProvider;
+import com.nesscomputing.httpclient.factory.httpclient4.ApacheHttpClient4Factory;
+import com.nesscomputing.httpclient.internal.HttpClientFactory;
 import com.nesscomputing.lifecycle.Lifecycle;
 import com.nesscomputing.lifecycle.LifecycleStage;
 import com.nesscomputing.lifecycle.guice.LifecycleModule;
@@ -85,6 +97,79 @@ public class TestGuiceModule
         Assert.assertNotNull(httpClient);
     }
 
+    @Test
+    public void testCustomFactory()
+    {
+        final Injector injector = Guice.createInjector(Stage.PRODUCTION,
+                                                       ConfigModule.forTesting(),
+                                                       ENFORCEMENT_MODULE,
+                                                       new LifecycleModule(),
+                                                       new HttpClientModule("testing") {
+                                                           @Override
+                                                           protected HttpClientFactory createHttpClientFactory(final HttpClientDefaults httpClientDefaults,
+                                                                                                               final Set<? extends HttpClientObserver> httpClientObservers,
+                                                                                                               final HttpClientEndpointProvider endpointProvider)
+                                                           {
+                                                               return new CustomHttpClientFactory(httpClientDefaults, httpClientObservers);
+                                                           }
+                                                       });
+
+        final HttpClientFactory httpClientFactory = injector.getInstance(Key.get(HttpClientFactory.class, Names.named("testing")));
+        Assert.assertTrue(httpClientFactory instanceof CustomHttpClientFactory);
+
+        final HttpClient httpClient = injector.getInstance(Key.get(HttpClient.class, Names.named("testing")));
+        Assert.assertNotNull(httpClient);
+    }
+
+    @Test
+    public void testEndpointProvider() throws IOException
+    {
+        final Injector injector = Guice.createInjector(Stage.PRODUCTION,
+                                                       ConfigModule.forTesting(),
+                                                       ENFORCEMENT_MODULE,
+                                                       new LifecycleModule(),
+                                                       new HttpClientModule("testing"),
+                                                       new HttpClientModule("running"),
+                                                       new AbstractModule() {
+                                                           @Override
+                                                           protected void configure()
+                                                           {
+                                                               HttpClientModule.bindEndpointProvider(binder(), Names.named("testing"))
+                                                                   .toInstance(new StaticEndpointProvider(ImmutableMultimap.<String, URI>of()));
+                                                           }
+                                                       });
+
+        final Lifecycle lifecycle = injector.getInstance(Lifecycle.class);
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+
+        try {
+            injector.getInstance(Key.get(HttpClient.class, Names.named("testing"))).get("srvc://unknown/", null).perform();
+            Assert.fail();
+        }
+        catch (UnknownHostException uhe) {
+            Assert.assertEquals("No endpoints for service 'unknown'", uhe.getMessage());
+        }
+
+        try {
+            injector.getInstance(Key.get(HttpClient.class, Names.named("running"))).get("srvc://unknown/", null).perform();
+            Assert.fail();
+        }
+        catch (UnknownHostException uhe) {
+            Assert.assertEquals("No endpoint provider configured for 'srvc://unknown/'", uhe.getMessage());
+        }
+        finally {
+            lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        }
+    }
+
+    private static class CustomHttpClientFactory extends ApacheHttpClient4Factory
+    {
+        CustomHttpClientFactory(final HttpClientDefaults httpClientDefaults, final Set<? extends HttpClientObserver> httpClientObservers)
+        {
+            super(httpClientDefaults, httpClientObservers);
+        }
+    }
+
     @Test
     public void testMultiple()
     {
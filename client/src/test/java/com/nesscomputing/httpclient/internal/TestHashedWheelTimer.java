@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.internal;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHashedWheelTimer
+{
+    private final HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 8);
+
+    @Test
+    public void testExpire() throws InterruptedException
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long start = System.nanoTime();
+
+        final HashedWheelTimer.Timeout timeout = timer.schedule(new Runnable() {
+            @Override
+            public void run()
+            {
+                latch.countDown();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+        Assert.assertTrue(timeout.isExpired());
+        Assert.assertFalse(timeout.cancel());
+    }
+
+    @Test
+    public void testExpireAfterSeveralRounds() throws InterruptedException
+    {
+        // The wheel covers 80ms, so this needs more than one round.
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long start = System.nanoTime();
+
+        timer.schedule(new Runnable() {
+            @Override
+            public void run()
+            {
+                latch.countDown();
+            }
+        }, 250, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException
+    {
+        final AtomicInteger count = new AtomicInteger();
+        final Runnable task = new Runnable() {
+            @Override
+            public void run()
+            {
+                count.incrementAndGet();
+            }
+        };
+
+        final HashedWheelTimer.Timeout cancelled = timer.schedule(task, 20, TimeUnit.MILLISECONDS);
+        final HashedWheelTimer.Timeout expired = timer.schedule(task, 20, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(cancelled.cancel());
+        Assert.assertFalse(cancelled.cancel());
+
+        Thread.sleep(200);
+
+        Assert.assertThat(count.get(), is(1));
+        Assert.assertTrue(cancelled.isCancelled());
+        Assert.assertTrue(expired.isExpired());
+    }
+
+    @Test
+    public void testConcurrentStart() throws InterruptedException
+    {
+        // Every thread races for starting the timer, none may schedule against an unset start time.
+        final int threads = 16;
+        final CountDownLatch go = new CountDownLatch(1);
+        final CountDownLatch expired = new CountDownLatch(threads);
+
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+                @Override
+                public void run()
+                {
+                    try {
+                        go.await();
+                    }
+                    catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    timer.schedule(new Runnable() {
+                        @Override
+                        public void run()
+                        {
+                            expired.countDown();
+                        }
+                    }, 20, TimeUnit.MILLISECONDS);
+                }
+            }.start();
+        }
+
+        go.countDown();
+        Assert.assertTrue(expired.await(2, TimeUnit.SECONDS));
+    }
+}
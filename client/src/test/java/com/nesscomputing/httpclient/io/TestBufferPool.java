@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class TestBufferPool
+{
+    private static byte [] randomBytes(final int size)
+    {
+        final byte [] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testReadUnknownSize() throws IOException
+    {
+        final BufferPool pool = new BufferPool(1024 * 1024, false);
+        final byte [] bytes = randomBytes(100000);
+
+        final PooledBuffer buffer = pool.read(new ByteArrayInputStream(bytes), -1L);
+        try {
+            Assert.assertEquals(bytes.length, buffer.length());
+            Assert.assertArrayEquals(bytes, buffer.toByteArray());
+            Assert.assertArrayEquals(bytes, IOUtils.toByteArray(buffer.asInputStream()));
+        }
+        finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testSizeHintAvoidsGrowing() throws IOException
+    {
+        final BufferPool pool = new BufferPool(1024 * 1024, false);
+        final byte [] bytes = randomBytes(50000);
+
+        pool.read(new ByteArrayInputStream(bytes), bytes.length).close();
+        Assert.assertEquals(1, pool.getAllocations());
+    }
+
+    @Test
+    public void testSizeHintIsCapped() throws IOException
+    {
+        final BufferPool pool = new BufferPool(64L * 1024 * 1024, false);
+        final byte [] bytes = randomBytes(100);
+
+        // A Content-Length of 1 GB must not allocate 1 GB.
+        final PooledBuffer buffer = pool.read(new ByteArrayInputStream(bytes), 1024L * 1024 * 1024);
+        Assert.assertArrayEquals(bytes, buffer.toByteArray());
+        buffer.close();
+
+        // The buffer came from the largest pooled size class and went back to the pool.
+        pool.allocate(4 * 1024 * 1024).close();
+        Assert.assertEquals(1, pool.getAllocations());
+        Assert.assertEquals(1, pool.getReuses());
+    }
+
+    @Test
+    public void testBuffersAreReused() throws IOException
+    {
+        final BufferPool pool = new BufferPool(1024 * 1024, false);
+        final byte [] bytes = randomBytes(3000);
+
+        for (int i = 0; i < 10; i++) {
+            final PooledBuffer buffer = pool.read(new ByteArrayInputStream(bytes), bytes.length);
+            Assert.assertArrayEquals(bytes, buffer.toByteArray());
+            buffer.close();
+        }
+
+        Assert.assertEquals(1, pool.getAllocations());
+        Assert.assertEquals(9, pool.getReuses());
+    }
+
+    @Test
+    public void testPoolIsBounded()
+    {
+        final BufferPool pool = new BufferPool(0, false);
+        pool.allocate(100).close();
+        pool.allocate(100).close();
+
+        Assert.assertEquals(2, pool.getAllocations());
+        Assert.assertEquals(0, pool.getReuses());
+    }
+
+    @Test
+    public void testDirect() throws IOException
+    {
+        final BufferPool pool = new BufferPool(1024 * 1024, true);
+        final String text = "Ich bin zwei Öltanks";
+        final InputStream in = new ByteArrayInputStream(text.getBytes(Charsets.UTF_8));
+
+        final PooledBuffer buffer = pool.read(in, -1L);
+        try {
+            final ByteBuffer view = buffer.asByteBuffer();
+            Assert.assertTrue(view.isDirect());
+            Assert.assertTrue(view.isReadOnly());
+            Assert.assertEquals(text, buffer.toString(Charsets.UTF_8));
+        }
+        finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testWriteGrows()
+    {
+        final BufferPool pool = new BufferPool(1024 * 1024, false);
+        final byte [] bytes = randomBytes(10000);
+
+        final PooledBuffer buffer = pool.allocate(16);
+        try {
+            for (int offset = 0; offset < bytes.length; offset += 1000) {
+                buffer.write(bytes, offset, 1000);
+            }
+            Assert.assertTrue(Arrays.equals(bytes, buffer.toByteArray()));
+        }
+        finally {
+            buffer.close();
+        }
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testClosed()
+    {
+        final PooledBuffer buffer = BufferPool.getDefault().allocate(16);
+        buffer.close();
+        buffer.length();
+    }
+}
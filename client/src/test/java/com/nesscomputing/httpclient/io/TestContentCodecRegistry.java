@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+public class TestContentCodecRegistry
+{
+    private static final String BODY = Strings.repeat("Ich bin zwei Oeltanks. ", 100);
+
+    private static byte [] encode(final ContentCodec codec, final byte [] bytes) throws IOException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final OutputStream out = codec.encode(buffer);
+        out.write(bytes);
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    private static String decode(final ContentCodecRegistry registry, final String contentEncoding, final byte [] bytes) throws IOException
+    {
+        return IOUtils.toString(registry.decode(contentEncoding, new ByteArrayInputStream(bytes)), Charsets.UTF_8);
+    }
+
+    @Test
+    public void testStandardCodecs() throws IOException
+    {
+        final ContentCodecRegistry registry = ContentCodecRegistry.withStandardCodecs();
+        Assert.assertEquals("lz4,gzip,deflate", registry.getAcceptEncoding());
+
+        for (StandardContentCodec codec : StandardContentCodec.values()) {
+            Assert.assertSame(codec, registry.getCodec(codec.getEncoding().toUpperCase()));
+            Assert.assertEquals(BODY, decode(registry, codec.getEncoding(), encode(codec, BODY.getBytes(Charsets.UTF_8))));
+        }
+        Assert.assertSame(StandardContentCodec.GZIP, registry.getCodec("x-gzip"));
+    }
+
+    @Test
+    public void testStackedEncodings() throws IOException
+    {
+        final ContentCodecRegistry registry = ContentCodecRegistry.withStandardCodecs();
+
+        // gzip was applied first, lz4 second.
+        final byte [] bytes = encode(StandardContentCodec.LZ4, encode(StandardContentCodec.GZIP, BODY.getBytes(Charsets.UTF_8)));
+        Assert.assertEquals(BODY, decode(registry, "gzip, identity, lz4", bytes));
+    }
+
+    @Test
+    public void testUnknownEncodingIsNotDecoded() throws IOException
+    {
+        final ContentCodecRegistry registry = ContentCodecRegistry.withStandardCodecs();
+        final byte [] bytes = encode(StandardContentCodec.GZIP, BODY.getBytes(Charsets.UTF_8));
+
+        Assert.assertArrayEquals(bytes, IOUtils.toByteArray(registry.decode("gzip, br", new ByteArrayInputStream(bytes))));
+        Assert.assertEquals(BODY, decode(registry, null, BODY.getBytes(Charsets.UTF_8)));
+    }
+
+    @Test
+    public void testRawDeflate() throws IOException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DeflaterOutputStream out = new DeflaterOutputStream(buffer, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+        out.write(BODY.getBytes(Charsets.UTF_8));
+        out.close();
+
+        Assert.assertEquals(BODY, decode(ContentCodecRegistry.getDefault(), "deflate", buffer.toByteArray()));
+    }
+
+    @Test
+    public void testCustomCodec() throws IOException
+    {
+        final ContentCodec rot = new ContentCodec() {
+            @Override
+            public String getEncoding()
+            {
+                return "x-rot";
+            }
+
+            @Override
+            public InputStream decode(final InputStream inputStream)
+            {
+                return new FilterInputStream(inputStream) {
+                    @Override
+                    public int read() throws IOException
+                    {
+                        final int b = super.read();
+                        return b < 0 ? b : (b - 1) & 0xff;
+                    }
+
+                    @Override
+                    public int read(final byte [] b, final int off, final int len) throws IOException
+                    {
+                        final int count = super.read(b, off, len);
+                        for (int i = off; i < off + count; i++) {
+                            b[i]--;
+                        }
+                        return count;
+                    }
+                };
+            }
+
+            @Override
+            public OutputStream encode(final OutputStream outputStream)
+            {
+                return new FilterOutputStream(outputStream) {
+                    @Override
+                    public void write(final int b) throws IOException
+                    {
+                        super.write(b + 1);
+                    }
+                };
+            }
+        };
+
+        final ContentCodecRegistry registry = ContentCodecRegistry.withStandardCodecs().register(rot);
+        Assert.assertEquals("lz4,gzip,deflate,x-rot", registry.getAcceptEncoding());
+
+        final byte [] bytes = encode(StandardContentCodec.GZIP, encode(rot, BODY.getBytes(Charsets.UTF_8)));
+        Assert.assertEquals(BODY, decode(registry, "x-rot, gzip", bytes));
+    }
+
+    @Test
+    public void testReleaseUnreadBody() throws IOException
+    {
+        final ContentCodecRegistry registry = ContentCodecRegistry.withStandardCodecs();
+        final InflaterPool pool = InflaterPool.getDefault();
+        final int inUse = pool.getInUse();
+
+        // deflate was applied first, then lz4 and gzip.
+        final byte [] bytes = encode(StandardContentCodec.GZIP, encode(StandardContentCodec.LZ4, encode(StandardContentCodec.DEFLATE, BODY.getBytes(Charsets.UTF_8))));
+        final InputStream in = registry.decode("deflate, lz4, gzip", new ByteArrayInputStream(bytes));
+        Assert.assertTrue(in.read() >= 0);
+        Assert.assertEquals(inUse + 2, pool.getInUse());
+
+        ContentCodecRegistry.release(in);
+        Assert.assertEquals(inUse, pool.getInUse());
+
+        // Releasing again, or a stream that was not decoded, does nothing.
+        ContentCodecRegistry.release(in);
+        ContentCodecRegistry.release(new ByteArrayInputStream(bytes));
+        Assert.assertEquals(inUse, pool.getInUse());
+
+        try {
+            in.read();
+            Assert.fail();
+        }
+        catch (IOException ioe) {
+            // Expected, the inflater is gone.
+        }
+        in.close();
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.primitives.Bytes;
+
+import com.nesscomputing.httpclient.io.InflatingInputStream.Format;
+
+public class TestInflatingInputStream
+{
+    private final InflaterPool pool = new InflaterPool(4);
+
+    private static byte [] createData(final int size)
+    {
+        // Compressible, but not trivially.
+        final byte [] data = new byte[size];
+        final Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+
+    private static byte [] compress(final OutputStream out, final ByteArrayOutputStream buffer, final byte [] data) throws IOException
+    {
+        out.write(data);
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    private static byte [] gzip(final byte [] data) throws IOException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        return compress(new GZIPOutputStream(buffer), buffer, data);
+    }
+
+    private static byte [] deflate(final byte [] data, final boolean nowrap) throws IOException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        return compress(new DeflaterOutputStream(buffer, new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap)), buffer, data);
+    }
+
+    private byte [] inflate(final byte [] compressed, final Format format) throws IOException
+    {
+        final InputStream in = new InflatingInputStream(new ByteArrayInputStream(compressed), format, pool);
+        try {
+            return IOUtils.toByteArray(in);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testFormats() throws IOException
+    {
+        final byte [] data = createData(100000);
+
+        Assert.assertArrayEquals(data, inflate(gzip(data), Format.GZIP));
+        Assert.assertArrayEquals(data, inflate(deflate(data, false), Format.ZLIB));
+        Assert.assertArrayEquals(data, inflate(deflate(data, true), Format.RAW));
+        Assert.assertArrayEquals(new byte[0], inflate(gzip(new byte[0]), Format.GZIP));
+    }
+
+    @Test
+    public void testGzipMembers() throws IOException
+    {
+        final byte [] first = createData(20000);
+        final byte [] second = createData(30000);
+
+        Assert.assertArrayEquals(Bytes.concat(first, second), inflate(Bytes.concat(gzip(first), gzip(second)), Format.GZIP));
+    }
+
+    @Test
+    public void testSingleByteReads() throws IOException
+    {
+        final byte [] data = createData(10000);
+        final InputStream in = new InflatingInputStream(new ByteArrayInputStream(gzip(data)), Format.GZIP, pool);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0) {
+            out.write(b);
+        }
+        Assert.assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void testReleasedAtEnd() throws IOException
+    {
+        final byte [] compressed = gzip(createData(10000));
+
+        for (int i = 0; i < 3; i++) {
+            final InputStream in = new InflatingInputStream(new ByteArrayInputStream(compressed), Format.GZIP, pool);
+            Assert.assertEquals(1, pool.getInUse());
+
+            // Not closed, reading to the end returns the inflater.
+            IOUtils.toByteArray(in);
+            Assert.assertEquals(0, pool.getInUse());
+            Assert.assertEquals(1, pool.getIdle());
+        }
+
+        Assert.assertEquals(1, pool.getCreated());
+        Assert.assertEquals(2, pool.getReused());
+    }
+
+    @Test
+    public void testReleasedOnClose() throws IOException
+    {
+        final InputStream in = new InflatingInputStream(new ByteArrayInputStream(gzip(createData(10000))), Format.GZIP, pool);
+        Assert.assertTrue(in.read(new byte[100]) > 0);
+        in.close();
+
+        Assert.assertEquals(0, pool.getInUse());
+        Assert.assertEquals(1, pool.getIdle());
+    }
+
+    @Test
+    public void testPoolIsBounded() throws IOException
+    {
+        final InflaterPool smallPool = new InflaterPool(1);
+        final InputStream first = new InflatingInputStream(new ByteArrayInputStream(gzip(createData(100))), Format.GZIP, smallPool);
+        final InputStream second = new InflatingInputStream(new ByteArrayInputStream(gzip(createData(100))), Format.GZIP, smallPool);
+        first.close();
+        second.close();
+
+        Assert.assertEquals(1, smallPool.getIdle());
+        Assert.assertEquals(1, smallPool.getDiscarded());
+    }
+
+    @Test
+    public void testTruncated() throws IOException
+    {
+        final byte [] compressed = gzip(createData(100000));
+        try {
+            inflate(Arrays.copyOf(compressed, compressed.length / 2), Format.GZIP);
+            Assert.fail();
+        }
+        catch (EOFException eofe) {
+            Assert.assertEquals(0, pool.getInUse());
+        }
+    }
+
+    @Test
+    public void testCorruptTrailer() throws IOException
+    {
+        final byte [] compressed = gzip(createData(1000));
+        compressed[compressed.length - 5]++;
+        try {
+            inflate(compressed, Format.GZIP);
+            Assert.fail();
+        }
+        catch (ZipException ze) {
+            Assert.assertEquals(0, pool.getInUse());
+        }
+    }
+
+    @Test(expected=ZipException.class)
+    public void testNotGzip() throws IOException
+    {
+        try {
+            inflate(deflate(createData(1000), false), Format.GZIP);
+        }
+        finally {
+            Assert.assertEquals(0, pool.getInUse());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+public class TestJsonContent
+{
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private Map<String, Object> createValue(final int size)
+    {
+        final List<Integer> numbers = Lists.newArrayList();
+        for (int i = 0; i < size; i++) {
+            numbers.add(i);
+        }
+        return ImmutableMap.<String, Object>of("name", "Ich bin zwei Öltanks", "numbers", numbers);
+    }
+
+    private static String write(final StreamingContent content) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        content.writeTo(out);
+        return new String(out.toByteArray(), Charsets.UTF_8);
+    }
+
+    @Test
+    public void testStreaming() throws IOException
+    {
+        final Map<String, Object> value = createValue(10000);
+        final JsonContent content = JsonContent.of(mapper, value);
+
+        Assert.assertFalse(content.isBuffered());
+        Assert.assertEquals(-1L, content.getContentLength());
+        Assert.assertEquals(JsonContent.CONTENT_TYPE, content.getContentType());
+
+        final String expected = mapper.writeValueAsString(value);
+        Assert.assertEquals(expected, write(content));
+        Assert.assertEquals(expected, write(content));
+    }
+
+    @Test
+    public void testBuffered() throws IOException
+    {
+        final Map<String, Object> value = createValue(100);
+        final JsonContent content = JsonContent.buffered(mapper, value);
+
+        Assert.assertTrue(content.isBuffered());
+        final String expected = mapper.writeValueAsString(value);
+        Assert.assertEquals(expected.getBytes(Charsets.UTF_8).length, content.getContentLength());
+        Assert.assertEquals(expected, write(content));
+    }
+
+    @Test
+    public void testWriter() throws IOException
+    {
+        final Map<String, Object> value = createValue(10);
+        final ObjectWriter writer = mapper.writerWithType(Map.class);
+
+        final String expected = mapper.writeValueAsString(value);
+        Assert.assertEquals(expected, write(JsonContent.of(writer, value)));
+        Assert.assertEquals(expected, write(JsonContent.buffered(writer, value)));
+    }
+
+    @Test
+    public void testMapperIsNotRetained() throws Exception
+    {
+        ObjectMapper temporaryMapper = new ObjectMapper();
+        final WeakReference<ObjectMapper> reference = new WeakReference<ObjectMapper>(temporaryMapper);
+        write(JsonContent.of(temporaryMapper, createValue(10)));
+        temporaryMapper = null;
+
+        for (int i = 0; i < 10 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10L);
+        }
+        Assert.assertNull(reference.get());
+    }
+
+    @Test
+    public void testNull() throws IOException
+    {
+        Assert.assertEquals("null", write(JsonContent.of(mapper, null)));
+    }
+
+    @Test
+    public void testStreamIsNotClosed() throws IOException
+    {
+        final boolean [] closed = new boolean[1];
+        final OutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close()
+            {
+                closed[0] = true;
+            }
+        };
+
+        JsonContent.of(mapper, createValue(10)).writeTo(out);
+        Assert.assertFalse(closed[0]);
+    }
+}
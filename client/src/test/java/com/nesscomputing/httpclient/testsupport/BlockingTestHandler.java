@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.testsupport;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+
+/**
+ * Test handler that can hold requests until it is unblocked.
+ */
+public class BlockingTestHandler extends GenericTestHandler
+{
+    private volatile CountDownLatch entered = new CountDownLatch(1);
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private final AtomicInteger requestCount = new AtomicInteger(0);
+
+    public void block()
+    {
+        entered = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+    }
+
+    public void unblock()
+    {
+        release.countDown();
+    }
+
+    public boolean awaitEntered(final long timeout, final TimeUnit unit) throws InterruptedException
+    {
+        return entered.await(timeout, unit);
+    }
+
+    public int getRequestCount()
+    {
+        return requestCount.get();
+    }
+
+    @Override
+    public void handle(final String target,
+                       final Request request,
+                       final HttpServletRequest httpRequest,
+                       final HttpServletResponse httpResponse)
+        throws IOException, ServletException
+    {
+        requestCount.incrementAndGet();
+        entered.countDown();
+        try {
+            release.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        super.handle(target, request, httpRequest, httpResponse);
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.httpclient.testsupport;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientResponseHandler;
+
+/**
+ * Returns the status code of the response and ignores the body.
+ */
+@Immutable
+public class StatusCodeResponseHandler implements HttpClientResponseHandler<Integer>
+{
+    @Override
+    public Integer handle(final HttpClientResponse response)
+    {
+        return response.getStatusCode();
+    }
+}
@@ -32,10 +32,13 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import com.nesscomputing.httpclient.HttpClient;
 import com.nesscomputing.httpclient.HttpClientConnectionContext;
 import com.nesscomputing.httpclient.HttpClientObserver;
+import com.nesscomputing.httpclient.HttpClientPoolStatistics;
 import com.nesscomputing.httpclient.HttpClientRequest;
 import com.nesscomputing.httpclient.HttpClientResponse;
 import com.nesscomputing.httpclient.internal.HttpClientBodySource;
@@ -70,6 +73,11 @@ class TestingHttpClientFactory implements HttpClientFactory {
         return connectionContext;
     }
 
+    @Override
+    public HttpClientPoolStatistics getPoolStatistics() {
+        return null;
+    }
+
     @Override
     public HttpClientBodySource getHttpBodySourceFor(Object content) {
         return new TestingBodySource(content);
@@ -109,6 +117,18 @@ class TestingHttpClientFactory implements HttpClientFactory {
         return request.getHttpHandler().handle(response);
     }
 
+    @Override
+    public <T> ListenableFuture<T> performRequestAsync(HttpClientRequest<T> request) {
+        // Canned responses are available immediately, so there is nothing to wait for.
+        try {
+            return Futures.immediateFuture(performRequest(request));
+        } catch (IOException ioe) {
+            return Futures.immediateFailedFuture(ioe);
+        } catch (RuntimeException re) {
+            return Futures.immediateFailedFuture(re);
+        }
+    }
+
     private String getHeader(HttpClientRequest<?> request, final String header) {
         final Collection<HttpClientHeader> candidates = Collections2.filter(request.getHeaders(), new Predicate<HttpClientHeader>() {
             @Override